@@ -5,22 +5,54 @@ import io.shmaks.banking.ext.FeeService;
 import io.shmaks.banking.ext.MockCurrencyService;
 import io.shmaks.banking.ext.MockFeeService;
 import io.shmaks.banking.repo.*;
+import io.shmaks.banking.repo.journal.FileJournal;
+import io.shmaks.banking.repo.journal.Journal;
+import io.shmaks.banking.repo.journal.JournalWriter;
+import io.shmaks.banking.repo.journal.NoOpJournal;
+import io.shmaks.banking.repo.outbox.InMemoryOutbox;
+import io.shmaks.banking.repo.outbox.Outbox;
+import io.shmaks.banking.repo.snapshot.SnapshotStore;
+import io.shmaks.banking.repo.snapshot.WriteEpochs;
+import io.shmaks.banking.repo.table.AccountTable;
+import io.shmaks.banking.repo.tiering.TxnSegmentStore;
 import io.shmaks.banking.service.AccountNumberGenerator;
 import io.shmaks.banking.service.AccountService;
+import io.shmaks.banking.service.BalanceEvents;
+import io.shmaks.banking.service.LedgerChangeStream;
+import io.shmaks.banking.service.LedgerStateService;
 import io.shmaks.banking.service.SimpleAccountNumberGenerator;
+import io.shmaks.banking.service.StatementService;
 import io.shmaks.banking.service.TransferService;
+import io.shmaks.banking.service.TxnAwaiter;
 import io.shmaks.banking.service.bookkeeping.CorrespondentAccountsBootstrapper;
+import io.shmaks.banking.service.bookkeeping.DeletedAccountsCompactor;
+import io.shmaks.banking.service.bookkeeping.LedgerRecovery;
+import io.shmaks.banking.service.bookkeeping.LedgerSnapshotter;
 import io.shmaks.banking.service.bookkeeping.OrgAccountsBootstrapper;
+import io.shmaks.banking.service.bookkeeping.TxnArchiver;
+import io.shmaks.banking.service.partition.PartitionClient;
+import io.shmaks.banking.service.partition.PartitionMap;
+import io.shmaks.banking.service.partition.PartitionedAccountNumberGenerator;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.transaction.ReactiveTransactionManager;
+import org.springframework.transaction.reactive.TransactionalOperator;
+
+import java.io.IOException;
+import java.nio.file.Path;
 
 @Configuration
 public class AppConfig {
 
     private final SampleAppExtProps extProps;
+    private final SampleAppStorageProps storageProps;
 
-    public AppConfig(SampleAppExtProps extProps) {
+    public AppConfig(SampleAppExtProps extProps, SampleAppStorageProps storageProps) {
         this.extProps = extProps;
+        this.storageProps = storageProps;
     }
 
     @Bean
@@ -29,16 +61,42 @@ public class AppConfig {
             FeeService feeService,
             TxnGroupRepo txnGroupRepo,
             TxnRepo txnRepo,
-            AccountRepo accountRepo) {
-        return new TransferService(txnGroupRepo, txnRepo, accountRepo, currencyService, feeService);
+            AccountRepo accountRepo,
+            Journal journal,
+            Outbox outbox,
+            WriteEpochs writeEpochs,
+            ObjectProvider<PartitionClient> partitionClient,
+            ObjectProvider<ReactiveTransactionManager> transactionManager) {
+        var manager = transactionManager.getIfAvailable();
+        return new TransferService(
+                txnGroupRepo, txnRepo, accountRepo, currencyService, feeService, journal, outbox, writeEpochs,
+                partitionClient.getIfAvailable(), manager != null ? TransactionalOperator.create(manager) : null
+        );
     }
 
     @Bean
     public AccountService accountService(
             CurrencyService currencyService,
             AccountNumberGenerator accountNumberGenerator,
-            AccountRepo repo) {
-        return new AccountService(repo, currencyService, accountNumberGenerator);
+            AccountRepo repo,
+            Journal journal,
+            WriteEpochs writeEpochs,
+            ObjectProvider<TxnAwaiter> txnAwaiter) {
+        return new AccountService(
+                repo, currencyService, accountNumberGenerator, journal, writeEpochs,
+                txnAwaiter.getIfAvailable(() -> TxnAwaiter.NONE)
+        );
+    }
+
+    @Bean
+    public StatementService statementService(AccountRepo accountRepo, TxnRepo txnRepo) {
+        return new StatementService(accountRepo, txnRepo);
+    }
+
+    @Bean
+    @ConditionalOnProperty(name = R2dbcConfig.ENABLED, havingValue = "false", matchIfMissing = true)
+    public LedgerStateService ledgerStateService(InMemoryAccountRepo accountRepo) {
+        return new LedgerStateService(accountRepo);
     }
 
     @Bean
@@ -52,40 +110,162 @@ public class AppConfig {
     }
 
     @Bean
-    public AccountNumberGenerator accountNumberGenerator() {
-        return new SimpleAccountNumberGenerator();
+    public AccountNumberGenerator accountNumberGenerator(ObjectProvider<PartitionMap> partitionMap) {
+        var partitions = partitionMap.getIfAvailable();
+        return partitions != null
+                ? new PartitionedAccountNumberGenerator(new SimpleAccountNumberGenerator(), partitions)
+                : new SimpleAccountNumberGenerator();
     }
 
     @Bean
-    public AccountRepo accountRepo() {
-        return new InMemoryAccountRepo();
+    @ConditionalOnProperty(name = R2dbcConfig.ENABLED, havingValue = "false", matchIfMissing = true)
+    public InMemoryAccountRepo accountRepo(ObjectProvider<PartitionMap> partitionMap) throws IOException {
+        var props = storageProps.getAccountTable();
+        // ids of accounts created by a node of a partitioned cluster start from its own range
+        var firstId = partitionMap.getIfAvailable() != null
+                ? partitionMap.getObject().firstAccountId()
+                : InMemoryAccountRepo.FIRST_ID;
+        var repo = !props.isEnabled()
+                ? new InMemoryAccountRepo()
+                : new InMemoryAccountRepo(AccountTable.open(
+                        Path.of(props.getDir()), firstId, props.getChunkRecords(), props.getFlushInterval()
+                ));
+        repo.advanceNextId(firstId);
+        return repo;
     }
 
     @Bean
-    public TxnGroupRepo txnGroupRepo() {
+    @ConditionalOnProperty(name = R2dbcConfig.ENABLED, havingValue = "false", matchIfMissing = true)
+    public InMemoryTxnGroupRepo txnGroupRepo() {
         return new InMemoryTxnGroupRepo();
     }
 
     @Bean
-    public TxnRepo txnRepo() {
+    @ConditionalOnProperty(name = R2dbcConfig.ENABLED, havingValue = "false", matchIfMissing = true)
+    public InMemoryTxnRepo hotTxnRepo() {
         return new InMemoryTxnRepo();
     }
 
+    @Bean
+    @Primary
+    @ConditionalOnProperty(name = R2dbcConfig.ENABLED, havingValue = "false", matchIfMissing = true)
+    public TieredTxnRepo txnRepo(InMemoryTxnRepo hotTxnRepo) {
+        var props = storageProps.getTxnArchive();
+        return new TieredTxnRepo(hotTxnRepo, new TxnSegmentStore(Path.of(props.getDir()), props.getMaxSegmentRecords()));
+    }
+
+    @Bean
+    @ConditionalOnProperty(
+            name = {ReplicationConfig.REPLICA_ENABLED, RaftConfig.ENABLED}, havingValue = "false", matchIfMissing = true
+    )
+    public Journal journal() throws IOException {
+        var props = storageProps.getJournal();
+        if (!props.isEnabled() || storageProps.getR2dbc().isEnabled()) {
+            return new NoOpJournal();
+        }
+        return new FileJournal(new JournalWriter(
+                Path.of(props.getDir()), props.getBatchSize(), props.getMaxBatchDelay(), props.getMaxSegmentSize().toBytes()
+        ));
+    }
+
+    @Bean
+    @ConditionalOnProperty(name = R2dbcConfig.ENABLED, havingValue = "false", matchIfMissing = true)
+    public InMemoryOutbox outbox() {
+        return new InMemoryOutbox(storageProps.getOutbox().getRetained());
+    }
+
+    @Bean
+    public LedgerChangeStream ledgerChangeStream(Outbox outbox) {
+        return new LedgerChangeStream(outbox, storageProps.getOutbox().getMaxBatchSize());
+    }
+
+    @Bean(initMethod = "start", destroyMethod = "stop")
+    public BalanceEvents balanceEvents(AccountRepo accountRepo, LedgerChangeStream changeStream) {
+        return new BalanceEvents(accountRepo, changeStream, BalanceEvents.COALESCE_WINDOW);
+    }
+
+    @Bean
+    public WriteEpochs writeEpochs() {
+        return new WriteEpochs();
+    }
+
+    @Bean
+    @ConditionalOnProperty(name = R2dbcConfig.ENABLED, havingValue = "false", matchIfMissing = true)
+    public SnapshotStore snapshotStore() {
+        var props = storageProps.getSnapshot();
+        return new SnapshotStore(Path.of(props.getDir()), props.getPartitions());
+    }
+
+    @Bean(initMethod = "recover")
+    @ConditionalOnProperty(name = R2dbcConfig.ENABLED, havingValue = "false", matchIfMissing = true)
+    public LedgerRecovery ledgerRecovery(
+            InMemoryAccountRepo accountRepo,
+            InMemoryTxnGroupRepo txnGroupRepo,
+            InMemoryTxnRepo hotTxnRepo,
+            AccountNumberGenerator accountNumberGenerator,
+            SnapshotStore snapshotStore,
+            Journal journal) {
+        var journalProps = storageProps.getJournal();
+        return new LedgerRecovery(
+                accountRepo, txnGroupRepo, hotTxnRepo, accountNumberGenerator,
+                storageProps.getSnapshot().isEnabled() ? snapshotStore : null,
+                journalProps.isEnabled() ? Path.of(journalProps.getDir()) : null,
+                storageProps.getSnapshot().getPartitions()
+        );
+    }
+
     //----Helpers----
 
     @Bean(initMethod = "bootstrap")
+    @ConditionalOnProperty(
+            name = {ReplicationConfig.REPLICA_ENABLED, RaftConfig.ENABLED}, havingValue = "false", matchIfMissing = true
+    )
     public OrgAccountsBootstrapper orgAccountsBootstrapper(
             MockCurrencyService currencyService,
             AccountNumberGenerator accountNumberGenerator,
-            AccountRepo repo) {
-        return new OrgAccountsBootstrapper(currencyService, accountNumberGenerator, repo);
+            AccountRepo repo,
+            Journal journal,
+            ObjectProvider<LedgerRecovery> ledgerRecovery) {
+        ledgerRecovery.ifAvailable(recovered -> {}); // in-memory ledger is recovered before org accounts are looked up
+        return new OrgAccountsBootstrapper(currencyService, accountNumberGenerator, repo, journal);
     }
 
     @Bean(initMethod = "bootstrap")
+    @ConditionalOnProperty(
+            name = {ReplicationConfig.REPLICA_ENABLED, RaftConfig.ENABLED}, havingValue = "false", matchIfMissing = true
+    )
     public CorrespondentAccountsBootstrapper correspondentAccountsBootstrapper(
             MockCurrencyService currencyService,
             AccountNumberGenerator accountNumberGenerator,
-            AccountRepo repo) {
-        return new CorrespondentAccountsBootstrapper(currencyService, accountNumberGenerator, repo, extProps);
+            AccountRepo repo,
+            Journal journal,
+            ObjectProvider<LedgerRecovery> ledgerRecovery) {
+        ledgerRecovery.ifAvailable(recovered -> {}); // in-memory ledger is recovered before correspondent accounts are looked up
+        return new CorrespondentAccountsBootstrapper(currencyService, accountNumberGenerator, repo, journal, extProps);
+    }
+
+    @Bean(initMethod = "start", destroyMethod = "stop")
+    public DeletedAccountsCompactor deletedAccountsCompactor(AccountRepo repo) {
+        return new DeletedAccountsCompactor(repo, storageProps.getCompaction());
+    }
+
+    @Bean(initMethod = "start", destroyMethod = "stop")
+    @ConditionalOnProperty(name = R2dbcConfig.ENABLED, havingValue = "false", matchIfMissing = true)
+    public TxnArchiver txnArchiver(TieredTxnRepo txnRepo) {
+        return new TxnArchiver(txnRepo, storageProps.getTxnArchive());
+    }
+
+    @Bean(initMethod = "start", destroyMethod = "stop")
+    @ConditionalOnProperty(name = R2dbcConfig.ENABLED, havingValue = "false", matchIfMissing = true)
+    public LedgerSnapshotter ledgerSnapshotter(
+            InMemoryAccountRepo accountRepo,
+            InMemoryTxnGroupRepo txnGroupRepo,
+            InMemoryTxnRepo hotTxnRepo,
+            Journal journal,
+            WriteEpochs writeEpochs,
+            SnapshotStore snapshotStore) {
+        return new LedgerSnapshotter(
+                accountRepo, txnGroupRepo, hotTxnRepo, journal, writeEpochs, snapshotStore, storageProps.getSnapshot()
+        );
     }
 }
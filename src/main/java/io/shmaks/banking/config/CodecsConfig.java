@@ -0,0 +1,55 @@
+package io.shmaks.banking.config;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import io.shmaks.banking.controller.codec.DtoJsonEncoder;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.MediaType;
+import org.springframework.http.codec.ServerCodecConfigurer;
+import org.springframework.http.codec.cbor.Jackson2CborDecoder;
+import org.springframework.http.codec.cbor.Jackson2CborEncoder;
+import org.springframework.http.codec.json.Jackson2JsonDecoder;
+import org.springframework.http.codec.json.Jackson2JsonEncoder;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.web.reactive.config.WebFluxConfigurer;
+
+/**
+ * Binary Jackson formats for service-to-service traffic, negotiated the same way as JSON: request bodies are read by
+ * Content-Type, responses are written in the format asked by Accept.
+ * <p>
+ * WebFlux registers Smile codecs by itself once jackson-dataformat-smile is on the classpath, CBOR ones are added here.
+ * Both encode & decode whole values only, so streaming endpoints (NDJSON, SSE, CSV) keep their text formats.
+ * <p>
+ * {@code @EnableWebFlux} turns off Boot's codec customizers, so JSON & CBOR mappers are built here from Boot's mapper
+ * builder and follow {@code spring.jackson.*} properties.
+ * <p>
+ * JSON of the hot response DTOs is written by {@link DtoJsonEncoder} instead of Jackson. Custom codecs that can't write
+ * any Object come before the default ones, so it's asked first and types it doesn't take go on to Jackson as before.
+ */
+@Configuration
+public class CodecsConfig implements WebFluxConfigurer {
+
+    public static final MediaType APPLICATION_SMILE = new MediaType("application", "x-jackson-smile");
+
+    private final Jackson2ObjectMapperBuilder mapperBuilder;
+
+    public CodecsConfig(Jackson2ObjectMapperBuilder mapperBuilder) {
+        this.mapperBuilder = mapperBuilder;
+    }
+
+    @Override
+    public void configureHttpMessageCodecs(ServerCodecConfigurer configurer) {
+        var jsonMapper = mapperBuilder.build();
+        var jsonEncoder = new Jackson2JsonEncoder(jsonMapper);
+        configurer.defaultCodecs().jackson2JsonEncoder(jsonEncoder);
+        configurer.defaultCodecs().jackson2JsonDecoder(new Jackson2JsonDecoder(jsonMapper));
+
+        // configured without building, so the shared builder keeps its JSON factory
+        var cborMapper = new ObjectMapper(new CBORFactory());
+        mapperBuilder.configure(cborMapper);
+        configurer.customCodecs().register(new Jackson2CborEncoder(cborMapper));
+        configurer.customCodecs().register(new Jackson2CborDecoder(cborMapper));
+
+        configurer.customCodecs().register(new DtoJsonEncoder(jsonEncoder));
+    }
+}
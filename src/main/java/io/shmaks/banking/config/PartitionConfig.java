@@ -0,0 +1,69 @@
+package io.shmaks.banking.config;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.shmaks.banking.controller.PartitionRoutingFilter;
+import io.shmaks.banking.repo.InMemoryTxnGroupRepo;
+import io.shmaks.banking.service.TransferService;
+import io.shmaks.banking.service.bookkeeping.LedgerRecovery;
+import io.shmaks.banking.service.partition.PartitionClient;
+import io.shmaks.banking.service.partition.PartitionMap;
+import io.shmaks.banking.service.partition.PendingTransfersResolver;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.reactive.function.client.WebClient;
+
+/**
+ * Accounts split between the nodes of a cluster by account number, each node keeps its part of the ledger
+ */
+@Configuration
+@ConditionalOnProperty(name = PartitionConfig.ENABLED, havingValue = "true")
+public class PartitionConfig {
+
+    public static final String ENABLED = "sample-banking-app.storage.partitioning.enabled";
+
+    private final SampleAppStorageProps storageProps;
+    private final SampleAppProps appProps;
+
+    public PartitionConfig(SampleAppStorageProps storageProps, SampleAppProps appProps) {
+        this.storageProps = storageProps;
+        this.appProps = appProps;
+    }
+
+    @Bean
+    public PartitionMap partitionMap() {
+        if (storageProps.getR2dbc().isEnabled() || storageProps.getRaft().isEnabled() ||
+                storageProps.getReplication().getPrimary().isEnabled() ||
+                storageProps.getReplication().getReplica().isEnabled()) {
+            throw new IllegalStateException("Partitioning requires in-memory storage without replication");
+        }
+        return new PartitionMap(storageProps.getPartitioning());
+    }
+
+    @Bean
+    public PartitionClient partitionClient(PartitionMap partitionMap, WebClient.Builder webClientBuilder) {
+        return new PartitionClient(
+                partitionMap, webClientBuilder, storageProps.getPartitioning(),
+                appProps.getPrivilegedClientId(), appProps.getAdmin()
+        );
+    }
+
+    @Bean
+    public PartitionRoutingFilter partitionRoutingFilter(
+            PartitionMap partitionMap, PartitionClient partitionClient, ObjectMapper objectMapper) {
+        return new PartitionRoutingFilter(
+                partitionMap, partitionClient, objectMapper, storageProps.getPartitioning().getSecret()
+        );
+    }
+
+    @Bean(initMethod = "start", destroyMethod = "stop")
+    public PendingTransfersResolver pendingTransfersResolver(
+            TransferService transferService,
+            InMemoryTxnGroupRepo txnGroupRepo,
+            PartitionMap partitionMap,
+            ObjectProvider<LedgerRecovery> ledgerRecovery) {
+        ledgerRecovery.ifAvailable(recovered -> {}); // reserved transfers are looked up in the recovered ledger
+        return new PendingTransfersResolver(transferService, txnGroupRepo, partitionMap, storageProps.getPartitioning());
+    }
+}
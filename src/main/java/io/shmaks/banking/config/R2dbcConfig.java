@@ -0,0 +1,97 @@
+package io.shmaks.banking.config;
+
+import io.r2dbc.pool.ConnectionPool;
+import io.r2dbc.pool.ConnectionPoolConfiguration;
+import io.r2dbc.spi.ConnectionFactories;
+import io.r2dbc.spi.ConnectionFactory;
+import io.r2dbc.spi.ConnectionFactoryOptions;
+import io.shmaks.banking.repo.R2dbcAccountRepo;
+import io.shmaks.banking.repo.R2dbcTxnGroupRepo;
+import io.shmaks.banking.repo.R2dbcTxnRepo;
+import io.shmaks.banking.repo.outbox.R2dbcOutbox;
+import io.shmaks.banking.service.AccountNumberGenerator;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.DependsOn;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.r2dbc.connection.R2dbcTransactionManager;
+import org.springframework.r2dbc.connection.init.ConnectionFactoryInitializer;
+import org.springframework.r2dbc.connection.init.ResourceDatabasePopulator;
+import org.springframework.r2dbc.core.DatabaseClient;
+
+/**
+ * Relational storage, replaces in-memory repos when {@code sample-banking-app.storage.r2dbc.enabled} is set
+ */
+@Configuration
+@ConditionalOnProperty(name = R2dbcConfig.ENABLED, havingValue = "true")
+public class R2dbcConfig {
+
+    public static final String ENABLED = "sample-banking-app.storage.r2dbc.enabled";
+
+    private final SampleAppStorageProps.R2dbc props;
+    private final SampleAppStorageProps.Outbox outboxProps;
+
+    public R2dbcConfig(SampleAppStorageProps storageProps) {
+        this.props = storageProps.getR2dbc();
+        this.outboxProps = storageProps.getOutbox();
+    }
+
+    @Bean(destroyMethod = "dispose")
+    public ConnectionPool connectionFactory() {
+        var options = ConnectionFactoryOptions.parse(props.getUrl()).mutate()
+                .option(ConnectionFactoryOptions.USER, props.getUsername())
+                .option(ConnectionFactoryOptions.PASSWORD, props.getPassword())
+                .build();
+        var pool = props.getPool();
+        return new ConnectionPool(ConnectionPoolConfiguration.builder(ConnectionFactories.get(options))
+                .name("sample-banking-app")
+                .initialSize(pool.getInitialSize())
+                .maxSize(pool.getMaxSize())
+                .maxIdleTime(pool.getMaxIdleTime())
+                .maxAcquireTime(pool.getMaxAcquireTime())
+                .build());
+    }
+
+    @Bean
+    public ConnectionFactoryInitializer schemaInitializer(ConnectionFactory connectionFactory) {
+        var initializer = new ConnectionFactoryInitializer();
+        initializer.setConnectionFactory(connectionFactory);
+        initializer.setDatabasePopulator(new ResourceDatabasePopulator(new ClassPathResource("db/r2dbc/schema.sql")));
+        return initializer;
+    }
+
+    @Bean
+    @DependsOn("schemaInitializer")
+    public DatabaseClient databaseClient(ConnectionFactory connectionFactory) {
+        return DatabaseClient.create(connectionFactory);
+    }
+
+    @Bean
+    public R2dbcTransactionManager transactionManager(ConnectionFactory connectionFactory) {
+        return new R2dbcTransactionManager(connectionFactory);
+    }
+
+    @Bean
+    public R2dbcAccountRepo accountRepo(DatabaseClient databaseClient, AccountNumberGenerator accountNumberGenerator) {
+        var repo = new R2dbcAccountRepo(databaseClient);
+        // numbers are generated in memory, they continue after the ones already stored
+        repo.findMaxAccountNumber().blockOptional().ifPresent(accountNumberGenerator::advancePast);
+        return repo;
+    }
+
+    @Bean
+    public R2dbcTxnGroupRepo txnGroupRepo(DatabaseClient databaseClient) {
+        return new R2dbcTxnGroupRepo(databaseClient);
+    }
+
+    @Bean
+    public R2dbcTxnRepo txnRepo(DatabaseClient databaseClient) {
+        return new R2dbcTxnRepo(databaseClient);
+    }
+
+    @Bean(initMethod = "start", destroyMethod = "stop")
+    public R2dbcOutbox outbox(DatabaseClient databaseClient, R2dbcTxnGroupRepo txnGroupRepo, R2dbcTxnRepo txnRepo) {
+        return new R2dbcOutbox(databaseClient, txnGroupRepo, txnRepo, outboxProps);
+    }
+}
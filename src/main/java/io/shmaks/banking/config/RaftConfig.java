@@ -0,0 +1,158 @@
+package io.shmaks.banking.config;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.shmaks.banking.ext.MockCurrencyService;
+import io.shmaks.banking.repo.AccountRepo;
+import io.shmaks.banking.repo.InMemoryAccountRepo;
+import io.shmaks.banking.repo.InMemoryTxnGroupRepo;
+import io.shmaks.banking.repo.InMemoryTxnRepo;
+import io.shmaks.banking.repo.TieredTxnRepo;
+import io.shmaks.banking.repo.outbox.Outbox;
+import io.shmaks.banking.repo.raft.RaftLog;
+import io.shmaks.banking.repo.snapshot.WriteEpochs;
+import io.shmaks.banking.service.AccountNumberGenerator;
+import io.shmaks.banking.service.bookkeeping.CorrespondentAccountsBootstrapper;
+import io.shmaks.banking.service.bookkeeping.OrgAccountsBootstrapper;
+import io.shmaks.banking.service.raft.LedgerStateMachine;
+import io.shmaks.banking.service.raft.RaftJournal;
+import io.shmaks.banking.service.raft.RaftNode;
+import io.shmaks.banking.service.replication.ReplicaApplier;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.WebFilter;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.Path;
+
+/**
+ * Ledger replicated by the raft log of a cluster: writes are accepted by the leader, followers serve reads
+ */
+@Configuration
+@ConditionalOnProperty(name = RaftConfig.ENABLED, havingValue = "true")
+public class RaftConfig {
+
+    public static final String ENABLED = "sample-banking-app.storage.raft.enabled";
+
+    private final SampleAppStorageProps storageProps;
+    private final SampleAppExtProps extProps;
+
+    public RaftConfig(SampleAppStorageProps storageProps, SampleAppExtProps extProps) {
+        this.storageProps = storageProps;
+        this.extProps = extProps;
+    }
+
+    @Bean
+    public RaftLog raftLog() throws IOException {
+        var props = storageProps.getRaft();
+        return new RaftLog(Path.of(props.getDir(), "node-" + props.getNodeId()));
+    }
+
+    @Bean
+    public ReplicaApplier replicaApplier(
+            InMemoryAccountRepo accountRepo,
+            InMemoryTxnGroupRepo txnGroupRepo,
+            InMemoryTxnRepo hotTxnRepo,
+            TieredTxnRepo txnRepo,
+            AccountNumberGenerator accountNumberGenerator,
+            Outbox outbox) {
+        if (storageProps.getJournal().isEnabled() || storageProps.getSnapshot().isEnabled() ||
+                storageProps.getTxnArchive().isEnabled() || storageProps.getAccountTable().isEnabled()) {
+            throw new IllegalStateException(
+                    "Raft log is the only persistent state of a node, journal, snapshots, txn archive and account table must be disabled"
+            );
+        }
+        if (storageProps.getR2dbc().isEnabled() || storageProps.getReplication().getPrimary().isEnabled() ||
+                storageProps.getReplication().getReplica().isEnabled()) {
+            throw new IllegalStateException("Raft requires in-memory storage without journal shipping");
+        }
+        return new ReplicaApplier(
+                accountRepo, txnGroupRepo, hotTxnRepo, txnRepo, accountNumberGenerator, outbox,
+                storageProps.getRaft().getMaxWait()
+        );
+    }
+
+    @Bean(initMethod = "start", destroyMethod = "stop")
+    public RaftNode raftNode(RaftLog raftLog, ReplicaApplier replicaApplier, WriteEpochs writeEpochs) {
+        var props = storageProps.getRaft();
+        return new RaftNode(raftLog, new LedgerStateMachine(replicaApplier, writeEpochs, props.getDrainTimeout()), props);
+    }
+
+    @Bean
+    public RaftJournal journal(RaftNode raftNode) {
+        return new RaftJournal(raftNode);
+    }
+
+    //----Helpers----
+
+    @Bean
+    public OrgAccountsBootstrapper orgAccountsBootstrapper(
+            MockCurrencyService currencyService,
+            AccountNumberGenerator accountNumberGenerator,
+            AccountRepo repo,
+            RaftJournal journal,
+            RaftNode raftNode) {
+        var bootstrapper = new OrgAccountsBootstrapper(currencyService, accountNumberGenerator, repo, journal);
+        raftNode.onLeaderReady(bootstrapper::bootstrap); // accounts are created once, by the first leader
+        return bootstrapper;
+    }
+
+    @Bean
+    public CorrespondentAccountsBootstrapper correspondentAccountsBootstrapper(
+            MockCurrencyService currencyService,
+            AccountNumberGenerator accountNumberGenerator,
+            AccountRepo repo,
+            RaftJournal journal,
+            RaftNode raftNode) {
+        var bootstrapper = new CorrespondentAccountsBootstrapper(currencyService, accountNumberGenerator, repo, journal, extProps);
+        raftNode.onLeaderReady(bootstrapper::bootstrap);
+        return bootstrapper;
+    }
+
+    @Bean
+    public MeterBinder raftMetrics(RaftNode raftNode) {
+        return registry -> {
+            Gauge.builder("raft.term", raftNode, RaftNode::getCurrentTerm)
+                    .register(registry);
+            Gauge.builder("raft.commit.index", raftNode, RaftNode::getCommitIndex)
+                    .description("Last log entry written by the majority of the cluster")
+                    .register(registry);
+            Gauge.builder("raft.applied.index", raftNode, RaftNode::getAppliedIndex)
+                    .description("Last log entry reflected in the ledger of the node")
+                    .register(registry);
+            Gauge.builder("raft.leader", raftNode, node -> node.getRole() == RaftNode.Role.LEADER ? 1 : 0)
+                    .register(registry);
+        };
+    }
+
+    /**
+     * Writes sent to a follower are redirected to the leader, nothing is served while the ledger is rebuilt
+     */
+    @Bean
+    public WebFilter raftLeaderFilter(RaftNode raftNode) {
+        return (exchange, chain) -> {
+            var request = exchange.getRequest();
+            var response = exchange.getResponse();
+            if (raftNode.isRebuilding()) {
+                response.setStatusCode(HttpStatus.SERVICE_UNAVAILABLE);
+                return response.setComplete();
+            }
+            if (ReplicationConfig.READ_METHODS.contains(request.getMethod()) || raftNode.isWritable()) {
+                return chain.filter(exchange);
+            }
+            var leaderUrl = raftNode.getLeaderUrl();
+            if (leaderUrl == null) {
+                response.setStatusCode(HttpStatus.SERVICE_UNAVAILABLE);
+                return response.setComplete();
+            }
+            // 307 makes clients repeat the same method with the same body
+            response.setStatusCode(HttpStatus.TEMPORARY_REDIRECT);
+            response.getHeaders().setLocation(URI.create(leaderUrl + request.getURI().getRawPath() +
+                    (request.getURI().getRawQuery() != null ? "?" + request.getURI().getRawQuery() : "")));
+            return response.setComplete();
+        };
+    }
+}
@@ -0,0 +1,111 @@
+package io.shmaks.banking.config;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.shmaks.banking.repo.InMemoryAccountRepo;
+import io.shmaks.banking.repo.InMemoryTxnGroupRepo;
+import io.shmaks.banking.repo.InMemoryTxnRepo;
+import io.shmaks.banking.repo.TieredTxnRepo;
+import io.shmaks.banking.repo.journal.FileJournal;
+import io.shmaks.banking.repo.journal.Journal;
+import io.shmaks.banking.repo.outbox.Outbox;
+import io.shmaks.banking.service.AccountNumberGenerator;
+import io.shmaks.banking.service.bookkeeping.LedgerRecovery;
+import io.shmaks.banking.service.replication.JournalFollower;
+import io.shmaks.banking.service.replication.JournalShipper;
+import io.shmaks.banking.service.replication.ReplicaApplier;
+import io.shmaks.banking.service.replication.ReplicaJournal;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.WebFilter;
+
+import java.util.Set;
+
+/**
+ * Journal shipping from the primary to read-only replicas, which keep the ledger in memory
+ */
+@Configuration
+public class ReplicationConfig {
+
+    public static final String PRIMARY_ENABLED = "sample-banking-app.storage.replication.primary.enabled";
+    public static final String REPLICA_ENABLED = "sample-banking-app.storage.replication.replica.enabled";
+
+    static final Set<HttpMethod> READ_METHODS = Set.of(HttpMethod.GET, HttpMethod.HEAD, HttpMethod.OPTIONS);
+
+    private final SampleAppStorageProps storageProps;
+
+    public ReplicationConfig(SampleAppStorageProps storageProps) {
+        this.storageProps = storageProps;
+    }
+
+    @Bean(initMethod = "start", destroyMethod = "stop")
+    @ConditionalOnProperty(name = PRIMARY_ENABLED, havingValue = "true")
+    public JournalShipper journalShipper(Journal journal) {
+        if (!(journal instanceof FileJournal)) {
+            throw new IllegalStateException("Journal shipping requires the journal to be enabled");
+        }
+        return new JournalShipper(((FileJournal) journal).getWriter(), storageProps.getReplication().getPrimary());
+    }
+
+    @Bean
+    @ConditionalOnProperty(name = REPLICA_ENABLED, havingValue = "true")
+    public ReplicaApplier replicaApplier(
+            InMemoryAccountRepo accountRepo,
+            InMemoryTxnGroupRepo txnGroupRepo,
+            InMemoryTxnRepo hotTxnRepo,
+            TieredTxnRepo txnRepo,
+            AccountNumberGenerator accountNumberGenerator,
+            Outbox outbox) {
+        if (storageProps.getJournal().isEnabled()) {
+            throw new IllegalStateException("Replica doesn't write its own journal, it must be disabled");
+        }
+        return new ReplicaApplier(
+                accountRepo, txnGroupRepo, hotTxnRepo, txnRepo, accountNumberGenerator, outbox,
+                storageProps.getReplication().getReplica().getMaxWait()
+        );
+    }
+
+    @Bean
+    @ConditionalOnProperty(name = REPLICA_ENABLED, havingValue = "true")
+    public ReplicaJournal journal(ReplicaApplier replicaApplier) {
+        return new ReplicaJournal(replicaApplier);
+    }
+
+    @Bean(initMethod = "start", destroyMethod = "stop")
+    @ConditionalOnProperty(name = REPLICA_ENABLED, havingValue = "true")
+    public JournalFollower journalFollower(ReplicaApplier replicaApplier, LedgerRecovery ledgerRecovery) {
+        // a replica seeded with a copy of the primary's snapshot follows the journal after it
+        replicaApplier.startFrom(ledgerRecovery.getRecoveredLsn());
+        return new JournalFollower(replicaApplier, storageProps.getReplication().getReplica());
+    }
+
+    @Bean
+    @ConditionalOnProperty(name = REPLICA_ENABLED, havingValue = "true")
+    public MeterBinder replicationLagMetrics(ReplicaApplier replicaApplier) {
+        return registry -> {
+            Gauge.builder("replication.lag.records", replicaApplier, ReplicaApplier::getLagRecords)
+                    .description("Journal records durable on the primary and not applied by the replica yet")
+                    .register(registry);
+            Gauge.builder("replication.lag.seconds", replicaApplier, ReplicaApplier::getLagSeconds)
+                    .description("How long ago the replica had everything the primary had durable")
+                    .register(registry);
+            Gauge.builder("replication.applied.lsn", replicaApplier, ReplicaApplier::getAppliedLsn)
+                    .register(registry);
+        };
+    }
+
+    @Bean
+    @ConditionalOnProperty(name = REPLICA_ENABLED, havingValue = "true")
+    public WebFilter readOnlyReplicaFilter() {
+        return (exchange, chain) -> {
+            if (READ_METHODS.contains(exchange.getRequest().getMethod())) {
+                return chain.filter(exchange);
+            }
+            exchange.getResponse().setStatusCode(HttpStatus.SERVICE_UNAVAILABLE);
+            return exchange.getResponse().setComplete();
+        };
+    }
+}
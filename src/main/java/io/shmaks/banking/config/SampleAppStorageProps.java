@@ -0,0 +1,962 @@
+package io.shmaks.banking.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.ConstructorBinding;
+import org.springframework.util.unit.DataSize;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+@ConfigurationProperties("sample-banking-app.storage")
+@ConstructorBinding
+public class SampleAppStorageProps {
+
+    public static final SampleAppStorageProps DEFAULT = new SampleAppStorageProps(
+            new Compaction(null, null),
+            new TxnArchive(null, null, null, null, null),
+            new Journal(null, null, null, null, null),
+            new Snapshot(null, null, null, null, null, null),
+            new AccountTable(null, null, null, null),
+            new R2dbc(null, null, null, null, null),
+            new Outbox(null, null, null),
+            new Replication(null, null),
+            new Raft(null, null, null, null, null, null, null, null, null, null),
+            new Partitioning(null, null, null, null, null, null, null)
+    );
+
+    private final Compaction compaction;
+    private final TxnArchive txnArchive;
+    private final Journal journal;
+    private final Snapshot snapshot;
+    private final AccountTable accountTable;
+    private final R2dbc r2dbc;
+    private final Outbox outbox;
+    private final Replication replication;
+    private final Raft raft;
+    private final Partitioning partitioning;
+
+    public SampleAppStorageProps(
+            Compaction compaction,
+            TxnArchive txnArchive,
+            Journal journal,
+            Snapshot snapshot,
+            AccountTable accountTable,
+            R2dbc r2dbc,
+            Outbox outbox,
+            Replication replication,
+            Raft raft,
+            Partitioning partitioning) {
+        this.compaction = compaction != null ? compaction : DEFAULT.compaction;
+        this.txnArchive = txnArchive != null ? txnArchive : DEFAULT.txnArchive;
+        this.journal = journal != null ? journal : DEFAULT.journal;
+        this.snapshot = snapshot != null ? snapshot : DEFAULT.snapshot;
+        this.accountTable = accountTable != null ? accountTable : DEFAULT.accountTable;
+        this.r2dbc = r2dbc != null ? r2dbc : DEFAULT.r2dbc;
+        this.outbox = outbox != null ? outbox : DEFAULT.outbox;
+        this.replication = replication != null ? replication : DEFAULT.replication;
+        this.raft = raft != null ? raft : DEFAULT.raft;
+        this.partitioning = partitioning != null ? partitioning : DEFAULT.partitioning;
+    }
+
+    public Compaction getCompaction() {
+        return compaction;
+    }
+
+    public TxnArchive getTxnArchive() {
+        return txnArchive;
+    }
+
+    public Journal getJournal() {
+        return journal;
+    }
+
+    public Snapshot getSnapshot() {
+        return snapshot;
+    }
+
+    public AccountTable getAccountTable() {
+        return accountTable;
+    }
+
+    public R2dbc getR2dbc() {
+        return r2dbc;
+    }
+
+    public Outbox getOutbox() {
+        return outbox;
+    }
+
+    public Replication getReplication() {
+        return replication;
+    }
+
+    public Raft getRaft() {
+        return raft;
+    }
+
+    public Partitioning getPartitioning() {
+        return partitioning;
+    }
+
+    @Override
+    public String toString() {
+        return "SampleAppStorageProps{" +
+                "compaction=" + compaction +
+                ", txnArchive=" + txnArchive +
+                ", journal=" + journal +
+                ", snapshot=" + snapshot +
+                ", accountTable=" + accountTable +
+                ", r2dbc=" + r2dbc +
+                ", outbox=" + outbox +
+                ", replication=" + replication +
+                ", raft=" + raft +
+                ", partitioning=" + partitioning +
+                '}';
+    }
+
+    @ConstructorBinding
+    public static class Compaction {
+        private final Duration retention;
+        private final Duration interval;
+
+        public Compaction(Duration retention, Duration interval) {
+            this.retention = retention != null ? retention : Duration.ofDays(30);
+            this.interval = interval != null ? interval : Duration.ofHours(1);
+        }
+
+        /**
+         * How long soft-deleted account stays in the hot indexes before it's moved to the archive
+         */
+        public Duration getRetention() {
+            return retention;
+        }
+
+        public Duration getInterval() {
+            return interval;
+        }
+
+        @Override
+        public String toString() {
+            return "Compaction{" +
+                    "retention=" + retention +
+                    ", interval=" + interval +
+                    '}';
+        }
+    }
+
+    @ConstructorBinding
+    public static class TxnArchive {
+        private final boolean enabled;
+        private final String dir;
+        private final Duration age;
+        private final Duration interval;
+        private final int maxSegmentRecords;
+
+        public TxnArchive(Boolean enabled, String dir, Duration age, Duration interval, Integer maxSegmentRecords) {
+            this.enabled = enabled != null && enabled;
+            this.dir = dir != null ? dir : "data/txn-archive";
+            this.age = age != null ? age : Duration.ofDays(30);
+            this.interval = interval != null ? interval : Duration.ofHours(1);
+            this.maxSegmentRecords = maxSegmentRecords != null ? maxSegmentRecords : 1_000_000;
+        }
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public String getDir() {
+            return dir;
+        }
+
+        /**
+         * Txns older than this are sealed into memory-mapped segments
+         */
+        public Duration getAge() {
+            return age;
+        }
+
+        public Duration getInterval() {
+            return interval;
+        }
+
+        public int getMaxSegmentRecords() {
+            return maxSegmentRecords;
+        }
+
+        @Override
+        public String toString() {
+            return "TxnArchive{" +
+                    "enabled=" + enabled +
+                    ", dir='" + dir + '\'' +
+                    ", age=" + age +
+                    ", interval=" + interval +
+                    ", maxSegmentRecords=" + maxSegmentRecords +
+                    '}';
+        }
+    }
+
+    @ConstructorBinding
+    public static class Journal {
+        private final boolean enabled;
+        private final String dir;
+        private final int batchSize;
+        private final Duration maxBatchDelay;
+        private final DataSize maxSegmentSize;
+
+        public Journal(Boolean enabled, String dir, Integer batchSize, Duration maxBatchDelay, DataSize maxSegmentSize) {
+            this.enabled = enabled != null && enabled;
+            this.dir = dir != null ? dir : "data/journal";
+            this.batchSize = batchSize != null ? batchSize : 256;
+            this.maxBatchDelay = maxBatchDelay != null ? maxBatchDelay : Duration.ZERO;
+            this.maxSegmentSize = maxSegmentSize != null ? maxSegmentSize : DataSize.ofMegabytes(64);
+        }
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public String getDir() {
+            return dir;
+        }
+
+        /**
+         * Max number of records made durable by a single fsync
+         */
+        public int getBatchSize() {
+            return batchSize;
+        }
+
+        /**
+         * How long writer may wait for more records before fsync, trading latency for throughput
+         */
+        public Duration getMaxBatchDelay() {
+            return maxBatchDelay;
+        }
+
+        /**
+         * Writer starts a new segment file once the current one grows beyond this
+         */
+        public DataSize getMaxSegmentSize() {
+            return maxSegmentSize;
+        }
+
+        @Override
+        public String toString() {
+            return "Journal{" +
+                    "enabled=" + enabled +
+                    ", dir='" + dir + '\'' +
+                    ", batchSize=" + batchSize +
+                    ", maxBatchDelay=" + maxBatchDelay +
+                    ", maxSegmentSize=" + maxSegmentSize +
+                    '}';
+        }
+    }
+
+    @ConstructorBinding
+    public static class Snapshot {
+        private final boolean enabled;
+        private final String dir;
+        private final Duration interval;
+        private final int partitions;
+        private final int retained;
+        private final Duration drainTimeout;
+
+        public Snapshot(
+                Boolean enabled, String dir, Duration interval, Integer partitions, Integer retained, Duration drainTimeout) {
+            this.enabled = enabled != null && enabled;
+            this.dir = dir != null ? dir : "data/snapshots";
+            this.interval = interval != null ? interval : Duration.ofMinutes(10);
+            this.partitions = partitions != null ? partitions : 16;
+            this.retained = retained != null ? retained : 2;
+            this.drainTimeout = drainTimeout != null ? drainTimeout : Duration.ofSeconds(10);
+        }
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public String getDir() {
+            return dir;
+        }
+
+        public Duration getInterval() {
+            return interval;
+        }
+
+        /**
+         * Number of files every kind of entities is split into, and the number of parallel recovery tasks
+         */
+        public int getPartitions() {
+            return partitions;
+        }
+
+        /**
+         * How many recent snapshots are kept, journal is truncated up to the oldest of them
+         */
+        public int getRetained() {
+            return retained;
+        }
+
+        /**
+         * How long snapshot waits for writes in flight while it was taken, it's discarded if they don't finish
+         */
+        public Duration getDrainTimeout() {
+            return drainTimeout;
+        }
+
+        @Override
+        public String toString() {
+            return "Snapshot{" +
+                    "enabled=" + enabled +
+                    ", dir='" + dir + '\'' +
+                    ", interval=" + interval +
+                    ", partitions=" + partitions +
+                    ", retained=" + retained +
+                    ", drainTimeout=" + drainTimeout +
+                    '}';
+        }
+    }
+
+    @ConstructorBinding
+    public static class AccountTable {
+        private final boolean enabled;
+        private final String dir;
+        private final int chunkRecords;
+        private final Duration flushInterval;
+
+        public AccountTable(Boolean enabled, String dir, Integer chunkRecords, Duration flushInterval) {
+            this.enabled = enabled != null && enabled;
+            this.dir = dir != null ? dir : "data/account-table";
+            this.chunkRecords = chunkRecords != null ? chunkRecords : 1 << 16;
+            this.flushInterval = flushInterval != null ? flushInterval : Duration.ofSeconds(1);
+        }
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public String getDir() {
+            return dir;
+        }
+
+        /**
+         * Number of records mapped at once, the file grows by this many
+         */
+        public int getChunkRecords() {
+            return chunkRecords;
+        }
+
+        /**
+         * How often written records are forced to disk, page cache keeps them over a crash of the process anyway
+         */
+        public Duration getFlushInterval() {
+            return flushInterval;
+        }
+
+        @Override
+        public String toString() {
+            return "AccountTable{" +
+                    "enabled=" + enabled +
+                    ", dir='" + dir + '\'' +
+                    ", chunkRecords=" + chunkRecords +
+                    ", flushInterval=" + flushInterval +
+                    '}';
+        }
+    }
+
+    @ConstructorBinding
+    public static class R2dbc {
+        private final boolean enabled;
+        private final String url;
+        private final String username;
+        private final String password;
+        private final Pool pool;
+
+        public R2dbc(Boolean enabled, String url, String username, String password, Pool pool) {
+            this.enabled = enabled != null && enabled;
+            this.url = url != null ? url : "r2dbc:h2:mem:///banking?options=DB_CLOSE_DELAY=-1;LOCK_TIMEOUT=2000";
+            this.username = username != null ? username : "sa";
+            this.password = password != null ? password : "";
+            this.pool = pool != null ? pool : new Pool(null, null, null, null);
+        }
+
+        /**
+         * Whether accounts & txns are kept in the database instead of memory, then journal, snapshots, account
+         * table and txn archive aren't used
+         */
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public String getUrl() {
+            return url;
+        }
+
+        public String getUsername() {
+            return username;
+        }
+
+        public String getPassword() {
+            return password;
+        }
+
+        public Pool getPool() {
+            return pool;
+        }
+
+        @Override
+        public String toString() {
+            return "R2dbc{" +
+                    "enabled=" + enabled +
+                    ", url='" + url + '\'' +
+                    ", username='" + username + '\'' +
+                    ", pool=" + pool +
+                    '}';
+        }
+    }
+
+    @ConstructorBinding
+    public static class Pool {
+        private final int initialSize;
+        private final int maxSize;
+        private final Duration maxIdleTime;
+        private final Duration maxAcquireTime;
+
+        public Pool(Integer initialSize, Integer maxSize, Duration maxIdleTime, Duration maxAcquireTime) {
+            var processors = Runtime.getRuntime().availableProcessors();
+            this.initialSize = initialSize != null ? initialSize : processors;
+            this.maxSize = maxSize != null ? maxSize : 2 * processors;
+            this.maxIdleTime = maxIdleTime != null ? maxIdleTime : Duration.ofMinutes(30);
+            this.maxAcquireTime = maxAcquireTime != null ? maxAcquireTime : Duration.ofSeconds(2);
+        }
+
+        /**
+         * Connections opened on start, so the first requests don't pay for it
+         */
+        public int getInitialSize() {
+            return initialSize;
+        }
+
+        /**
+         * Connections beyond the number of cores mostly wait for row locks, so the pool is kept small
+         */
+        public int getMaxSize() {
+            return maxSize;
+        }
+
+        public Duration getMaxIdleTime() {
+            return maxIdleTime;
+        }
+
+        /**
+         * How long a request waits for a free connection before it fails
+         */
+        public Duration getMaxAcquireTime() {
+            return maxAcquireTime;
+        }
+
+        @Override
+        public String toString() {
+            return "Pool{" +
+                    "initialSize=" + initialSize +
+                    ", maxSize=" + maxSize +
+                    ", maxIdleTime=" + maxIdleTime +
+                    ", maxAcquireTime=" + maxAcquireTime +
+                    '}';
+        }
+    }
+
+    @ConstructorBinding
+    public static class Outbox {
+        private final int retained;
+        private final int maxBatchSize;
+        private final Duration pollInterval;
+
+        public Outbox(Integer retained, Integer maxBatchSize, Duration pollInterval) {
+            this.retained = retained != null ? retained : 100_000;
+            this.maxBatchSize = maxBatchSize != null ? maxBatchSize : 500;
+            this.pollInterval = pollInterval != null ? pollInterval : Duration.ofMillis(100);
+        }
+
+        /**
+         * How many recent entries are kept, consumers whose cursor is older have to resync
+         */
+        public int getRetained() {
+            return retained;
+        }
+
+        /**
+         * Max number of entries delivered to a consumer at once, and numbered by one pass of the relay
+         */
+        public int getMaxBatchSize() {
+            return maxBatchSize;
+        }
+
+        /**
+         * How often the relay looks for committed rows of the outbox table
+         */
+        public Duration getPollInterval() {
+            return pollInterval;
+        }
+
+        @Override
+        public String toString() {
+            return "Outbox{" +
+                    "retained=" + retained +
+                    ", maxBatchSize=" + maxBatchSize +
+                    ", pollInterval=" + pollInterval +
+                    '}';
+        }
+    }
+
+    @ConstructorBinding
+    public static class Replication {
+        private final Primary primary;
+        private final Replica replica;
+
+        public Replication(Primary primary, Replica replica) {
+            this.primary = primary != null ? primary : new Primary(null, null, null, null, null);
+            this.replica = replica != null ? replica : new Replica(null, null, null, null, null, null);
+        }
+
+        public Primary getPrimary() {
+            return primary;
+        }
+
+        public Replica getReplica() {
+            return replica;
+        }
+
+        @Override
+        public String toString() {
+            return "Replication{" +
+                    "primary=" + primary +
+                    ", replica=" + replica +
+                    '}';
+        }
+    }
+
+    @ConstructorBinding
+    public static class Primary {
+        private final boolean enabled;
+        private final String host;
+        private final int port;
+        private final Duration heartbeatInterval;
+        private final DataSize maxBatchSize;
+
+        public Primary(Boolean enabled, String host, Integer port, Duration heartbeatInterval, DataSize maxBatchSize) {
+            this.enabled = enabled != null && enabled;
+            this.host = host != null ? host : "localhost";
+            this.port = port != null ? port : 7070;
+            this.heartbeatInterval = heartbeatInterval != null ? heartbeatInterval : Duration.ofSeconds(1);
+            this.maxBatchSize = maxBatchSize != null ? maxBatchSize : DataSize.ofMegabytes(1);
+        }
+
+        /**
+         * Whether durable journal records are shipped to replicas, requires the journal
+         */
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        /**
+         * Address replicas are accepted on
+         */
+        public String getHost() {
+            return host;
+        }
+
+        public int getPort() {
+            return port;
+        }
+
+        /**
+         * How often an idle replica is told the durable lsn, so it knows it's caught up
+         */
+        public Duration getHeartbeatInterval() {
+            return heartbeatInterval;
+        }
+
+        public DataSize getMaxBatchSize() {
+            return maxBatchSize;
+        }
+
+        @Override
+        public String toString() {
+            return "Primary{" +
+                    "enabled=" + enabled +
+                    ", host='" + host + '\'' +
+                    ", port=" + port +
+                    ", heartbeatInterval=" + heartbeatInterval +
+                    ", maxBatchSize=" + maxBatchSize +
+                    '}';
+        }
+    }
+
+    @ConstructorBinding
+    public static class Replica {
+        private final boolean enabled;
+        private final String host;
+        private final int port;
+        private final Duration timeout;
+        private final Duration reconnectDelay;
+        private final Duration maxWait;
+
+        public Replica(
+                Boolean enabled, String host, Integer port, Duration timeout, Duration reconnectDelay, Duration maxWait) {
+            this.enabled = enabled != null && enabled;
+            this.host = host != null ? host : "localhost";
+            this.port = port != null ? port : 7070;
+            this.timeout = timeout != null ? timeout : Duration.ofSeconds(5);
+            this.reconnectDelay = reconnectDelay != null ? reconnectDelay : Duration.ofSeconds(1);
+            this.maxWait = maxWait != null ? maxWait : Duration.ofSeconds(5);
+        }
+
+        /**
+         * Whether the app follows the journal of the primary and serves reads only, requires in-memory storage
+         */
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        /**
+         * Address of the primary
+         */
+        public String getHost() {
+            return host;
+        }
+
+        public int getPort() {
+            return port;
+        }
+
+        /**
+         * Connection is considered lost if nothing comes from the primary for this long
+         */
+        public Duration getTimeout() {
+            return timeout;
+        }
+
+        public Duration getReconnectDelay() {
+            return reconnectDelay;
+        }
+
+        /**
+         * How long a read waits for the requested txn to be replicated before it's rejected
+         */
+        public Duration getMaxWait() {
+            return maxWait;
+        }
+
+        @Override
+        public String toString() {
+            return "Replica{" +
+                    "enabled=" + enabled +
+                    ", host='" + host + '\'' +
+                    ", port=" + port +
+                    ", timeout=" + timeout +
+                    ", reconnectDelay=" + reconnectDelay +
+                    ", maxWait=" + maxWait +
+                    '}';
+        }
+    }
+
+    @ConstructorBinding
+    public static class Raft {
+        private final boolean enabled;
+        private final int nodeId;
+        private final List<Member> members;
+        private final String dir;
+        private final Duration electionTimeout;
+        private final Duration heartbeatInterval;
+        private final DataSize maxBatchSize;
+        private final int maxInflight;
+        private final Duration drainTimeout;
+        private final Duration maxWait;
+
+        public Raft(
+                Boolean enabled,
+                Integer nodeId,
+                List<Member> members,
+                String dir,
+                Duration electionTimeout,
+                Duration heartbeatInterval,
+                DataSize maxBatchSize,
+                Integer maxInflight,
+                Duration drainTimeout,
+                Duration maxWait) {
+            this.enabled = enabled != null && enabled;
+            this.nodeId = nodeId != null ? nodeId : 1;
+            this.members = members != null ? members : IntStream.rangeClosed(1, 3)
+                    .mapToObj(id -> new Member(id, null, null, null))
+                    .collect(Collectors.toList());
+            this.dir = dir != null ? dir : "data/raft";
+            this.electionTimeout = electionTimeout != null ? electionTimeout : Duration.ofMillis(500);
+            this.heartbeatInterval = heartbeatInterval != null ? heartbeatInterval : Duration.ofMillis(100);
+            this.maxBatchSize = maxBatchSize != null ? maxBatchSize : DataSize.ofMegabytes(1);
+            this.maxInflight = maxInflight != null ? maxInflight : 16;
+            this.drainTimeout = drainTimeout != null ? drainTimeout : Duration.ofSeconds(10);
+            this.maxWait = maxWait != null ? maxWait : Duration.ofSeconds(5);
+        }
+
+        /**
+         * Whether ledger writes are replicated by the raft log of the cluster, requires in-memory storage without
+         * the journal
+         */
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        /**
+         * Id of this node among the members
+         */
+        public int getNodeId() {
+            return nodeId;
+        }
+
+        public List<Member> getMembers() {
+            return members;
+        }
+
+        public Member getMember(int id) {
+            return members.stream()
+                    .filter(member -> member.getId() == id)
+                    .findFirst()
+                    .orElseThrow(() -> new IllegalArgumentException("No raft member " + id));
+        }
+
+        /**
+         * Every node keeps its log in a subdirectory of its own, so the nodes may run from the same directory
+         */
+        public String getDir() {
+            return dir;
+        }
+
+        /**
+         * Follower starts an election if it doesn't hear from the leader for this long (randomized up to twice it)
+         */
+        public Duration getElectionTimeout() {
+            return electionTimeout;
+        }
+
+        public Duration getHeartbeatInterval() {
+            return heartbeatInterval;
+        }
+
+        /**
+         * Max size of entries sent to a follower by a single request
+         */
+        public DataSize getMaxBatchSize() {
+            return maxBatchSize;
+        }
+
+        /**
+         * Max number of requests sent to a follower without waiting for responses
+         */
+        public int getMaxInflight() {
+            return maxInflight;
+        }
+
+        /**
+         * How long a node losing leadership waits for writes in flight before its state is rebuilt from the log
+         */
+        public Duration getDrainTimeout() {
+            return drainTimeout;
+        }
+
+        /**
+         * How long a read waits for the requested txn to be applied before it's rejected
+         */
+        public Duration getMaxWait() {
+            return maxWait;
+        }
+
+        @Override
+        public String toString() {
+            return "Raft{" +
+                    "enabled=" + enabled +
+                    ", nodeId=" + nodeId +
+                    ", members=" + members +
+                    ", dir='" + dir + '\'' +
+                    ", electionTimeout=" + electionTimeout +
+                    ", heartbeatInterval=" + heartbeatInterval +
+                    ", maxBatchSize=" + maxBatchSize +
+                    ", maxInflight=" + maxInflight +
+                    ", drainTimeout=" + drainTimeout +
+                    ", maxWait=" + maxWait +
+                    '}';
+        }
+    }
+
+    @ConstructorBinding
+    public static class Member {
+        private final int id;
+        private final String host;
+        private final int port;
+        private final String url;
+
+        public Member(Integer id, String host, Integer port, String url) {
+            this.id = id != null ? id : 1;
+            this.host = host != null ? host : "localhost";
+            this.port = port != null ? port : 7100 + this.id;
+            this.url = url != null ? url : "http://localhost:" + (8080 + this.id);
+        }
+
+        public int getId() {
+            return id;
+        }
+
+        /**
+         * Address the node talks to other members on
+         */
+        public String getHost() {
+            return host;
+        }
+
+        public int getPort() {
+            return port;
+        }
+
+        /**
+         * Base url of the node's API, writes sent to a follower are redirected to the leader's one
+         */
+        public String getUrl() {
+            return url;
+        }
+
+        @Override
+        public String toString() {
+            return "Member{" +
+                    "id=" + id +
+                    ", host='" + host + '\'' +
+                    ", port=" + port +
+                    ", url='" + url + '\'' +
+                    '}';
+        }
+    }
+
+    @ConstructorBinding
+    public static class Partitioning {
+        private final boolean enabled;
+        private final int nodeId;
+        private final List<Node> nodes;
+        private final String secret;
+        private final Duration timeout;
+        private final Duration retryInterval;
+        private final Duration recoveryWindow;
+
+        public Partitioning(
+                Boolean enabled,
+                Integer nodeId,
+                List<Node> nodes,
+                String secret,
+                Duration timeout,
+                Duration retryInterval,
+                Duration recoveryWindow) {
+            this.enabled = enabled != null && enabled;
+            this.nodeId = nodeId != null ? nodeId : 1;
+            this.nodes = nodes != null ? nodes : IntStream.rangeClosed(1, 3)
+                    .mapToObj(id -> new Node(id, null))
+                    .collect(Collectors.toList());
+            this.secret = secret != null ? secret : "sample-banking-app";
+            this.timeout = timeout != null ? timeout : Duration.ofSeconds(5);
+            this.retryInterval = retryInterval != null ? retryInterval : Duration.ofSeconds(10);
+            this.recoveryWindow = recoveryWindow != null ? recoveryWindow : Duration.ofDays(1);
+        }
+
+        /**
+         * Whether accounts are split between nodes by hash ranges of account numbers, requires in-memory storage
+         * without replication
+         */
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        /**
+         * Id of this node among the nodes
+         */
+        public int getNodeId() {
+            return nodeId;
+        }
+
+        /**
+         * Nodes in the order of hash ranges they own, the list must be the same on every node
+         */
+        public List<Node> getNodes() {
+            return nodes;
+        }
+
+        /**
+         * Shared by the nodes, requests between them are accepted only with it
+         */
+        public String getSecret() {
+            return secret;
+        }
+
+        /**
+         * How long a node waits for a response of another one
+         */
+        public Duration getTimeout() {
+            return timeout;
+        }
+
+        /**
+         * How often transfers reserved on this node and not credited on the receiver's one yet are retried
+         */
+        public Duration getRetryInterval() {
+            return retryInterval;
+        }
+
+        /**
+         * How far back transfers reserved before restart are looked up to be completed, since it isn't known
+         * which of them are credited already
+         */
+        public Duration getRecoveryWindow() {
+            return recoveryWindow;
+        }
+
+        @Override
+        public String toString() {
+            return "Partitioning{" +
+                    "enabled=" + enabled +
+                    ", nodeId=" + nodeId +
+                    ", nodes=" + nodes +
+                    ", timeout=" + timeout +
+                    ", retryInterval=" + retryInterval +
+                    ", recoveryWindow=" + recoveryWindow +
+                    '}';
+        }
+    }
+
+    @ConstructorBinding
+    public static class Node {
+        private final int id;
+        private final String url;
+
+        public Node(Integer id, String url) {
+            this.id = id != null ? id : 1;
+            this.url = url != null ? url : "http://localhost:" + (8080 + this.id);
+        }
+
+        public int getId() {
+            return id;
+        }
+
+        /**
+         * Base url of the node's API
+         */
+        public String getUrl() {
+            return url;
+        }
+
+        @Override
+        public String toString() {
+            return "Node{" +
+                    "id=" + id +
+                    ", url='" + url + '\'' +
+                    '}';
+        }
+    }
+}
@@ -1,23 +1,45 @@
 package io.shmaks.banking.controller;
 
+import io.shmaks.banking.model.Account;
 import io.shmaks.banking.model.AccountType;
 import io.shmaks.banking.service.AccountService;
+import io.shmaks.banking.service.BalanceEvents;
+import io.shmaks.banking.service.StatementService;
+import io.shmaks.banking.service.dto.AccountBalanceEvent;
+import io.shmaks.banking.service.dto.AccountBalanceResponse;
+import io.shmaks.banking.service.dto.AccountChangeResponse;
+import io.shmaks.banking.service.dto.AccountImportResult;
 import io.shmaks.banking.service.dto.AccountResponse;
+import io.shmaks.banking.service.dto.BalanceRankResponse;
 import io.shmaks.banking.service.dto.BalanceResponse;
+import io.shmaks.banking.service.dto.BalancesRequest;
 import io.shmaks.banking.service.dto.CreateAccountRequest;
+import io.shmaks.banking.service.dto.ImportAccountRequest;
 import io.shmaks.banking.service.dto.Pagination;
 import io.swagger.v3.oas.annotations.security.SecurityRequirement;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.http.codec.ServerSentEvent;
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.security.core.annotation.AuthenticationPrincipal;
 import org.springframework.validation.annotation.Validated;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.util.UriComponentsBuilder;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
 import javax.validation.constraints.Max;
+import javax.validation.constraints.Min;
+import javax.validation.constraints.NotBlank;
+import javax.validation.constraints.NotEmpty;
+import javax.validation.constraints.Pattern;
+import javax.validation.constraints.Size;
+import java.time.Duration;
+import java.time.Instant;
 import java.util.List;
 
 @RestController
@@ -28,10 +50,19 @@ public class AccountController {
 
     private static final Logger log = LoggerFactory.getLogger(AccountController.class);
 
+    // one timer for all the streams, keeps idle connections from being closed by proxies
+    private static final Flux<ServerSentEvent<AccountBalanceEvent>> HEARTBEATS = Flux.interval(Duration.ofSeconds(30))
+            .map(tick -> ServerSentEvent.<AccountBalanceEvent>builder().comment("").build())
+            .share();
+
     private final AccountService service;
+    private final StatementService statementService;
+    private final BalanceEvents balanceEvents;
 
-    public AccountController(AccountService service) {
+    public AccountController(AccountService service, StatementService statementService, BalanceEvents balanceEvents) {
         this.service = service;
+        this.statementService = statementService;
+        this.balanceEvents = balanceEvents;
     }
 
     @PreAuthorize("hasRole('USER')")
@@ -48,6 +79,25 @@ public class AccountController {
                 ).build());
     }
 
+    @PreAuthorize("hasRole('ADMIN')")
+    @PostMapping(path = "/import", consumes = MediaType.APPLICATION_NDJSON_VALUE, produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public Flux<AccountImportResult> importAccounts(@RequestBody Flux<ImportAccountRequest> requests) {
+        log.info("importing accounts by admin: format=ndjson");
+        return service.importAccounts(requests);
+    }
+
+    @PreAuthorize("hasRole('ADMIN')")
+    @PostMapping(path = "/import", consumes = "text/csv", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public Flux<AccountImportResult> importAccountsCsv(@RequestBody Flux<String> lines) {
+        log.info("importing accounts by admin: format=csv");
+        return service.importAccounts(lines
+                .filter(line -> !line.isBlank())
+                .index()
+                .filter(line -> line.getT1() > 0 || !ImportAccountRequest.isCsvHeader(line.getT2()))
+                .map(line -> ImportAccountRequest.fromCsv(line.getT2()))
+        );
+    }
+
     @PreAuthorize("hasRole('USER')")
     @DeleteMapping("/{id}")
     public Mono<ResponseEntity<Object>> deleteAccount(@PathVariable("id") Long id, @AuthenticationPrincipal String ownerId) {
@@ -57,41 +107,183 @@ public class AccountController {
                 .thenReturn(ResponseEntity.noContent().build());
     }
 
+    @PreAuthorize("hasRole('USER')")
+    @PostMapping("/{id}/restore")
+    public Mono<ResponseEntity<Object>> restoreAccount(@PathVariable("id") Long id, @AuthenticationPrincipal String ownerId) {
+        log.info("restoring account: ownerId={}, id={}", ownerId, id);
+        return service.restoreById(id, ownerId)
+                .map(restored -> restored ? ResponseEntity.noContent().build() : ResponseEntity.notFound().build());
+    }
+
     @SuppressWarnings("rawtypes")
     @PreAuthorize("hasRole('USER')")
     @GetMapping("/{id}/balance")
-    public Mono<ResponseEntity> getBalance(@PathVariable("id") Long id, @AuthenticationPrincipal String ownerId) {
-        log.info("get balance: ownerId={}, id={}", ownerId, id);
-        return service.findById(id)
-                .handle((account, sink) -> {
+    public Mono<ResponseEntity> getBalance(
+            @PathVariable("id") Long id,
+            @AuthenticationPrincipal String ownerId,
+            @RequestParam(required = false) Long minTxnId,
+            @RequestParam(required = false) @Min(1) @Max(60) Integer wait,
+            @RequestHeader(name = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
+        log.info("get balance: ownerId={}, id={}, minTxnId={}, wait={}", ownerId, id, minTxnId, wait);
+        // the ETag is the version, it has to come with the balance it versions
+        return service.awaitTxn(minTxnId).then(Mono.defer(() -> service.findSnapshotById(id)))
+                .<Account>handle((account, sink) -> {
                     if (account.getOwnerId().equals(ownerId) && account.getType() == AccountType.USER) { // metrics & logging
-                        sink.next(ResponseEntity.ok(new BalanceResponse(account.getBalance())));
+                        sink.next(account);
                     }
                 })
+                .flatMap(account -> wait != null && !matchesAny(ifNoneMatch) && matches(ifNoneMatch, account)
+                        ? balanceEvents.awaitChange(id, account.getVersion(), Duration.ofSeconds(wait))
+                                .then(Mono.defer(() -> service.findSnapshotById(id)))
+                        : Mono.just(account))
+                .map(account -> matches(ifNoneMatch, account)
+                        ? ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(eTag(account)).build()
+                        : ResponseEntity.ok().eTag(eTag(account)).body(new BalanceResponse(account.getBalance())))
                 .cast(ResponseEntity.class)
                 .switchIfEmpty(Mono.just(ResponseEntity.notFound().build()));
     }
 
+    // every posting bumps the version of the account, while txn ids may be applied out of order
+    private static String eTag(Account account) {
+        return "\"" + account.getVersion() + "\"";
+    }
+
+    private static boolean matches(String ifNoneMatch, Account account) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        var eTag = eTag(account);
+        for (var tag : ifNoneMatch.split(",")) {
+            var trimmed = tag.trim();
+            if (trimmed.equals("*") || trimmed.equals(eTag) || trimmed.equals("W/" + eTag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // "*" matches whatever the balance becomes, so there's no change to wait for
+    private static boolean matchesAny(String ifNoneMatch) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        for (var tag : ifNoneMatch.split(",")) {
+            if (tag.trim().equals("*")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @PreAuthorize("hasRole('USER')")
+    @GetMapping(path = "/balances/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public Mono<ResponseEntity<Flux<ServerSentEvent<AccountBalanceEvent>>>> streamBalances(
+            @RequestParam @NotEmpty @Size(max = 100) List<Long> ids,
+            @AuthenticationPrincipal String ownerId) {
+        log.info("stream balances: ownerId={}, ids={}", ownerId, ids);
+        return balanceEvents.watch(ownerId, ids)
+                .map(events -> ResponseEntity.ok(events
+                        .map(event -> ServerSentEvent.builder(event).event("balance").build())
+                        .mergeWith(HEARTBEATS)))
+                .defaultIfEmpty(ResponseEntity.notFound().build());
+    }
+
+    @PreAuthorize("hasRole('USER')")
+    @GetMapping(path = "/{id}/statement", produces = "text/csv")
+    public Mono<ResponseEntity<Flux<String>>> getStatement(
+            @PathVariable("id") Long id,
+            @AuthenticationPrincipal String ownerId,
+            @RequestParam(required = false) Instant from,
+            @RequestParam(required = false) Instant to,
+            @RequestParam(defaultValue = "csv") @Pattern(regexp = "csv") String format) {
+        log.info("get statement: ownerId={}, id={}, from={}, to={}", ownerId, id, from, to);
+        return statementService.statementCsv(id, ownerId, from != null ? from : Instant.EPOCH, to != null ? to : Instant.MAX)
+                .map(lines -> ResponseEntity.ok()
+                        .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"statement-" + id + ".csv\"")
+                        .body(lines))
+                .defaultIfEmpty(ResponseEntity.notFound().build());
+    }
+
+    @PreAuthorize("hasRole('USER')")
+    @PostMapping("/balances")
+    public Mono<ResponseEntity<List<AccountBalanceResponse>>> getBalances(
+            @RequestBody @Validated BalancesRequest request,
+            @AuthenticationPrincipal String ownerId,
+            @RequestParam(required = false) Long minTxnId) {
+        log.info("get balances: ownerId={}, body={}, minTxnId={}", ownerId, request, minTxnId);
+        return service.awaitTxn(minTxnId).then(Mono.defer(() -> service.findBalances(ownerId, request.getIds())))
+                .map(ResponseEntity::ok);
+    }
+
     @PreAuthorize("hasRole('USER')")
     @GetMapping
     public Mono<ResponseEntity<List<AccountResponse>>> listAccounts(
             @AuthenticationPrincipal String ownerId,
             @RequestParam(required = false) @Max(20) Integer count,
-            @RequestParam(required = false) String after) {
-        log.info("list accounts: ownerId={}, count={}, after={}", ownerId, count, after);
+            @RequestParam(required = false) String after,
+            @RequestParam(required = false) Long minTxnId) {
+        log.info("list accounts: ownerId={}, count={}, after={}, minTxnId={}", ownerId, count, after, minTxnId);
         var pagination = new Pagination<>(count != null ? count : 10, after);
 
-        return service.findUserAccounts(ownerId, pagination).map(ResponseEntity::ok);
+        return service.awaitTxn(minTxnId).then(Mono.defer(() -> service.findUserAccounts(ownerId, pagination)))
+                .map(ResponseEntity::ok);
     }
 
     @PreAuthorize("hasRole('ADMIN')")
     @GetMapping("/all")
     public Mono<ResponseEntity<List<AccountResponse>>> listAllAccounts(
             @RequestParam(required = false) @Max(50) Integer count,
-            @RequestParam(required = false) String after) {
-        log.info("list accounts by admin: count={}, after={}", count, after);
+            @RequestParam(required = false) String after,
+            @RequestParam(required = false) Long minTxnId) {
+        log.info("list accounts by admin: count={}, after={}, minTxnId={}", count, after, minTxnId);
         var pagination = new Pagination<>(count != null ? count : 10, after);
 
-        return service.findAllUserAccounts(pagination).map(ResponseEntity::ok);
+        return service.awaitTxn(minTxnId).then(Mono.defer(() -> service.findAllUserAccounts(pagination)))
+                .map(ResponseEntity::ok);
+    }
+
+    @PreAuthorize("hasRole('ADMIN')")
+    @GetMapping("/changes")
+    public Mono<ResponseEntity<List<AccountChangeResponse>>> listAccountChanges(
+            @RequestParam(required = false) @Min(0) Long since,
+            @RequestParam(required = false) @Min(1) @Max(1000) Integer count) {
+        log.info("list account changes by admin: since={}, count={}", since, count);
+        var pagination = new Pagination<>(count != null ? count : 100, since != null ? since : 0L);
+
+        return service.findUserAccountChanges(pagination).map(ResponseEntity::ok);
+    }
+
+    @PreAuthorize("hasRole('ADMIN')")
+    @GetMapping(path = "/export", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public Flux<AccountResponse> exportAllAccounts() {
+        log.info("export accounts by admin");
+        return service.exportAllUserAccounts();
+    }
+
+    @PreAuthorize("hasRole('ADMIN')")
+    @GetMapping("/top")
+    public Mono<ResponseEntity<List<AccountResponse>>> listTopAccounts(
+            @RequestParam @NotBlank String currencyCode,
+            @RequestParam(required = false) @Min(1) @Max(50) Integer count) {
+        log.info("list top accounts by admin: currencyCode={}, count={}", currencyCode, count);
+        return service.findTopUserAccounts(currencyCode, count != null ? count : 10).map(ResponseEntity::ok);
+    }
+
+    @PreAuthorize("hasRole('ADMIN')")
+    @GetMapping("/search")
+    public Mono<ResponseEntity<List<AccountResponse>>> searchAccounts(
+            @RequestParam @NotBlank String query,
+            @RequestParam(required = false) @Min(1) @Max(50) Integer count) {
+        log.info("search accounts by admin: query={}, count={}", query, count);
+        return service.searchUserAccounts(query.strip(), count != null ? count : 10).map(ResponseEntity::ok);
+    }
+
+    @PreAuthorize("hasRole('ADMIN')")
+    @GetMapping("/{id}/rank")
+    public Mono<ResponseEntity<BalanceRankResponse>> getBalanceRank(@PathVariable("id") Long id) {
+        log.info("get balance rank by admin: id={}", id);
+        return service.findBalanceRank(id)
+                .map(ResponseEntity::ok)
+                .defaultIfEmpty(ResponseEntity.notFound().build());
     }
 }
@@ -1,6 +1,8 @@
 package io.shmaks.banking.controller;
 
+import io.shmaks.banking.repo.outbox.OutboxCursorExpiredException;
 import io.shmaks.banking.service.BusinessLogicError;
+import io.shmaks.banking.service.RetryLaterException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.http.HttpStatus;
@@ -23,6 +25,20 @@ public class ErrorsHandler {
         return ex.getMessage();
     }
 
+    @ExceptionHandler(RetryLaterException.class)
+    @ResponseStatus(HttpStatus.SERVICE_UNAVAILABLE)
+    public String retryLaterHandler(RetryLaterException ex) {
+        log.warn(ex.getMessage());
+        return ex.getMessage();
+    }
+
+    @ExceptionHandler(OutboxCursorExpiredException.class)
+    @ResponseStatus(HttpStatus.GONE)
+    public String cursorExpiredHandler(OutboxCursorExpiredException ex) {
+        log.error(ex.getMessage());
+        return ex.getMessage();
+    }
+
     @ExceptionHandler(WebExchangeBindException.class)
     @ResponseStatus(HttpStatus.BAD_REQUEST)
     public String validationErrorHandler(WebExchangeBindException ex) {
@@ -0,0 +1,43 @@
+package io.shmaks.banking.controller;
+
+import io.shmaks.banking.service.LedgerChangeStream;
+import io.shmaks.banking.service.dto.LedgerChangeResponse;
+import io.swagger.v3.oas.annotations.security.SecurityRequirement;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.MediaType;
+import org.springframework.security.access.prepost.PreAuthorize;
+import org.springframework.validation.annotation.Validated;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import reactor.core.publisher.Flux;
+
+import javax.validation.constraints.Max;
+
+@RestController
+@RequestMapping("/ledger")
+@Validated
+@SecurityRequirement(name = "basicAuth")
+public class LedgerController {
+
+    private static final Logger log = LoggerFactory.getLogger(LedgerController.class);
+
+    private final LedgerChangeStream changeStream;
+
+    public LedgerController(LedgerChangeStream changeStream) {
+        this.changeStream = changeStream;
+    }
+
+    @PreAuthorize("hasRole('ADMIN')")
+    @GetMapping(path = "/changes", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public Flux<LedgerChangeResponse> streamChanges(
+            @RequestParam(required = false) Long after,
+            @RequestParam(required = false) @Max(1000) Integer batchSize) {
+        log.info("stream ledger changes by admin: after={}, batchSize={}", after, batchSize);
+        return changeStream.changes(after, batchSize != null ? batchSize : 100)
+                .concatMapIterable(entries -> entries, 1)
+                .map(LedgerChangeResponse::new);
+    }
+}
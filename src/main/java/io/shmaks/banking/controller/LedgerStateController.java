@@ -0,0 +1,49 @@
+package io.shmaks.banking.controller;
+
+import io.shmaks.banking.config.R2dbcConfig;
+import io.shmaks.banking.service.LedgerStateService;
+import io.shmaks.banking.service.dto.AccountStateResponse;
+import io.shmaks.banking.service.dto.StateHashResponse;
+import io.swagger.v3.oas.annotations.security.SecurityRequirement;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.access.prepost.PreAuthorize;
+import org.springframework.validation.annotation.Validated;
+import org.springframework.web.bind.annotation.*;
+import reactor.core.publisher.Mono;
+
+import java.util.List;
+
+@RestController
+@RequestMapping("/ledger/state")
+@Validated
+@SecurityRequirement(name = "basicAuth")
+@ConditionalOnProperty(name = R2dbcConfig.ENABLED, havingValue = "false", matchIfMissing = true)
+public class LedgerStateController {
+
+    private static final Logger log = LoggerFactory.getLogger(LedgerStateController.class);
+
+    private final LedgerStateService service;
+
+    public LedgerStateController(LedgerStateService service) {
+        this.service = service;
+    }
+
+    @PreAuthorize("hasRole('ADMIN')")
+    @GetMapping("/hash")
+    public Mono<ResponseEntity<StateHashResponse>> getHash(
+            @RequestParam(required = false) Integer level,
+            @RequestParam(required = false) Integer index) {
+        log.info("get state hash by admin: level={}, index={}", level, index);
+        return service.findHash(level != null ? level : 0, index != null ? index : 0).map(ResponseEntity::ok);
+    }
+
+    @PreAuthorize("hasRole('ADMIN')")
+    @GetMapping("/buckets/{bucket}")
+    public Mono<ResponseEntity<List<AccountStateResponse>>> getBucket(@PathVariable("bucket") Integer bucket) {
+        log.info("get state bucket by admin: bucket={}", bucket);
+        return service.findBucketAccounts(bucket).map(ResponseEntity::ok);
+    }
+}
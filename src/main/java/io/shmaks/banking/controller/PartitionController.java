@@ -0,0 +1,54 @@
+package io.shmaks.banking.controller;
+
+import io.shmaks.banking.config.PartitionConfig;
+import io.shmaks.banking.service.AccountService;
+import io.shmaks.banking.service.TransferService;
+import io.shmaks.banking.service.dto.AccountResponse;
+import io.shmaks.banking.service.dto.CreditRequest;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.access.prepost.PreAuthorize;
+import org.springframework.validation.annotation.Validated;
+import org.springframework.web.bind.annotation.*;
+import reactor.core.publisher.Mono;
+
+import java.util.UUID;
+
+/**
+ * Requests between the nodes of a partitioned cluster, only ones with the shared secret reach it
+ */
+@RestController
+@RequestMapping("/internal/partition")
+@Validated
+@ConditionalOnProperty(name = PartitionConfig.ENABLED, havingValue = "true")
+public class PartitionController {
+
+    private static final Logger log = LoggerFactory.getLogger(PartitionController.class);
+
+    private final AccountService accountService;
+    private final TransferService transferService;
+
+    public PartitionController(AccountService accountService, TransferService transferService) {
+        this.accountService = accountService;
+        this.transferService = transferService;
+    }
+
+    @PreAuthorize("hasRole('ADMIN')")
+    @GetMapping("/accounts/{accountNumber}")
+    public Mono<ResponseEntity<AccountResponse>> getAccount(@PathVariable String accountNumber) {
+        return accountService.findUserAccountByNumber(accountNumber)
+                .map(ResponseEntity::ok)
+                .defaultIfEmpty(ResponseEntity.notFound().build());
+    }
+
+    @PreAuthorize("hasRole('ADMIN')")
+    @PutMapping("/credit/{txnUUID}")
+    public Mono<ResponseEntity<Object>> credit(
+            @RequestBody @Validated CreditRequest request,
+            @PathVariable UUID txnUUID) {
+        log.info("credit transfer reserved by another node: body={}, txnUUID={}", request, txnUUID);
+        return transferService.credit(request, txnUUID).thenReturn(ResponseEntity.noContent().build());
+    }
+}
@@ -0,0 +1,207 @@
+package io.shmaks.banking.controller;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.shmaks.banking.service.RetryLaterException;
+import io.shmaks.banking.service.dto.AccountResponse;
+import io.shmaks.banking.service.partition.PartitionClient;
+import io.shmaks.banking.service.partition.PartitionMap;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.http.server.reactive.ServerHttpRequestDecorator;
+import org.springframework.web.server.ServerWebExchange;
+import org.springframework.web.server.WebFilter;
+import org.springframework.web.server.WebFilterChain;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Sends every request to the node owning the accounts it's about, runs after authentication. Transfers are routed
+ * by the payer's account number (the one of deposits & withdrawals), requests for an account by its id. Listings
+ * are merged from pages of every node, new accounts are created by the node the request came to.
+ * <p>
+ * Requests sent by another node are served as is, the internal ones are accepted only with the shared secret.
+ */
+public class PartitionRoutingFilter implements WebFilter {
+
+    private static final Comparator<AccountResponse> BY_NUMBER = Comparator.comparing(AccountResponse::getAccountNumber);
+    private static final Comparator<AccountResponse> BY_BALANCE_DESC =
+            Comparator.comparing(AccountResponse::getBalance, Comparator.nullsLast(Comparator.<BigDecimal>reverseOrder()))
+                    .thenComparing(BY_NUMBER);
+
+    private final PartitionMap partitionMap;
+    private final PartitionClient partitionClient;
+    private final ObjectMapper objectMapper;
+    private final String secret;
+
+    public PartitionRoutingFilter(
+            PartitionMap partitionMap, PartitionClient partitionClient, ObjectMapper objectMapper, String secret) {
+        this.partitionMap = partitionMap;
+        this.partitionClient = partitionClient;
+        this.objectMapper = objectMapper;
+        this.secret = secret;
+    }
+
+    @Override
+    public Mono<Void> filter(ServerWebExchange exchange, WebFilterChain chain) {
+        var request = exchange.getRequest();
+        var path = request.getPath().pathWithinApplication().value();
+
+        if (path.startsWith("/internal/partition/")) {
+            if (!secret.equals(request.getHeaders().getFirst(PartitionClient.SECRET_HEADER))) {
+                exchange.getResponse().setStatusCode(HttpStatus.FORBIDDEN);
+                return exchange.getResponse().setComplete();
+            }
+            return chain.filter(exchange);
+        }
+        if (request.getHeaders().containsKey(PartitionClient.ROUTED_HEADER)) {
+            return chain.filter(exchange);
+        }
+
+        var method = request.getMethod();
+        if (method == HttpMethod.PUT && path.startsWith("/transfer/")) {
+            var byAccount = path.startsWith("/transfer/deposit/") || path.startsWith("/transfer/withdrawal/");
+            return routeByBody(exchange, chain, byAccount ? "accountNumber" : "payerAccountNumber");
+        }
+        if (method == HttpMethod.GET && path.equals("/accounts")) {
+            return fanOut(exchange, BY_NUMBER);
+        }
+        var segments = path.split("/");
+        if (segments.length > 2 && segments[1].equals("accounts")) {
+            var segment = segments[2];
+            if (method == HttpMethod.GET && (segment.equals("all") || segment.equals("search"))) {
+                return fanOut(exchange, BY_NUMBER);
+            }
+            if (method == HttpMethod.GET && segment.equals("top")) {
+                return fanOut(exchange, BY_BALANCE_DESC);
+            }
+            var owner = ownerOfAccountId(segment);
+            if (owner != 0 && owner != partitionMap.getNodeId()) {
+                return forward(owner, exchange, request.getBody());
+            }
+        }
+        return chain.filter(exchange);
+    }
+
+    private Mono<Void> routeByBody(ServerWebExchange exchange, WebFilterChain chain, String field) {
+        var request = exchange.getRequest();
+        var bufferFactory = exchange.getResponse().bufferFactory();
+
+        return DataBufferUtils.join(request.getBody())
+                .flatMap(buffer -> {
+                    var body = new byte[buffer.readableByteCount()];
+                    buffer.read(body);
+                    DataBufferUtils.release(buffer);
+
+                    var accountNumber = readField(body, field);
+                    if (accountNumber == null || partitionMap.isLocal(accountNumber)) {
+                        // invalid requests are rejected by this node
+                        var cached = new ServerHttpRequestDecorator(request) {
+                            @Override
+                            public Flux<DataBuffer> getBody() {
+                                return Flux.defer(() -> Flux.just(bufferFactory.wrap(body)));
+                            }
+                        };
+                        return chain.filter(exchange.mutate().request(cached).build());
+                    }
+                    return forward(
+                            partitionMap.ownerOf(accountNumber), exchange,
+                            Flux.defer(() -> Flux.just(bufferFactory.wrap(body)))
+                    );
+                })
+                .switchIfEmpty(Mono.defer(() -> chain.filter(exchange)));
+    }
+
+    private Mono<Void> forward(int nodeId, ServerWebExchange exchange, Flux<DataBuffer> body) {
+        var request = exchange.getRequest();
+        var response = exchange.getResponse();
+        return partitionClient.forward(
+                nodeId, request.getMethod(), pathAndQuery(request), request.getHeaders(), body,
+                remote -> {
+                    response.setStatusCode(remote.statusCode());
+                    response.getHeaders().putAll(remote.headers().asHttpHeaders());
+                    response.getHeaders().remove(HttpHeaders.TRANSFER_ENCODING);
+                    return response.writeWith(remote.bodyToFlux(DataBuffer.class));
+                }
+        ).onErrorResume(RetryLaterException.class, e -> {
+            response.setStatusCode(HttpStatus.SERVICE_UNAVAILABLE);
+            return response.setComplete();
+        });
+    }
+
+    /**
+     * Asks every node, this one included, for the same page and merges them, so paging by account number works
+     * as on a single node
+     */
+    private Mono<Void> fanOut(ServerWebExchange exchange, Comparator<AccountResponse> order) {
+        var request = exchange.getRequest();
+        var response = exchange.getResponse();
+        var count = parseCount(request.getQueryParams().getFirst("count"));
+        var authorization = request.getHeaders().getFirst(HttpHeaders.AUTHORIZATION);
+
+        return Flux.fromIterable(partitionMap.getNodes())
+                .flatMap(node -> partitionClient.fetchAccounts(node.getId(), pathAndQuery(request), authorization))
+                .collectList()
+                .flatMap(pages -> {
+                    var merged = pages.stream()
+                            .flatMap(List::stream)
+                            .sorted(order)
+                            .limit(count)
+                            .collect(Collectors.toList());
+                    byte[] json;
+                    try {
+                        json = objectMapper.writeValueAsBytes(merged);
+                    } catch (JsonProcessingException e) {
+                        return Mono.error(e);
+                    }
+                    response.setStatusCode(HttpStatus.OK);
+                    response.getHeaders().setContentType(MediaType.APPLICATION_JSON);
+                    return response.writeWith(Mono.just(response.bufferFactory().wrap(json)));
+                })
+                .onErrorResume(RetryLaterException.class, e -> {
+                    response.setStatusCode(HttpStatus.SERVICE_UNAVAILABLE);
+                    return response.setComplete();
+                });
+    }
+
+    private int ownerOfAccountId(String segment) {
+        try {
+            return partitionMap.ownerOfAccountId(Long.parseLong(segment));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private String readField(byte[] body, String field) {
+        try {
+            var value = objectMapper.readTree(body).get(field);
+            return value != null && value.isTextual() ? value.asText() : null;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private static int parseCount(String count) {
+        try {
+            return count != null ? Integer.parseInt(count) : 10;
+        } catch (NumberFormatException e) {
+            return 10; // rejected by the nodes anyway
+        }
+    }
+
+    private static String pathAndQuery(ServerHttpRequest request) {
+        var uri = request.getURI();
+        return uri.getRawPath() + (uri.getRawQuery() != null ? "?" + uri.getRawQuery() : "");
+    }
+}
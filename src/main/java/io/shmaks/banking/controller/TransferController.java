@@ -5,11 +5,13 @@ import io.shmaks.banking.service.dto.*;
 import io.swagger.v3.oas.annotations.security.SecurityRequirement;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.security.core.annotation.AuthenticationPrincipal;
 import org.springframework.validation.annotation.Validated;
 import org.springframework.web.bind.annotation.*;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
 import java.util.UUID;
@@ -62,6 +64,26 @@ public class TransferController {
         return service.transfer(request, ownerId, txnUUID).map(ResponseEntity::ok);
     }
 
+    @PreAuthorize("hasRole('USER')")
+    @PostMapping(path = "/batch", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public Flux<BatchTransferResult> transferBatch(
+            @RequestBody @Validated BatchTransferRequest request,
+            @AuthenticationPrincipal String ownerId
+    ) {
+        log.info("batch transfer between accounts: ownerId={}, body={}", ownerId, request);
+        return service.transferBatch(request.getTransfers(), ownerId);
+    }
+
+    @PreAuthorize("hasRole('USER')")
+    @PostMapping(path = "/payout", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public Flux<BatchTransferResult> payout(
+            @RequestBody @Validated PayoutRequest request,
+            @AuthenticationPrincipal String ownerId
+    ) {
+        log.info("payout from account: ownerId={}, body={}", ownerId, request);
+        return service.payout(request, ownerId);
+    }
+
     @PreAuthorize("hasRole('USER')")
     @PutMapping("/international/{txnUUID}")
     public Mono<ResponseEntity<TxnResult>> interTransfer(
@@ -0,0 +1,196 @@
+package io.shmaks.banking.controller.codec;
+
+import io.shmaks.banking.service.dto.AccountResponse;
+import io.shmaks.banking.service.dto.TxnResult;
+import org.reactivestreams.Publisher;
+import org.springframework.core.ResolvableType;
+import org.springframework.core.codec.AbstractEncoder;
+import org.springframework.core.codec.Encoder;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.http.MediaType;
+import org.springframework.http.codec.HttpMessageEncoder;
+import org.springframework.lang.Nullable;
+import org.springframework.util.MimeType;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.List;
+import java.util.Map;
+
+import static io.shmaks.banking.controller.codec.JsonOutput.bytes;
+import static io.shmaks.banking.controller.codec.JsonOutput.number;
+import static io.shmaks.banking.controller.codec.JsonOutput.string;
+
+/**
+ * JSON of the hottest response bodies, {@link TxnResult} & {@link AccountResponse} alone, listed or streamed as NDJSON,
+ * written by hand straight into a buffer of the response's factory, pooled with Netty: no bean introspection, no
+ * generator, no intermediate strings. The output is byte for byte the one of Jackson with the mapper defaults, so
+ * {@code spring.jackson.*} properties don't apply to it; properties go in the declaration order of the DTOs, so a new
+ * property has to be added here as well.
+ * <p>
+ * Lists are written when the body is, so the element type is unknown for a list in a ResponseEntity: such a list and a
+ * subclass of the DTOs are handed over to the fallback encoder.
+ */
+public class DtoJsonEncoder extends AbstractEncoder<Object> implements HttpMessageEncoder<Object> {
+
+    private static final byte[] TXN_ID = bytes("{\"txnId\":");
+    private static final byte[] ACCOUNT_ID = bytes(",\"accountId\":");
+    private static final byte[] AMOUNT = bytes(",\"amount\":");
+    private static final byte[] STATUS = bytes(",\"status\":");
+
+    private static final byte[] ID = bytes("{\"id\":");
+    private static final byte[] ACCOUNT_NUMBER = bytes(",\"accountNumber\":");
+    private static final byte[] BALANCE = bytes(",\"balance\":");
+    private static final byte[] DISPLAYED_NAME = bytes(",\"displayedName\":");
+    private static final byte[] LAST_TXN_ID = bytes(",\"lastTxnId\":");
+
+    private static final byte[] CURRENCY_CODE = bytes(",\"currencyCode\":");
+    private static final byte[] CREATED_AT = bytes(",\"createdAt\":");
+
+    // sizes of a typical value, so the buffer rarely grows while written
+    private static final int TXN_RESULT_SIZE = 160;
+    private static final int ACCOUNT_RESPONSE_SIZE = 200;
+
+    private final Encoder<Object> fallback;
+
+    public DtoJsonEncoder(Encoder<Object> fallback) {
+        super(MediaType.APPLICATION_JSON, MediaType.APPLICATION_NDJSON);
+        this.fallback = fallback;
+    }
+
+    @Override
+    public boolean canEncode(ResolvableType elementType, @Nullable MimeType mimeType) {
+        if (!super.canEncode(elementType, mimeType)) {
+            return false;
+        }
+        var type = elementType.toClass();
+        if (List.class.isAssignableFrom(type)) {
+            var itemType = elementType.asCollection().getGeneric().resolve();
+            return (itemType == null || isDto(itemType))
+                    && (mimeType == null || MediaType.APPLICATION_JSON.isCompatibleWith(mimeType));
+        }
+        return isDto(type);
+    }
+
+    @Override
+    public List<MediaType> getStreamingMediaTypes() {
+        return List.of(MediaType.APPLICATION_NDJSON);
+    }
+
+    @Override
+    public Flux<DataBuffer> encode(
+            Publisher<?> inputStream, DataBufferFactory bufferFactory, ResolvableType elementType,
+            @Nullable MimeType mimeType, @Nullable Map<String, Object> hints) {
+        if (inputStream instanceof Mono) {
+            return Mono.from(inputStream)
+                    .map(value -> encodeValue(value, bufferFactory, elementType, mimeType, hints))
+                    .flux();
+        }
+        if (mimeType != null && MediaType.APPLICATION_NDJSON.isCompatibleWith(mimeType)) {
+            return Flux.from(inputStream)
+                    .map(value -> encodeValue(value, bufferFactory, elementType, mimeType, hints).write((byte) '\n'));
+        }
+        var listType = ResolvableType.forClassWithGenerics(List.class, elementType);
+        return Flux.from(inputStream)
+                .collectList()
+                .map(list -> encodeValue(list, bufferFactory, listType, mimeType, hints))
+                .flux();
+    }
+
+    @Override
+    public DataBuffer encodeValue(
+            Object value, DataBufferFactory bufferFactory, ResolvableType valueType,
+            @Nullable MimeType mimeType, @Nullable Map<String, Object> hints) {
+        if (!isWritten(value)) {
+            return fallback.encodeValue(value, bufferFactory, valueType, mimeType, hints);
+        }
+        var buffer = bufferFactory.allocateBuffer(estimatedSize(value));
+        try {
+            if (value instanceof List) {
+                var items = (List<?>) value;
+                buffer.write((byte) '[');
+                for (int i = 0; i < items.size(); i++) {
+                    if (i > 0) {
+                        buffer.write((byte) ',');
+                    }
+                    write(buffer, items.get(i));
+                }
+                buffer.write((byte) ']');
+            } else {
+                write(buffer, value);
+            }
+            return buffer;
+        } catch (RuntimeException e) {
+            DataBufferUtils.release(buffer);
+            throw e;
+        }
+    }
+
+    private static boolean isWritten(Object value) {
+        if (!(value instanceof List)) {
+            return isDto(value.getClass());
+        }
+        for (var item : (List<?>) value) {
+            if (item == null || !isDto(item.getClass())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isDto(Class<?> type) {
+        return type == TxnResult.class || type == AccountResponse.class;
+    }
+
+    private static int estimatedSize(Object value) {
+        if (value instanceof List) {
+            var items = (List<?>) value;
+            return items.isEmpty() ? 2 : 1 + items.size() * (estimatedSize(items.get(0)) + 1);
+        }
+        return value instanceof TxnResult ? TXN_RESULT_SIZE : ACCOUNT_RESPONSE_SIZE;
+    }
+
+    private static void write(DataBuffer buffer, Object value) {
+        if (value instanceof TxnResult) {
+            write(buffer, (TxnResult) value);
+        } else {
+            write(buffer, (AccountResponse) value);
+        }
+    }
+
+    private static void write(DataBuffer buffer, TxnResult result) {
+        buffer.write(TXN_ID);
+        number(buffer, result.getTxnId());
+        buffer.write(ACCOUNT_ID);
+        number(buffer, result.getAccountId());
+        buffer.write(AMOUNT);
+        number(buffer, result.getAmount());
+        buffer.write(CURRENCY_CODE);
+        string(buffer, result.getCurrencyCode());
+        buffer.write(STATUS);
+        string(buffer, result.getStatus());
+        buffer.write(CREATED_AT);
+        string(buffer, result.getCreatedAt());
+        buffer.write((byte) '}');
+    }
+
+    private static void write(DataBuffer buffer, AccountResponse account) {
+        buffer.write(ID);
+        number(buffer, account.getId());
+        buffer.write(ACCOUNT_NUMBER);
+        string(buffer, account.getAccountNumber());
+        buffer.write(BALANCE);
+        number(buffer, account.getBalance());
+        buffer.write(CURRENCY_CODE);
+        string(buffer, account.getCurrencyCode());
+        buffer.write(DISPLAYED_NAME);
+        string(buffer, account.getDisplayedName());
+        buffer.write(LAST_TXN_ID);
+        number(buffer, account.getLastTxnId());
+        buffer.write(CREATED_AT);
+        string(buffer, account.getCreatedAt());
+        buffer.write((byte) '}');
+    }
+}
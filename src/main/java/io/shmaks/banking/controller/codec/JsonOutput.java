@@ -0,0 +1,201 @@
+package io.shmaks.banking.controller.codec;
+
+import org.springframework.core.io.buffer.DataBuffer;
+
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+
+/**
+ * JSON values written as UTF-8 straight into a buffer, the way Jackson's generator writes them with default features
+ */
+final class JsonOutput {
+
+    private static final byte[] NULL = bytes("null");
+    private static final byte[] HEX = bytes("0123456789ABCDEF");
+
+    private static final long SECONDS_PER_DAY = 86_400;
+
+    private JsonOutput() {
+    }
+
+    static byte[] bytes(String ascii) {
+        return ascii.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    static void number(DataBuffer buffer, Long value) {
+        if (value == null) {
+            buffer.write(NULL);
+        } else {
+            number(buffer, value.longValue());
+        }
+    }
+
+    static void number(DataBuffer buffer, long value) {
+        if (value < 0) {
+            if (value == Long.MIN_VALUE) {
+                ascii(buffer, Long.toString(value));
+                return;
+            }
+            buffer.write((byte) '-');
+            value = -value;
+        }
+        var divisor = 1L;
+        while (divisor <= value / 10) {
+            divisor *= 10;
+        }
+        for (; divisor > 0; divisor /= 10) {
+            buffer.write((byte) ('0' + value / divisor % 10));
+        }
+    }
+
+    /**
+     * Plain or scientific as {@link BigDecimal#toString()}, which is cached by the value itself
+     */
+    static void number(DataBuffer buffer, BigDecimal value) {
+        if (value == null) {
+            buffer.write(NULL);
+        } else {
+            ascii(buffer, value.toString());
+        }
+    }
+
+    static void string(DataBuffer buffer, Enum<?> value) {
+        string(buffer, value != null ? value.name() : null);
+    }
+
+    static void string(DataBuffer buffer, String value) {
+        if (value == null) {
+            buffer.write(NULL);
+            return;
+        }
+        buffer.write((byte) '"');
+        var length = value.length();
+        for (int i = 0; i < length; i++) {
+            var c = value.charAt(i);
+            if (c < 0x80) {
+                if (c >= 0x20 && c != '"' && c != '\\') {
+                    buffer.write((byte) c);
+                } else {
+                    escape(buffer, c);
+                }
+            } else if (c < 0x800) {
+                buffer.write((byte) (0xC0 | c >> 6));
+                buffer.write((byte) (0x80 | c & 0x3F));
+            } else if (!Character.isSurrogate(c)) {
+                buffer.write((byte) (0xE0 | c >> 12));
+                buffer.write((byte) (0x80 | c >> 6 & 0x3F));
+                buffer.write((byte) (0x80 | c & 0x3F));
+            } else if (Character.isHighSurrogate(c)
+                    && i + 1 < length && Character.isLowSurrogate(value.charAt(i + 1))) {
+                var codePoint = Character.toCodePoint(c, value.charAt(++i));
+                buffer.write((byte) (0xF0 | codePoint >> 18));
+                buffer.write((byte) (0x80 | codePoint >> 12 & 0x3F));
+                buffer.write((byte) (0x80 | codePoint >> 6 & 0x3F));
+                buffer.write((byte) (0x80 | codePoint & 0x3F));
+            } else {
+                buffer.write((byte) '?'); // a broken surrogate pair, as String#getBytes has it
+            }
+        }
+        buffer.write((byte) '"');
+    }
+
+    private static void escape(DataBuffer buffer, char c) {
+        buffer.write((byte) '\\');
+        switch (c) {
+            case '"':
+            case '\\':
+                buffer.write((byte) c);
+                break;
+            case '\b':
+                buffer.write((byte) 'b');
+                break;
+            case '\t':
+                buffer.write((byte) 't');
+                break;
+            case '\n':
+                buffer.write((byte) 'n');
+                break;
+            case '\f':
+                buffer.write((byte) 'f');
+                break;
+            case '\r':
+                buffer.write((byte) 'r');
+                break;
+            default:
+                buffer.write((byte) 'u');
+                buffer.write((byte) '0');
+                buffer.write((byte) '0');
+                buffer.write(HEX[c >> 4]);
+                buffer.write(HEX[c & 0xF]);
+        }
+    }
+
+    /**
+     * ISO-8601 in UTC as {@link Instant#toString()}: fraction of a second in groups of 3 digits, as many as needed
+     */
+    static void string(DataBuffer buffer, Instant value) {
+        if (value == null) {
+            buffer.write(NULL);
+            return;
+        }
+        var seconds = value.getEpochSecond();
+        var secondOfDay = (int) Math.floorMod(seconds, SECONDS_PER_DAY);
+        // civil date of the day since epoch, see http://howardhinnant.github.io/date_algorithms.html#civil_from_days
+        var days = Math.floorDiv(seconds, SECONDS_PER_DAY) + 719_468;
+        var era = Math.floorDiv(days, 146_097);
+        var dayOfEra = days - era * 146_097;
+        var yearOfEra = (dayOfEra - dayOfEra / 1_460 + dayOfEra / 36_524 - dayOfEra / 146_096) / 365;
+        var dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        var shiftedMonth = (5 * dayOfYear + 2) / 153;
+        var day = dayOfYear - (153 * shiftedMonth + 2) / 5 + 1;
+        var month = shiftedMonth < 10 ? shiftedMonth + 3 : shiftedMonth - 9;
+        var year = yearOfEra + era * 400 + (month <= 2 ? 1 : 0);
+        if (year < 0 || year > 9999) {
+            string(buffer, value.toString()); // signed & longer years
+            return;
+        }
+
+        buffer.write((byte) '"');
+        digits(buffer, (int) year, 4);
+        buffer.write((byte) '-');
+        digits(buffer, (int) month, 2);
+        buffer.write((byte) '-');
+        digits(buffer, (int) day, 2);
+        buffer.write((byte) 'T');
+        digits(buffer, secondOfDay / 3_600, 2);
+        buffer.write((byte) ':');
+        digits(buffer, secondOfDay / 60 % 60, 2);
+        buffer.write((byte) ':');
+        digits(buffer, secondOfDay % 60, 2);
+        var nanos = value.getNano();
+        if (nanos > 0) {
+            buffer.write((byte) '.');
+            if (nanos % 1_000_000 == 0) {
+                digits(buffer, nanos / 1_000_000, 3);
+            } else if (nanos % 1_000 == 0) {
+                digits(buffer, nanos / 1_000, 6);
+            } else {
+                digits(buffer, nanos, 9);
+            }
+        }
+        buffer.write((byte) 'Z');
+        buffer.write((byte) '"');
+    }
+
+    private static void digits(DataBuffer buffer, int value, int width) {
+        var divisor = 1;
+        for (int i = 1; i < width; i++) {
+            divisor *= 10;
+        }
+        for (; divisor > 0; divisor /= 10) {
+            buffer.write((byte) ('0' + value / divisor % 10));
+        }
+    }
+
+    private static void ascii(DataBuffer buffer, String value) {
+        for (int i = 0; i < value.length(); i++) {
+            buffer.write((byte) value.charAt(i));
+        }
+    }
+}
@@ -11,6 +11,7 @@ public class Account {
     private String currencyCode;
     private String displayedName;
     private Long lastTxnId;
+    private long version;
     private AccountType type;
     private Instant createdAt;
     private Instant deletedAt;
@@ -71,6 +72,17 @@ public class Account {
         this.lastTxnId = lastTxnId;
     }
 
+    /**
+     * @return number of balance updates applied to the account, legs of a txn group make one
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    public void setVersion(long version) {
+        this.version = version;
+    }
+
     public AccountType getType() {
         return type;
     }
@@ -11,6 +11,7 @@ public class Txn {
     private BigDecimal amount;
     private TxnStatus status;
     private Long linkingTxnId;
+    private Long accountVersion;
     private TxnSpendingType spendingType;
     private String details;
     private Instant createdAt;
@@ -63,6 +64,17 @@ public class Txn {
         this.linkingTxnId = linkingTxnId;
     }
 
+    /**
+     * @return version of the account made by applying this leg to its balance, null until it's applied
+     */
+    public Long getAccountVersion() {
+        return accountVersion;
+    }
+
+    public void setAccountVersion(Long accountVersion) {
+        this.accountVersion = accountVersion;
+    }
+
     public TxnSpendingType getSpendingType() {
         return spendingType;
     }
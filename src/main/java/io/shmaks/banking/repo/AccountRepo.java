@@ -1,10 +1,16 @@
 package io.shmaks.banking.repo;
 
 import io.shmaks.banking.model.Account;
+import io.shmaks.banking.model.Txn;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
 import java.math.BigDecimal;
+import java.time.Instant;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -12,17 +18,73 @@ public interface AccountRepo {
     Mono<Account> findById(Long id);
     Mono<Account> findByAccountNumber(String accountNumber);
 
+    /**
+     * @return accounts found, in no particular order
+     */
+    Mono<List<Account>> findAllByIds(Collection<Long> ids);
+
+    /**
+     * @return the account as of one moment, with its balance & version made by the same update; accounts found by
+     * {@link #findById} may be updated while they're read. Rows read from a database are such copies already.
+     */
+    default Mono<Account> findSnapshotById(Long id) {
+        return findById(id);
+    }
+
+    /**
+     * @return accounts found, every one as of one moment (see {@link #findSnapshotById}), in no particular order
+     */
+    default Mono<List<Account>> findAllSnapshotsByIds(Collection<Long> ids) {
+        return findAllByIds(ids);
+    }
+
     Mono<List<Account>> findAllUserAccountsByOwnerIdOrderByAccountNumberAsc(String ownerId, int count, String afterAccountNumber);
     Mono<List<Account>> findAllByOwnerIdOrderByAccountNumberAsc(String ownerId, int count, String afterAccountNumber);
     Mono<List<Account>> findAllUserAccountsOrderByAccountNumberAsc(int count, String afterAccountNumber);
 
+    /**
+     * Streams all user accounts ordered by number. They're read by pages as they're requested, so memory use
+     * doesn't depend on the number of accounts; accounts created or deleted meanwhile may be missed.
+     */
+    default Flux<Account> streamAllUserAccountsOrderByAccountNumberAsc(int pageSize) {
+        return findAllUserAccountsOrderByAccountNumberAsc(pageSize, null)
+                .expand(page -> page.size() < pageSize
+                        ? Mono.empty()
+                        : findAllUserAccountsOrderByAccountNumberAsc(pageSize, page.get(page.size() - 1).getAccountNumber())
+                )
+                .concatMapIterable(page -> page);
+    }
+
+    /**
+     * @return user accounts, deleted ones too, changed (created, posted to, deleted or restored) after the given
+     * change sequence number, in the order of their last changes; an account comes once however often it changed
+     */
+    Mono<List<AccountChange>> findAllUserAccountsChangedAfter(long afterSeq, int count);
+    Mono<List<Account>> findTopUserAccountsByCurrencyOrderByBalanceDesc(String currencyCode, int count);
+    Mono<BalanceRank> findBalanceRankById(Long id);
+    Mono<List<Account>> findAllUserAccountsByNumberOrDisplayedNameStartingWith(String prefix, int count);
+
     Mono<Account> create(Account newAccount);
+
+    /**
+     * Creates accounts in bulk, ids are taken in one block
+     *
+     * @return accounts created, the ones emitted before an error are created
+     */
+    Flux<Account> createAll(List<Account> newAccounts);
     Mono<Account> updateBalance(Long accountId, Long txnId, BigDecimal delta);
+    Mono<Void> updateBalances(List<BalanceUpdate> updates);
     Mono<Boolean> deleteByIdAndOwnerId(Long id, String ownerId);
+    Mono<Boolean> restoreByIdAndOwnerId(Long id, String ownerId);
+    Mono<Long> archiveDeletedBefore(Instant deletedBefore);
 
     Mono<LockHandle> selectForUpdate(Collection<String> accountNumbers);
 
-    class LockHandle implements AutoCloseable { // it's not portable to relational case
+    /**
+     * Accounts locked for the rest of a transfer. In-memory locks are released on close, row locks are held until
+     * the surrounding transaction ends, so closing is a no-op there.
+     */
+    class LockHandle implements AutoCloseable {
         final Map<String, Account> accounts;
         final Runnable unlockAction;
 
@@ -40,4 +102,102 @@ public interface AccountRepo {
             return accounts;
         }
     }
+
+    /**
+     * Sum of the legs of one txn group posted to an account
+     */
+    class BalanceUpdate {
+        private final long accountId;
+        private final long lastTxnId;
+        private final BigDecimal delta;
+        private final List<Txn> txns;
+
+        public BalanceUpdate(long accountId, long lastTxnId, BigDecimal delta) {
+            this(accountId, lastTxnId, delta, List.of());
+        }
+
+        public BalanceUpdate(long accountId, long lastTxnId, BigDecimal delta, List<Txn> txns) {
+            this.accountId = accountId;
+            this.lastTxnId = lastTxnId;
+            this.delta = delta;
+            this.txns = txns;
+        }
+
+        /**
+         * @return one update per account, ordered by account id
+         */
+        public static List<BalanceUpdate> of(Collection<Txn> txns) {
+            var byAccount = new LinkedHashMap<Long, List<Txn>>();
+            for (var txn : txns) {
+                byAccount.computeIfAbsent(txn.getAccountId(), accountId -> new ArrayList<>()).add(txn);
+            }
+            var updates = new ArrayList<BalanceUpdate>(byAccount.size());
+            byAccount.forEach((accountId, legs) -> {
+                long lastTxnId = legs.get(0).getId();
+                var delta = legs.get(0).getAmount();
+                for (var leg : legs.subList(1, legs.size())) {
+                    lastTxnId = Math.max(lastTxnId, leg.getId());
+                    delta = delta.add(leg.getAmount());
+                }
+                updates.add(new BalanceUpdate(accountId, lastTxnId, delta, legs));
+            });
+            updates.sort(Comparator.comparingLong(BalanceUpdate::getAccountId));
+            return updates;
+        }
+
+        public long getAccountId() {
+            return accountId;
+        }
+
+        public long getLastTxnId() {
+            return lastTxnId;
+        }
+
+        public BigDecimal getDelta() {
+            return delta;
+        }
+
+        /**
+         * @return legs summed up by the update, they're stamped with the account version it makes
+         */
+        public List<Txn> getTxns() {
+            return txns;
+        }
+    }
+
+    class AccountChange {
+        private final long seq;
+        private final Account account;
+
+        public AccountChange(long seq, Account account) {
+            this.seq = seq;
+            this.account = account;
+        }
+
+        public long getSeq() {
+            return seq;
+        }
+
+        public Account getAccount() {
+            return account;
+        }
+    }
+
+    class BalanceRank {
+        private final long rank;
+        private final long total;
+
+        public BalanceRank(long rank, long total) {
+            this.rank = rank;
+            this.total = total;
+        }
+
+        public long getRank() {
+            return rank;
+        }
+
+        public long getTotal() {
+            return total;
+        }
+    }
 }
@@ -0,0 +1,62 @@
+package io.shmaks.banking.repo;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Change sequence numbers of account writes in flight, i.e. taken but not committed (or rolled back) yet. A number is
+ * taken when a row is written but seen when its transaction commits, so the change log is served up to the watermark
+ * only: below every number in flight, so no change can turn up behind a reader's cursor later.
+ * <p>
+ * A write registers before it takes its numbers, with the floor of the highest number taken so far: numbers come from
+ * one sequence, so the ones it takes are above it, and the watermark can't pass them meanwhile. Writes of other
+ * processes aren't tracked, the database is written by one app.
+ */
+class ChangeSeqs {
+
+    static class Write {
+        // the lowest number the write takes, the floor till it takes them
+        private long lowest;
+
+        private Write(long lowest) {
+            this.lowest = lowest;
+        }
+    }
+
+    private final Set<Write> inFlight = new HashSet<>();
+    // the highest number taken or committed, -1 until it's known
+    private long highest = -1;
+
+    synchronized Write begin() {
+        var write = new Write(highest + 1);
+        inFlight.add(write);
+        return write;
+    }
+
+    synchronized void taken(Write write, long lowest, long highest) {
+        write.lowest = lowest;
+        this.highest = Math.max(this.highest, highest);
+    }
+
+    synchronized void end(Write write) {
+        inFlight.remove(write);
+    }
+
+    /**
+     * @param committed the highest number of a committed change, read when the watermark isn't known yet
+     */
+    synchronized void seen(long committed) {
+        highest = Math.max(highest, committed);
+    }
+
+    /**
+     * @return the highest number every change up to is committed, -1 if it isn't known yet
+     */
+    synchronized long watermark() {
+        var watermark = highest;
+        for (var write : inFlight) {
+            watermark = Math.min(watermark, write.lowest - 1);
+        }
+        return watermark;
+    }
+}
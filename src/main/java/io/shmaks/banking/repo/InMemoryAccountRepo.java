@@ -2,21 +2,37 @@ package io.shmaks.banking.repo;
 
 import io.shmaks.banking.model.Account;
 import io.shmaks.banking.model.AccountType;
+import io.shmaks.banking.model.Txn;
+import io.shmaks.banking.repo.index.AccountChangeLog;
+import io.shmaks.banking.repo.index.AccountSearchIndex;
+import io.shmaks.banking.repo.index.AccountStateTree;
+import io.shmaks.banking.repo.index.BalanceRankIndex;
+import io.shmaks.banking.repo.table.AccountTable;
+import io.shmaks.banking.repo.tiering.AccountArchive;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
+import java.io.IOException;
 import java.math.BigDecimal;
 import java.time.Instant;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.BiConsumer;
 import java.util.function.UnaryOperator;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
-public class InMemoryAccountRepo implements AccountRepo {
+public class InMemoryAccountRepo implements AccountRepo, AutoCloseable {
+
+    public static final long FIRST_ID = 100500;
 
     private static class AccountWithLock {
         private final Account account;
@@ -30,12 +46,62 @@ public class InMemoryAccountRepo implements AccountRepo {
 
     private final Map<Long, Account> accountsById = new ConcurrentHashMap<>();
     private final NavigableMap<String, AccountWithLock> accountsByNumber = new ConcurrentSkipListMap<>();
+    private final Map<String, BalanceRankIndex> balanceRanksByCurrency = new ConcurrentHashMap<>();
+    private final AccountSearchIndex searchIndex = new AccountSearchIndex();
+    private final AccountChangeLog changeLog = new AccountChangeLog();
+    // covers archived accounts too, moving between tiers doesn't change the state
+    private final AccountStateTree stateTree = new AccountStateTree();
+
+    // deleted accounts leave hot indexes after retention, archive still serves them by id
+    private final AccountArchive archive = new AccountArchive();
+    private final Queue<Account> pendingArchival = new ConcurrentLinkedQueue<>();
+    // moves between hot indexes and archive are shared, snapshot is exclusive, so it sees every account exactly once
+    private final ReadWriteLock tierMoves = new ReentrantReadWriteLock();
+
+    private final AtomicLong SEQ = new AtomicLong(FIRST_ID);
+
+    // canonical storage every change is written through to, null if accounts live on heap only
+    private final AccountTable table;
+
+    public InMemoryAccountRepo() {
+        this(null);
+    }
 
-    private final AtomicLong SEQ = new AtomicLong(100500);
+    public InMemoryAccountRepo(AccountTable table) {
+        this.table = table;
+    }
 
     @Override
     public Mono<Account> findById(Long id) {
-        return Mono.justOrEmpty(accountsById.get(id));
+        var account = accountsById.get(id);
+        return Mono.justOrEmpty(account != null ? account : archive.get(id));
+    }
+
+    @Override
+    public Mono<Account> findSnapshotById(Long id) {
+        return Mono.justOrEmpty(snapshotOf(id));
+    }
+
+    @Override
+    public Mono<List<Account>> findAllSnapshotsByIds(Collection<Long> ids) {
+        var accounts = new ArrayList<Account>(ids.size());
+        for (var id : ids) {
+            var account = snapshotOf(id);
+            if (account != null) {
+                accounts.add(account);
+            }
+        }
+        return Mono.just(accounts);
+    }
+
+    // copied within compute, as balance updates are applied, archived accounts aren't updated
+    private Account snapshotOf(Long id) {
+        var copy = new Account[1];
+        accountsById.computeIfPresent(id, (key, account) -> {
+            copy[0] = copyOf(account);
+            return account;
+        });
+        return copy[0] != null ? copy[0] : archive.get(id);
     }
 
     @Override
@@ -43,6 +109,21 @@ public class InMemoryAccountRepo implements AccountRepo {
         return Mono.justOrEmpty(accountsByNumber.get(accountNumber)).map(it -> it.account);
     }
 
+    @Override
+    public Mono<List<Account>> findAllByIds(Collection<Long> ids) {
+        var accounts = new ArrayList<Account>(ids.size());
+        for (var id : ids) {
+            var account = accountsById.get(id);
+            if (account == null) {
+                account = archive.get(id);
+            }
+            if (account != null) {
+                accounts.add(account);
+            }
+        }
+        return Mono.just(accounts);
+    }
+
     @Override
     public Mono<List<Account>> findAllUserAccountsByOwnerIdOrderByAccountNumberAsc(String ownerId, int count, String afterAccountNumber) {
         return listUserAccounts(
@@ -68,6 +149,74 @@ public class InMemoryAccountRepo implements AccountRepo {
         );
     }
 
+    /**
+     * The ordered index is iterated as accounts are requested, its iterator is weakly consistent
+     */
+    @Override
+    public Flux<Account> streamAllUserAccountsOrderByAccountNumberAsc(int pageSize) {
+        return Flux.fromIterable(accountsByNumber.values())
+                .map(it -> it.account)
+                .filter(acc -> acc.getType() == AccountType.USER && acc.getDeletedAt() == null);
+    }
+
+    @Override
+    public Mono<List<AccountChange>> findAllUserAccountsChangedAfter(long afterSeq, int count) {
+        return Mono.fromCallable(() -> {
+            var changes = new ArrayList<AccountChange>(count);
+            for (var change : changeLog.changedAfter(afterSeq).entrySet()) {
+                if (changes.size() == count) {
+                    break;
+                }
+                var account = accountsById.get(change.getValue());
+                if (account == null) {
+                    account = archive.get(change.getValue());
+                }
+                if (account != null && account.getType() == AccountType.USER) {
+                    changes.add(new AccountChange(change.getKey(), account));
+                }
+            }
+            return changes;
+        });
+    }
+
+    @Override
+    public Mono<List<Account>> findTopUserAccountsByCurrencyOrderByBalanceDesc(String currencyCode, int count) {
+        var index = balanceRanksByCurrency.get(currencyCode);
+        if (index == null) {
+            return Mono.just(List.of());
+        }
+        return Mono.just(
+                index.range(1, count).stream()
+                        .map(accountsById::get)
+                        .filter(Objects::nonNull)
+                        .collect(Collectors.toList())
+        );
+    }
+
+    @Override
+    public Mono<BalanceRank> findBalanceRankById(Long id) {
+        var account = accountsById.get(id);
+        if (account == null) {
+            return Mono.empty();
+        }
+        var index = balanceRanksByCurrency.get(account.getCurrencyCode());
+        if (index == null) {
+            return Mono.empty();
+        }
+        var rank = index.rank(id);
+        return rank > 0 ? Mono.just(new BalanceRank(rank, index.size())) : Mono.empty();
+    }
+
+    @Override
+    public Mono<List<Account>> findAllUserAccountsByNumberOrDisplayedNameStartingWith(String prefix, int count) {
+        return Mono.just(
+                searchIndex.search(prefix, count).stream()
+                        .map(accountsById::get)
+                        .filter(Objects::nonNull)
+                        .collect(Collectors.toList())
+        );
+    }
+
     private Mono<List<Account>> listUserAccounts(int count, String afterAccountNumber, UnaryOperator<Stream<Account>> filter) {
         var accounts = (afterAccountNumber == null || !accountsByNumber.containsKey(afterAccountNumber))
                 ? accountsByNumber.values() : accountsByNumber.tailMap(afterAccountNumber, false).values();
@@ -83,38 +232,210 @@ public class InMemoryAccountRepo implements AccountRepo {
 
     @Override
     public Mono<Account> create(Account newAccount) {
+        try {
+            insert(newAccount, null, Instant.now());
+        } catch (RuntimeException e) {
+            return Mono.error(e);
+        }
+        return Mono.just(newAccount);
+    }
+
+    @Override
+    public Flux<Account> createAll(List<Account> newAccounts) {
+        var firstId = SEQ.getAndAdd(newAccounts.size());
+        var createdAt = Instant.now();
+        for (int i = 0; i < newAccounts.size(); i++) {
+            try {
+                insert(newAccounts.get(i), firstId + i, createdAt);
+            } catch (RuntimeException e) {
+                return Flux.concat(Flux.fromIterable(newAccounts.subList(0, i)), Flux.error(e));
+            }
+        }
+        return Flux.fromIterable(newAccounts);
+    }
+
+    /**
+     * @param id taken beforehand, or null to take the next one
+     */
+    private void insert(Account newAccount, Long id, Instant createdAt) {
         if (accountsByNumber.putIfAbsent(newAccount.getAccountNumber(), new AccountWithLock(newAccount, new ReentrantLock())) != null) {
-            return Mono.error(new DataInconsistencyException("ACC_NUM_UC"));
+            throw new DataInconsistencyException("ACC_NUM_UC");
+        }
+        newAccount.setId(id != null ? id : SEQ.getAndIncrement());
+        newAccount.setCreatedAt(createdAt);
+        try {
+            persist(newAccount);
+        } catch (RuntimeException e) {
+            accountsByNumber.remove(newAccount.getAccountNumber());
+            throw e;
         }
-        newAccount.setId(SEQ.getAndIncrement());
-        newAccount.setCreatedAt(Instant.now());
         accountsById.put(newAccount.getId(), newAccount);
-        return Mono.just(newAccount);
+        stateTree.replace(null, newAccount);
+        changeLog.changed(newAccount.getId());
+        if (isRanked(newAccount)) {
+            balanceRank(newAccount).put(newAccount.getId(), newAccount.getBalance());
+            searchIndex.add(newAccount.getId(), newAccount.getAccountNumber(), newAccount.getDisplayedName());
+        }
     }
 
     @Override
     public Mono<Account> updateBalance(Long accountId, Long txnId, BigDecimal delta) {
-        return Mono.justOrEmpty(accountsById.compute(accountId, (id, acc) -> {
-                    if (acc != null) {
-                        acc.setBalance(acc.getBalance().add(delta));
-                        acc.setLastTxnId(txnId);
-                    }
-                    return acc;
-                })
-        );
+        return Mono.justOrEmpty(applyBalance(accountId, txnId, delta, List.of(), null));
+    }
+
+    /**
+     * Applies a balance update made before (e.g. on recovery or by the primary) with the version it made, as updates
+     * of an account may come out of their order
+     */
+    public Mono<Account> replayBalance(Long accountId, long txnId, long version, BigDecimal delta) {
+        return Mono.justOrEmpty(applyBalance(accountId, txnId, delta, List.of(), version));
+    }
+
+    @Override
+    public Mono<Void> updateBalances(List<BalanceUpdate> updates) {
+        for (var update : updates) {
+            applyBalance(update.getAccountId(), update.getLastTxnId(), update.getDelta(), update.getTxns(), null);
+        }
+        return Mono.empty();
+    }
+
+    /**
+     * @param version version made by the update, the next one if null
+     */
+    private Account applyBalance(Long accountId, long txnId, BigDecimal delta, List<Txn> txns, Long version) {
+        return accountsById.compute(accountId, (id, acc) -> {
+            if (acc != null) {
+                var previousHash = AccountStateTree.hashOf(acc);
+                acc.setBalance(acc.getBalance().add(delta));
+                if (acc.getLastTxnId() == null || acc.getLastTxnId() < txnId) {
+                    acc.setLastTxnId(txnId);
+                }
+                acc.setVersion(version != null ? Math.max(acc.getVersion(), version) : acc.getVersion() + 1);
+                for (var txn : txns) {
+                    txn.setAccountVersion(acc.getVersion());
+                }
+                stateTree.remove(acc.getAccountNumber(), previousHash);
+                stateTree.add(acc.getAccountNumber(), AccountStateTree.hashOf(acc));
+                if (isRanked(acc)) {
+                    balanceRank(acc).put(id, acc.getBalance());
+                }
+                persist(acc);
+                changeLog.changed(id);
+            }
+            return acc;
+        });
     }
 
     @Override
     public Mono<Boolean> deleteByIdAndOwnerId(Long id, String ownerId) {
+        return Mono.just(markDeleted(id, ownerId, Instant.now()));
+    }
+
+    /**
+     * Replays deletion of the account with its original time
+     */
+    public boolean markDeleted(Long id, Instant deletedAt) {
         var account = accountsById.get(id);
-        if (account == null || !account.getOwnerId().equals(ownerId) || account.getType() != AccountType.USER) {
-            return Mono.just(false);
+        return account != null && markDeleted(id, account.getOwnerId(), deletedAt);
+    }
+
+    private boolean markDeleted(Long id, String ownerId, Instant deletedAt) {
+        var deleted = new AtomicBoolean();
+        accountsById.computeIfPresent(id, (key, account) -> {
+            if (isOwnedUserAccount(account, ownerId) && account.getDeletedAt() == null) {
+                account.setDeletedAt(deletedAt);
+                balanceRank(account).remove(key);
+                searchIndex.remove(key, account.getAccountNumber(), account.getDisplayedName());
+                pendingArchival.offer(account);
+                persist(account);
+                changeLog.changed(key);
+                deleted.set(true);
+            }
+            return account;
+        });
+        return deleted.get();
+    }
+
+    @Override
+    public Mono<Boolean> restoreByIdAndOwnerId(Long id, String ownerId) {
+        var archived = archive.get(id);
+        if (archived != null && isOwnedUserAccount(archived, ownerId)) {
+            tierMoves.readLock().lock();
+            try {
+                var existing = accountsByNumber.putIfAbsent(
+                        archived.getAccountNumber(), new AccountWithLock(archived, new ReentrantLock())
+                );
+                // the same account may have been restored concurrently from its own decoded copy
+                if (existing != null && !existing.account.getId().equals(id)) {
+                    return Mono.error(new DataInconsistencyException("ACC_NUM_UC"));
+                }
+                accountsById.putIfAbsent(id, existing != null ? existing.account : archived);
+                archive.remove(id);
+            } finally {
+                tierMoves.readLock().unlock();
+            }
         }
-        var willBeDeleted = account.getDeletedAt() == null;
-        if (willBeDeleted) {
-            account.setDeletedAt(Instant.now());
+
+        var restored = new AtomicBoolean();
+        accountsById.computeIfPresent(id, (key, account) -> {
+            if (isOwnedUserAccount(account, ownerId) && account.getDeletedAt() != null) {
+                account.setDeletedAt(null);
+                balanceRank(account).put(key, account.getBalance());
+                searchIndex.add(key, account.getAccountNumber(), account.getDisplayedName());
+                persist(account);
+                changeLog.changed(key);
+                restored.set(true);
+            }
+            return account;
+        });
+        return Mono.just(restored.get());
+    }
+
+    @Override
+    public Mono<Long> archiveDeletedBefore(Instant deletedBefore) {
+        long archived = 0;
+        Account candidate;
+        while ((candidate = pendingArchival.peek()) != null) {
+            var deletedAt = candidate.getDeletedAt();
+            if (deletedAt != null && !deletedAt.isBefore(deletedBefore)) {
+                break;
+            }
+            var accountWithLock = accountsByNumber.get(candidate.getAccountNumber());
+            if (deletedAt != null && accountWithLock != null && accountWithLock.account == candidate) {
+                if (!accountWithLock.lock.tryLock()) {
+                    break; // account is involved in a transfer, retry next time
+                }
+                tierMoves.readLock().lock();
+                try {
+                    if (archive(accountWithLock, deletedBefore)) {
+                        archived++;
+                    }
+                } finally {
+                    tierMoves.readLock().unlock();
+                    accountWithLock.lock.unlock();
+                }
+            }
+            pendingArchival.remove(candidate);
         }
-        return Mono.just(willBeDeleted);
+        return Mono.just(archived);
+    }
+
+    private boolean archive(AccountWithLock accountWithLock, Instant deletedBefore) {
+        var archived = new AtomicBoolean();
+        accountsById.computeIfPresent(accountWithLock.account.getId(), (id, account) -> {
+            if (account.getDeletedAt() == null || !account.getDeletedAt().isBefore(deletedBefore)) {
+                return account;
+            }
+            archive.put(account);
+            accountsByNumber.remove(account.getAccountNumber(), accountWithLock);
+            archived.set(true);
+            return null;
+        });
+        return archived.get();
+    }
+
+    private static boolean isOwnedUserAccount(Account account, String ownerId) {
+        return account.getOwnerId().equals(ownerId) && account.getType() == AccountType.USER;
     }
 
     @Override
@@ -152,9 +473,150 @@ public class InMemoryAccountRepo implements AccountRepo {
         return Mono.just(new LockHandle(accounts, unlockAction));
     }
 
+    /**
+     * Passes a consistent copy of every account (hot and archived ones) to the action without blocking
+     * balance updates, only archival & restoring wait until it's done.
+     */
+    public void forEachAccount(BiConsumer<Account, Boolean> action) {
+        tierMoves.writeLock().lock();
+        try {
+            for (var id : accountsById.keySet()) {
+                var copy = new Account[1];
+                accountsById.computeIfPresent(id, (key, account) -> {
+                    copy[0] = copyOf(account);
+                    return account;
+                });
+                if (copy[0] != null) {
+                    action.accept(copy[0], false);
+                }
+            }
+            for (var account : archive.getAll()) {
+                action.accept(account, true);
+            }
+        } finally {
+            tierMoves.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Puts the account as is (e.g. loaded from a snapshot) replacing the one with the same id
+     */
+    public void restore(Account account, boolean archived) {
+        persist(account);
+        put(account, archived);
+    }
+
+    /**
+     * Puts the account read from the table, nothing is written back to it
+     */
+    public void load(Account account) {
+        put(account, false);
+    }
+
+    /**
+     * Makes all accounts written so far durable in the table
+     */
+    public void flush() throws IOException {
+        if (table != null) {
+            table.flush();
+        }
+    }
+
+    /**
+     * @return null if accounts live on heap only
+     */
+    public AccountTable getTable() {
+        return table;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (table != null) {
+            table.close();
+        }
+    }
+
+    private void persist(Account account) {
+        if (table != null) {
+            table.write(account);
+        }
+    }
+
+    private void put(Account account, boolean archived) {
+        var id = account.getId();
+        SEQ.accumulateAndGet(id + 1, Math::max);
+        changeLog.changed(id);
+        if (archived) {
+            stateTree.replace(archive.put(account), account);
+            return;
+        }
+        var previous = accountsById.put(id, account);
+        stateTree.replace(previous, account);
+        if (previous != null) {
+            accountsByNumber.remove(previous.getAccountNumber());
+            if (isRanked(previous)) {
+                balanceRank(previous).remove(id);
+                searchIndex.remove(id, previous.getAccountNumber(), previous.getDisplayedName());
+            }
+        }
+        accountsByNumber.put(account.getAccountNumber(), new AccountWithLock(account, new ReentrantLock()));
+        if (isRanked(account)) {
+            balanceRank(account).put(id, account.getBalance());
+            searchIndex.add(id, account.getAccountNumber(), account.getDisplayedName());
+        } else if (account.getDeletedAt() != null) {
+            pendingArchival.offer(account);
+        }
+    }
+
+    public long getNextId() {
+        return SEQ.get();
+    }
+
+    public void advanceNextId(long nextId) {
+        SEQ.accumulateAndGet(nextId, Math::max);
+    }
+
+    private static Account copyOf(Account account) {
+        var copy = new Account();
+        copy.setId(account.getId());
+        copy.setOwnerId(account.getOwnerId());
+        copy.setAccountNumber(account.getAccountNumber());
+        copy.setBalance(account.getBalance());
+        copy.setCurrencyCode(account.getCurrencyCode());
+        copy.setDisplayedName(account.getDisplayedName());
+        copy.setLastTxnId(account.getLastTxnId());
+        copy.setVersion(account.getVersion());
+        copy.setType(account.getType());
+        copy.setCreatedAt(account.getCreatedAt());
+        copy.setDeletedAt(account.getDeletedAt());
+        return copy;
+    }
+
     public void clear() {
         accountsById.clear();
         accountsByNumber.clear();
+        balanceRanksByCurrency.clear();
+        searchIndex.clear();
+        archive.clear();
+        pendingArchival.clear();
+        stateTree.clear();
+        changeLog.clear();
+    }
+
+    public AccountStateTree getStateTree() {
+        return stateTree;
+    }
+
+    private static boolean isRanked(Account account) {
+        return account.getType() == AccountType.USER && account.getDeletedAt() == null;
+    }
+
+    private BalanceRankIndex balanceRank(Account account) {
+        return balanceRanksByCurrency.computeIfAbsent(account.getCurrencyCode(), currency -> new BalanceRankIndex());
+    }
+
+    public Collection<Account> getArchivedAccounts() {
+        return archive.getAll();
     }
 
     public Collection<Account> getAccounts() {
@@ -8,6 +8,7 @@ import java.util.Map;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
 
 public class InMemoryTxnGroupRepo implements TxnGroupRepo {
 
@@ -21,8 +22,8 @@ public class InMemoryTxnGroupRepo implements TxnGroupRepo {
         if (existing != null) {
             return Mono.just(new CreationResult(false, existing));
         }
-        group.setId(SEQ.getAndIncrement());
         group.setCreatedAt(Instant.now());
+        group.setId(SEQ.getAndIncrement());
         return Mono.just(new CreationResult(true, group));
     }
 
@@ -34,4 +35,31 @@ public class InMemoryTxnGroupRepo implements TxnGroupRepo {
     public void clear() {
         txnGroupsByUUID.clear();
     }
+
+    /**
+     * Passes every group which has been assigned an id to the action, groups are never changed after that
+     */
+    public void forEachTxnGroup(Consumer<TxnGroup> action) {
+        for (var group : txnGroupsByUUID.values()) {
+            if (group.getId() != null && group.getCreatedAt() != null) {
+                action.accept(group);
+            }
+        }
+    }
+
+    /**
+     * Puts the group as is (e.g. loaded from a snapshot) replacing the one with the same UUID
+     */
+    public void restore(TxnGroup group) {
+        txnGroupsByUUID.put(group.getTxnUUID(), group);
+        SEQ.accumulateAndGet(group.getId() + 1, Math::max);
+    }
+
+    public long getNextId() {
+        return SEQ.get();
+    }
+
+    public void advanceNextId(long nextId) {
+        SEQ.accumulateAndGet(nextId, Math::max);
+    }
 }
@@ -2,24 +2,42 @@ package io.shmaks.banking.repo;
 
 import io.shmaks.banking.model.Txn;
 import io.shmaks.banking.model.TxnSpendingType;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
 import java.time.Instant;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Queue;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
 
 public class InMemoryTxnRepo implements TxnRepo {
 
     private final Map<Long, Txn> txnById = new ConcurrentHashMap<>();
+    private final Map<Long, Queue<Txn>> txnsByGroupId = new ConcurrentHashMap<>();
+    private final Map<Long, NavigableMap<Long, Txn>> txnsByAccountId = new ConcurrentHashMap<>();
 
     private final AtomicLong SEQ = new AtomicLong(500100);
 
+    private static final Queue<Txn> EMPTY = new ConcurrentLinkedQueue<>();
+
     @Override
     public Mono<Txn> create(Txn txn) {
         txn.setId(SEQ.getAndIncrement());
         txn.setCreatedAt(Instant.now());
         txnById.put(txn.getId(), txn);
+        txnsByGroupId.computeIfAbsent(txn.getTxnGroupId(), groupId -> new ConcurrentLinkedQueue<>()).add(txn);
+        txnsByAccountId.computeIfAbsent(txn.getAccountId(), accountId -> new ConcurrentSkipListMap<>()).put(txn.getId(), txn);
         return Mono.just(txn);
     }
 
@@ -40,22 +58,127 @@ public class InMemoryTxnRepo implements TxnRepo {
         return Mono.empty();
     }
 
+    @Override
+    public Mono<List<Txn>> createPairs(List<Txn> txns) {
+        for (int i = 0; i < txns.size(); i += 2) {
+            create(txns.get(i));
+            create(txns.get(i + 1));
+            link(txns.get(i), txns.get(i + 1));
+        }
+        return Mono.just(txns);
+    }
+
     @Override
     public Mono<Txn> findByTxnGroupIdAndAccountIdAndSpendingType(Long txnGroupId, Long accountId, TxnSpendingType spendingType) {
-        return Mono.justOrEmpty(txnById.values().stream()
-                .filter(txn ->
-                        txn.getTxnGroupId().equals(txnGroupId) && txn.getAccountId().equals(accountId) &&
-                                txn.getSpendingType() == spendingType
-                )
+        return Mono.justOrEmpty(txnsByGroupId.getOrDefault(txnGroupId, EMPTY).stream()
+                .filter(txn -> txn.getAccountId().equals(accountId) && txn.getSpendingType() == spendingType)
                 .findFirst()
         );
     }
 
+    @Override
+    public Mono<List<Txn>> findAllByTxnGroupId(Long txnGroupId) {
+        return Mono.just(List.copyOf(txnsByGroupId.getOrDefault(txnGroupId, EMPTY)));
+    }
+
+    @Override
+    public Flux<Txn> findAllByAccountIdAndCreatedAtFromOrderByIdAsc(Long accountId, Instant createdFrom) {
+        return Flux.fromIterable(() -> iterateByAccountId(accountId))
+                .filter(txn -> !txn.getCreatedAt().isBefore(createdFrom));
+    }
+
+    /**
+     * @return txns of the account ordered by id, the iterator is weakly consistent
+     */
+    public Iterator<Txn> iterateByAccountId(long accountId) {
+        var txns = txnsByAccountId.get(accountId);
+        return txns != null ? txns.values().iterator() : Collections.emptyIterator();
+    }
+
     public void clear() {
         txnById.clear();
+        txnsByGroupId.clear();
+        txnsByAccountId.clear();
     }
 
     public Txn findById(Long id) {
         return txnById.get(id);
     }
+
+    public List<Txn> findAllCreatedBefore(Instant createdBefore) {
+        return txnById.values().stream()
+                .filter(txn -> txn.getCreatedAt().isBefore(createdBefore))
+                .sorted(Comparator.comparing(Txn::getId))
+                .collect(Collectors.toList());
+    }
+
+    public void removeAll(Collection<Txn> txns) {
+        txns.forEach(txn -> {
+            txnById.remove(txn.getId(), txn);
+            txnsByGroupId.computeIfPresent(txn.getTxnGroupId(), (groupId, groupTxns) -> {
+                groupTxns.remove(txn);
+                return groupTxns.isEmpty() ? null : groupTxns;
+            });
+            txnsByAccountId.computeIfPresent(txn.getAccountId(), (accountId, accountTxns) -> {
+                accountTxns.remove(txn.getId(), txn);
+                return accountTxns.isEmpty() ? null : accountTxns;
+            });
+        });
+    }
+
+    /**
+     * Passes a copy of every txn to the action, each one is copied atomically
+     */
+    public void forEachTxn(Consumer<Txn> action) {
+        for (var id : txnById.keySet()) {
+            var copy = new Txn[1];
+            txnById.computeIfPresent(id, (key, txn) -> {
+                copy[0] = copyOf(txn);
+                return txn;
+            });
+            if (copy[0] != null) {
+                action.accept(copy[0]);
+            }
+        }
+    }
+
+    /**
+     * Puts the txn as is (e.g. loaded from a snapshot) replacing the one with the same id
+     */
+    public void restore(Txn txn) {
+        var previous = txnById.put(txn.getId(), txn);
+        var groupTxns = txnsByGroupId.computeIfAbsent(txn.getTxnGroupId(), groupId -> new ConcurrentLinkedQueue<>());
+        if (previous != null) {
+            groupTxns.remove(previous);
+            txnsByAccountId.computeIfPresent(previous.getAccountId(), (accountId, accountTxns) -> {
+                accountTxns.remove(previous.getId(), previous);
+                return accountTxns.isEmpty() ? null : accountTxns;
+            });
+        }
+        groupTxns.add(txn);
+        txnsByAccountId.computeIfAbsent(txn.getAccountId(), accountId -> new ConcurrentSkipListMap<>()).put(txn.getId(), txn);
+        SEQ.accumulateAndGet(txn.getId() + 1, Math::max);
+    }
+
+    public long getNextId() {
+        return SEQ.get();
+    }
+
+    public void advanceNextId(long nextId) {
+        SEQ.accumulateAndGet(nextId, Math::max);
+    }
+
+    private static Txn copyOf(Txn txn) {
+        var copy = new Txn();
+        copy.setId(txn.getId());
+        copy.setAccountId(txn.getAccountId());
+        copy.setTxnGroupId(txn.getTxnGroupId());
+        copy.setLinkingTxnId(txn.getLinkingTxnId());
+        copy.setStatus(txn.getStatus());
+        copy.setSpendingType(txn.getSpendingType());
+        copy.setAmount(txn.getAmount());
+        copy.setCreatedAt(txn.getCreatedAt());
+        copy.setDetails(txn.getDetails());
+        return copy;
+    }
 }
@@ -0,0 +1,505 @@
+package io.shmaks.banking.repo;
+
+import io.r2dbc.spi.R2dbcDataIntegrityViolationException;
+import io.r2dbc.spi.Result;
+import io.r2dbc.spi.Row;
+import io.r2dbc.spi.Statement;
+import io.shmaks.banking.model.Account;
+import io.shmaks.banking.model.AccountType;
+import io.shmaks.banking.model.Txn;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.dao.TransientDataAccessException;
+import org.springframework.r2dbc.core.DatabaseClient;
+import org.springframework.transaction.NoTransactionException;
+import org.springframework.transaction.reactive.TransactionSynchronization;
+import org.springframework.transaction.reactive.TransactionSynchronizationManager;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Accounts in a relational database (H2 dialect), schema is in {@code db/r2dbc/schema.sql}.
+ * <p>
+ * Transfers lock account rows by {@code SELECT ... FOR UPDATE} ordered by account number, the same order in-memory
+ * locks are taken in, so concurrent transfers over the same accounts can't deadlock. Row locks are held until the
+ * surrounding transaction ends.
+ * <p>
+ * Every write of a row takes the next {@code change_seq}, the column is the change log compacted per account. A number
+ * is taken when the row is written but seen when the transaction commits, so the log is read up to the watermark of
+ * {@link ChangeSeqs} only: a change of a long transaction can't turn up behind the cursor of a reader that went past
+ * it meanwhile.
+ */
+public class R2dbcAccountRepo implements AccountRepo {
+
+    private static final String COLUMNS = "id, owner_id, account_number, type, balance, currency_code, " +
+            "displayed_name, last_txn_id, created_at, deleted_at";
+    // version starts from 0 on insert and moves with balance updates only
+    private static final String SELECTED = COLUMNS + ", version";
+
+    private static final String USER_ACCOUNT = "type = 'USER' AND deleted_at IS NULL";
+
+    private final DatabaseClient client;
+    private final ChangeSeqs changeSeqs = new ChangeSeqs();
+
+    public R2dbcAccountRepo(DatabaseClient client) {
+        this.client = client;
+    }
+
+    @Override
+    public Mono<Account> findById(Long id) {
+        return client.sql("SELECT " + SELECTED + " FROM account WHERE id = :id")
+                .bind("id", id)
+                .map(R2dbcAccountRepo::account)
+                .one();
+    }
+
+    @Override
+    public Mono<Account> findByAccountNumber(String accountNumber) {
+        return client.sql("SELECT " + SELECTED + " FROM account WHERE account_number = :accountNumber")
+                .bind("accountNumber", accountNumber)
+                .map(R2dbcAccountRepo::account)
+                .one();
+    }
+
+    @Override
+    public Mono<List<Account>> findAllByIds(Collection<Long> ids) {
+        if (ids.isEmpty()) {
+            return Mono.just(List.of());
+        }
+        return client.sql("SELECT " + SELECTED + " FROM account WHERE id IN (:ids)")
+                .bind("ids", ids)
+                .map(R2dbcAccountRepo::account)
+                .all()
+                .collectList();
+    }
+
+    @Override
+    public Mono<List<Account>> findAllUserAccountsByOwnerIdOrderByAccountNumberAsc(String ownerId, int count, String afterAccountNumber) {
+        return list("owner_id = :ownerId AND " + USER_ACCOUNT, ownerId, count, afterAccountNumber);
+    }
+
+    @Override
+    public Mono<List<Account>> findAllByOwnerIdOrderByAccountNumberAsc(String ownerId, int count, String afterAccountNumber) {
+        return list("owner_id = :ownerId AND deleted_at IS NULL", ownerId, count, afterAccountNumber);
+    }
+
+    @Override
+    public Mono<List<Account>> findAllUserAccountsOrderByAccountNumberAsc(int count, String afterAccountNumber) {
+        return list(USER_ACCOUNT, null, count, afterAccountNumber);
+    }
+
+    private Mono<List<Account>> list(String condition, String ownerId, int count, String afterAccountNumber) {
+        var sql = "SELECT " + SELECTED + " FROM account WHERE " + condition +
+                (afterAccountNumber != null ? " AND account_number > :after" : "") +
+                " ORDER BY account_number LIMIT :count";
+        var spec = client.sql(sql).bind("count", count);
+        if (ownerId != null) {
+            spec = spec.bind("ownerId", ownerId);
+        }
+        if (afterAccountNumber != null) {
+            spec = spec.bind("after", afterAccountNumber);
+        }
+        return spec.map(R2dbcAccountRepo::account).all().collectList();
+    }
+
+    @Override
+    public Mono<List<AccountChange>> findAllUserAccountsChangedAfter(long afterSeq, int count) {
+        return changeWatermark().flatMap(watermark -> client.sql(
+                        "SELECT " + SELECTED + ", change_seq FROM account WHERE type = 'USER' AND change_seq > :after " +
+                                "AND change_seq <= :watermark ORDER BY change_seq LIMIT :count"
+                )
+                .bind("after", afterSeq)
+                .bind("watermark", watermark)
+                .bind("count", count)
+                .map(row -> new AccountChange(row.get("change_seq", Long.class), account(row)))
+                .all()
+                .collectList());
+    }
+
+    // the committed maximum is read once, later writes of this app are tracked
+    private Mono<Long> changeWatermark() {
+        return Mono.defer(() -> {
+            var watermark = changeSeqs.watermark();
+            if (watermark >= 0) {
+                return Mono.just(watermark);
+            }
+            return client.sql("SELECT COALESCE(MAX(change_seq), 0) FROM account")
+                    .map(row -> row.get(0, Long.class))
+                    .one()
+                    .map(committed -> {
+                        changeSeqs.seen(committed);
+                        return changeSeqs.watermark();
+                    });
+        });
+    }
+
+    /**
+     * Takes change seqs for the rows a write changes, they're in flight until the surrounding transaction ends, or
+     * the write does if there's none
+     */
+    private <T> Mono<T> withChangeSeqs(int count, Function<List<Long>, Mono<T>> write) {
+        return Mono.defer(() -> {
+            var inFlight = changeSeqs.begin();
+            var synchronizedWithTransaction = new AtomicBoolean();
+            return TransactionSynchronizationManager.forCurrentTransaction()
+                    .filter(TransactionSynchronizationManager::isSynchronizationActive)
+                    .doOnNext(manager -> {
+                        manager.registerSynchronization(new TransactionSynchronization() {
+                            @Override
+                            public Mono<Void> afterCompletion(int status) {
+                                changeSeqs.end(inFlight);
+                                return Mono.empty();
+                            }
+                        });
+                        synchronizedWithTransaction.set(true);
+                    })
+                    .onErrorResume(NoTransactionException.class, e -> Mono.empty())
+                    .then(client.sql("SELECT NEXT VALUE FOR account_change_seq FROM SYSTEM_RANGE(1, :count)")
+                            .bind("count", count)
+                            .map(row -> row.get(0, Long.class))
+                            .all()
+                            .collectList())
+                    .doOnNext(seqs -> changeSeqs.taken(inFlight, Collections.min(seqs), Collections.max(seqs)))
+                    .flatMap(write)
+                    .doFinally(signal -> {
+                        if (!synchronizedWithTransaction.get()) {
+                            changeSeqs.end(inFlight);
+                        }
+                    });
+        });
+    }
+
+    @Override
+    public Mono<List<Account>> findTopUserAccountsByCurrencyOrderByBalanceDesc(String currencyCode, int count) {
+        return client.sql(
+                        "SELECT " + SELECTED + " FROM account WHERE currency_code = :currencyCode AND " + USER_ACCOUNT +
+                                " ORDER BY balance DESC, id LIMIT :count"
+                )
+                .bind("currencyCode", currencyCode)
+                .bind("count", count)
+                .map(R2dbcAccountRepo::account)
+                .all()
+                .collectList();
+    }
+
+    @Override
+    public Mono<BalanceRank> findBalanceRankById(Long id) {
+        var ranked = "o.currency_code = a.currency_code AND o.type = 'USER' AND o.deleted_at IS NULL";
+        return client.sql(
+                        "SELECT " +
+                                "(SELECT COUNT(*) FROM account o WHERE " + ranked +
+                                " AND (o.balance > a.balance OR (o.balance = a.balance AND o.id < a.id))) + 1 AS rnk, " +
+                                "(SELECT COUNT(*) FROM account o WHERE " + ranked + ") AS total " +
+                                "FROM account a WHERE a.id = :id AND a.type = 'USER' AND a.deleted_at IS NULL"
+                )
+                .bind("id", id)
+                .map(row -> new BalanceRank(
+                        row.get("rnk", Long.class), row.get("total", Long.class)
+                ))
+                .one();
+    }
+
+    @Override
+    public Mono<List<Account>> findAllUserAccountsByNumberOrDisplayedNameStartingWith(String prefix, int count) {
+        if (prefix.isEmpty()) {
+            return Mono.just(List.of());
+        }
+        var pattern = escapeLike(prefix) + "%";
+        var byNumber = client.sql(
+                        "SELECT " + SELECTED + " FROM account WHERE account_number LIKE :pattern AND " + USER_ACCOUNT +
+                                " ORDER BY account_number LIMIT :count"
+                )
+                .bind("pattern", pattern)
+                .bind("count", count)
+                .map(R2dbcAccountRepo::account)
+                .all();
+        // whole name or any of its words, the same way in-memory search index tokenizes names
+        var byName = client.sql(
+                        "SELECT " + SELECTED + " FROM account WHERE " + USER_ACCOUNT +
+                                " AND (LOWER(TRIM(displayed_name)) LIKE :pattern OR LOWER(displayed_name) LIKE :wordPattern)" +
+                                " ORDER BY id LIMIT :count"
+                )
+                .bind("pattern", pattern.toLowerCase())
+                .bind("wordPattern", "% " + pattern.toLowerCase())
+                .bind("count", count)
+                .map(R2dbcAccountRepo::account)
+                .all();
+        return byNumber.concatWith(byName)
+                .collect(LinkedHashMap<Long, Account>::new, (found, account) -> found.putIfAbsent(account.getId(), account))
+                .map(found -> found.values().stream().limit(count).collect(Collectors.toList()));
+    }
+
+    @Override
+    public Mono<Account> create(Account newAccount) {
+        return client.sql("SELECT NEXT VALUE FOR account_seq")
+                .map(row -> row.get(0, Long.class))
+                .one()
+                .flatMap(id -> withChangeSeqs(1, taken -> {
+                    newAccount.setId(id);
+                    newAccount.setCreatedAt(Instant.now());
+                    var spec = client.sql(
+                                    "INSERT INTO account (" + COLUMNS + ", change_seq) VALUES (:id, :ownerId, :accountNumber, " +
+                                            ":type, :balance, :currencyCode, :displayedName, :lastTxnId, :createdAt, :deletedAt, " +
+                                            ":changeSeq)"
+                            )
+                            .bind("id", id)
+                            .bind("changeSeq", taken.get(0))
+                            .bind("ownerId", newAccount.getOwnerId())
+                            .bind("accountNumber", newAccount.getAccountNumber())
+                            .bind("type", newAccount.getType().name())
+                            .bind("balance", newAccount.getBalance())
+                            .bind("currencyCode", newAccount.getCurrencyCode())
+                            .bind("createdAt", timestamp(newAccount.getCreatedAt()));
+                    spec = bindNullable(spec, "displayedName", newAccount.getDisplayedName(), String.class);
+                    spec = bindNullable(spec, "lastTxnId", newAccount.getLastTxnId(), Long.class);
+                    spec = bindNullable(spec, "deletedAt", timestamp(newAccount.getDeletedAt()), OffsetDateTime.class);
+                    return spec.fetch().rowsUpdated();
+                }))
+                .onErrorMap(DataIntegrityViolationException.class, e -> new DataInconsistencyException("ACC_NUM_UC"))
+                .thenReturn(newAccount);
+    }
+
+    /**
+     * Ids are taken from the sequence by one query, rows are inserted by one statement, so either all of them or none
+     */
+    @Override
+    public Flux<Account> createAll(List<Account> newAccounts) {
+        if (newAccounts.isEmpty()) {
+            return Flux.empty();
+        }
+        var size = newAccounts.size();
+        var rows = new ArrayList<String>(size);
+        for (int i = 0; i < size; i++) {
+            var row = new ArrayList<String>(11);
+            for (int column = 1; column <= 11; column++) {
+                row.add("$" + (11 * i + column));
+            }
+            rows.add("(" + String.join(", ", row) + ")");
+        }
+        var sql = "INSERT INTO account (" + COLUMNS + ", change_seq) VALUES " + String.join(", ", rows);
+        return client.sql("SELECT NEXT VALUE FOR account_seq FROM SYSTEM_RANGE(1, :count)")
+                .bind("count", size)
+                .map(row -> row.get(0, Long.class))
+                .all()
+                .collectList()
+                .flatMap(ids -> withChangeSeqs(size, taken -> client.inConnection(connection -> {
+                    var createdAt = Instant.now();
+                    Statement statement = connection.createStatement(sql);
+                    for (int i = 0; i < size; i++) {
+                        var account = newAccounts.get(i);
+                        account.setId(ids.get(i));
+                        account.setCreatedAt(createdAt);
+                        var first = 11 * i;
+                        statement.bind(first, account.getId())
+                                .bind(first + 1, account.getOwnerId())
+                                .bind(first + 2, account.getAccountNumber())
+                                .bind(first + 3, account.getType().name())
+                                .bind(first + 4, account.getBalance())
+                                .bind(first + 5, account.getCurrencyCode())
+                                .bind(first + 8, timestamp(createdAt));
+                        bindNullable(statement, first + 6, account.getDisplayedName(), String.class);
+                        bindNullable(statement, first + 7, account.getLastTxnId(), Long.class);
+                        bindNullable(statement, first + 9, timestamp(account.getDeletedAt()), OffsetDateTime.class);
+                        statement.bind(first + 10, taken.get(i));
+                    }
+                    return Flux.from(statement.execute()).flatMap(Result::getRowsUpdated).then();
+                })))
+                .onErrorMap(e -> e instanceof DataIntegrityViolationException || e instanceof R2dbcDataIntegrityViolationException
+                        ? new DataInconsistencyException("ACC_NUM_UC")
+                        : e
+                )
+                .thenMany(Flux.fromIterable(newAccounts));
+    }
+
+    @Override
+    public Mono<Account> updateBalance(Long accountId, Long txnId, BigDecimal delta) {
+        return withChangeSeqs(1, taken -> client.sql(
+                        "UPDATE account SET balance = balance + :delta, " +
+                                "last_txn_id = GREATEST(COALESCE(last_txn_id, 0), :txnId), version = version + 1, " +
+                                "change_seq = :changeSeq WHERE id = :id"
+                )
+                .bind("delta", delta)
+                .bind("txnId", txnId)
+                .bind("changeSeq", taken.get(0))
+                .bind("id", accountId)
+                .fetch()
+                .rowsUpdated())
+                .then(findById(accountId));
+    }
+
+    /**
+     * Applies all updates by a single statement, picking delta & txn id of every row by {@code CASE}, then stamps their
+     * legs with the versions made, rows are locked by the update till the transaction ends
+     */
+    @Override
+    public Mono<Void> updateBalances(List<BalanceUpdate> updates) {
+        if (updates.isEmpty()) {
+            return Mono.empty();
+        }
+        // every parameter is referenced once, so the statement text depends only on the number of updates
+        var size = updates.size();
+        var deltas = new StringBuilder();
+        var txnIds = new StringBuilder();
+        var seqs = new StringBuilder();
+        var ids = new ArrayList<String>(size);
+        for (int i = 0; i < size; i++) {
+            deltas.append(" WHEN $").append(2 * i + 1).append(" THEN $").append(2 * i + 2);
+            txnIds.append(" WHEN $").append(2 * size + 2 * i + 1).append(" THEN $").append(2 * size + 2 * i + 2);
+            seqs.append(" WHEN $").append(4 * size + 2 * i + 1).append(" THEN $").append(4 * size + 2 * i + 2);
+            ids.add("$" + (6 * size + i + 1));
+        }
+        var sql = "UPDATE account SET balance = balance + CASE id" + deltas + " END, " +
+                "last_txn_id = GREATEST(COALESCE(last_txn_id, 0), CASE id" + txnIds + " END), " +
+                "version = version + 1, change_seq = CASE id" + seqs + " END " +
+                "WHERE id IN (" + String.join(", ", ids) + ")";
+        return withChangeSeqs(size, taken -> client.inConnection(connection -> {
+            Statement statement = connection.createStatement(sql);
+            for (int i = 0; i < size; i++) {
+                var update = updates.get(i);
+                statement.bind(2 * i, update.getAccountId())
+                        .bind(2 * i + 1, update.getDelta())
+                        .bind(2 * size + 2 * i, update.getAccountId())
+                        .bind(2 * size + 2 * i + 1, update.getLastTxnId())
+                        .bind(4 * size + 2 * i, update.getAccountId())
+                        .bind(4 * size + 2 * i + 1, taken.get(i))
+                        .bind(6 * size + i, update.getAccountId());
+            }
+            return Flux.from(statement.execute()).flatMap(result -> result.getRowsUpdated()).then();
+        })).then(stampTxns(updates));
+    }
+
+    private Mono<Void> stampTxns(List<BalanceUpdate> updates) {
+        var txnIds = updates.stream()
+                .flatMap(update -> update.getTxns().stream())
+                .map(Txn::getId)
+                .collect(Collectors.toList());
+        if (txnIds.isEmpty()) {
+            return Mono.empty();
+        }
+        return client.sql(
+                        "UPDATE txn SET account_version = (SELECT version FROM account WHERE account.id = txn.account_id) " +
+                                "WHERE id IN (:ids)"
+                )
+                .bind("ids", txnIds)
+                .fetch()
+                .rowsUpdated()
+                .then();
+    }
+
+    @Override
+    public Mono<Boolean> deleteByIdAndOwnerId(Long id, String ownerId) {
+        return withChangeSeqs(1, taken -> client.sql(
+                        "UPDATE account SET deleted_at = :deletedAt, change_seq = :changeSeq " +
+                                "WHERE id = :id AND owner_id = :ownerId AND type = 'USER' AND deleted_at IS NULL"
+                )
+                .bind("deletedAt", timestamp(Instant.now()))
+                .bind("changeSeq", taken.get(0))
+                .bind("id", id)
+                .bind("ownerId", ownerId)
+                .fetch()
+                .rowsUpdated()
+                .map(updated -> updated > 0));
+    }
+
+    @Override
+    public Mono<Boolean> restoreByIdAndOwnerId(Long id, String ownerId) {
+        return withChangeSeqs(1, taken -> client.sql(
+                        "UPDATE account SET deleted_at = NULL, change_seq = :changeSeq " +
+                                "WHERE id = :id AND owner_id = :ownerId AND type = 'USER' AND deleted_at IS NOT NULL"
+                )
+                .bind("changeSeq", taken.get(0))
+                .bind("id", id)
+                .bind("ownerId", ownerId)
+                .fetch()
+                .rowsUpdated()
+                .map(updated -> updated > 0));
+    }
+
+    /**
+     * Deleted rows stay in the table, queries filter them out by {@code deleted_at}, so there's nothing to move
+     */
+    @Override
+    public Mono<Long> archiveDeletedBefore(Instant deletedBefore) {
+        return Mono.just(0L);
+    }
+
+    /**
+     * @return empty if some account doesn't exist or its row lock wasn't acquired within the database lock timeout
+     */
+    @Override
+    public Mono<LockHandle> selectForUpdate(Collection<String> accountNumbers) {
+        return client.sql(
+                        "SELECT " + SELECTED + " FROM account WHERE account_number IN (:accountNumbers) " +
+                                "ORDER BY account_number FOR UPDATE"
+                )
+                .bind("accountNumbers", List.copyOf(accountNumbers))
+                .map(R2dbcAccountRepo::account)
+                .all()
+                .collectMap(Account::getAccountNumber)
+                .filter(accounts -> accounts.size() == accountNumbers.size())
+                .map(accounts -> new LockHandle(accounts, () -> {}))
+                .onErrorResume(TransientDataAccessException.class, e -> Mono.empty());
+    }
+
+    /**
+     * @return the greatest account number in the order they are generated in, i.e. the longest one first
+     */
+    public Mono<String> findMaxAccountNumber() {
+        return client.sql("SELECT account_number FROM account ORDER BY LENGTH(account_number) DESC, account_number DESC LIMIT 1")
+                .map(row -> row.get("account_number", String.class))
+                .one();
+    }
+
+    private static Account account(Row row) {
+        var account = new Account();
+        account.setId(row.get("id", Long.class));
+        account.setOwnerId(row.get("owner_id", String.class));
+        account.setAccountNumber(row.get("account_number", String.class));
+        account.setType(AccountType.valueOf(row.get("type", String.class)));
+        account.setBalance(row.get("balance", BigDecimal.class));
+        account.setCurrencyCode(row.get("currency_code", String.class));
+        account.setDisplayedName(row.get("displayed_name", String.class));
+        account.setLastTxnId(row.get("last_txn_id", Long.class));
+        account.setVersion(row.get("version", Long.class));
+        account.setCreatedAt(instant(row.get("created_at", OffsetDateTime.class)));
+        account.setDeletedAt(instant(row.get("deleted_at", OffsetDateTime.class)));
+        return account;
+    }
+
+    private static void bindNullable(Statement statement, int index, Object value, Class<?> type) {
+        if (value != null) {
+            statement.bind(index, value);
+        } else {
+            statement.bindNull(index, type);
+        }
+    }
+
+    static DatabaseClient.GenericExecuteSpec bindNullable(
+            DatabaseClient.GenericExecuteSpec spec, String name, Object value, Class<?> type) {
+        return value != null ? spec.bind(name, value) : spec.bindNull(name, type);
+    }
+
+    static OffsetDateTime timestamp(Instant instant) {
+        return instant != null ? instant.atOffset(ZoneOffset.UTC) : null;
+    }
+
+    static Instant instant(OffsetDateTime timestamp) {
+        return timestamp != null ? timestamp.toInstant() : null;
+    }
+
+    private static String escapeLike(String value) {
+        return value.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_");
+    }
+}
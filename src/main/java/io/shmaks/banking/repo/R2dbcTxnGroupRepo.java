@@ -0,0 +1,99 @@
+package io.shmaks.banking.repo;
+
+import io.r2dbc.spi.Row;
+import io.shmaks.banking.model.TxnGroup;
+import io.shmaks.banking.model.TxnType;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.r2dbc.core.DatabaseClient;
+import reactor.core.publisher.Mono;
+
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.util.Collection;
+import java.util.List;
+import java.util.UUID;
+
+import static io.shmaks.banking.repo.R2dbcAccountRepo.bindNullable;
+import static io.shmaks.banking.repo.R2dbcAccountRepo.instant;
+import static io.shmaks.banking.repo.R2dbcAccountRepo.timestamp;
+
+/**
+ * Txn groups in a relational database (H2 dialect), uniqueness of txnUUID is kept by the unique index.
+ */
+public class R2dbcTxnGroupRepo implements TxnGroupRepo {
+
+    private static final String COLUMNS = "id, txn_uuid, amount, currency_code, type, payer_account_number, " +
+            "receiver_account_number, comment, created_at";
+
+    private final DatabaseClient client;
+
+    public R2dbcTxnGroupRepo(DatabaseClient client) {
+        this.client = client;
+    }
+
+    /**
+     * Inserts the group, or returns the one created before with the same txnUUID. H2 keeps the transaction usable
+     * after the violated unique index, so the existing group is read within it.
+     */
+    @Override
+    public Mono<CreationResult> merge(TxnGroup group) {
+        return client.sql("SELECT NEXT VALUE FOR txn_group_seq")
+                .map(row -> row.get(0, Long.class))
+                .one()
+                .flatMap(id -> {
+                    var createdAt = Instant.now();
+                    var spec = client.sql(
+                                    "INSERT INTO txn_group (" + COLUMNS + ") VALUES (:id, :txnUUID, :amount, :currencyCode, " +
+                                            ":type, :payerAccountNumber, :receiverAccountNumber, :comment, :createdAt)"
+                            )
+                            .bind("id", id)
+                            .bind("txnUUID", group.getTxnUUID())
+                            .bind("amount", group.getAmount())
+                            .bind("currencyCode", group.getCurrencyCode())
+                            .bind("type", group.getType().name())
+                            .bind("createdAt", timestamp(createdAt));
+                    spec = bindNullable(spec, "payerAccountNumber", group.getPayerAccountNumber(), String.class);
+                    spec = bindNullable(spec, "receiverAccountNumber", group.getReceiverAccountNumber(), String.class);
+                    spec = bindNullable(spec, "comment", group.getComment(), String.class);
+                    return spec.fetch().rowsUpdated().map(inserted -> {
+                        group.setId(id);
+                        group.setCreatedAt(createdAt);
+                        return new CreationResult(true, group);
+                    });
+                })
+                .onErrorResume(DataIntegrityViolationException.class, e ->
+                        findByUUID(group.getTxnUUID()).map(existing -> new CreationResult(false, existing))
+                );
+    }
+
+    @Override
+    public Mono<TxnGroup> findByUUID(UUID txnUUID) {
+        return client.sql("SELECT " + COLUMNS + " FROM txn_group WHERE txn_uuid = :txnUUID")
+                .bind("txnUUID", txnUUID)
+                .map(R2dbcTxnGroupRepo::txnGroup)
+                .one();
+    }
+
+    public Mono<List<TxnGroup>> findAllByIds(Collection<Long> ids) {
+        return client.sql("SELECT " + COLUMNS + " FROM txn_group WHERE id IN (:ids) ORDER BY id")
+                .bind("ids", ids)
+                .map(R2dbcTxnGroupRepo::txnGroup)
+                .all()
+                .collectList();
+    }
+
+    private static TxnGroup txnGroup(Row row) {
+        var group = new TxnGroup();
+        group.setId(row.get("id", Long.class));
+        group.setTxnUUID(row.get("txn_uuid", UUID.class));
+        group.setAmount(row.get("amount", BigDecimal.class));
+        group.setCurrencyCode(row.get("currency_code", String.class));
+        group.setType(TxnType.valueOf(row.get("type", String.class)));
+        group.setPayerAccountNumber(row.get("payer_account_number", String.class));
+        group.setReceiverAccountNumber(row.get("receiver_account_number", String.class));
+        group.setComment(row.get("comment", String.class));
+        group.setCreatedAt(instant(row.get("created_at", OffsetDateTime.class)));
+        return group;
+    }
+}
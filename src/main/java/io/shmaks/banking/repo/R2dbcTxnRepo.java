@@ -0,0 +1,174 @@
+package io.shmaks.banking.repo;
+
+import io.r2dbc.spi.Row;
+import io.r2dbc.spi.Statement;
+import io.shmaks.banking.model.Txn;
+import io.shmaks.banking.model.TxnSpendingType;
+import io.shmaks.banking.model.TxnStatus;
+import org.springframework.r2dbc.core.DatabaseClient;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.util.Collection;
+import java.util.List;
+
+import static io.shmaks.banking.repo.R2dbcAccountRepo.instant;
+import static io.shmaks.banking.repo.R2dbcAccountRepo.timestamp;
+
+/**
+ * Txns in a relational database (H2 dialect). Ids of all legs of a group are taken from the sequence by one query,
+ * so the legs are inserted already linked by one batched statement.
+ */
+public class R2dbcTxnRepo implements TxnRepo {
+
+    private static final String COLUMNS = "id, account_id, txn_group_id, linking_txn_id, status, spending_type, " +
+            "amount, created_at, details";
+
+    // legs are stamped with the account version by the balance update that follows their insert
+    private static final String SELECTED = COLUMNS + ", account_version";
+
+    private static final String INSERT = "INSERT INTO txn (" + COLUMNS + ") VALUES ($1, $2, $3, $4, $5, $6, $7, $8, $9)";
+
+    private final DatabaseClient client;
+
+    public R2dbcTxnRepo(DatabaseClient client) {
+        this.client = client;
+    }
+
+    @Override
+    public Mono<Txn> create(Txn txn) {
+        return nextIds(1).flatMap(ids -> {
+            txn.setId(ids.get(0));
+            txn.setCreatedAt(Instant.now());
+            return insert(List.of(txn));
+        }).thenReturn(txn);
+    }
+
+    @Override
+    public Mono<Void> link(Txn txn1, Txn txn2) {
+        return setLinkingTxnId(txn1.getId(), txn2.getId()).then(setLinkingTxnId(txn2.getId(), txn1.getId()));
+    }
+
+    private Mono<Void> setLinkingTxnId(Long id, Long linkingTxnId) {
+        return client.sql("UPDATE txn SET linking_txn_id = :linkingTxnId WHERE id = :id")
+                .bind("linkingTxnId", linkingTxnId)
+                .bind("id", id)
+                .fetch()
+                .rowsUpdated()
+                .then();
+    }
+
+    @Override
+    public Mono<List<Txn>> createPairs(List<Txn> txns) {
+        return nextIds(txns.size()).flatMap(ids -> {
+            var createdAt = Instant.now();
+            for (int i = 0; i < txns.size(); i++) {
+                var txn = txns.get(i);
+                txn.setId(ids.get(i));
+                txn.setLinkingTxnId(ids.get(i ^ 1));
+                txn.setCreatedAt(createdAt);
+            }
+            return insert(txns);
+        }).thenReturn(txns);
+    }
+
+    @Override
+    public Mono<Txn> findByTxnGroupIdAndAccountIdAndSpendingType(Long txnGroupId, Long accountId, TxnSpendingType spendingType) {
+        return client.sql(
+                        "SELECT " + SELECTED + " FROM txn " +
+                                "WHERE txn_group_id = :txnGroupId AND account_id = :accountId AND spending_type = :spendingType " +
+                                "ORDER BY id LIMIT 1"
+                )
+                .bind("txnGroupId", txnGroupId)
+                .bind("accountId", accountId)
+                .bind("spendingType", spendingType.name())
+                .map(R2dbcTxnRepo::txn)
+                .one();
+    }
+
+    @Override
+    public Mono<List<Txn>> findAllByTxnGroupId(Long txnGroupId) {
+        return client.sql("SELECT " + SELECTED + " FROM txn WHERE txn_group_id = :txnGroupId ORDER BY id")
+                .bind("txnGroupId", txnGroupId)
+                .map(R2dbcTxnRepo::txn)
+                .all()
+                .collectList();
+    }
+
+    @Override
+    public Flux<Txn> findAllByAccountIdAndCreatedAtFromOrderByIdAsc(Long accountId, Instant createdFrom) {
+        return client.sql("SELECT " + SELECTED + " FROM txn " +
+                        "WHERE account_id = :accountId AND created_at >= :createdFrom ORDER BY id")
+                .bind("accountId", accountId)
+                .bind("createdFrom", timestamp(createdFrom))
+                .map(R2dbcTxnRepo::txn)
+                .all();
+    }
+
+    public Mono<List<Txn>> findAllByTxnGroupIds(Collection<Long> txnGroupIds) {
+        return client.sql("SELECT " + SELECTED + " FROM txn WHERE txn_group_id IN (:txnGroupIds) ORDER BY id")
+                .bind("txnGroupIds", txnGroupIds)
+                .map(R2dbcTxnRepo::txn)
+                .all()
+                .collectList();
+    }
+
+    private Mono<List<Long>> nextIds(int count) {
+        return client.sql("SELECT NEXT VALUE FOR txn_seq FROM SYSTEM_RANGE(1, :count)")
+                .bind("count", count)
+                .map(row -> row.get(0, Long.class))
+                .all()
+                .sort()
+                .collectList();
+    }
+
+    private Mono<Void> insert(List<Txn> txns) {
+        return client.inConnection(connection -> {
+            Statement statement = connection.createStatement(INSERT);
+            for (int i = 0; i < txns.size(); i++) {
+                if (i > 0) {
+                    statement.add();
+                }
+                var txn = txns.get(i);
+                statement.bind(0, txn.getId())
+                        .bind(1, txn.getAccountId())
+                        .bind(2, txn.getTxnGroupId())
+                        .bind(6, txn.getAmount())
+                        .bind(7, timestamp(txn.getCreatedAt()));
+                bindNullable(statement, 3, txn.getLinkingTxnId(), Long.class);
+                bindNullable(statement, 4, txn.getStatus() != null ? txn.getStatus().name() : null, String.class);
+                bindNullable(statement, 5, txn.getSpendingType() != null ? txn.getSpendingType().name() : null, String.class);
+                bindNullable(statement, 8, txn.getDetails(), String.class);
+            }
+            return Flux.from(statement.execute()).flatMap(result -> result.getRowsUpdated()).then();
+        });
+    }
+
+    private static void bindNullable(Statement statement, int index, Object value, Class<?> type) {
+        if (value != null) {
+            statement.bind(index, value);
+        } else {
+            statement.bindNull(index, type);
+        }
+    }
+
+    private static Txn txn(Row row) {
+        var txn = new Txn();
+        txn.setId(row.get("id", Long.class));
+        txn.setAccountId(row.get("account_id", Long.class));
+        txn.setTxnGroupId(row.get("txn_group_id", Long.class));
+        txn.setLinkingTxnId(row.get("linking_txn_id", Long.class));
+        txn.setAccountVersion(row.get("account_version", Long.class));
+        var status = row.get("status", String.class);
+        txn.setStatus(status != null ? TxnStatus.valueOf(status) : null);
+        var spendingType = row.get("spending_type", String.class);
+        txn.setSpendingType(spendingType != null ? TxnSpendingType.valueOf(spendingType) : null);
+        txn.setAmount(row.get("amount", BigDecimal.class));
+        txn.setCreatedAt(instant(row.get("created_at", OffsetDateTime.class)));
+        txn.setDetails(row.get("details", String.class));
+        return txn;
+    }
+}
@@ -0,0 +1,87 @@
+package io.shmaks.banking.repo;
+
+import io.shmaks.banking.model.Txn;
+import io.shmaks.banking.model.TxnSpendingType;
+import io.shmaks.banking.repo.tiering.MergedTxnIterator;
+import io.shmaks.banking.repo.tiering.TxnSegmentStore;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.util.List;
+
+/**
+ * Facade over hot in-memory txns and cold memory-mapped segments: writes go to the hot tier,
+ * reads check the hot tier first and fall back to the segments.
+ */
+public class TieredTxnRepo implements TxnRepo {
+
+    private final InMemoryTxnRepo hot;
+    private final TxnSegmentStore cold;
+
+    public TieredTxnRepo(InMemoryTxnRepo hot, TxnSegmentStore cold) {
+        this.hot = hot;
+        this.cold = cold;
+    }
+
+    @Override
+    public Mono<Txn> create(Txn txn) {
+        return hot.create(txn);
+    }
+
+    @Override
+    public Mono<Void> link(Txn txn1, Txn txn2) {
+        return hot.link(txn1, txn2);
+    }
+
+    @Override
+    public Mono<List<Txn>> createPairs(List<Txn> txns) {
+        return hot.createPairs(txns);
+    }
+
+    @Override
+    public Mono<Txn> findByTxnGroupIdAndAccountIdAndSpendingType(Long txnGroupId, Long accountId, TxnSpendingType spendingType) {
+        return hot.findByTxnGroupIdAndAccountIdAndSpendingType(txnGroupId, accountId, spendingType)
+                .switchIfEmpty(Mono.fromSupplier(() ->
+                        cold.findByTxnGroupIdAndAccountIdAndSpendingType(txnGroupId, accountId, spendingType)
+                ));
+    }
+
+    @Override
+    public Mono<List<Txn>> findAllByTxnGroupId(Long txnGroupId) {
+        return hot.findAllByTxnGroupId(txnGroupId)
+                .map(txns -> txns.isEmpty() ? cold.findAllByTxnGroupId(txnGroupId) : txns);
+    }
+
+    /**
+     * Both tiers are merged as txns are requested, one moved between them meanwhile is passed once
+     */
+    @Override
+    public Flux<Txn> findAllByAccountIdAndCreatedAtFromOrderByIdAsc(Long accountId, Instant createdFrom) {
+        return Flux.fromIterable(() -> new MergedTxnIterator(List.of(
+                hot.iterateByAccountId(accountId), cold.iterateByAccountId(accountId, createdFrom)
+        ))).filter(txn -> !txn.getCreatedAt().isBefore(createdFrom));
+    }
+
+    public Txn findById(Long id) {
+        var txn = hot.findById(id);
+        return txn != null ? txn : cold.findById(id);
+    }
+
+    /**
+     * Moves txns created before the threshold to the cold tier, they are removed from the hot one only after
+     * their segment is durable and mapped, so lookups never miss them
+     *
+     * @return number of sealed txns
+     */
+    public int sealCreatedBefore(Instant createdBefore) throws IOException {
+        var txns = hot.findAllCreatedBefore(createdBefore);
+        if (txns.isEmpty()) {
+            return 0;
+        }
+        cold.seal(txns);
+        hot.removeAll(txns);
+        return txns.size();
+    }
+}
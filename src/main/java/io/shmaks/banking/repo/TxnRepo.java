@@ -2,12 +2,28 @@ package io.shmaks.banking.repo;
 
 import io.shmaks.banking.model.Txn;
 import io.shmaks.banking.model.TxnSpendingType;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
+import java.time.Instant;
+import java.util.List;
+
 public interface TxnRepo {
     Mono<Txn> create(Txn txn);
 
     Mono<Void> link(Txn txn1, Txn txn2);
 
+    /**
+     * Creates all legs of a txn group at once, every two consecutive txns form a linked pair
+     */
+    Mono<List<Txn>> createPairs(List<Txn> txns);
+
     Mono<Txn> findByTxnGroupIdAndAccountIdAndSpendingType(Long txnGroupId, Long accountId, TxnSpendingType spendingType);
+
+    Mono<List<Txn>> findAllByTxnGroupId(Long txnGroupId);
+
+    /**
+     * Streams txns of the account created since the given time ordered by id, they're read as requested
+     */
+    Flux<Txn> findAllByAccountIdAndCreatedAtFromOrderByIdAsc(Long accountId, Instant createdFrom);
 }
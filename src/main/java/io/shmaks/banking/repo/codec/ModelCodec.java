@@ -0,0 +1,224 @@
+package io.shmaks.banking.repo.codec;
+
+import io.shmaks.banking.model.Account;
+import io.shmaks.banking.model.AccountType;
+import io.shmaks.banking.model.Txn;
+import io.shmaks.banking.model.TxnGroup;
+import io.shmaks.banking.model.TxnSpendingType;
+import io.shmaks.banking.model.TxnStatus;
+import io.shmaks.banking.model.TxnType;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.UUID;
+
+/**
+ * Compact binary layout of the model entities shared by on-disk structures.
+ * Big-endian, nullable longs are encoded as {@link Long#MIN_VALUE}, nullable enums as -1 ordinal.
+ */
+public final class ModelCodec {
+
+    private static final long NULL_LONG = Long.MIN_VALUE;
+    private static final TxnStatus[] TXN_STATUSES = TxnStatus.values();
+    private static final TxnSpendingType[] SPENDING_TYPES = TxnSpendingType.values();
+    private static final TxnType[] TXN_TYPES = TxnType.values();
+    private static final AccountType[] ACCOUNT_TYPES = AccountType.values();
+
+    /**
+     * Fixed-width prefix of encoded txn: id, accountId, txnGroupId
+     */
+    public static final int TXN_KEY_BYTES = 3 * Long.BYTES;
+
+    private ModelCodec() {
+    }
+
+    public static void writeTxn(DataOutput out, Txn txn) throws IOException {
+        writeLong(out, txn.getId());
+        writeLong(out, txn.getAccountId());
+        writeLong(out, txn.getTxnGroupId());
+        writeLong(out, txn.getLinkingTxnId());
+        writeLong(out, txn.getAccountVersion());
+        writeEnum(out, txn.getStatus());
+        writeEnum(out, txn.getSpendingType());
+        writeDecimal(out, txn.getAmount());
+        writeInstant(out, txn.getCreatedAt());
+        writeString(out, txn.getDetails());
+    }
+
+    public static Txn readTxn(ByteBuffer in) {
+        var txn = new Txn();
+        txn.setId(readLong(in));
+        txn.setAccountId(readLong(in));
+        txn.setTxnGroupId(readLong(in));
+        txn.setLinkingTxnId(readLong(in));
+        txn.setAccountVersion(readLong(in));
+        var status = in.get();
+        txn.setStatus(status >= 0 ? TXN_STATUSES[status] : null);
+        var spendingType = in.get();
+        txn.setSpendingType(spendingType >= 0 ? SPENDING_TYPES[spendingType] : null);
+        txn.setAmount(readDecimal(in));
+        txn.setCreatedAt(readInstant(in));
+        txn.setDetails(readString(in));
+        return txn;
+    }
+
+    /**
+     * Moves buffer position to the end of encoded txn without materializing it
+     */
+    public static void skipTxn(ByteBuffer in) {
+        in.position(in.position() + 5 * Long.BYTES + 2);
+        skipDecimal(in);
+        in.position(in.position() + Long.BYTES + Integer.BYTES);
+        var length = in.getInt();
+        if (length > 0) {
+            in.position(in.position() + length);
+        }
+    }
+
+    public static void writeTxnGroup(DataOutput out, TxnGroup group) throws IOException {
+        writeLong(out, group.getId());
+        writeUUID(out, group.getTxnUUID());
+        writeEnum(out, group.getType());
+        writeDecimal(out, group.getAmount());
+        writeString(out, group.getCurrencyCode());
+        writeString(out, group.getPayerAccountNumber());
+        writeString(out, group.getReceiverAccountNumber());
+        writeString(out, group.getComment());
+        writeInstant(out, group.getCreatedAt());
+    }
+
+    public static TxnGroup readTxnGroup(ByteBuffer in) {
+        var group = new TxnGroup();
+        group.setId(readLong(in));
+        group.setTxnUUID(readUUID(in));
+        var type = in.get();
+        group.setType(type >= 0 ? TXN_TYPES[type] : null);
+        group.setAmount(readDecimal(in));
+        group.setCurrencyCode(readString(in));
+        group.setPayerAccountNumber(readString(in));
+        group.setReceiverAccountNumber(readString(in));
+        group.setComment(readString(in));
+        group.setCreatedAt(readInstant(in));
+        return group;
+    }
+
+    public static void writeAccount(DataOutput out, Account account) throws IOException {
+        writeLong(out, account.getId());
+        writeString(out, account.getOwnerId());
+        writeString(out, account.getAccountNumber());
+        writeEnum(out, account.getType());
+        writeDecimal(out, account.getBalance());
+        writeString(out, account.getCurrencyCode());
+        writeString(out, account.getDisplayedName());
+        writeLong(out, account.getLastTxnId());
+        out.writeLong(account.getVersion());
+        writeInstant(out, account.getCreatedAt());
+        writeInstant(out, account.getDeletedAt());
+    }
+
+    public static Account readAccount(ByteBuffer in) {
+        var account = new Account();
+        account.setId(readLong(in));
+        account.setOwnerId(readString(in));
+        account.setAccountNumber(readString(in));
+        var type = in.get();
+        account.setType(type >= 0 ? ACCOUNT_TYPES[type] : null);
+        account.setBalance(readDecimal(in));
+        account.setCurrencyCode(readString(in));
+        account.setDisplayedName(readString(in));
+        account.setLastTxnId(readLong(in));
+        account.setVersion(in.getLong());
+        account.setCreatedAt(readInstant(in));
+        account.setDeletedAt(readInstant(in));
+        return account;
+    }
+
+    public static void writeUUID(DataOutput out, UUID value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeLong(value.getMostSignificantBits());
+            out.writeLong(value.getLeastSignificantBits());
+        }
+    }
+
+    public static UUID readUUID(ByteBuffer in) {
+        return in.get() != 0 ? new UUID(in.getLong(), in.getLong()) : null;
+    }
+
+    public static void writeLong(DataOutput out, Long value) throws IOException {
+        out.writeLong(value != null ? value : NULL_LONG);
+    }
+
+    public static Long readLong(ByteBuffer in) {
+        var value = in.getLong();
+        return value != NULL_LONG ? value : null;
+    }
+
+    public static void writeEnum(DataOutput out, Enum<?> value) throws IOException {
+        out.writeByte(value != null ? value.ordinal() : -1);
+    }
+
+    public static void writeDecimal(DataOutput out, BigDecimal value) throws IOException {
+        if (value == null) {
+            out.writeInt(Integer.MIN_VALUE);
+            return;
+        }
+        var unscaled = value.unscaledValue().toByteArray();
+        out.writeInt(value.scale());
+        out.writeShort(unscaled.length);
+        out.write(unscaled);
+    }
+
+    public static BigDecimal readDecimal(ByteBuffer in) {
+        var scale = in.getInt();
+        if (scale == Integer.MIN_VALUE) {
+            return null;
+        }
+        var unscaled = new byte[in.getShort()];
+        in.get(unscaled);
+        return new BigDecimal(new BigInteger(unscaled), scale);
+    }
+
+    private static void skipDecimal(ByteBuffer in) {
+        if (in.getInt() != Integer.MIN_VALUE) {
+            var length = in.getShort();
+            in.position(in.position() + length);
+        }
+    }
+
+    public static void writeInstant(DataOutput out, Instant value) throws IOException {
+        out.writeLong(value != null ? value.getEpochSecond() : NULL_LONG);
+        out.writeInt(value != null ? value.getNano() : 0);
+    }
+
+    public static Instant readInstant(ByteBuffer in) {
+        var seconds = in.getLong();
+        var nanos = in.getInt();
+        return seconds != NULL_LONG ? Instant.ofEpochSecond(seconds, nanos) : null;
+    }
+
+    public static void writeString(DataOutput out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        var bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    public static String readString(ByteBuffer in) {
+        var length = in.getInt();
+        if (length < 0) {
+            return null;
+        }
+        var bytes = new byte[length];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,43 @@
+package io.shmaks.banking.repo.index;
+
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Change sequence of accounts, compacted per account: a change gives the account the next sequence number and drops
+ * its previous one, so there's one entry per account however often it changes.
+ * <p>
+ * Numbers are taken and entries are put under the lock of this, so a reader never sees a number while a smaller one
+ * is still to come. They start from the boot time shifted left and keep growing over restarts: a cursor of the
+ * previous run is followed by every account loaded since.
+ */
+public class AccountChangeLog {
+
+    private final NavigableMap<Long, Long> accountIdsBySeq = new ConcurrentSkipListMap<>();
+    private final Map<Long, Long> seqsByAccountId = new HashMap<>();
+    private long lastSeq = Instant.now().toEpochMilli() << 20;
+
+    public synchronized void changed(long accountId) {
+        var seq = ++lastSeq;
+        accountIdsBySeq.put(seq, accountId);
+        var previous = seqsByAccountId.put(accountId, seq);
+        if (previous != null) {
+            accountIdsBySeq.remove(previous);
+        }
+    }
+
+    /**
+     * @return account ids by sequence numbers of their last changes, in order
+     */
+    public NavigableMap<Long, Long> changedAfter(long seq) {
+        return accountIdsBySeq.tailMap(seq, false);
+    }
+
+    public synchronized void clear() {
+        accountIdsBySeq.clear();
+        seqsByAccountId.clear();
+    }
+}
@@ -0,0 +1,76 @@
+package io.shmaks.banking.repo.index;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Prefix index over account numbers and displayed names.
+ * <p>
+ * Both are kept as sorted keys, so all keys starting with a prefix form a contiguous range and lookup costs
+ * O(log n + matches). Displayed name is indexed as a whole and by every word, case-insensitive, and the key is
+ * suffixed with account id to keep namesakes apart.
+ */
+public class AccountSearchIndex {
+
+    private static final char ID_SEPARATOR = '\u0000';
+
+    private final NavigableMap<String, Long> byNumber = new ConcurrentSkipListMap<>();
+    private final NavigableMap<String, Long> byName = new ConcurrentSkipListMap<>();
+
+    public void add(long accountId, String accountNumber, String displayedName) {
+        byNumber.put(accountNumber, accountId);
+        for (var token : tokens(displayedName)) {
+            byName.put(token + ID_SEPARATOR + accountId, accountId);
+        }
+    }
+
+    public void remove(long accountId, String accountNumber, String displayedName) {
+        byNumber.remove(accountNumber, accountId);
+        for (var token : tokens(displayedName)) {
+            byName.remove(token + ID_SEPARATOR + accountId);
+        }
+    }
+
+    /**
+     * @return ids of at most {@code limit} accounts, matches by account number go first
+     */
+    public List<Long> search(String prefix, int limit) {
+        var found = new LinkedHashSet<Long>();
+        collect(byNumber, prefix, limit, found);
+        collect(byName, prefix.toLowerCase(Locale.ROOT), limit, found);
+        return new ArrayList<>(found);
+    }
+
+    public void clear() {
+        byNumber.clear();
+        byName.clear();
+    }
+
+    private static void collect(NavigableMap<String, Long> index, String prefix, int limit, Set<Long> found) {
+        if (prefix.isEmpty()) {
+            return;
+        }
+        var matches = index.subMap(prefix, true, prefix + Character.MAX_VALUE, false).values().iterator();
+        while (found.size() < limit && matches.hasNext()) {
+            found.add(matches.next());
+        }
+    }
+
+    private static Set<String> tokens(String displayedName) {
+        var tokens = new LinkedHashSet<String>();
+        if (displayedName == null || displayedName.isBlank()) {
+            return tokens;
+        }
+        var normalized = displayedName.strip().toLowerCase(Locale.ROOT);
+        tokens.add(normalized);
+        for (var word : normalized.split("\\s+")) {
+            tokens.add(word);
+        }
+        return tokens;
+    }
+}
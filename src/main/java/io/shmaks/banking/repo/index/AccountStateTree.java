@@ -0,0 +1,116 @@
+package io.shmaks.banking.repo.index;
+
+import io.shmaks.banking.model.Account;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Merkle tree over the state of accounts: number, balance & last txn id. Accounts are put into buckets by ranges of
+ * the account number hash, a bucket hash is the sum of hashes of its accounts, so a balance update changes one bucket
+ * in O(1) without locks. Inner nodes are computed from buckets when the tree is read, it's a few thousand mixes.
+ * <p>
+ * Two instances holding the same accounts have the same tree; divergent buckets are found by descending from the
+ * root into children with different hashes only, O(log n) comparisons per divergent bucket. Hashes aren't
+ * cryptographic: they detect divergence, they don't protect from forgery. A tree read while balances are updated
+ * reflects some of the updates, instances are compared when they're quiescent (e.g. replica caught up).
+ */
+public class AccountStateTree {
+
+    /**
+     * Levels below the root, the same on every instance compared
+     */
+    public static final int DEPTH = 12;
+    public static final int BUCKETS = 1 << DEPTH;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+
+    public static int bucketOf(String accountNumber) {
+        var hash = (accountNumber.hashCode() * 0x9E3779B9L) & 0xFFFFFFFFL;
+        return (int) (hash >>> (32 - DEPTH));
+    }
+
+    public static long hashOf(String accountNumber, BigDecimal balance, Long lastTxnId) {
+        // balances equal by value hash the same whatever scale they were read with
+        var normalized = balance.signum() == 0 ? BigDecimal.ZERO : balance.stripTrailingZeros();
+        var hash = mix(accountNumber.hashCode());
+        hash = mix(hash ^ normalized.unscaledValue().hashCode() ^ ((long) normalized.scale() << 32));
+        return mix(hash ^ (lastTxnId != null ? lastTxnId : 0));
+    }
+
+    public static long hashOf(Account account) {
+        return hashOf(account.getAccountNumber(), account.getBalance(), account.getLastTxnId());
+    }
+
+    public void add(String accountNumber, long hash) {
+        buckets.addAndGet(bucketOf(accountNumber), hash);
+    }
+
+    public void remove(String accountNumber, long hash) {
+        buckets.addAndGet(bucketOf(accountNumber), -hash);
+    }
+
+    /**
+     * @param previous state of the account before the change, null for a new account
+     */
+    public void replace(Account previous, Account current) {
+        if (previous != null) {
+            remove(previous.getAccountNumber(), hashOf(previous));
+        }
+        add(current.getAccountNumber(), hashOf(current));
+    }
+
+    public void clear() {
+        for (int i = 0; i < BUCKETS; i++) {
+            buckets.set(i, 0);
+        }
+    }
+
+    /**
+     * @return all nodes in heap order: root at 1, children of node i at 2i & 2i+1, buckets from {@link #BUCKETS}
+     */
+    public long[] snapshot() {
+        var nodes = new long[2 * BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            nodes[BUCKETS + i] = buckets.get(i);
+        }
+        for (int i = BUCKETS - 1; i > 0; i--) {
+            nodes[i] = mix(Long.rotateLeft(nodes[2 * i], 1) ^ nodes[2 * i + 1]);
+        }
+        return nodes;
+    }
+
+    public long rootHash() {
+        return snapshot()[1];
+    }
+
+    /**
+     * @return buckets whose hashes differ, only subtrees with different roots are visited
+     */
+    public static List<Integer> divergentBuckets(long[] left, long[] right) {
+        var result = new ArrayList<Integer>();
+        collectDivergent(left, right, 1, result);
+        return result;
+    }
+
+    private static void collectDivergent(long[] left, long[] right, int node, List<Integer> result) {
+        if (left[node] == right[node]) {
+            return;
+        }
+        if (node >= BUCKETS) {
+            result.add(node - BUCKETS);
+            return;
+        }
+        collectDivergent(left, right, 2 * node, result);
+        collectDivergent(left, right, 2 * node + 1, result);
+    }
+
+    private static long mix(long z) {
+        z += 0x9E3779B97F4A7C15L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+}
@@ -0,0 +1,190 @@
+package io.shmaks.banking.repo.index;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Order-statistic index of account balances within one currency.
+ * <p>
+ * Indexed skip list ordered by balance descending and account id ascending, every forward link keeps its span
+ * (number of level-0 nodes it jumps over), so both "position of account" and "accounts starting at position"
+ * are answered in O(log n). Mutations are serialized by the index monitor, it's cheap comparing to the
+ * account locks held by the callers.
+ */
+public class BalanceRankIndex {
+
+    private static final int MAX_LEVEL = 32;
+
+    private static class Node {
+        private final BigDecimal balance;
+        private final long accountId;
+        private final Node[] next;
+        private final long[] span;
+
+        Node(BigDecimal balance, long accountId, int level) {
+            this.balance = balance;
+            this.accountId = accountId;
+            this.next = new Node[level];
+            this.span = new long[level];
+        }
+    }
+
+    private final Node head = new Node(null, Long.MIN_VALUE, MAX_LEVEL);
+    private final Map<Long, BigDecimal> balances = new HashMap<>();
+    private int level = 1;
+
+    public synchronized void put(long accountId, BigDecimal balance) {
+        var previous = balances.put(accountId, balance);
+        if (previous != null) {
+            if (previous.compareTo(balance) == 0) {
+                return;
+            }
+            unlink(previous, accountId);
+        }
+        link(balance, accountId);
+    }
+
+    public synchronized boolean remove(long accountId) {
+        var previous = balances.remove(accountId);
+        if (previous == null) {
+            return false;
+        }
+        unlink(previous, accountId);
+        return true;
+    }
+
+    /**
+     * @return 1-based position of the account (the richest one is the first) or 0 if account is not indexed
+     */
+    public synchronized long rank(long accountId) {
+        var balance = balances.get(accountId);
+        if (balance == null) {
+            return 0;
+        }
+        long rank = 0;
+        var x = head;
+        for (int i = level - 1; i >= 0; i--) {
+            while (x.next[i] != null && compare(x.next[i], balance, accountId) <= 0) {
+                rank += x.span[i];
+                x = x.next[i];
+            }
+        }
+        return x != head && x.accountId == accountId ? rank : 0;
+    }
+
+    /**
+     * @param fromRank 1-based position to start from
+     * @return ids of at most {@code count} accounts ordered by balance descending
+     */
+    public synchronized List<Long> range(long fromRank, int count) {
+        if (count <= 0 || fromRank < 1 || fromRank > balances.size()) {
+            return new ArrayList<>();
+        }
+        var result = new ArrayList<Long>(Math.min(count, balances.size()));
+        long traversed = 0;
+        var x = head;
+        for (int i = level - 1; i >= 0; i--) {
+            while (x.next[i] != null && traversed + x.span[i] <= fromRank) {
+                traversed += x.span[i];
+                x = x.next[i];
+            }
+        }
+        while (x != null && result.size() < count) {
+            result.add(x.accountId);
+            x = x.next[0];
+        }
+        return result;
+    }
+
+    public synchronized int size() {
+        return balances.size();
+    }
+
+    public synchronized void clear() {
+        for (int i = 0; i < MAX_LEVEL; i++) {
+            head.next[i] = null;
+            head.span[i] = 0;
+        }
+        balances.clear();
+        level = 1;
+    }
+
+    private void link(BigDecimal balance, long accountId) {
+        var update = new Node[MAX_LEVEL];
+        var rank = new long[MAX_LEVEL];
+        var x = head;
+        for (int i = level - 1; i >= 0; i--) {
+            rank[i] = i == level - 1 ? 0 : rank[i + 1];
+            while (x.next[i] != null && compare(x.next[i], balance, accountId) < 0) {
+                rank[i] += x.span[i];
+                x = x.next[i];
+            }
+            update[i] = x;
+        }
+
+        var newLevel = randomLevel();
+        if (newLevel > level) {
+            for (int i = level; i < newLevel; i++) {
+                rank[i] = 0;
+                update[i] = head;
+                head.span[i] = balances.size() - 1; // balances already contains the new entry
+            }
+            level = newLevel;
+        }
+
+        var node = new Node(balance, accountId, newLevel);
+        for (int i = 0; i < newLevel; i++) {
+            node.next[i] = update[i].next[i];
+            update[i].next[i] = node;
+            node.span[i] = update[i].span[i] - (rank[0] - rank[i]);
+            update[i].span[i] = rank[0] - rank[i] + 1;
+        }
+        for (int i = newLevel; i < level; i++) {
+            update[i].span[i]++;
+        }
+    }
+
+    private void unlink(BigDecimal balance, long accountId) {
+        var update = new Node[MAX_LEVEL];
+        var x = head;
+        for (int i = level - 1; i >= 0; i--) {
+            while (x.next[i] != null && compare(x.next[i], balance, accountId) < 0) {
+                x = x.next[i];
+            }
+            update[i] = x;
+        }
+        x = x.next[0];
+        if (x == null || compare(x, balance, accountId) != 0) {
+            throw new IllegalStateException("balance index is broken for account " + accountId);
+        }
+        for (int i = 0; i < level; i++) {
+            if (update[i].next[i] == x) {
+                update[i].span[i] += x.span[i] - 1;
+                update[i].next[i] = x.next[i];
+            } else {
+                update[i].span[i]--;
+            }
+        }
+        while (level > 1 && head.next[level - 1] == null) {
+            level--;
+        }
+    }
+
+    private static int compare(Node node, BigDecimal balance, long accountId) {
+        var byBalance = balance.compareTo(node.balance);
+        return byBalance != 0 ? byBalance : Long.compare(node.accountId, accountId);
+    }
+
+    private static int randomLevel() {
+        var random = ThreadLocalRandom.current();
+        int newLevel = 1;
+        while (newLevel < MAX_LEVEL && random.nextInt(4) == 0) {
+            newLevel++;
+        }
+        return newLevel;
+    }
+}
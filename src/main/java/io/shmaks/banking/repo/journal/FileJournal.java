@@ -0,0 +1,41 @@
+package io.shmaks.banking.repo.journal;
+
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.io.IOException;
+
+public class FileJournal implements Journal, AutoCloseable {
+
+    private final JournalWriter writer;
+
+    public FileJournal(JournalWriter writer) {
+        this.writer = writer;
+    }
+
+    @Override
+    public Mono<Void> append(JournalRecord record) {
+        return Mono.defer(() -> Mono.fromFuture(writer.write(record)))
+                .publishOn(Schedulers.parallel()) // don't let callers' continuations run on the writer thread
+                .then();
+    }
+
+    @Override
+    public long getDurableLsn() {
+        return writer.getDurableLsn();
+    }
+
+    @Override
+    public void truncate(long upToLsn) throws IOException {
+        writer.truncate(upToLsn);
+    }
+
+    public JournalWriter getWriter() {
+        return writer;
+    }
+
+    @Override
+    public void close() throws IOException {
+        writer.close();
+    }
+}
@@ -0,0 +1,23 @@
+package io.shmaks.banking.repo.journal;
+
+import reactor.core.publisher.Mono;
+
+import java.io.IOException;
+
+public interface Journal {
+
+    /**
+     * @return completes once the record (and the whole batch it's written with) is durable
+     */
+    Mono<Void> append(JournalRecord record);
+
+    /**
+     * @return lsn of the last durable record, 0 if there are none
+     */
+    long getDurableLsn();
+
+    /**
+     * Drops records up to the given lsn when they aren't needed for recovery anymore, possibly keeping some of them
+     */
+    void truncate(long upToLsn) throws IOException;
+}
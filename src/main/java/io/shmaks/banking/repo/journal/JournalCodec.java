@@ -0,0 +1,111 @@
+package io.shmaks.banking.repo.journal;
+
+import io.shmaks.banking.model.Txn;
+import io.shmaks.banking.repo.codec.ModelCodec;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32C;
+
+/**
+ * Frame layout: payload length (int), CRC32C of lsn & payload (int), lsn (long), payload.
+ * Payload starts with record type, the rest depends on it.
+ */
+public final class JournalCodec {
+
+    public static final int HEADER_BYTES = 2 * Integer.BYTES + Long.BYTES;
+
+    private static final JournalRecord.Type[] TYPES = JournalRecord.Type.values();
+
+    private JournalCodec() {
+    }
+
+    public static ByteBuffer encodePayload(JournalRecord record) {
+        var bytes = new ByteArrayOutputStream(256);
+        try (var out = new DataOutputStream(bytes)) {
+            out.writeByte(record.getType().ordinal());
+            switch (record.getType()) {
+                case ACCOUNT_CREATED:
+                    ModelCodec.writeAccount(out, record.getAccount());
+                    break;
+                case ACCOUNT_DELETED:
+                case ACCOUNT_RESTORED:
+                    ModelCodec.writeLong(out, record.getAccountId());
+                    ModelCodec.writeInstant(out, record.getTimestamp());
+                    break;
+                case TXN_GROUP:
+                    ModelCodec.writeTxnGroup(out, record.getTxnGroup());
+                    out.writeInt(record.getTxns().size());
+                    for (var txn : record.getTxns()) {
+                        ModelCodec.writeTxn(out, txn);
+                    }
+                    out.writeInt(record.getBalanceDeltas().size());
+                    for (var delta : record.getBalanceDeltas()) {
+                        out.writeLong(delta.getAccountId());
+                        ModelCodec.writeDecimal(out, delta.getAmount());
+                        out.writeLong(delta.getLastTxnId());
+                        out.writeLong(delta.getVersion());
+                    }
+                    break;
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return ByteBuffer.wrap(bytes.toByteArray());
+    }
+
+    public static ByteBuffer encodeHeader(long lsn, ByteBuffer payload) {
+        var header = ByteBuffer.allocate(HEADER_BYTES);
+        header.putInt(payload.remaining());
+        header.putInt(checksum(lsn, payload));
+        header.putLong(lsn);
+        return header.flip();
+    }
+
+    public static int checksum(long lsn, ByteBuffer payload) {
+        var crc = new CRC32C();
+        crc.update(ByteBuffer.allocate(Long.BYTES).putLong(0, lsn));
+        crc.update(payload.duplicate());
+        return (int) crc.getValue();
+    }
+
+    public static JournalRecord decode(long lsn, ByteBuffer in) {
+        var type = TYPES[in.get()];
+        switch (type) {
+            case ACCOUNT_CREATED: {
+                var account = ModelCodec.readAccount(in);
+                return new JournalRecord(type, lsn, account, account.getId(), account.getCreatedAt(), null, List.of(), List.of());
+            }
+            case ACCOUNT_DELETED:
+            case ACCOUNT_RESTORED:
+                return new JournalRecord(
+                        type, lsn, null, ModelCodec.readLong(in), ModelCodec.readInstant(in), null, List.of(), List.of()
+                );
+            case TXN_GROUP: {
+                var group = ModelCodec.readTxnGroup(in);
+                var txnCount = in.getInt();
+                var txns = new ArrayList<Txn>(txnCount);
+                for (int i = 0; i < txnCount; i++) {
+                    txns.add(ModelCodec.readTxn(in));
+                }
+                var deltaCount = in.getInt();
+                var deltas = new ArrayList<JournalRecord.BalanceDelta>(deltaCount);
+                for (int i = 0; i < deltaCount; i++) {
+                    long accountId = in.getLong();
+                    BigDecimal amount = ModelCodec.readDecimal(in);
+                    long lastTxnId = in.getLong();
+                    deltas.add(new JournalRecord.BalanceDelta(accountId, amount, lastTxnId, in.getLong()));
+                }
+                return new JournalRecord(type, lsn, null, null, group.getCreatedAt(), group, txns, deltas);
+            }
+            default:
+                throw new IllegalStateException("Unknown journal record type " + type);
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package io.shmaks.banking.repo.journal;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Sequential reader of one journal segment. Reading stops at the first incomplete or corrupted frame, which is
+ * a torn write of the last batch, {@link #getValidLength()} tells where the valid part ends.
+ */
+public class JournalReader implements AutoCloseable {
+
+    private final DataInputStream in;
+    private long validLength;
+    private long lastLsn;
+    private boolean tornTail;
+
+    public JournalReader(Path segment) throws IOException {
+        this.in = new DataInputStream(new BufferedInputStream(Files.newInputStream(segment), 1 << 16));
+    }
+
+    /**
+     * @return next record or null when there is no more valid records
+     */
+    public JournalRecord next() throws IOException {
+        if (tornTail) {
+            return null;
+        }
+        int length;
+        try {
+            length = in.readInt();
+        } catch (EOFException e) {
+            return null;
+        }
+        try {
+            var checksum = in.readInt();
+            var lsn = in.readLong();
+            if (length <= 0 || length > JournalSegments.MAX_RECORD_BYTES || lsn <= lastLsn) {
+                tornTail = true;
+                return null;
+            }
+            var payload = new byte[length];
+            in.readFully(payload);
+            if (JournalCodec.checksum(lsn, ByteBuffer.wrap(payload)) != checksum) {
+                tornTail = true;
+                return null;
+            }
+            validLength += JournalCodec.HEADER_BYTES + length;
+            lastLsn = lsn;
+            return JournalCodec.decode(lsn, ByteBuffer.wrap(payload));
+        } catch (EOFException e) {
+            tornTail = true;
+            return null;
+        }
+    }
+
+    public long getValidLength() {
+        return validLength;
+    }
+
+    public long getLastLsn() {
+        return lastLsn;
+    }
+
+    public boolean hasTornTail() {
+        return tornTail;
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+}
@@ -0,0 +1,171 @@
+package io.shmaks.banking.repo.journal;
+
+import io.shmaks.banking.model.Account;
+import io.shmaks.banking.model.Txn;
+import io.shmaks.banking.model.TxnGroup;
+
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/**
+ * Unit of the write-ahead journal. Every committed txn group is one record with all its legs and the resulting
+ * balance deltas, account lifecycle changes are separate records.
+ */
+public class JournalRecord {
+
+    public enum Type {
+        ACCOUNT_CREATED, ACCOUNT_DELETED, ACCOUNT_RESTORED, TXN_GROUP
+    }
+
+    private final Type type;
+    private long lsn;
+    private final Account account;
+    private final Long accountId;
+    private final Instant timestamp;
+    private final TxnGroup txnGroup;
+    private final List<Txn> txns;
+    private final List<BalanceDelta> balanceDeltas;
+
+    JournalRecord(
+            Type type, long lsn, Account account, Long accountId, Instant timestamp,
+            TxnGroup txnGroup, List<Txn> txns, List<BalanceDelta> balanceDeltas) {
+        this.type = type;
+        this.lsn = lsn;
+        this.account = account;
+        this.accountId = accountId;
+        this.timestamp = timestamp;
+        this.txnGroup = txnGroup;
+        this.txns = txns;
+        this.balanceDeltas = balanceDeltas;
+    }
+
+    /**
+     * @param initialBalance balance the account is created with, account itself may be already changed by txns
+     */
+    public static JournalRecord accountCreated(Account account, BigDecimal initialBalance) {
+        var copy = new Account();
+        copy.setId(account.getId());
+        copy.setOwnerId(account.getOwnerId());
+        copy.setAccountNumber(account.getAccountNumber());
+        copy.setType(account.getType());
+        copy.setBalance(initialBalance);
+        copy.setCurrencyCode(account.getCurrencyCode());
+        copy.setDisplayedName(account.getDisplayedName());
+        copy.setCreatedAt(account.getCreatedAt());
+        return new JournalRecord(Type.ACCOUNT_CREATED, 0, copy, account.getId(), account.getCreatedAt(), null, List.of(), List.of());
+    }
+
+    public static JournalRecord accountDeleted(Long accountId, Instant deletedAt) {
+        return new JournalRecord(Type.ACCOUNT_DELETED, 0, null, accountId, deletedAt, null, List.of(), List.of());
+    }
+
+    public static JournalRecord accountRestored(Long accountId) {
+        return new JournalRecord(Type.ACCOUNT_RESTORED, 0, null, accountId, Instant.now(), null, List.of(), List.of());
+    }
+
+    public static JournalRecord txnGroup(TxnGroup group, List<Txn> txns) {
+        var deltasByAccount = new LinkedHashMap<Long, BalanceDelta>();
+        for (var txn : txns) {
+            deltasByAccount.merge(
+                    txn.getAccountId(),
+                    new BalanceDelta(
+                            txn.getAccountId(), txn.getAmount(), txn.getId(),
+                            txn.getAccountVersion() != null ? txn.getAccountVersion() : 0
+                    ),
+                    (delta1, delta2) -> new BalanceDelta(
+                            delta1.accountId, delta1.amount.add(delta2.amount), Math.max(delta1.lastTxnId, delta2.lastTxnId),
+                            Math.max(delta1.version, delta2.version)
+                    )
+            );
+        }
+        return new JournalRecord(
+                Type.TXN_GROUP, 0, null, null, group.getCreatedAt(), group, txns, new ArrayList<>(deltasByAccount.values())
+        );
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * Log sequence number, assigned by journal when record is written
+     */
+    public long getLsn() {
+        return lsn;
+    }
+
+    void setLsn(long lsn) {
+        this.lsn = lsn;
+    }
+
+    public Account getAccount() {
+        return account;
+    }
+
+    public Long getAccountId() {
+        return accountId;
+    }
+
+    public Instant getTimestamp() {
+        return timestamp;
+    }
+
+    public TxnGroup getTxnGroup() {
+        return txnGroup;
+    }
+
+    public List<Txn> getTxns() {
+        return txns;
+    }
+
+    public List<BalanceDelta> getBalanceDeltas() {
+        return balanceDeltas;
+    }
+
+    @Override
+    public String toString() {
+        return "JournalRecord{" +
+                "type=" + type +
+                ", lsn=" + lsn +
+                ", accountId=" + accountId +
+                ", txnGroupId=" + (txnGroup != null ? txnGroup.getId() : null) +
+                ", txns=" + txns.size() +
+                '}';
+    }
+
+    public static class BalanceDelta {
+        private final long accountId;
+        private final BigDecimal amount;
+        private final long lastTxnId;
+        private final long version;
+
+        public BalanceDelta(long accountId, BigDecimal amount, long lastTxnId, long version) {
+            this.accountId = accountId;
+            this.amount = amount;
+            this.lastTxnId = lastTxnId;
+            this.version = version;
+        }
+
+        public long getAccountId() {
+            return accountId;
+        }
+
+        public BigDecimal getAmount() {
+            return amount;
+        }
+
+        public long getLastTxnId() {
+            return lastTxnId;
+        }
+
+        /**
+         * @return version of the account made by the delta
+         */
+        public long getVersion() {
+            return version;
+        }
+    }
+}
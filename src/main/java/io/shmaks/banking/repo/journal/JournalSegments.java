@@ -0,0 +1,48 @@
+package io.shmaks.banking.repo.journal;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Journal is a directory of segment files named after the lsn of their first record
+ */
+public final class JournalSegments {
+
+    static final int MAX_RECORD_BYTES = 16 << 20;
+
+    private static final String PREFIX = "journal-";
+    private static final String SUFFIX = ".log";
+
+    private JournalSegments() {
+    }
+
+    public static Path segmentPath(Path dir, long firstLsn) {
+        return dir.resolve(String.format("%s%020d%s", PREFIX, firstLsn, SUFFIX));
+    }
+
+    public static long firstLsn(Path segment) {
+        var name = segment.getFileName().toString();
+        return Long.parseLong(name.substring(PREFIX.length(), name.length() - SUFFIX.length()));
+    }
+
+    /**
+     * @return segment files ordered by their first lsn
+     */
+    public static List<Path> list(Path dir) throws IOException {
+        if (!Files.isDirectory(dir)) {
+            return List.of();
+        }
+        try (var files = Files.list(dir)) {
+            return files
+                    .filter(it -> {
+                        var name = it.getFileName().toString();
+                        return name.startsWith(PREFIX) && name.endsWith(SUFFIX);
+                    })
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+    }
+}
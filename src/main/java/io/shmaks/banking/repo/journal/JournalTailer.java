@@ -0,0 +1,128 @@
+package io.shmaks.banking.repo.journal;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads raw frames of a journal while it's being written, following segments as the writer rolls them. Frames are
+ * returned only up to the given lsn, the caller passes the durable one, so a frame being written is never seen.
+ */
+public class JournalTailer implements AutoCloseable {
+
+    private final Path dir;
+    private final ByteBuffer header = ByteBuffer.allocate(JournalCodec.HEADER_BYTES);
+
+    private FileChannel channel;
+    private long position;
+    private long lastLsn;
+
+    /**
+     * @param afterLsn frames up to it are skipped; it must not be greater than the durable lsn
+     * @throws NoSuchFileException if segments with records after the lsn are already truncated
+     */
+    public JournalTailer(Path dir, long afterLsn) throws IOException {
+        this.dir = dir;
+        Path start = null;
+        for (var segment : JournalSegments.list(dir)) {
+            if (JournalSegments.firstLsn(segment) > afterLsn + 1) {
+                break;
+            }
+            start = segment;
+        }
+        if (start == null) {
+            throw new NoSuchFileException(dir.toString(), null, "journal is truncated after lsn " + afterLsn);
+        }
+        open(start);
+        while (lastLsn < afterLsn) {
+            if (readFrame(afterLsn) == null) {
+                throw new IOException("Journal ends before lsn " + afterLsn + ": " + dir);
+            }
+        }
+    }
+
+    /**
+     * @return frames (header & payload) following the previously read ones, up to the given lsn and, unless it's
+     * a single frame, up to max bytes in total
+     */
+    public List<ByteBuffer> next(long upToLsn, int maxBytes) throws IOException {
+        var frames = new ArrayList<ByteBuffer>();
+        long bytes = 0;
+        ByteBuffer frame;
+        while (bytes < maxBytes && (frame = readFrame(upToLsn)) != null) {
+            frames.add(frame);
+            bytes += frame.remaining();
+        }
+        return frames;
+    }
+
+    /**
+     * @return lsn of the last read frame
+     */
+    public long getLastLsn() {
+        return lastLsn;
+    }
+
+    private ByteBuffer readFrame(long upToLsn) throws IOException {
+        if (lastLsn >= upToLsn) {
+            return null;
+        }
+        header.clear();
+        if (!readFully(header, position)) {
+            // the frame is durable, so the writer has rolled to the next segment
+            open(JournalSegments.segmentPath(dir, lastLsn + 1));
+            header.clear();
+            if (!readFully(header, position)) {
+                throw new IOException("Journal frame of lsn " + (lastLsn + 1) + " is missing: " + dir);
+            }
+        }
+        header.flip();
+        var length = header.getInt();
+        var checksum = header.getInt();
+        var lsn = header.getLong();
+        if (lsn != lastLsn + 1 || length <= 0 || length > JournalSegments.MAX_RECORD_BYTES) {
+            throw new IOException("Unexpected journal frame of lsn " + lsn + " after " + lastLsn + ": " + dir);
+        }
+        var frame = ByteBuffer.allocate(JournalCodec.HEADER_BYTES + length);
+        frame.put(header.flip());
+        if (!readFully(frame, position + JournalCodec.HEADER_BYTES)
+                || JournalCodec.checksum(lsn, frame.duplicate().position(JournalCodec.HEADER_BYTES)) != checksum) {
+            throw new IOException("Journal frame of lsn " + lsn + " is corrupted: " + dir);
+        }
+        position += frame.capacity();
+        lastLsn = lsn;
+        return frame.flip();
+    }
+
+    private boolean readFully(ByteBuffer buffer, long from) throws IOException {
+        var at = from;
+        while (buffer.hasRemaining()) {
+            var read = channel.read(buffer, at);
+            if (read < 0) {
+                return false;
+            }
+            at += read;
+        }
+        return true;
+    }
+
+    private void open(Path segment) throws IOException {
+        var next = FileChannel.open(segment, StandardOpenOption.READ);
+        if (channel != null) {
+            channel.close();
+        }
+        channel = next;
+        position = 0;
+        lastLsn = JournalSegments.firstLsn(segment) - 1;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
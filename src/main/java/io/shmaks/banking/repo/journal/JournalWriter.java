@@ -0,0 +1,262 @@
+package io.shmaks.banking.repo.journal;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Appends journal records with group commit: a single writer thread takes everything queued by concurrent
+ * callers (up to batch size, optionally waiting up to max batch delay for more), writes it with one gathering
+ * write and makes it durable with one {@code force}. Callers are completed only after that.
+ */
+public class JournalWriter implements AutoCloseable {
+
+    private static class Pending {
+        private final JournalRecord record;
+        private final ByteBuffer payload;
+        private final CompletableFuture<Long> done = new CompletableFuture<>();
+        private long lsn;
+
+        Pending(JournalRecord record, ByteBuffer payload) {
+            this.record = record;
+            this.payload = payload;
+        }
+    }
+
+    private final Path dir;
+    private final int batchSize;
+    private final long maxBatchDelayNanos;
+    private final long maxSegmentBytes;
+    private final BlockingQueue<Pending> queue = new LinkedBlockingQueue<>();
+    private final Thread thread;
+
+    private FileChannel channel;
+    private volatile Path segment;
+    private long nextLsn;
+    private volatile long durableLsn;
+    private final Object durableMonitor = new Object();
+
+    private volatile boolean running = true;
+    private volatile IOException failure;
+
+    public JournalWriter(Path dir, int batchSize, Duration maxBatchDelay, long maxSegmentBytes) throws IOException {
+        this.dir = dir;
+        this.batchSize = batchSize;
+        this.maxBatchDelayNanos = maxBatchDelay.toNanos();
+        this.maxSegmentBytes = maxSegmentBytes;
+
+        Files.createDirectories(dir);
+        var segments = JournalSegments.list(dir);
+        if (segments.isEmpty()) {
+            nextLsn = 1;
+            segment = JournalSegments.segmentPath(dir, nextLsn);
+            channel = openSegment(segment);
+        } else {
+            var last = segments.get(segments.size() - 1);
+            var lastLsn = JournalSegments.firstLsn(last) - 1;
+            long validLength;
+            try (var reader = new JournalReader(last)) {
+                //noinspection StatementWithEmptyBody
+                while (reader.next() != null) {
+                }
+                validLength = reader.getValidLength();
+                lastLsn = Math.max(lastLsn, reader.getLastLsn());
+            }
+            segment = last;
+            channel = openSegment(last);
+            channel.truncate(validLength); // drop torn tail of the batch written before crash
+            channel.position(validLength);
+            channel.force(true);
+            nextLsn = lastLsn + 1;
+        }
+        durableLsn = nextLsn - 1;
+
+        this.thread = new Thread(this::writeLoop, "journal-writer");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     * @return lsn of the record once it's durable
+     */
+    public CompletableFuture<Long> write(JournalRecord record) {
+        if (failure != null) {
+            return CompletableFuture.failedFuture(failure);
+        }
+        if (!running) {
+            return CompletableFuture.failedFuture(new IllegalStateException("Journal is closed"));
+        }
+        var pending = new Pending(record, JournalCodec.encodePayload(record));
+        queue.add(pending);
+        return pending.done;
+    }
+
+    public Path getDir() {
+        return dir;
+    }
+
+    /**
+     * @return lsn of the last record which is durable, all preceding ones are durable too
+     */
+    public long getDurableLsn() {
+        return durableLsn;
+    }
+
+    /**
+     * Blocks until the record with the given lsn is durable or the timeout passes
+     *
+     * @return whether the record is durable
+     */
+    public boolean awaitDurable(long lsn, Duration timeout) throws InterruptedException {
+        var deadline = System.nanoTime() + timeout.toNanos();
+        synchronized (durableMonitor) {
+            while (durableLsn < lsn) {
+                var remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    return false;
+                }
+                TimeUnit.NANOSECONDS.timedWait(durableMonitor, remaining);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Deletes segments which contain only records up to the given lsn (e.g. covered by a snapshot).
+     * Active segment is never deleted.
+     *
+     * @return number of deleted segments
+     */
+    public int truncate(long upToLsn) throws IOException {
+        var segments = JournalSegments.list(dir);
+        var active = segment;
+        int deleted = 0;
+        for (int i = 0; i + 1 < segments.size(); i++) {
+            var current = segments.get(i);
+            if (current.equals(active) || JournalSegments.firstLsn(segments.get(i + 1)) - 1 > upToLsn) {
+                break;
+            }
+            Files.delete(current);
+            deleted++;
+        }
+        return deleted;
+    }
+
+    private void writeLoop() {
+        var batch = new ArrayList<Pending>(batchSize);
+        while (running || !queue.isEmpty()) {
+            try {
+                var first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                queue.drainTo(batch, batchSize - batch.size());
+                var deadline = System.nanoTime() + maxBatchDelayNanos;
+                while (batch.size() < batchSize) {
+                    var remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) {
+                        break;
+                    }
+                    var next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                    queue.drainTo(batch, batchSize - batch.size());
+                }
+                flush(batch);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                batch.forEach(pending -> pending.done.completeExceptionally(e));
+                return;
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    private void flush(List<Pending> batch) {
+        if (failure != null) {
+            batch.forEach(pending -> pending.done.completeExceptionally(failure));
+            return;
+        }
+        var buffers = new ByteBuffer[batch.size() * 2];
+        long bytes = 0;
+        for (int i = 0; i < batch.size(); i++) {
+            var pending = batch.get(i);
+            pending.lsn = nextLsn++;
+            buffers[2 * i] = JournalCodec.encodeHeader(pending.lsn, pending.payload);
+            buffers[2 * i + 1] = pending.payload;
+            bytes += buffers[2 * i].remaining() + pending.payload.remaining();
+        }
+        try {
+            while (bytes > 0) {
+                bytes -= channel.write(buffers);
+            }
+            channel.force(false);
+        } catch (IOException e) {
+            // state of the file tail is unknown, so journal refuses any further writes
+            failure = e;
+            batch.forEach(pending -> pending.done.completeExceptionally(e));
+            return;
+        }
+        durableLsn = nextLsn - 1;
+        synchronized (durableMonitor) {
+            durableMonitor.notifyAll();
+        }
+        for (var pending : batch) {
+            pending.record.setLsn(pending.lsn);
+            pending.done.complete(pending.lsn);
+        }
+        try {
+            if (channel.position() >= maxSegmentBytes) {
+                roll();
+            }
+        } catch (IOException e) {
+            failure = e;
+        }
+    }
+
+    private void roll() throws IOException {
+        var next = JournalSegments.segmentPath(dir, nextLsn);
+        var nextChannel = openSegment(next);
+        channel.close();
+        channel = nextChannel;
+        segment = next;
+        try (var dirChannel = FileChannel.open(dir, StandardOpenOption.READ)) {
+            dirChannel.force(true); // make the new segment's directory entry durable
+        } catch (IOException ignored) {
+            // not supported for directories on some platforms
+        }
+    }
+
+    private static FileChannel openSegment(Path segment) throws IOException {
+        return FileChannel.open(segment, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+    }
+
+    @Override
+    public void close() throws IOException {
+        running = false;
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        Pending pending;
+        while ((pending = queue.poll()) != null) {
+            pending.done.completeExceptionally(new IllegalStateException("Journal is closed"));
+        }
+        channel.close();
+    }
+}
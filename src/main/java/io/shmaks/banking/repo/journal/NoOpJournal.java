@@ -0,0 +1,23 @@
+package io.shmaks.banking.repo.journal;
+
+import reactor.core.publisher.Mono;
+
+/**
+ * Journal of purely in-memory setup: nothing survives restart
+ */
+public class NoOpJournal implements Journal {
+
+    @Override
+    public Mono<Void> append(JournalRecord record) {
+        return Mono.empty();
+    }
+
+    @Override
+    public long getDurableLsn() {
+        return 0;
+    }
+
+    @Override
+    public void truncate(long upToLsn) {
+    }
+}
@@ -0,0 +1,85 @@
+package io.shmaks.banking.repo.outbox;
+
+import io.shmaks.banking.model.Txn;
+import io.shmaks.banking.model.TxnGroup;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Keeps the last {@code retained} entries. Sequence numbers start from the boot time shifted left, so they keep growing
+ * over restarts and the cursor of a previous run is reported as expired instead of pointing to unrelated entries.
+ */
+public class InMemoryOutbox implements Outbox {
+
+    private final int retained;
+    private final ConcurrentSkipListMap<Long, OutboxEntry> entries = new ConcurrentSkipListMap<>();
+    private final Sinks.Many<Long> published = Sinks.many().replay().latest();
+
+    // both written under the lock of this, so entries are published without gaps in the order of sequence numbers
+    private volatile long lastSeq;
+    private volatile long trimmedUpTo;
+
+    public InMemoryOutbox(int retained) {
+        this(retained, Instant.now().toEpochMilli() << 20);
+    }
+
+    InMemoryOutbox(int retained, long firstSeq) {
+        this.retained = retained;
+        this.lastSeq = firstSeq - 1;
+        this.trimmedUpTo = firstSeq - 1;
+        published.tryEmitNext(lastSeq);
+    }
+
+    @Override
+    public Mono<Void> append(TxnGroup txnGroup, List<Txn> txns) {
+        return Mono.fromRunnable(() -> publish(txnGroup, List.copyOf(txns)));
+    }
+
+    private synchronized void publish(TxnGroup txnGroup, List<Txn> txns) {
+        var seq = lastSeq + 1;
+        entries.put(seq, new OutboxEntry(seq, txnGroup, txns));
+        lastSeq = seq;
+        while (seq - trimmedUpTo > retained) {
+            entries.remove(trimmedUpTo + 1);
+            trimmedUpTo++;
+        }
+        published.tryEmitNext(seq);
+    }
+
+    @Override
+    public Mono<List<OutboxEntry>> read(long afterSeq, int limit) {
+        return Mono.fromCallable(() -> {
+            if (afterSeq > lastSeq) {
+                throw new OutboxCursorExpiredException(afterSeq);
+            }
+            var batch = new ArrayList<OutboxEntry>(Math.min(limit, (int) Math.min(lastSeq - afterSeq, retained)));
+            for (var entry : entries.tailMap(afterSeq, false).values()) {
+                if (batch.size() == limit) {
+                    break;
+                }
+                batch.add(entry);
+            }
+            // checked after reading: entries following the cursor could be trimmed meanwhile
+            if (afterSeq < trimmedUpTo) {
+                throw new OutboxCursorExpiredException(afterSeq);
+            }
+            return batch;
+        });
+    }
+
+    @Override
+    public long getLastSeq() {
+        return lastSeq;
+    }
+
+    @Override
+    public Flux<Long> published() {
+        return published.asFlux();
+    }
+}
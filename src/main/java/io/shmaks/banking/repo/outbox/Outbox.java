@@ -0,0 +1,35 @@
+package io.shmaks.banking.repo.outbox;
+
+import io.shmaks.banking.model.Txn;
+import io.shmaks.banking.model.TxnGroup;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.List;
+
+/**
+ * Committed txn groups in the order they are published to consumers, every one gets the next sequence number
+ */
+public interface Outbox {
+
+    /**
+     * Called within the transaction the group is posted by, so the group is published iff it's committed
+     */
+    Mono<Void> append(TxnGroup txnGroup, List<Txn> txns);
+
+    /**
+     * @return up to limit entries published after the given sequence number, in order; fails with
+     * {@link OutboxCursorExpiredException} when entries following it aren't retained anymore
+     */
+    Mono<List<OutboxEntry>> read(long afterSeq, int limit);
+
+    /**
+     * @return sequence number of the last published entry
+     */
+    long getLastSeq();
+
+    /**
+     * @return sequence number of the last published entry, then the new one every time more entries are published
+     */
+    Flux<Long> published();
+}
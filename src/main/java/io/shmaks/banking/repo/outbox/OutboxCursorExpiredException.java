@@ -0,0 +1,7 @@
+package io.shmaks.banking.repo.outbox;
+
+public class OutboxCursorExpiredException extends RuntimeException {
+    public OutboxCursorExpiredException(long afterSeq) {
+        super("Changes after " + afterSeq + " aren't retained, resync is required");
+    }
+}
@@ -0,0 +1,40 @@
+package io.shmaks.banking.repo.outbox;
+
+import io.shmaks.banking.model.Txn;
+import io.shmaks.banking.model.TxnGroup;
+
+import java.util.List;
+
+public class OutboxEntry {
+
+    private final long seq;
+    private final TxnGroup txnGroup;
+    private final List<Txn> txns;
+
+    public OutboxEntry(long seq, TxnGroup txnGroup, List<Txn> txns) {
+        this.seq = seq;
+        this.txnGroup = txnGroup;
+        this.txns = txns;
+    }
+
+    public long getSeq() {
+        return seq;
+    }
+
+    public TxnGroup getTxnGroup() {
+        return txnGroup;
+    }
+
+    public List<Txn> getTxns() {
+        return txns;
+    }
+
+    @Override
+    public String toString() {
+        return "OutboxEntry{" +
+                "seq=" + seq +
+                ", txnGroupId=" + txnGroup.getId() +
+                ", txns=" + txns.size() +
+                '}';
+    }
+}
@@ -0,0 +1,189 @@
+package io.shmaks.banking.repo.outbox;
+
+import io.r2dbc.spi.Statement;
+import io.shmaks.banking.config.SampleAppStorageProps;
+import io.shmaks.banking.model.Txn;
+import io.shmaks.banking.model.TxnGroup;
+import io.shmaks.banking.repo.R2dbcTxnGroupRepo;
+import io.shmaks.banking.repo.R2dbcTxnRepo;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.r2dbc.core.DatabaseClient;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Outbox table written in the transaction of the posting. Sequence numbers can't be taken at insert: a transaction
+ * which got a smaller one may commit later than a reader has passed it. So rows are inserted unnumbered and the single
+ * relay numbers the committed ones in the order it finds them.
+ */
+public class R2dbcOutbox implements Outbox {
+
+    private static final Logger log = LoggerFactory.getLogger(R2dbcOutbox.class);
+
+    private final DatabaseClient client;
+    private final R2dbcTxnGroupRepo txnGroupRepo;
+    private final R2dbcTxnRepo txnRepo;
+    private final SampleAppStorageProps.Outbox props;
+    private final Sinks.Many<Long> published = Sinks.many().replay().latest();
+
+    // written by the relay thread only
+    private volatile long lastSeq;
+    private volatile long trimmedUpTo;
+
+    private ScheduledExecutorService executor;
+
+    public R2dbcOutbox(
+            DatabaseClient client,
+            R2dbcTxnGroupRepo txnGroupRepo,
+            R2dbcTxnRepo txnRepo,
+            SampleAppStorageProps.Outbox props) {
+        this.client = client;
+        this.txnGroupRepo = txnGroupRepo;
+        this.txnRepo = txnRepo;
+        this.props = props;
+    }
+
+    public void start() {
+        client.sql("SELECT MIN(seq), MAX(seq) FROM outbox")
+                .map(row -> {
+                    var max = row.get(1, Long.class);
+                    lastSeq = max != null ? max : 0;
+                    var min = row.get(0, Long.class);
+                    trimmedUpTo = min != null ? min - 1 : lastSeq;
+                    return lastSeq;
+                })
+                .one()
+                .block();
+        published.tryEmitNext(lastSeq);
+
+        executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            var thread = new Thread(runnable, "outbox-relay");
+            thread.setDaemon(true);
+            return thread;
+        });
+        var intervalMs = props.getPollInterval().toMillis();
+        executor.scheduleWithFixedDelay(this::relayAll, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    public void stop() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    @Override
+    public Mono<Void> append(TxnGroup txnGroup, List<Txn> txns) {
+        return client.sql("INSERT INTO outbox (txn_group_id) VALUES (:txnGroupId)")
+                .bind("txnGroupId", txnGroup.getId())
+                .fetch()
+                .rowsUpdated()
+                .then();
+    }
+
+    private void relayAll() {
+        try {
+            //noinspection StatementWithEmptyBody
+            while (relay() == props.getMaxBatchSize()) {
+            }
+        } catch (Exception e) {
+            log.error("outbox relay failed", e);
+        }
+    }
+
+    /**
+     * Numbers a batch of committed rows and drops the ones beyond retention
+     *
+     * @return number of published entries
+     */
+    public int relay() {
+        var pending = client.sql("SELECT id FROM outbox WHERE seq IS NULL ORDER BY id LIMIT :count")
+                .bind("count", props.getMaxBatchSize())
+                .map(row -> row.get(0, Long.class))
+                .all()
+                .collectList()
+                .block();
+        if (pending == null || pending.isEmpty()) {
+            return 0;
+        }
+
+        var firstSeq = lastSeq + 1;
+        client.inConnection(connection -> {
+            Statement statement = connection.createStatement("UPDATE outbox SET seq = $1 WHERE id = $2");
+            for (int i = 0; i < pending.size(); i++) {
+                if (i > 0) {
+                    statement.add();
+                }
+                statement.bind(0, firstSeq + i).bind(1, pending.get(i));
+            }
+            return Flux.from(statement.execute()).flatMap(result -> result.getRowsUpdated()).then();
+        }).block();
+        lastSeq = firstSeq + pending.size() - 1;
+
+        var upTo = lastSeq - props.getRetained();
+        if (upTo > trimmedUpTo) {
+            trimmedUpTo = upTo;
+            client.sql("DELETE FROM outbox WHERE seq <= :upTo").bind("upTo", upTo).fetch().rowsUpdated().block();
+        }
+
+        published.tryEmitNext(lastSeq);
+        log.debug("outbox relay: published={}, lastSeq={}", pending.size(), lastSeq);
+        return pending.size();
+    }
+
+    @Override
+    public Mono<List<OutboxEntry>> read(long afterSeq, int limit) {
+        if (afterSeq > lastSeq) {
+            return Mono.error(new OutboxCursorExpiredException(afterSeq));
+        }
+        return client.sql("SELECT seq, txn_group_id FROM outbox WHERE seq > :afterSeq ORDER BY seq LIMIT :count")
+                .bind("afterSeq", afterSeq)
+                .bind("count", limit)
+                .map(row -> new long[] {row.get(0, Long.class), row.get(1, Long.class)})
+                .all()
+                .collectList()
+                .flatMap(rows -> {
+                    // checked after reading: rows following the cursor could be deleted meanwhile
+                    if (afterSeq < trimmedUpTo) {
+                        return Mono.error(new OutboxCursorExpiredException(afterSeq));
+                    }
+                    if (rows.isEmpty()) {
+                        return Mono.just(List.<OutboxEntry>of());
+                    }
+                    var txnGroupIds = rows.stream().map(row -> row[1]).collect(Collectors.toList());
+                    return Mono.zip(txnGroupRepo.findAllByIds(txnGroupIds), txnRepo.findAllByTxnGroupIds(txnGroupIds))
+                            .map(groupsAndTxns -> entries(rows, groupsAndTxns.getT1(), groupsAndTxns.getT2()));
+                });
+    }
+
+    private static List<OutboxEntry> entries(List<long[]> rows, List<TxnGroup> txnGroups, List<Txn> txns) {
+        Map<Long, TxnGroup> groupsById = txnGroups.stream()
+                .collect(Collectors.toMap(TxnGroup::getId, Function.identity()));
+        Map<Long, List<Txn>> txnsByGroupId = txns.stream().collect(Collectors.groupingBy(Txn::getTxnGroupId));
+        var entries = new ArrayList<OutboxEntry>(rows.size());
+        for (var row : rows) {
+            entries.add(new OutboxEntry(row[0], groupsById.get(row[1]), txnsByGroupId.getOrDefault(row[1], List.of())));
+        }
+        return entries;
+    }
+
+    @Override
+    public long getLastSeq() {
+        return lastSeq;
+    }
+
+    @Override
+    public Flux<Long> published() {
+        return published.asFlux();
+    }
+}
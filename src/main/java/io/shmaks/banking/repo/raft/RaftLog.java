@@ -0,0 +1,280 @@
+package io.shmaks.banking.repo.raft;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32C;
+
+/**
+ * Persistent state of a raft node: the log of entries, the current term and the vote given in it.
+ * <p>
+ * Log is a single append-only file of frames: payload length (int), CRC32C of index, term & payload (int),
+ * index (long), term (long), payload. Entries are kept in memory as well, since every follower is replicated from
+ * them, and the log isn't compacted: the ledger is rebuilt by applying it from the first entry. Torn tail left by
+ * a crash is dropped on open. Term & vote are rewritten atomically to a small file on every change.
+ */
+public class RaftLog implements AutoCloseable {
+
+    public static class Entry {
+        private final long index;
+        private final long term;
+        private final ByteBuffer payload;
+
+        public Entry(long index, long term, ByteBuffer payload) {
+            this.index = index;
+            this.term = term;
+            this.payload = payload;
+        }
+
+        public long getIndex() {
+            return index;
+        }
+
+        public long getTerm() {
+            return term;
+        }
+
+        /**
+         * @return a view of the payload, empty one for entries written by a new leader to commit its term
+         */
+        public ByteBuffer getPayload() {
+            return payload.duplicate();
+        }
+
+        public int getSize() {
+            return HEADER_BYTES + payload.remaining();
+        }
+
+        @Override
+        public String toString() {
+            return "Entry{" +
+                    "index=" + index +
+                    ", term=" + term +
+                    ", size=" + payload.remaining() +
+                    '}';
+        }
+    }
+
+    public static final int HEADER_BYTES = 2 * Integer.BYTES + 2 * Long.BYTES;
+
+    private static final int MAX_PAYLOAD_BYTES = 16 << 20;
+
+    private final Path dir;
+    private final FileChannel channel;
+    private final List<Entry> entries = new ArrayList<>();
+    private long[] positions = new long[1024];
+
+    private volatile long currentTerm;
+    private volatile int votedFor;
+
+    public RaftLog(Path dir) throws IOException {
+        this.dir = dir;
+        Files.createDirectories(dir);
+        var meta = dir.resolve("meta");
+        if (Files.exists(meta)) {
+            try (var in = new DataInputStream(Files.newInputStream(meta))) {
+                currentTerm = in.readLong();
+                votedFor = in.readInt();
+            }
+        }
+        channel = FileChannel.open(
+                dir.resolve("log"), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE
+        );
+        load();
+    }
+
+    private void load() throws IOException {
+        var size = channel.size();
+        long position = 0;
+        try (var in = new DataInputStream(new BufferedInputStream(Files.newInputStream(dir.resolve("log")), 1 << 16))) {
+            while (position + HEADER_BYTES <= size) {
+                var length = in.readInt();
+                var checksum = in.readInt();
+                var index = in.readLong();
+                var term = in.readLong();
+                if (length < 0 || length > MAX_PAYLOAD_BYTES || position + HEADER_BYTES + length > size ||
+                        index != entries.size() + 1) {
+                    break;
+                }
+                var payload = new byte[length];
+                in.readFully(payload);
+                if (checksum(index, term, ByteBuffer.wrap(payload)) != checksum) {
+                    break;
+                }
+                add(new Entry(index, term, ByteBuffer.wrap(payload)), position);
+                position += HEADER_BYTES + length;
+            }
+        } catch (EOFException ignored) {
+            // torn frame
+        }
+        if (position < size) {
+            channel.truncate(position); // drop torn tail of the batch written before crash
+            channel.force(true);
+        }
+        channel.position(position);
+    }
+
+    public synchronized long getLastIndex() {
+        return entries.size();
+    }
+
+    public synchronized long getLastTerm() {
+        return termAt(entries.size());
+    }
+
+    /**
+     * @return term of the entry, 0 for the index before the first entry, -1 if there is no such entry
+     */
+    public synchronized long termAt(long index) {
+        if (index == 0) {
+            return 0;
+        }
+        return index <= entries.size() ? entries.get((int) index - 1).term : -1;
+    }
+
+    public synchronized Entry get(long index) {
+        return entries.get((int) index - 1);
+    }
+
+    /**
+     * @return index of the first entry of the same term as the given one, the leader resends the log from it
+     */
+    public synchronized long firstIndexOfTerm(long index) {
+        var term = termAt(index);
+        while (index > 1 && termAt(index - 1) == term) {
+            index--;
+        }
+        return index;
+    }
+
+    /**
+     * @return entries starting from the given index and fitting into max bytes, at least one if there is any
+     */
+    public synchronized List<Entry> slice(long fromIndex, long maxBytes) {
+        var result = new ArrayList<Entry>();
+        long bytes = 0;
+        for (long index = fromIndex; index <= entries.size(); index++) {
+            var entry = entries.get((int) index - 1);
+            bytes += entry.getSize();
+            if (bytes > maxBytes && !result.isEmpty()) {
+                break;
+            }
+            result.add(entry);
+        }
+        return result;
+    }
+
+    /**
+     * Writes entries following the last one, they are durable only after {@link #sync}
+     */
+    public synchronized void append(List<Entry> appended) throws IOException {
+        if (appended.isEmpty()) {
+            return;
+        }
+        var buffers = new ByteBuffer[appended.size() * 2];
+        long bytes = 0;
+        var position = channel.position();
+        for (int i = 0; i < appended.size(); i++) {
+            var entry = appended.get(i);
+            if (entry.index != entries.size() + 1) {
+                throw new IllegalStateException("Entry " + entry + " doesn't follow the last index " + entries.size());
+            }
+            var payload = entry.getPayload();
+            var header = ByteBuffer.allocate(HEADER_BYTES);
+            header.putInt(payload.remaining());
+            header.putInt(checksum(entry.index, entry.term, payload));
+            header.putLong(entry.index);
+            header.putLong(entry.term);
+            buffers[2 * i] = header.flip();
+            buffers[2 * i + 1] = payload;
+            add(entry, position);
+            position += entry.getSize();
+            bytes += entry.getSize();
+        }
+        while (bytes > 0) {
+            bytes -= channel.write(buffers);
+        }
+    }
+
+    /**
+     * Drops the entry with the given index and all after it, conflicting with the leader's log
+     */
+    public synchronized void truncateFrom(long index) throws IOException {
+        if (index > entries.size()) {
+            return;
+        }
+        var position = positions[(int) index - 1];
+        entries.subList((int) index - 1, entries.size()).clear();
+        channel.truncate(position);
+        channel.position(position);
+        channel.force(true);
+    }
+
+    /**
+     * Makes everything appended so far durable. Called without holding the log, so appends go on meanwhile.
+     */
+    public void sync() throws IOException {
+        channel.force(false);
+    }
+
+    public long getCurrentTerm() {
+        return currentTerm;
+    }
+
+    /**
+     * @return id of the node voted for in the current term, 0 if none
+     */
+    public int getVotedFor() {
+        return votedFor;
+    }
+
+    /**
+     * Durably stores term & vote, must be done before the vote is sent or a request of the term is answered
+     */
+    public synchronized void setTermAndVote(long term, int votedFor) throws IOException {
+        var tmp = dir.resolve("meta.tmp");
+        try (var file = FileChannel.open(
+                tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            var out = new DataOutputStream(Channels.newOutputStream(file));
+            out.writeLong(term);
+            out.writeInt(votedFor);
+            out.flush();
+            file.force(true);
+        }
+        Files.move(tmp, dir.resolve("meta"), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        this.currentTerm = term;
+        this.votedFor = votedFor;
+    }
+
+    private void add(Entry entry, long position) {
+        if (entries.size() == positions.length) {
+            positions = Arrays.copyOf(positions, positions.length * 2);
+        }
+        positions[entries.size()] = position;
+        entries.add(entry);
+    }
+
+    private static int checksum(long index, long term, ByteBuffer payload) {
+        var crc = new CRC32C();
+        crc.update(ByteBuffer.allocate(2 * Long.BYTES).putLong(index).putLong(term).flip());
+        crc.update(payload.duplicate());
+        return (int) crc.getValue();
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
@@ -0,0 +1,150 @@
+package io.shmaks.banking.repo.snapshot;
+
+import io.shmaks.banking.model.Account;
+import io.shmaks.banking.model.Txn;
+import io.shmaks.banking.model.TxnGroup;
+import io.shmaks.banking.repo.codec.ModelCodec;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.zip.CRC32C;
+
+/**
+ * Complete snapshot written by {@link SnapshotWriter}. Partition files are memory-mapped and checked against
+ * manifest when read, partitions are independent and may be read concurrently.
+ */
+public class Snapshot {
+
+    private static class PartitionFile {
+        private final long count;
+        private final long bytes;
+        private final int crc;
+
+        PartitionFile(long count, long bytes, int crc) {
+            this.count = count;
+            this.bytes = bytes;
+            this.crc = crc;
+        }
+    }
+
+    private final Path dir;
+    private final long lsn;
+    private final long accountNextId;
+    private final long txnGroupNextId;
+    private final long txnNextId;
+    private final int partitions;
+    private final PartitionFile[][] files;
+
+    private Snapshot(
+            Path dir, long lsn, long accountNextId, long txnGroupNextId, long txnNextId,
+            int partitions, PartitionFile[][] files) {
+        this.dir = dir;
+        this.lsn = lsn;
+        this.accountNextId = accountNextId;
+        this.txnGroupNextId = txnGroupNextId;
+        this.txnNextId = txnNextId;
+        this.partitions = partitions;
+        this.files = files;
+    }
+
+    static Snapshot open(Path dir) throws IOException {
+        var manifest = ByteBuffer.wrap(Files.readAllBytes(dir.resolve(SnapshotStore.MANIFEST)));
+        var crc = new CRC32C();
+        if (manifest.limit() > Integer.BYTES) {
+            crc.update(manifest.array(), 0, manifest.limit() - Integer.BYTES);
+        }
+        if (manifest.limit() <= Integer.BYTES || (int) crc.getValue() != manifest.getInt(manifest.limit() - Integer.BYTES)) {
+            throw new IllegalStateException("Corrupted snapshot manifest: " + dir);
+        }
+        if (manifest.getInt() != SnapshotStore.MAGIC || manifest.getInt() != SnapshotStore.VERSION) {
+            throw new IllegalStateException("Not a snapshot: " + dir);
+        }
+        var lsn = manifest.getLong();
+        var accountNextId = manifest.getLong();
+        var txnGroupNextId = manifest.getLong();
+        var txnNextId = manifest.getLong();
+        var partitions = manifest.getInt();
+        var files = new PartitionFile[SnapshotStore.Section.values().length][partitions];
+        for (var sectionFiles : files) {
+            for (int partition = 0; partition < partitions; partition++) {
+                sectionFiles[partition] = new PartitionFile(manifest.getLong(), manifest.getLong(), manifest.getInt());
+            }
+        }
+        return new Snapshot(dir, lsn, accountNextId, txnGroupNextId, txnNextId, partitions, files);
+    }
+
+    public void readAccounts(int partition, BiConsumer<Account, Boolean> action) throws IOException {
+        var in = map(SnapshotStore.Section.ACCOUNTS, partition);
+        for (long i = files[SnapshotStore.Section.ACCOUNTS.ordinal()][partition].count; i > 0; i--) {
+            var archived = in.get() != 0;
+            action.accept(ModelCodec.readAccount(in), archived);
+        }
+    }
+
+    public void readTxnGroups(int partition, Consumer<TxnGroup> action) throws IOException {
+        var in = map(SnapshotStore.Section.TXN_GROUPS, partition);
+        for (long i = files[SnapshotStore.Section.TXN_GROUPS.ordinal()][partition].count; i > 0; i--) {
+            action.accept(ModelCodec.readTxnGroup(in));
+        }
+    }
+
+    public void readTxns(int partition, Consumer<Txn> action) throws IOException {
+        var in = map(SnapshotStore.Section.TXNS, partition);
+        for (long i = files[SnapshotStore.Section.TXNS.ordinal()][partition].count; i > 0; i--) {
+            action.accept(ModelCodec.readTxn(in));
+        }
+    }
+
+    private ByteBuffer map(SnapshotStore.Section section, int partition) throws IOException {
+        var file = files[section.ordinal()][partition];
+        var path = dir.resolve(section.fileName(partition));
+        if (file.bytes > Integer.MAX_VALUE) {
+            throw new IOException("Snapshot partition is too large, more partitions are needed: " + path);
+        }
+        try (var channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() != file.bytes) {
+                throw new IOException("Unexpected size of snapshot partition: " + path);
+            }
+            var buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, file.bytes);
+            var crc = new CRC32C();
+            crc.update(buffer.duplicate());
+            if ((int) crc.getValue() != file.crc) {
+                throw new IOException("Corrupted snapshot partition: " + path);
+            }
+            return buffer;
+        }
+    }
+
+    public Path getDir() {
+        return dir;
+    }
+
+    /**
+     * @return the last journal record which effects are surely included
+     */
+    public long getLsn() {
+        return lsn;
+    }
+
+    public long getAccountNextId() {
+        return accountNextId;
+    }
+
+    public long getTxnGroupNextId() {
+        return txnGroupNextId;
+    }
+
+    public long getTxnNextId() {
+        return txnNextId;
+    }
+
+    public int getPartitions() {
+        return partitions;
+    }
+}
@@ -0,0 +1,144 @@
+package io.shmaks.banking.repo.snapshot;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+import java.util.OptionalLong;
+import java.util.stream.Collectors;
+
+/**
+ * Directory of snapshots, each one is a directory named after the journal lsn it covers and the time it's taken at.
+ */
+public class SnapshotStore {
+
+    private static final Logger log = LoggerFactory.getLogger(SnapshotStore.class);
+
+    static final int MAGIC = 0x534E4150; // SNAP
+    static final int VERSION = 1;
+    static final String MANIFEST = "manifest";
+
+    private static final String PREFIX = "snapshot-";
+    private static final String TMP_SUFFIX = ".tmp";
+
+    enum Section {
+        ACCOUNTS("accounts"), TXN_GROUPS("txn-groups"), TXNS("txns");
+
+        private final String name;
+
+        Section(String name) {
+            this.name = name;
+        }
+
+        String fileName(int partition) {
+            return String.format("%s-%03d.bin", name, partition);
+        }
+    }
+
+    private final Path dir;
+    private final int partitions;
+
+    public SnapshotStore(Path dir, int partitions) {
+        this.dir = dir;
+        this.partitions = partitions;
+    }
+
+    public static int partitionOf(long id, int partitions) {
+        return (int) Math.floorMod(id, (long) partitions);
+    }
+
+    /**
+     * @param lsn the last journal record which effects are surely included
+     */
+    public SnapshotWriter begin(long lsn) throws IOException {
+        Files.createDirectories(dir);
+        var target = dir.resolve(String.format("%s%020d-%020d", PREFIX, lsn, System.currentTimeMillis()));
+        var tmp = dir.resolve(target.getFileName() + TMP_SUFFIX);
+        deleteRecursively(tmp);
+        return new SnapshotWriter(tmp, target, lsn, partitions);
+    }
+
+    /**
+     * @return the most recent complete snapshot, broken ones are skipped
+     */
+    public Optional<Snapshot> latest() throws IOException {
+        for (var snapshotDir : list()) {
+            try {
+                return Optional.of(Snapshot.open(snapshotDir));
+            } catch (IOException | IllegalStateException e) {
+                log.warn("skipping broken snapshot {}", snapshotDir, e);
+            }
+        }
+        return Optional.empty();
+    }
+
+    /**
+     * Deletes all but {@code retained} most recent snapshots and leftovers of unfinished ones
+     */
+    public int deleteOld(int retained) throws IOException {
+        var deleted = 0;
+        var snapshots = list();
+        for (int i = retained; i < snapshots.size(); i++) {
+            deleteRecursively(snapshots.get(i));
+            deleted++;
+        }
+        if (Files.isDirectory(dir)) {
+            try (var files = Files.list(dir)) {
+                for (var tmp : files.filter(it -> it.getFileName().toString().endsWith(TMP_SUFFIX)).collect(Collectors.toList())) {
+                    deleteRecursively(tmp);
+                }
+            }
+        }
+        return deleted;
+    }
+
+    /**
+     * @return lsn covered by the oldest retained snapshot, journal records up to it are not needed anymore
+     */
+    public OptionalLong oldestLsn() throws IOException {
+        var snapshots = list();
+        if (snapshots.isEmpty()) {
+            return OptionalLong.empty();
+        }
+        var name = snapshots.get(snapshots.size() - 1).getFileName().toString();
+        return OptionalLong.of(Long.parseLong(name.substring(PREFIX.length(), PREFIX.length() + 20)));
+    }
+
+    public Path getDir() {
+        return dir;
+    }
+
+    /**
+     * @return complete snapshots, the most recent first
+     */
+    private List<Path> list() throws IOException {
+        if (!Files.isDirectory(dir)) {
+            return List.of();
+        }
+        try (var files = Files.list(dir)) {
+            return files
+                    .filter(it -> {
+                        var name = it.getFileName().toString();
+                        return name.startsWith(PREFIX) && !name.endsWith(TMP_SUFFIX) && Files.isDirectory(it);
+                    })
+                    .sorted(Comparator.reverseOrder())
+                    .collect(Collectors.toList());
+        }
+    }
+
+    static void deleteRecursively(Path path) throws IOException {
+        if (!Files.exists(path)) {
+            return;
+        }
+        try (var files = Files.walk(path)) {
+            for (var it : files.sorted(Comparator.reverseOrder()).collect(Collectors.toList())) {
+                Files.delete(it);
+            }
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package io.shmaks.banking.repo.snapshot;
+
+import io.shmaks.banking.model.Account;
+import io.shmaks.banking.model.Txn;
+import io.shmaks.banking.model.TxnGroup;
+import io.shmaks.banking.repo.codec.ModelCodec;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32C;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Writes one snapshot into a temporary directory, which is fsynced and atomically renamed on {@link #commit}.
+ * Every kind of entities is split into partition files by id (account id for accounts & txns), so that they can
+ * be loaded in parallel.
+ */
+public class SnapshotWriter implements AutoCloseable {
+
+    private static class PartitionFile {
+        private final Path path;
+        private final CRC32C crc = new CRC32C();
+        private final DataOutputStream out;
+        private long count;
+
+        PartitionFile(Path path) throws IOException {
+            this.path = path;
+            this.out = new DataOutputStream(new CheckedOutputStream(
+                    new BufferedOutputStream(Files.newOutputStream(path), 1 << 16), crc
+            ));
+        }
+    }
+
+    private final Path tmpDir;
+    private final Path targetDir;
+    private final long lsn;
+    private final int partitions;
+    private final PartitionFile[][] files;
+    private boolean committed;
+
+    SnapshotWriter(Path tmpDir, Path targetDir, long lsn, int partitions) throws IOException {
+        this.tmpDir = tmpDir;
+        this.targetDir = targetDir;
+        this.lsn = lsn;
+        this.partitions = partitions;
+        Files.createDirectories(tmpDir);
+        this.files = new PartitionFile[SnapshotStore.Section.values().length][partitions];
+        for (var section : SnapshotStore.Section.values()) {
+            for (int partition = 0; partition < partitions; partition++) {
+                files[section.ordinal()][partition] = new PartitionFile(tmpDir.resolve(section.fileName(partition)));
+            }
+        }
+    }
+
+    public void account(Account account, boolean archived) {
+        var file = file(SnapshotStore.Section.ACCOUNTS, account.getId());
+        try {
+            file.out.writeBoolean(archived);
+            ModelCodec.writeAccount(file.out, account);
+            file.count++;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public void txnGroup(TxnGroup group) {
+        var file = file(SnapshotStore.Section.TXN_GROUPS, group.getId());
+        try {
+            ModelCodec.writeTxnGroup(file.out, group);
+            file.count++;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public void txn(Txn txn) {
+        var file = file(SnapshotStore.Section.TXNS, txn.getAccountId());
+        try {
+            ModelCodec.writeTxn(file.out, txn);
+            file.count++;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Makes the snapshot durable and visible for recovery
+     */
+    public Path commit(long accountNextId, long txnGroupNextId, long txnNextId) throws IOException {
+        var manifestPath = tmpDir.resolve(SnapshotStore.MANIFEST);
+        var manifestCrc = new CRC32C();
+        try (var manifest = new DataOutputStream(new CheckedOutputStream(
+                new BufferedOutputStream(Files.newOutputStream(manifestPath)), manifestCrc))) {
+            manifest.writeInt(SnapshotStore.MAGIC);
+            manifest.writeInt(SnapshotStore.VERSION);
+            manifest.writeLong(lsn);
+            manifest.writeLong(accountNextId);
+            manifest.writeLong(txnGroupNextId);
+            manifest.writeLong(txnNextId);
+            manifest.writeInt(partitions);
+            for (var sectionFiles : files) {
+                for (var file : sectionFiles) {
+                    file.out.close();
+                    force(file.path);
+                    manifest.writeLong(file.count);
+                    manifest.writeLong(Files.size(file.path));
+                    manifest.writeInt((int) file.crc.getValue());
+                }
+            }
+            manifest.writeInt((int) manifestCrc.getValue());
+        }
+        force(manifestPath);
+        Files.move(tmpDir, targetDir, StandardCopyOption.ATOMIC_MOVE);
+        force(targetDir.getParent());
+        committed = true;
+        return targetDir;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (committed) {
+            return;
+        }
+        for (var sectionFiles : files) {
+            for (var file : sectionFiles) {
+                file.out.close();
+            }
+        }
+        SnapshotStore.deleteRecursively(tmpDir);
+    }
+
+    private PartitionFile file(SnapshotStore.Section section, long id) {
+        return files[section.ordinal()][SnapshotStore.partitionOf(id, partitions)];
+    }
+
+    private static void force(Path path) throws IOException {
+        try (var channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            if (!Files.isDirectory(path)) {
+                throw e; // directories can't be forced on some platforms
+            }
+        }
+    }
+}
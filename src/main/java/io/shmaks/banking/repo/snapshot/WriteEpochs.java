@@ -0,0 +1,74 @@
+package io.shmaks.banking.repo.snapshot;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Tracks ledger writes in flight by two alternating epochs.
+ * <p>
+ * Snapshot is copied while writes go on, so it may contain a half-applied txn group. Once copying is done
+ * snapshotter {@link #advance advances} the epoch and waits until every write started in the previous one is
+ * finished, i.e. has its journal record durable. Such a snapshot plus the journal after it gives the full state.
+ */
+public class WriteEpochs {
+
+    private final AtomicLong[] active = {new AtomicLong(), new AtomicLong()};
+    private volatile int epoch;
+    private boolean stragglers;
+
+    public <T> Mono<T> track(Mono<T> write) {
+        return Mono.defer(() -> {
+            var entered = enter();
+            return write.doFinally(signal -> active[entered].decrementAndGet());
+        });
+    }
+
+    /**
+     * Tracks a write streaming its results, it belongs to its epoch until all of them are emitted
+     */
+    public <T> Flux<T> track(Flux<T> writes) {
+        return Flux.defer(() -> {
+            var entered = enter();
+            return writes.doFinally(signal -> active[entered].decrementAndGet());
+        });
+    }
+
+    /**
+     * Switches to the next epoch and waits for writes of the previous one
+     *
+     * @return false if they didn't finish in time
+     */
+    public synchronized boolean advance(Duration timeout) throws InterruptedException {
+        var previous = epoch;
+        epoch = 1 - previous;
+        var deadline = System.nanoTime() + timeout.toNanos();
+        // writes left by the previous timed out advance joined the new epoch, they have to be waited for as well
+        var drained = await(previous, deadline) && (!stragglers || await(1 - previous, deadline));
+        stragglers = !drained;
+        return drained;
+    }
+
+    private boolean await(int epoch, long deadline) throws InterruptedException {
+        while (active[epoch].get() > 0) {
+            if (System.nanoTime() > deadline) {
+                return false;
+            }
+            Thread.sleep(1);
+        }
+        return true;
+    }
+
+    private int enter() {
+        while (true) {
+            var current = epoch;
+            active[current].incrementAndGet();
+            if (epoch == current) {
+                return current;
+            }
+            active[current].decrementAndGet(); // raced with advance, the write belongs to the new epoch
+        }
+    }
+}
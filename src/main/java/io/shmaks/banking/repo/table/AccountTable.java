@@ -0,0 +1,554 @@
+package io.shmaks.banking.repo.table;
+
+import io.shmaks.banking.model.Account;
+import io.shmaks.banking.model.AccountType;
+import io.shmaks.banking.repo.codec.ModelCodec;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.zip.CRC32C;
+
+/**
+ * Canonical storage of accounts: memory-mapped file of fixed-width records addressed by account id, so a restart
+ * maps the file and rebuilds lookup indexes from it without any replay.
+ * <p>
+ * Record is an immutable part written on creation (id, type, creation time and a reference to owner id, number,
+ * currency & displayed name kept in the append-only strings file, checksum over all of them) and two copies of the
+ * mutable part (version of the copy, balance, last txn id, account version, deletion time, checksum). An update overwrites the older copy, so
+ * a record torn by crash keeps the previous state in the other one. Writes land in page cache and reach the disk
+ * on {@link #flush}, which runs periodically.
+ * <p>
+ * Page cache survives a crash of the process, but not of the OS: then pages are written back in no particular
+ * order, and the table may be ahead of the journal. Such a table is not {@link #isTrusted trusted}.
+ */
+public class AccountTable implements AutoCloseable {
+
+    private static final Logger log = LoggerFactory.getLogger(AccountTable.class);
+
+    static final int MAGIC = 0x41434354; // ACCT
+    static final int VERSION = 2;
+    static final int HEADER_BYTES = 64;
+    static final int RECORD_BYTES = 144;
+    static final String RECORDS_FILE = "accounts.dat";
+    static final String STRINGS_FILE = "strings.dat";
+
+    private static final int HEADER_CLEAN = 24;
+    private static final int HEADER_BOOT_ID = 28;
+    private static final Path BOOT_ID = Path.of("/proc/sys/kernel/random/boot_id");
+
+    // immutable part, checksum covers the rest of it and referenced strings
+    private static final int CRC = 0;
+    private static final int ID = 4;
+    private static final int TYPE = 12;
+    private static final int CREATED_SECONDS = 13;
+    private static final int CREATED_NANOS = 21;
+    private static final int STRINGS_OFFSET = 25;
+    private static final int STRINGS_LENGTH = 33;
+    private static final int IMMUTABLE_BYTES = 40;
+    // mutable copy relative to its start, checksum covers account id and the rest of the copy
+    private static final int COPY_CRC = 0;
+    private static final int COPY_VERSION = 4;
+    private static final int BALANCE_UNSCALED = 12;
+    private static final int BALANCE_SCALE = 20;
+    private static final int LAST_TXN_ID = 22;
+    private static final int DELETED_SECONDS = 30;
+    private static final int DELETED_NANOS = 38;
+    private static final int ACCOUNT_VERSION = 42;
+    private static final int COPY_BYTES = 52;
+
+    private static final long NULL_LONG = Long.MIN_VALUE;
+    private static final int MAX_STRINGS_BYTES = 1 << 16;
+    private static final int STRINGS_WINDOW_SHIFT = 30;
+    private static final AccountType[] ACCOUNT_TYPES = AccountType.values();
+
+    private final Path dir;
+    private final FileChannel records;
+    private final FileChannel strings;
+    private final AtomicLong stringsEnd;
+    private final long firstId;
+    private final int chunkRecords;
+    private final boolean trusted;
+    private volatile MappedByteBuffer[] chunks;
+    private ScheduledExecutorService flusher;
+
+    private AccountTable(
+            Path dir, FileChannel records, FileChannel strings, long firstId, int chunkRecords, boolean trusted)
+            throws IOException {
+        this.dir = dir;
+        this.trusted = trusted;
+        this.records = records;
+        this.strings = strings;
+        this.stringsEnd = new AtomicLong(strings.size());
+        this.firstId = firstId;
+        this.chunkRecords = chunkRecords;
+        var chunkBytes = (long) chunkRecords * RECORD_BYTES;
+        var count = (int) ((Math.max(records.size() - HEADER_BYTES, 0) + chunkBytes - 1) / chunkBytes);
+        this.chunks = new MappedByteBuffer[count];
+        for (int i = 0; i < count; i++) {
+            chunks[i] = mapChunk(i);
+        }
+    }
+
+    /**
+     * Opens the table in the directory or creates an empty one
+     *
+     * @param firstId      the smallest account id, it's addressed by the first record
+     * @param chunkRecords number of records mapped at once, file grows by this many, ignored for existing table
+     */
+    public static AccountTable open(Path dir, long firstId, int chunkRecords, Duration flushInterval) throws IOException {
+        if ((long) chunkRecords * RECORD_BYTES > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Too many records in a chunk: " + chunkRecords);
+        }
+        Files.createDirectories(dir);
+        var records = FileChannel.open(
+                dir.resolve(RECORDS_FILE), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE
+        );
+        var strings = FileChannel.open(
+                dir.resolve(STRINGS_FILE), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE
+        );
+        try {
+            var header = ByteBuffer.allocate(HEADER_BYTES);
+            var bootId = bootId();
+            var trusted = true;
+            if (records.size() == 0) {
+                header.putInt(MAGIC).putInt(VERSION).putInt(RECORD_BYTES).putLong(firstId).putInt(chunkRecords);
+            } else {
+                records.read(header, 0);
+                header.flip();
+                if (header.remaining() < HEADER_BYTES || header.getInt() != MAGIC || header.getInt() != VERSION
+                        || header.getInt() != RECORD_BYTES) {
+                    throw new IllegalStateException("Not an account table: " + dir);
+                }
+                firstId = header.getLong();
+                chunkRecords = header.getInt();
+                var lastBootId = new UUID(header.getLong(HEADER_BOOT_ID), header.getLong(HEADER_BOOT_ID + Long.BYTES));
+                trusted = header.getInt(HEADER_CLEAN) != 0 || (bootId != null && bootId.equals(lastBootId));
+            }
+            header.putInt(HEADER_CLEAN, 0);
+            header.putLong(HEADER_BOOT_ID, bootId != null ? bootId.getMostSignificantBits() : 0);
+            header.putLong(HEADER_BOOT_ID + Long.BYTES, bootId != null ? bootId.getLeastSignificantBits() : 0);
+            writeHeader(records, header);
+            var table = new AccountTable(dir, records, strings, firstId, chunkRecords, trusted);
+            table.startFlusher(flushInterval);
+            return table;
+        } catch (IOException | RuntimeException e) {
+            records.close();
+            strings.close();
+            throw e;
+        }
+    }
+
+    /**
+     * @return false if the table wasn't closed cleanly before the OS restart, so it may be ahead of the journal
+     * or miss some writes
+     */
+    public boolean isTrusted() {
+        return trusted;
+    }
+
+    /**
+     * Drops all records, e.g. to rebuild an untrusted table. Must not run concurrently with anything else.
+     */
+    public synchronized void clear() throws IOException {
+        chunks = new MappedByteBuffer[0]; // mapped regions beyond the new end of file are never touched again
+        records.truncate(HEADER_BYTES);
+        strings.truncate(0);
+        stringsEnd.set(0);
+        records.force(true);
+        strings.force(true);
+    }
+
+    /**
+     * Writes the current state of the account. Writes of one account must not run concurrently, callers do
+     * them under the same lock as the changes themselves.
+     */
+    public void write(Account account) {
+        var slot = slotOf(account.getId());
+        var chunk = chunk((int) (slot / chunkRecords));
+        var base = (int) (slot % chunkRecords) * RECORD_BYTES;
+        if (chunk.getLong(base + ID) != account.getId()) {
+            writeImmutable(chunk, base, account);
+        }
+        var copy0 = base + IMMUTABLE_BYTES;
+        var copy1 = copy0 + COPY_BYTES;
+        var version0 = chunk.getLong(copy0 + COPY_VERSION);
+        var version1 = chunk.getLong(copy1 + COPY_VERSION);
+        writeCopy(chunk, version0 <= version1 ? copy0 : copy1, account, Math.max(version0, version1) + 1);
+    }
+
+    private void writeImmutable(MappedByteBuffer chunk, int base, Account account) {
+        var bytes = encodeStrings(account);
+        var offset = stringsEnd.getAndAdd(bytes.length);
+        try {
+            var buffer = ByteBuffer.wrap(bytes);
+            while (buffer.hasRemaining()) {
+                strings.write(buffer, offset + buffer.position());
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        // previous copies belong to nobody, a stale one must never win over the new state
+        for (int i = base + IMMUTABLE_BYTES; i < base + RECORD_BYTES; i += Long.BYTES) {
+            chunk.putLong(i, 0);
+        }
+        chunk.putLong(base + ID, account.getId());
+        chunk.put(base + TYPE, (byte) (account.getType() != null ? account.getType().ordinal() : -1));
+        chunk.putLong(base + CREATED_SECONDS, account.getCreatedAt() != null ? account.getCreatedAt().getEpochSecond() : NULL_LONG);
+        chunk.putInt(base + CREATED_NANOS, account.getCreatedAt() != null ? account.getCreatedAt().getNano() : 0);
+        chunk.putLong(base + STRINGS_OFFSET, offset);
+        chunk.putInt(base + STRINGS_LENGTH, bytes.length);
+        var crc = new CRC32C();
+        crc.update(slice(chunk, base + ID, IMMUTABLE_BYTES - ID));
+        crc.update(bytes);
+        chunk.putInt(base + CRC, (int) crc.getValue());
+    }
+
+    private static void writeCopy(MappedByteBuffer chunk, int copy, Account account, long version) {
+        var balance = account.getBalance();
+        long unscaled;
+        try {
+            unscaled = balance.unscaledValue().longValueExact();
+        } catch (ArithmeticException e) {
+            throw new IllegalArgumentException("Balance of account " + account.getId() + " doesn't fit into the table");
+        }
+        chunk.putLong(copy + COPY_VERSION, version);
+        chunk.putLong(copy + BALANCE_UNSCALED, unscaled);
+        chunk.putShort(copy + BALANCE_SCALE, (short) balance.scale());
+        chunk.putLong(copy + LAST_TXN_ID, account.getLastTxnId() != null ? account.getLastTxnId() : NULL_LONG);
+        chunk.putLong(copy + DELETED_SECONDS, account.getDeletedAt() != null ? account.getDeletedAt().getEpochSecond() : NULL_LONG);
+        chunk.putInt(copy + DELETED_NANOS, account.getDeletedAt() != null ? account.getDeletedAt().getNano() : 0);
+        chunk.putLong(copy + ACCOUNT_VERSION, account.getVersion());
+        chunk.putInt(copy + COPY_CRC, copyCrc(chunk, copy, account.getId()));
+    }
+
+    /**
+     * Makes all writes done so far durable
+     */
+    public void flush() throws IOException {
+        strings.force(false); // records must never reference strings lost by crash
+        for (var chunk : chunks) {
+            chunk.force();
+        }
+    }
+
+    /**
+     * Starts reading all records, should be done once right after opening, before any writes
+     */
+    public Sweep sweep() throws IOException {
+        var size = strings.size();
+        var windows = new MappedByteBuffer[(int) ((size >> STRINGS_WINDOW_SHIFT) + 1)];
+        for (int i = 0; i < windows.length; i++) {
+            var position = (long) i << STRINGS_WINDOW_SHIFT;
+            // windows overlap by the max entry size, so every entry fits into the window it starts in
+            var length = Math.min(size - position, (1L << STRINGS_WINDOW_SHIFT) + MAX_STRINGS_BYTES);
+            windows[i] = strings.map(FileChannel.MapMode.READ_ONLY, position, Math.max(length, 0));
+        }
+        return new Sweep(windows);
+    }
+
+    /**
+     * Reads records chunk by chunk, chunks are independent and may be read concurrently. Checksums of every record
+     * are verified: records torn on creation are cleared, as well as torn copies of the mutable part when the
+     * other copy is intact.
+     */
+    public class Sweep implements AutoCloseable {
+        private MappedByteBuffer[] windows;
+
+        private Sweep(MappedByteBuffer[] windows) {
+            this.windows = windows;
+        }
+
+        public int getChunks() {
+            return chunks.length;
+        }
+
+        public SweepResult run(int chunkIndex, Consumer<Account> action) {
+            var chunk = chunks[chunkIndex];
+            var result = new SweepResult();
+            for (int record = 0; record < chunkRecords; record++) {
+                var base = record * RECORD_BYTES;
+                var expectedId = firstId + (long) chunkIndex * chunkRecords + record;
+                var id = chunk.getLong(base + ID);
+                if (id == 0) {
+                    if (!isZero(chunk, base)) {
+                        clear(chunk, base, RECORD_BYTES);
+                        result.torn++;
+                    }
+                    continue;
+                }
+                var encodedStrings = id == expectedId ? stringsOf(chunk, base) : null;
+                if (encodedStrings == null) {
+                    clear(chunk, base, RECORD_BYTES);
+                    result.torn++;
+                    continue;
+                }
+                var copy0 = base + IMMUTABLE_BYTES;
+                var copy1 = copy0 + COPY_BYTES;
+                var valid0 = isValidCopy(chunk, copy0, id);
+                var valid1 = isValidCopy(chunk, copy1, id);
+                if (!valid0 && !valid1) {
+                    if (Math.max(chunk.getLong(copy0 + COPY_VERSION), chunk.getLong(copy1 + COPY_VERSION)) <= 1) {
+                        clear(chunk, base, RECORD_BYTES); // the very first write is torn
+                        result.torn++;
+                    } else {
+                        result.corruptedIds.add(id);
+                    }
+                    continue;
+                }
+                if (valid0 != valid1) {
+                    clear(chunk, valid0 ? copy1 : copy0, COPY_BYTES);
+                    result.repaired++;
+                }
+                var copy = !valid1 || (valid0 && chunk.getLong(copy0 + COPY_VERSION) > chunk.getLong(copy1 + COPY_VERSION))
+                        ? copy0 : copy1;
+                action.accept(readAccount(chunk, base, copy, encodedStrings));
+                result.accounts++;
+            }
+            return result;
+        }
+
+        private ByteBuffer stringsOf(MappedByteBuffer chunk, int base) {
+            var offset = chunk.getLong(base + STRINGS_OFFSET);
+            var length = chunk.getInt(base + STRINGS_LENGTH);
+            var window = (int) (offset >> STRINGS_WINDOW_SHIFT);
+            if (offset < 0 || length < 0 || length > MAX_STRINGS_BYTES || window >= windows.length) {
+                return null;
+            }
+            var position = (int) (offset - ((long) window << STRINGS_WINDOW_SHIFT));
+            if (position + length > windows[window].limit()) {
+                return null;
+            }
+            var strings = slice(windows[window], position, length);
+            var crc = new CRC32C();
+            crc.update(slice(chunk, base + ID, IMMUTABLE_BYTES - ID));
+            crc.update(strings.duplicate());
+            return (int) crc.getValue() == chunk.getInt(base + CRC) ? strings : null;
+        }
+
+        @Override
+        public void close() {
+            windows = null;
+        }
+    }
+
+    public static class SweepResult {
+        private long accounts;
+        private long torn;
+        private long repaired;
+        private final List<Long> corruptedIds = new ArrayList<>();
+
+        public SweepResult add(SweepResult other) {
+            accounts += other.accounts;
+            torn += other.torn;
+            repaired += other.repaired;
+            corruptedIds.addAll(other.corruptedIds);
+            return this;
+        }
+
+        public long getAccounts() {
+            return accounts;
+        }
+
+        /**
+         * @return records cleared as their creation was torn by crash
+         */
+        public long getTorn() {
+            return torn;
+        }
+
+        /**
+         * @return records which had one of the copies torn by crash
+         */
+        public long getRepaired() {
+            return repaired;
+        }
+
+        /**
+         * @return accounts which have both copies broken, they can't be trusted
+         */
+        public List<Long> getCorruptedIds() {
+            return corruptedIds;
+        }
+    }
+
+    private static Account readAccount(MappedByteBuffer chunk, int base, int copy, ByteBuffer strings) {
+        var account = new Account();
+        account.setId(chunk.getLong(base + ID));
+        var type = chunk.get(base + TYPE);
+        account.setType(type >= 0 ? ACCOUNT_TYPES[type] : null);
+        account.setCreatedAt(readInstant(chunk, base + CREATED_SECONDS, base + CREATED_NANOS));
+        account.setOwnerId(ModelCodec.readString(strings));
+        account.setAccountNumber(ModelCodec.readString(strings));
+        account.setCurrencyCode(ModelCodec.readString(strings));
+        account.setDisplayedName(ModelCodec.readString(strings));
+        account.setBalance(new BigDecimal(
+                BigInteger.valueOf(chunk.getLong(copy + BALANCE_UNSCALED)), chunk.getShort(copy + BALANCE_SCALE)
+        ));
+        var lastTxnId = chunk.getLong(copy + LAST_TXN_ID);
+        account.setLastTxnId(lastTxnId != NULL_LONG ? lastTxnId : null);
+        account.setDeletedAt(readInstant(chunk, copy + DELETED_SECONDS, copy + DELETED_NANOS));
+        account.setVersion(chunk.getLong(copy + ACCOUNT_VERSION));
+        return account;
+    }
+
+    private static Instant readInstant(ByteBuffer buffer, int secondsAt, int nanosAt) {
+        var seconds = buffer.getLong(secondsAt);
+        return seconds != NULL_LONG ? Instant.ofEpochSecond(seconds, buffer.getInt(nanosAt)) : null;
+    }
+
+    private static byte[] encodeStrings(Account account) {
+        var bytes = new ByteArrayOutputStream(64);
+        try (var out = new DataOutputStream(bytes)) {
+            ModelCodec.writeString(out, account.getOwnerId());
+            ModelCodec.writeString(out, account.getAccountNumber());
+            ModelCodec.writeString(out, account.getCurrencyCode());
+            ModelCodec.writeString(out, account.getDisplayedName());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        if (bytes.size() > MAX_STRINGS_BYTES) {
+            throw new IllegalArgumentException("Strings of account " + account.getId() + " don't fit into the table");
+        }
+        return bytes.toByteArray();
+    }
+
+    private static boolean isValidCopy(MappedByteBuffer chunk, int copy, long id) {
+        return chunk.getLong(copy + COPY_VERSION) > 0 && chunk.getInt(copy + COPY_CRC) == copyCrc(chunk, copy, id);
+    }
+
+    private static int copyCrc(MappedByteBuffer chunk, int copy, long id) {
+        var crc = new CRC32C();
+        crc.update(ByteBuffer.allocate(Long.BYTES).putLong(0, id));
+        crc.update(slice(chunk, copy + COPY_VERSION, COPY_BYTES - COPY_VERSION));
+        return (int) crc.getValue();
+    }
+
+    private static ByteBuffer slice(ByteBuffer buffer, int position, int length) {
+        return buffer.duplicate().position(position).limit(position + length).slice();
+    }
+
+    private static boolean isZero(MappedByteBuffer chunk, int base) {
+        for (int i = base; i < base + RECORD_BYTES; i += Long.BYTES) {
+            if (chunk.getLong(i) != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void clear(MappedByteBuffer chunk, int position, int length) {
+        for (int i = position; i < position + length; i++) {
+            chunk.put(i, (byte) 0);
+        }
+    }
+
+    private long slotOf(Long id) {
+        if (id == null || id < firstId) {
+            throw new IllegalArgumentException("Account id is out of the table: " + id);
+        }
+        return id - firstId;
+    }
+
+    private MappedByteBuffer chunk(int index) {
+        var current = chunks;
+        if (index < current.length) {
+            return current[index];
+        }
+        synchronized (this) {
+            if (index >= chunks.length) {
+                var grown = Arrays.copyOf(chunks, index + 1);
+                try {
+                    for (int i = chunks.length; i <= index; i++) {
+                        grown[i] = mapChunk(i);
+                    }
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                chunks = grown;
+            }
+            return chunks[index];
+        }
+    }
+
+    private MappedByteBuffer mapChunk(int index) throws IOException {
+        var chunkBytes = (long) chunkRecords * RECORD_BYTES;
+        return records.map(FileChannel.MapMode.READ_WRITE, HEADER_BYTES + index * chunkBytes, chunkBytes);
+    }
+
+    private void startFlusher(Duration interval) {
+        if (interval.isZero() || interval.isNegative()) {
+            return;
+        }
+        flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            var thread = new Thread(runnable, "account-table-flusher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        flusher.scheduleWithFixedDelay(() -> {
+            try {
+                flush();
+            } catch (Exception e) {
+                log.error("account table flush failed: dir={}", dir, e);
+            }
+        }, interval.toMillis(), interval.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    public Path getDir() {
+        return dir;
+    }
+
+    private static UUID bootId() {
+        try {
+            return UUID.fromString(Files.readString(BOOT_ID).strip());
+        } catch (IOException | IllegalArgumentException e) {
+            return null; // OS restarts can't be told apart from process restarts, only clean close is trusted
+        }
+    }
+
+    private static void writeHeader(FileChannel records, ByteBuffer header) throws IOException {
+        header.rewind();
+        while (header.hasRemaining()) {
+            records.write(header, header.position());
+        }
+        records.force(true);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (flusher != null) {
+            flusher.shutdownNow();
+        }
+        try {
+            flush();
+            var clean = ByteBuffer.allocate(Integer.BYTES).putInt(0, 1);
+            records.write(clean, HEADER_CLEAN);
+            records.force(true);
+        } finally {
+            records.close();
+            strings.close();
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package io.shmaks.banking.repo.tiering;
+
+import io.shmaks.banking.model.Account;
+import io.shmaks.banking.repo.codec.ModelCodec;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Archived accounts encoded by {@link ModelCodec} in an open-addressing table keyed by primitive ids: an account costs
+ * its encoded bytes and a slot instead of the object graph with boxed keys, so heap taken by accounts follows the live
+ * ones. An account is decoded on every read, a copy read can be changed freely.
+ */
+public class AccountArchive {
+
+    private static final int MIN_CAPACITY = 16;
+
+    private long[] ids = new long[MIN_CAPACITY];
+    private byte[][] records = new byte[MIN_CAPACITY][];
+    private int size;
+
+    public synchronized Account get(long id) {
+        var slot = find(id);
+        return slot >= 0 ? decode(records[slot]) : null;
+    }
+
+    /**
+     * @return the account archived with the same id before, if any
+     */
+    public synchronized Account put(Account account) {
+        var record = encode(account);
+        var id = account.getId();
+        var slot = find(id);
+        if (slot >= 0) {
+            var previous = records[slot];
+            records[slot] = record;
+            return decode(previous);
+        }
+        if ((size + 1) * 4L > ids.length * 3L) {
+            resize(ids.length * 2);
+        }
+        insert(id, record);
+        size++;
+        return null;
+    }
+
+    public synchronized boolean remove(long id) {
+        var slot = find(id);
+        if (slot < 0) {
+            return false;
+        }
+        // shifts back entries of the probe chain, so lookups never stop at the freed slot
+        var mask = ids.length - 1;
+        var free = slot;
+        var next = free;
+        while (true) {
+            next = (next + 1) & mask;
+            if (records[next] == null) {
+                break;
+            }
+            var home = home(ids[next], mask);
+            if (((next - home) & mask) >= ((next - free) & mask)) {
+                ids[free] = ids[next];
+                records[free] = records[next];
+                free = next;
+            }
+        }
+        records[free] = null;
+        size--;
+        return true;
+    }
+
+    public synchronized List<Account> getAll() {
+        var accounts = new ArrayList<Account>(size);
+        for (var record : records) {
+            if (record != null) {
+                accounts.add(decode(record));
+            }
+        }
+        return accounts;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    public synchronized void clear() {
+        ids = new long[MIN_CAPACITY];
+        records = new byte[MIN_CAPACITY][];
+        size = 0;
+    }
+
+    private int find(long id) {
+        var mask = ids.length - 1;
+        for (int slot = home(id, mask); records[slot] != null; slot = (slot + 1) & mask) {
+            if (ids[slot] == id) {
+                return slot;
+            }
+        }
+        return -1;
+    }
+
+    private void insert(long id, byte[] record) {
+        var mask = ids.length - 1;
+        var slot = home(id, mask);
+        while (records[slot] != null) {
+            slot = (slot + 1) & mask;
+        }
+        ids[slot] = id;
+        records[slot] = record;
+    }
+
+    private void resize(int capacity) {
+        var oldIds = ids;
+        var oldRecords = records;
+        ids = new long[capacity];
+        records = new byte[capacity][];
+        for (int i = 0; i < oldRecords.length; i++) {
+            if (oldRecords[i] != null) {
+                insert(oldIds[i], oldRecords[i]);
+            }
+        }
+    }
+
+    private static int home(long id, int mask) {
+        var hash = id * 0x9E3779B97F4A7C15L;
+        return (int) (hash ^ (hash >>> 32)) & mask;
+    }
+
+    private static byte[] encode(Account account) {
+        var bytes = new ByteArrayOutputStream(96);
+        try (var out = new DataOutputStream(bytes)) {
+            ModelCodec.writeAccount(out, account);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static Account decode(byte[] record) {
+        return ModelCodec.readAccount(ByteBuffer.wrap(record));
+    }
+}
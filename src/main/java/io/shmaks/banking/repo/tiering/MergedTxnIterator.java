@@ -0,0 +1,75 @@
+package io.shmaks.banking.repo.tiering;
+
+import io.shmaks.banking.model.Txn;
+
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+
+/**
+ * Merges iterators of txns, each one ordered by id, into one ordered by id. Only the head of every source is held,
+ * a txn met in several of them (e.g. it's being moved between tiers) is passed once.
+ */
+public class MergedTxnIterator implements Iterator<Txn> {
+
+    private final PriorityQueue<Source> sources = new PriorityQueue<>(Comparator.comparing(source -> source.head.getId()));
+    private long lastId = Long.MIN_VALUE;
+
+    public MergedTxnIterator(List<Iterator<Txn>> iterators) {
+        for (var iterator : iterators) {
+            if (iterator.hasNext()) {
+                sources.add(new Source(iterator));
+            }
+        }
+        skipPassed();
+    }
+
+    @Override
+    public boolean hasNext() {
+        return !sources.isEmpty();
+    }
+
+    @Override
+    public Txn next() {
+        var source = sources.poll();
+        if (source == null) {
+            throw new NoSuchElementException();
+        }
+        var txn = source.head;
+        lastId = txn.getId();
+        if (source.advance()) {
+            sources.add(source);
+        }
+        skipPassed();
+        return txn;
+    }
+
+    private void skipPassed() {
+        while (!sources.isEmpty() && sources.peek().head.getId() <= lastId) {
+            var source = sources.poll();
+            if (source.advance()) {
+                sources.add(source);
+            }
+        }
+    }
+
+    private static class Source {
+        final Iterator<Txn> iterator;
+        Txn head;
+
+        Source(Iterator<Txn> iterator) {
+            this.iterator = iterator;
+            this.head = iterator.next();
+        }
+
+        boolean advance() {
+            if (!iterator.hasNext()) {
+                return false;
+            }
+            head = iterator.next();
+            return true;
+        }
+    }
+}
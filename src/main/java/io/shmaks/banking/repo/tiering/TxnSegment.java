@@ -0,0 +1,345 @@
+package io.shmaks.banking.repo.tiering;
+
+import io.shmaks.banking.model.Txn;
+import io.shmaks.banking.model.TxnSpendingType;
+import io.shmaks.banking.repo.codec.ModelCodec;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.function.ToLongFunction;
+
+/**
+ * Immutable memory-mapped file of txns sorted by id.
+ * <p>
+ * Layout: header (magic, version, count, min/max txn id, min/max txn group id), records encoded by
+ * {@link ModelCodec}, sparse index (id & offset of every {@link #INDEX_INTERVAL}-th record), group & account indexes
+ * (group or account id & offset of every record, ordered by that id, then by txn id) and trailer with index positions
+ * and the latest creation time. Only the sparse index lives on heap, group & account indexes are binary searched in
+ * place, records are paged in by OS on demand.
+ * <p>
+ * Header & records keep their layout over versions, so a segment of an older one is {@link #readAll read} and
+ * written again.
+ */
+public class TxnSegment {
+
+    static final int MAGIC = 0x54584E53; // TXNS
+    static final int VERSION = 3;
+    static final int INDEX_INTERVAL = 64;
+
+    private static final int HEADER_BYTES = 3 * Integer.BYTES + 4 * Long.BYTES;
+    // latest creation second, account & group index offsets, sparse index offset & length
+    private static final int TRAILER_BYTES = 4 * Long.BYTES + Integer.BYTES;
+    private static final int ENTRY_BYTES = Long.BYTES + Integer.BYTES;
+
+    private final Path path;
+    private final MappedByteBuffer buffer;
+    private final int count;
+    private final long minId;
+    private final long maxId;
+    private final long minGroupId;
+    private final long maxGroupId;
+    private final long[] indexIds;
+    private final int[] indexOffsets;
+    private final int groupIndexOffset;
+    private final int accountIndexOffset;
+    private final long maxCreatedSecond;
+
+    private TxnSegment(Path path, MappedByteBuffer buffer) {
+        this.path = path;
+        this.buffer = buffer;
+        if (buffer.getInt(0) != MAGIC || buffer.getInt(Integer.BYTES) != VERSION) {
+            throw new IllegalStateException("Not a txn segment of version " + VERSION + ": " + path);
+        }
+        this.count = buffer.getInt(2 * Integer.BYTES);
+        this.minId = buffer.getLong(3 * Integer.BYTES);
+        this.maxId = buffer.getLong(3 * Integer.BYTES + Long.BYTES);
+        this.minGroupId = buffer.getLong(3 * Integer.BYTES + 2 * Long.BYTES);
+        this.maxGroupId = buffer.getLong(3 * Integer.BYTES + 3 * Long.BYTES);
+
+        this.maxCreatedSecond = buffer.getLong(buffer.limit() - TRAILER_BYTES);
+        this.accountIndexOffset = (int) buffer.getLong(buffer.limit() - TRAILER_BYTES + Long.BYTES);
+        this.groupIndexOffset = (int) buffer.getLong(buffer.limit() - TRAILER_BYTES + 2 * Long.BYTES);
+        var indexOffset = recordsEnd();
+        var indexCount = buffer.getInt(buffer.limit() - Integer.BYTES);
+        this.indexIds = new long[indexCount];
+        this.indexOffsets = new int[indexCount];
+        for (int i = 0; i < indexCount; i++) {
+            var entry = indexOffset + i * (Long.BYTES + Integer.BYTES);
+            indexIds[i] = buffer.getLong(entry);
+            indexOffsets[i] = buffer.getInt(entry + Long.BYTES);
+        }
+    }
+
+    /**
+     * @return version of the segment file, segments of older versions can be {@link #readAll read} only
+     */
+    public static int versionOf(Path path) throws IOException {
+        try (var channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            var header = channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(channel.size(), HEADER_BYTES));
+            if (header.limit() < HEADER_BYTES || header.getInt(0) != MAGIC) {
+                throw new IllegalStateException("Not a txn segment: " + path);
+            }
+            return header.getInt(Integer.BYTES);
+        }
+    }
+
+    /**
+     * @return txns of a segment of any version
+     */
+    public static List<Txn> readAll(Path path) throws IOException {
+        try (var channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            var in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            var count = in.getInt(2 * Integer.BYTES);
+            var txns = new ArrayList<Txn>(count);
+            in.position(HEADER_BYTES);
+            for (int i = 0; i < count; i++) {
+                txns.add(ModelCodec.readTxn(in));
+            }
+            return txns;
+        }
+    }
+
+    public static TxnSegment open(Path path) throws IOException {
+        try (var channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return new TxnSegment(path, channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    /**
+     * Writes txns (sorted by id) to a new segment file atomically and maps it
+     */
+    public static TxnSegment write(Path path, List<Txn> txns) throws IOException {
+        if (txns.isEmpty()) {
+            throw new IllegalArgumentException("Segment can't be empty");
+        }
+        var minGroupId = txns.stream().mapToLong(Txn::getTxnGroupId).min().orElseThrow();
+        var maxGroupId = txns.stream().mapToLong(Txn::getTxnGroupId).max().orElseThrow();
+        var indexIds = new long[(txns.size() + INDEX_INTERVAL - 1) / INDEX_INTERVAL];
+        var indexOffsets = new int[indexIds.length];
+        var recordOffsets = new int[txns.size()];
+
+        var tmp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (var out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(txns.size());
+            out.writeLong(txns.get(0).getId());
+            out.writeLong(txns.get(txns.size() - 1).getId());
+            out.writeLong(minGroupId);
+            out.writeLong(maxGroupId);
+            for (int i = 0; i < txns.size(); i++) {
+                if (i % INDEX_INTERVAL == 0) {
+                    indexIds[i / INDEX_INTERVAL] = txns.get(i).getId();
+                    indexOffsets[i / INDEX_INTERVAL] = out.size();
+                }
+                recordOffsets[i] = out.size();
+                ModelCodec.writeTxn(out, txns.get(i));
+            }
+            var indexOffset = out.size();
+            for (int i = 0; i < indexIds.length; i++) {
+                out.writeLong(indexIds[i]);
+                out.writeInt(indexOffsets[i]);
+            }
+            var groupIndexOffset = out.size();
+            writeIndex(out, txns, recordOffsets, Txn::getTxnGroupId);
+            var accountIndexOffset = out.size();
+            writeIndex(out, txns, recordOffsets, Txn::getAccountId);
+            out.writeLong(txns.stream()
+                    .mapToLong(txn -> txn.getCreatedAt() != null ? txn.getCreatedAt().getEpochSecond() : Long.MAX_VALUE)
+                    .max()
+                    .orElseThrow());
+            out.writeLong(accountIndexOffset);
+            out.writeLong(groupIndexOffset);
+            out.writeLong(indexOffset);
+            out.writeInt(indexIds.length);
+        }
+        try (var channel = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+            channel.force(true);
+        }
+        Files.move(tmp, path, StandardCopyOption.ATOMIC_MOVE);
+        return open(path);
+    }
+
+    /**
+     * Key & offset of every record ordered by key, records of the same key go in the order of ids
+     */
+    private static void writeIndex(DataOutputStream out, List<Txn> txns, int[] recordOffsets, ToLongFunction<Txn> key)
+            throws IOException {
+        var order = new Integer[txns.size()];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        // stable, so ties keep the order of ids
+        Arrays.sort(order, Comparator.comparingLong(i -> key.applyAsLong(txns.get(i))));
+        for (var i : order) {
+            out.writeLong(key.applyAsLong(txns.get(i)));
+            out.writeInt(recordOffsets[i]);
+        }
+    }
+
+    public Txn findById(long id) {
+        if (id < minId || id > maxId) {
+            return null;
+        }
+        var slot = Arrays.binarySearch(indexIds, id);
+        if (slot < 0) {
+            slot = -slot - 2;
+        }
+        var in = reader(indexOffsets[slot]);
+        for (int i = 0; i < INDEX_INTERVAL && in.position() < recordsEnd(); i++) {
+            var recordId = in.getLong(in.position());
+            if (recordId == id) {
+                return ModelCodec.readTxn(in);
+            } else if (recordId > id) {
+                return null;
+            }
+            ModelCodec.skipTxn(in);
+        }
+        return null;
+    }
+
+    public Txn findByTxnGroupIdAndAccountIdAndSpendingType(long txnGroupId, long accountId, TxnSpendingType spendingType) {
+        if (txnGroupId < minGroupId || txnGroupId > maxGroupId) {
+            return null;
+        }
+        for (int i = firstEntry(groupIndexOffset, txnGroupId); i < count; i++) {
+            var entry = groupIndexOffset + i * ENTRY_BYTES;
+            if (buffer.getLong(entry) != txnGroupId) {
+                break;
+            }
+            var offset = buffer.getInt(entry + Long.BYTES);
+            if (buffer.getLong(offset + Long.BYTES) == accountId) {
+                var txn = ModelCodec.readTxn(reader(offset));
+                if (txn.getSpendingType() == spendingType) {
+                    return txn;
+                }
+            }
+        }
+        return null;
+    }
+
+    public List<Txn> findAllByTxnGroupId(long txnGroupId) {
+        var txns = new ArrayList<Txn>();
+        if (txnGroupId < minGroupId || txnGroupId > maxGroupId) {
+            return txns;
+        }
+        for (int i = firstEntry(groupIndexOffset, txnGroupId); i < count; i++) {
+            var entry = groupIndexOffset + i * ENTRY_BYTES;
+            if (buffer.getLong(entry) != txnGroupId) {
+                break;
+            }
+            txns.add(ModelCodec.readTxn(reader(buffer.getInt(entry + Long.BYTES))));
+        }
+        return txns;
+    }
+
+    /**
+     * @return false if every txn of the segment was created before the given time, so none of them may be after it
+     */
+    public boolean mayHaveCreatedSince(Instant createdFrom) {
+        return maxCreatedSecond >= createdFrom.getEpochSecond();
+    }
+
+    /**
+     * @return txns of the account created since the given time in the order of ids, found by the account index and
+     * read as the iterator advances
+     */
+    public Iterator<Txn> iterateByAccountId(long accountId, Instant createdFrom) {
+        if (!mayHaveCreatedSince(createdFrom)) {
+            return Collections.emptyIterator();
+        }
+        return new Iterator<>() {
+            private int entry = firstEntry(accountIndexOffset, accountId);
+            private Txn next = advance();
+
+            private Txn advance() {
+                while (entry < count) {
+                    var position = accountIndexOffset + entry++ * ENTRY_BYTES;
+                    if (buffer.getLong(position) != accountId) {
+                        break;
+                    }
+                    var txn = ModelCodec.readTxn(reader(buffer.getInt(position + Long.BYTES)));
+                    if (!txn.getCreatedAt().isBefore(createdFrom)) {
+                        return txn;
+                    }
+                }
+                entry = count;
+                return null;
+            }
+
+            @Override
+            public boolean hasNext() {
+                return next != null;
+            }
+
+            @Override
+            public Txn next() {
+                if (next == null) {
+                    throw new NoSuchElementException();
+                }
+                var txn = next;
+                next = advance();
+                return txn;
+            }
+        };
+    }
+
+    /**
+     * @return position of the first entry of the key in an index of the segment, or past the last lesser key
+     */
+    private int firstEntry(int indexOffset, long key) {
+        int low = 0;
+        int high = count;
+        while (low < high) {
+            var middle = (low + high) >>> 1;
+            if (buffer.getLong(indexOffset + middle * ENTRY_BYTES) < key) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    private ByteBuffer reader(int position) {
+        var in = buffer.duplicate();
+        in.position(position);
+        return in;
+    }
+
+    private int recordsEnd() {
+        return (int) buffer.getLong(buffer.limit() - Long.BYTES - Integer.BYTES);
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    public long getMinId() {
+        return minId;
+    }
+
+    public long getMaxId() {
+        return maxId;
+    }
+}
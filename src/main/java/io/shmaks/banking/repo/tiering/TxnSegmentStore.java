@@ -0,0 +1,111 @@
+package io.shmaks.banking.repo.tiering;
+
+import io.shmaks.banking.model.Txn;
+import io.shmaks.banking.model.TxnSpendingType;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.stream.Collectors;
+
+/**
+ * Cold tier of txns: directory of immutable {@link TxnSegment}s, each one covers its own range of txn ids.
+ * Directory is created on the first sealing only, so store over non-existing directory is just empty.
+ */
+public class TxnSegmentStore {
+
+    private static final String SUFFIX = ".seg";
+
+    private final Path dir;
+    private final int maxSegmentRecords;
+    private final NavigableMap<Long, TxnSegment> segmentsByMinId = new ConcurrentSkipListMap<>();
+
+    public TxnSegmentStore(Path dir, int maxSegmentRecords) {
+        this.dir = dir;
+        this.maxSegmentRecords = maxSegmentRecords;
+        if (Files.isDirectory(dir)) {
+            try (var files = Files.list(dir)) {
+                for (var file : files.filter(it -> it.getFileName().toString().endsWith(SUFFIX)).collect(Collectors.toList())) {
+                    var segment = TxnSegment.versionOf(file) < TxnSegment.VERSION
+                            ? TxnSegment.write(file, TxnSegment.readAll(file)) // written again with new indexes
+                            : TxnSegment.open(file);
+                    segmentsByMinId.put(segment.getMinId(), segment);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException("Can't open txn segments in " + dir, e);
+            }
+        }
+    }
+
+    /**
+     * Writes txns (sorted by id) into as many segments as needed, txns are readable from the store once it returns
+     */
+    public List<TxnSegment> seal(List<Txn> txns) throws IOException {
+        Files.createDirectories(dir);
+        var sealed = new ArrayList<TxnSegment>();
+        for (int from = 0; from < txns.size(); from += maxSegmentRecords) {
+            var chunk = txns.subList(from, Math.min(from + maxSegmentRecords, txns.size()));
+            var fileName = String.format("txn-%020d-%020d%s", chunk.get(0).getId(), chunk.get(chunk.size() - 1).getId(), SUFFIX);
+            var segment = TxnSegment.write(dir.resolve(fileName), chunk);
+            segmentsByMinId.put(segment.getMinId(), segment);
+            sealed.add(segment);
+        }
+        return sealed;
+    }
+
+    public Txn findById(long id) {
+        // ranges of segments may overlap a bit since txn ids aren't strictly ordered by creation time
+        for (var segment : segmentsByMinId.headMap(id, true).descendingMap().values()) {
+            var txn = segment.findById(id);
+            if (txn != null) {
+                return txn;
+            }
+        }
+        return null;
+    }
+
+    public Txn findByTxnGroupIdAndAccountIdAndSpendingType(long txnGroupId, long accountId, TxnSpendingType spendingType) {
+        // txn & group ids grow together, so recent segments are the most probable ones; the others are skipped by
+        // their group id range or a binary search of their group index
+        for (var segment : segmentsByMinId.descendingMap().values()) {
+            var txn = segment.findByTxnGroupIdAndAccountIdAndSpendingType(txnGroupId, accountId, spendingType);
+            if (txn != null) {
+                return txn;
+            }
+        }
+        return null;
+    }
+
+    public List<Txn> findAllByTxnGroupId(long txnGroupId) {
+        var txns = new ArrayList<Txn>();
+        for (var segment : segmentsByMinId.values()) {
+            txns.addAll(segment.findAllByTxnGroupId(txnGroupId));
+        }
+        return txns;
+    }
+
+    /**
+     * @return txns of the account created since the given time across all segments ordered by id; segments of only
+     * older txns are skipped, the others are read by their account indexes as the iterator advances
+     */
+    public Iterator<Txn> iterateByAccountId(long accountId, Instant createdFrom) {
+        var iterators = new ArrayList<Iterator<Txn>>();
+        for (var segment : segmentsByMinId.values()) {
+            if (segment.mayHaveCreatedSince(createdFrom)) {
+                iterators.add(segment.iterateByAccountId(accountId, createdFrom));
+            }
+        }
+        return new MergedTxnIterator(iterators);
+    }
+
+    public int getSegmentCount() {
+        return segmentsByMinId.size();
+    }
+}
@@ -1,6 +1,25 @@
 package io.shmaks.banking.service;
 
+import java.util.ArrayList;
+import java.util.List;
+
 public interface AccountNumberGenerator {
 
     String nextNumber();
+
+    /**
+     * Takes a block of numbers at once, for accounts created in bulk
+     */
+    default List<String> nextNumbers(int count) {
+        var numbers = new ArrayList<String>(count);
+        for (int i = 0; i < count; i++) {
+            numbers.add(nextNumber());
+        }
+        return numbers;
+    }
+
+    /**
+     * Makes sure numbers issued before restart are never generated again
+     */
+    void advancePast(String issuedNumber);
 }
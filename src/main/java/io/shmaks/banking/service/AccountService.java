@@ -4,25 +4,69 @@ import io.shmaks.banking.ext.CurrencyService;
 import io.shmaks.banking.model.Account;
 import io.shmaks.banking.model.AccountType;
 import io.shmaks.banking.repo.AccountRepo;
+import io.shmaks.banking.repo.journal.Journal;
+import io.shmaks.banking.repo.journal.JournalRecord;
+import io.shmaks.banking.repo.snapshot.WriteEpochs;
+import io.shmaks.banking.service.dto.AccountBalanceResponse;
+import io.shmaks.banking.service.dto.AccountChangeResponse;
+import io.shmaks.banking.service.dto.AccountImportResult;
 import io.shmaks.banking.service.dto.AccountResponse;
+import io.shmaks.banking.service.dto.BalanceRankResponse;
 import io.shmaks.banking.service.dto.CreateAccountRequest;
+import io.shmaks.banking.service.dto.ImportAccountRequest;
 import io.shmaks.banking.service.dto.Pagination;
 import org.springframework.transaction.annotation.Transactional;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
+import reactor.util.function.Tuple2;
+import reactor.util.function.Tuples;
 
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.stream.Collectors;
 
 public class AccountService {
 
+    // accounts of an import created at once
+    private static final int IMPORT_CHUNK = 500;
+    // accounts of an export read at once
+    private static final int EXPORT_PAGE = 1000;
+
     private final AccountRepo repo;
     private final CurrencyService currencyService;
     private final AccountNumberGenerator numberGenerator;
+    private final Journal journal;
+    private final WriteEpochs writeEpochs;
+    private final TxnAwaiter txnAwaiter;
 
-    public AccountService(AccountRepo repo, CurrencyService currencyService, AccountNumberGenerator numberGenerator) {
+    public AccountService(
+            AccountRepo repo,
+            CurrencyService currencyService,
+            AccountNumberGenerator numberGenerator,
+            Journal journal,
+            WriteEpochs writeEpochs,
+            TxnAwaiter txnAwaiter) {
         this.repo = repo;
         this.currencyService = currencyService;
         this.numberGenerator = numberGenerator;
+        this.journal = journal;
+        this.writeEpochs = writeEpochs;
+        this.txnAwaiter = txnAwaiter;
+    }
+
+    /**
+     * @param txnId txn the following read has to see, nothing to wait for if null
+     */
+    public Mono<Void> awaitTxn(Long txnId) {
+        return txnId != null ? txnAwaiter.await(txnId) : Mono.empty();
     }
 
     @Transactional(readOnly = true)
@@ -30,6 +74,35 @@ public class AccountService {
         return repo.findById(id);
     }
 
+    /**
+     * @return the account with its balance & version read together, see {@link AccountRepo#findSnapshotById}
+     */
+    @Transactional(readOnly = true)
+    public Mono<Account> findSnapshotById(Long id) {
+        return repo.findSnapshotById(id);
+    }
+
+    /**
+     * @return balances of the user's accounts among the given ones, in the order of ids; others are left out
+     */
+    @Transactional(readOnly = true)
+    public Mono<List<AccountBalanceResponse>> findBalances(String ownerId, List<Long> ids) {
+        var distinctIds = new LinkedHashSet<>(ids);
+        return repo.findAllByIds(distinctIds).map(accounts -> {
+            var owned = accounts.stream()
+                    .filter(account -> account.getOwnerId().equals(ownerId) && account.getType() == AccountType.USER)
+                    .collect(Collectors.toMap(Account::getId, AccountBalanceResponse::new));
+            return distinctIds.stream().map(owned::get).filter(Objects::nonNull).collect(Collectors.toList());
+        });
+    }
+
+    @Transactional(readOnly = true)
+    public Mono<AccountResponse> findUserAccountByNumber(String accountNumber) {
+        return repo.findByAccountNumber(accountNumber)
+                .filter(account -> account.getType() == AccountType.USER)
+                .map(AccountResponse::new);
+    }
+
     @Transactional(readOnly = true)
     public Mono<List<AccountResponse>> findUserAccounts(String ownerId, Pagination<String> pagination) {
         return repo.findAllUserAccountsByOwnerIdOrderByAccountNumberAsc(ownerId, pagination.getCount(), pagination.getAfter())
@@ -42,6 +115,40 @@ public class AccountService {
                 .map(list -> list.stream().map(AccountResponse::new).collect(Collectors.toList()));
     }
 
+    @Transactional(readOnly = true)
+    public Mono<List<AccountChangeResponse>> findUserAccountChanges(Pagination<Long> pagination) {
+        return repo.findAllUserAccountsChangedAfter(pagination.getAfter(), pagination.getCount())
+                .map(list -> list.stream().map(AccountChangeResponse::new).collect(Collectors.toList()));
+    }
+
+    /**
+     * Streams all user accounts, they're read as the client consumes them
+     */
+    public Flux<AccountResponse> exportAllUserAccounts() {
+        return repo.streamAllUserAccountsOrderByAccountNumberAsc(EXPORT_PAGE).map(AccountResponse::new);
+    }
+
+    @Transactional(readOnly = true)
+    public Mono<List<AccountResponse>> findTopUserAccounts(String currencyCode, int count) {
+        return repo.findTopUserAccountsByCurrencyOrderByBalanceDesc(currencyCode, count)
+                .map(list -> list.stream().map(AccountResponse::new).collect(Collectors.toList()));
+    }
+
+    @Transactional(readOnly = true)
+    public Mono<List<AccountResponse>> searchUserAccounts(String prefix, int count) {
+        return repo.findAllUserAccountsByNumberOrDisplayedNameStartingWith(prefix, count)
+                .map(list -> list.stream().map(AccountResponse::new).collect(Collectors.toList()));
+    }
+
+    @Transactional(readOnly = true)
+    public Mono<BalanceRankResponse> findBalanceRank(Long id) {
+        return repo.findById(id).flatMap(account ->
+                repo.findBalanceRankById(id).map(rank ->
+                        new BalanceRankResponse(id, account.getCurrencyCode(), rank.getRank(), rank.getTotal())
+                )
+        );
+    }
+
     @Transactional
     public Mono<Account> create(String ownerId, CreateAccountRequest request) {
         return currencyService.supports(request.getCurrencyCode())
@@ -54,16 +161,123 @@ public class AccountService {
                         newAccount.setDisplayedName(request.getDisplayedName());
                         newAccount.setAccountNumber(numberGenerator.nextNumber());
                         newAccount.setType(AccountType.USER);
-                        return repo.create(newAccount);
+                        return writeEpochs.track(repo.create(newAccount).flatMap(account ->
+                                journal.append(JournalRecord.accountCreated(account, request.getInitialBalance()))
+                                        .thenReturn(account)
+                        ));
                     } else {
                         return Mono.error(new BusinessLogicError("currency is not supported"));
                     }
                 });
     }
 
+    /**
+     * Creates accounts as they're read, by chunks: currencies are checked once per import, numbers are taken by the
+     * block and a chunk is inserted at once, with its journal records made durable together. A chunk is read once the
+     * previous one is created. Invalid accounts are answered by errors and don't stop the import.
+     */
+    public Flux<AccountImportResult> importAccounts(Flux<ImportAccountRequest> requests) {
+        var supportedCurrencies = new ConcurrentHashMap<String, Mono<Boolean>>();
+        return requests.index()
+                .buffer(IMPORT_CHUNK)
+                .concatMap(chunk -> importChunk(chunk, supportedCurrencies));
+    }
+
+    private Flux<AccountImportResult> importChunk(
+            List<Tuple2<Long, ImportAccountRequest>> chunk, Map<String, Mono<Boolean>> supportedCurrencies) {
+        return Flux.fromIterable(chunk)
+                .concatMap(request -> validate(request.getT2(), supportedCurrencies)
+                        .defaultIfEmpty("")
+                        .map(error -> Tuples.of(request, error)))
+                .collectList()
+                .flatMapMany(validated -> {
+                    var rejected = new ArrayList<AccountImportResult>();
+                    var records = new ArrayList<Long>();
+                    var newAccounts = new ArrayList<Account>();
+                    for (var checked : validated) {
+                        var record = checked.getT1().getT1() + 1;
+                        var request = checked.getT1().getT2();
+                        if (!checked.getT2().isEmpty()) {
+                            rejected.add(AccountImportResult.failed(record, checked.getT2()));
+                            continue;
+                        }
+                        var newAccount = new Account();
+                        newAccount.setOwnerId(request.getOwnerId());
+                        newAccount.setBalance(request.getInitialBalance());
+                        newAccount.setCurrencyCode(request.getCurrencyCode());
+                        newAccount.setDisplayedName(request.getDisplayedName());
+                        newAccount.setType(AccountType.USER);
+                        records.add(record);
+                        newAccounts.add(newAccount);
+                    }
+                    if (newAccounts.isEmpty()) {
+                        return Flux.fromIterable(rejected);
+                    }
+                    var numbers = numberGenerator.nextNumbers(newAccounts.size());
+                    for (int i = 0; i < newAccounts.size(); i++) {
+                        newAccounts.get(i).setAccountNumber(numbers.get(i));
+                    }
+                    // accounts created before a failure are journaled all the same, the rest are answered by it
+                    var failure = new AtomicReference<Throwable>();
+                    var created = new AtomicInteger();
+                    var createdAccounts = writeEpochs.track(repo.createAll(newAccounts)
+                            .onErrorResume(e -> {
+                                failure.set(e);
+                                return Flux.empty();
+                            })
+                            .flatMapSequential(account -> journal.append(
+                                    JournalRecord.accountCreated(account, account.getBalance())
+                            ).thenReturn(account)));
+                    return Flux.concat(
+                            Flux.fromIterable(rejected),
+                            createdAccounts.map(account ->
+                                    AccountImportResult.created(records.get(created.getAndIncrement()), account)
+                            ),
+                            Flux.defer(() -> failure.get() == null
+                                    ? Flux.empty()
+                                    : Flux.fromIterable(records.subList(created.get(), records.size()))
+                                            .map(record -> AccountImportResult.failed(record, failure.get().getMessage())))
+                    );
+                });
+    }
+
+    /**
+     * @return why the account can't be created, empty if it can
+     */
+    private Mono<String> validate(ImportAccountRequest request, Map<String, Mono<Boolean>> supportedCurrencies) {
+        if (request.getMalformed() != null) {
+            return Mono.just(request.getMalformed());
+        }
+        if (request.getOwnerId() == null || request.getOwnerId().isBlank()) {
+            return Mono.just("ownerId must not be blank");
+        }
+        if (request.getCurrencyCode() == null || request.getCurrencyCode().isBlank()) {
+            return Mono.just("currencyCode must not be blank");
+        }
+        if (request.getInitialBalance().compareTo(BigDecimal.ZERO) < 0) {
+            return Mono.just("initialBalance must be greater than or equal to 0");
+        }
+        if (request.getDisplayedName() != null && request.getDisplayedName().length() > 256) {
+            return Mono.just("displayedName size must be between 0 and 256");
+        }
+        return supportedCurrencies.computeIfAbsent(request.getCurrencyCode(), code -> currencyService.supports(code).cache())
+                .flatMap(supported -> supported ? Mono.empty() : Mono.just("currency is not supported"));
+    }
+
     @Transactional
     public Mono<Boolean> deleteById(Long id, String ownerId) {
-        return repo.deleteByIdAndOwnerId(id, ownerId);
+        return writeEpochs.track(repo.deleteByIdAndOwnerId(id, ownerId).flatMap(deleted -> deleted
+                ? journal.append(JournalRecord.accountDeleted(id, Instant.now())).thenReturn(true)
+                : Mono.just(false)
+        ));
+    }
+
+    @Transactional
+    public Mono<Boolean> restoreById(Long id, String ownerId) {
+        return writeEpochs.track(repo.restoreByIdAndOwnerId(id, ownerId).flatMap(restored -> restored
+                ? journal.append(JournalRecord.accountRestored(id)).thenReturn(true)
+                : Mono.just(false)
+        ));
     }
 
 }
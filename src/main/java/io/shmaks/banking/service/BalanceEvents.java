@@ -0,0 +1,218 @@
+package io.shmaks.banking.service;
+
+import io.shmaks.banking.model.Account;
+import io.shmaks.banking.model.AccountType;
+import io.shmaks.banking.repo.AccountRepo;
+import io.shmaks.banking.repo.outbox.OutboxEntry;
+import io.shmaks.banking.service.dto.AccountBalanceEvent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.FluxSink;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Pushes balances of watched accounts as they change. Accounts touched by committed txn groups are taken from the
+ * ledger change stream and collected for a window, then the ones being watched are read at once and sent to their
+ * watchers, so an account changed many times within the window makes one event. A watcher keeps only the latest event
+ * of each account until it's requested, so a slow one skips intermediate balances and holds an event per account at
+ * most. An idle watcher is just registered by its accounts, nothing is polled or scheduled for it.
+ */
+public class BalanceEvents {
+
+    private static final Logger log = LoggerFactory.getLogger(BalanceEvents.class);
+
+    public static final Duration COALESCE_WINDOW = Duration.ofMillis(200);
+    private static final int CHANGES_BATCH = 500;
+
+    private final AccountRepo accountRepo;
+    private final LedgerChangeStream changeStream;
+    private final Duration window;
+
+    private final Map<Long, Set<Watcher>> watchers = new ConcurrentHashMap<>();
+    private final Set<Long> changed = ConcurrentHashMap.newKeySet();
+
+    private ScheduledExecutorService executor;
+    private volatile Disposable changes;
+
+    public BalanceEvents(AccountRepo accountRepo, LedgerChangeStream changeStream, Duration window) {
+        this.accountRepo = accountRepo;
+        this.changeStream = changeStream;
+        this.window = window;
+    }
+
+    public void start() {
+        executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            var thread = new Thread(runnable, "balance-events");
+            thread.setDaemon(true);
+            return thread;
+        });
+        follow();
+        var windowMs = window.toMillis();
+        executor.scheduleWithFixedDelay(this::flush, windowMs, windowMs, TimeUnit.MILLISECONDS);
+    }
+
+    public void stop() {
+        if (changes != null) {
+            changes.dispose();
+        }
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    private void follow() {
+        changes = changeStream.changes(null, CHANGES_BATCH).subscribe(this::markChanged, error -> {
+            // entries past the cursor are lost, so all watched accounts are sent again
+            log.warn("balance events: ledger changes failed, following from the latest", error);
+            changed.addAll(watchers.keySet());
+            if (!executor.isShutdown()) {
+                follow();
+            }
+        });
+    }
+
+    private void markChanged(List<OutboxEntry> entries) {
+        for (var entry : entries) {
+            for (var txn : entry.getTxns()) {
+                if (watchers.containsKey(txn.getAccountId())) {
+                    changed.add(txn.getAccountId());
+                }
+            }
+        }
+    }
+
+    private void flush() {
+        if (changed.isEmpty()) {
+            return;
+        }
+        var ids = new ArrayList<Long>(changed);
+        changed.removeAll(ids);
+        try {
+            var accounts = accountRepo.findAllSnapshotsByIds(ids).block();
+            for (var account : accounts != null ? accounts : List.<Account>of()) {
+                var watching = watchers.get(account.getId());
+                if (watching != null) {
+                    var event = new AccountBalanceEvent(account);
+                    watching.forEach(watcher -> watcher.offer(event));
+                }
+            }
+        } catch (Exception e) {
+            log.error("balance events: reading {} changed accounts failed", ids.size(), e);
+            changed.addAll(ids);
+        }
+    }
+
+    /**
+     * @return current balances of the owner's accounts among ids, then a new one every time any of them changes;
+     * empty if the owner has none of them
+     */
+    public Mono<Flux<AccountBalanceEvent>> watch(String ownerId, List<Long> ids) {
+        return accountRepo.findAllByIds(new LinkedHashSet<>(ids))
+                .map(accounts -> accounts.stream()
+                        .filter(account -> account.getOwnerId().equals(ownerId) && account.getType() == AccountType.USER)
+                        .map(Account::getId)
+                        .collect(Collectors.toList()))
+                .filter(owned -> !owned.isEmpty())
+                .map(this::events);
+    }
+
+    /**
+     * Parks the caller without holding a thread, for long polls
+     *
+     * @return completes once the version of the account is past the given one, or when the timeout expires
+     */
+    public Mono<Void> awaitChange(Long accountId, long version, Duration timeout) {
+        return events(List.of(accountId))
+                .filter(event -> event.getVersion() > version)
+                .next()
+                .then()
+                .timeout(timeout, Mono.empty());
+    }
+
+    private Flux<AccountBalanceEvent> events(List<Long> accountIds) {
+        return Flux.defer(() -> {
+            var watcher = new Watcher();
+            accountIds.forEach(id -> register(id, watcher));
+            // read after registering, so a change made meanwhile is sent as an event
+            var current = accountRepo.findAllSnapshotsByIds(accountIds)
+                    .flatMapIterable(accounts -> accounts)
+                    .map(AccountBalanceEvent::new);
+            var lastSent = new HashMap<Long, Long>();
+            return current.concatWith(Flux.create(watcher::attach))
+                    // an event read before the current balances may be delivered after them
+                    .filter(event -> isNewer(lastSent, event))
+                    .doFinally(signal -> accountIds.forEach(id -> unregister(id, watcher)));
+        });
+    }
+
+    private static boolean isNewer(Map<Long, Long> lastSent, AccountBalanceEvent event) {
+        // txns may be applied out of id order, the version is what moves with every one of them
+        var previous = lastSent.get(event.getId());
+        if (previous != null && previous >= event.getVersion()) {
+            return false;
+        }
+        lastSent.put(event.getId(), event.getVersion());
+        return true;
+    }
+
+    private void register(Long accountId, Watcher watcher) {
+        watchers.compute(accountId, (id, watching) -> {
+            var registered = watching != null ? watching : ConcurrentHashMap.<Watcher>newKeySet();
+            registered.add(watcher);
+            return registered;
+        });
+    }
+
+    private void unregister(Long accountId, Watcher watcher) {
+        watchers.computeIfPresent(accountId, (id, watching) -> {
+            watching.remove(watcher);
+            return watching.isEmpty() ? null : watching;
+        });
+    }
+
+    /**
+     * Events of a watcher not requested yet, the latest one per account replaces an earlier one; they're sent in the
+     * order the accounts changed first as the subscriber requests them
+     */
+    private static class Watcher {
+
+        private final Map<Long, AccountBalanceEvent> pending = new LinkedHashMap<>();
+        private FluxSink<AccountBalanceEvent> sink;
+
+        synchronized void attach(FluxSink<AccountBalanceEvent> sink) {
+            this.sink = sink;
+            sink.onRequest(requested -> drain());
+        }
+
+        synchronized void offer(AccountBalanceEvent event) {
+            pending.put(event.getId(), event);
+            drain();
+        }
+
+        // reentrant, a subscriber may request more while an event is sent
+        private synchronized void drain() {
+            while (sink != null && sink.requestedFromDownstream() > 0 && !pending.isEmpty()) {
+                var next = pending.values().iterator();
+                var event = next.next();
+                next.remove();
+                sink.next(event);
+            }
+        }
+    }
+}
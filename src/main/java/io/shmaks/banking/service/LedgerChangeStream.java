@@ -0,0 +1,44 @@
+package io.shmaks.banking.service;
+
+import io.shmaks.banking.repo.outbox.Outbox;
+import io.shmaks.banking.repo.outbox.OutboxEntry;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Committed txn groups for downstream consumers. Every batch is read from the outbox only when the subscriber requests
+ * it, so a slow consumer is never buffered for; an idle stream waits for the outbox to publish past its cursor.
+ */
+public class LedgerChangeStream {
+
+    private final Outbox outbox;
+    private final int maxBatchSize;
+
+    public LedgerChangeStream(Outbox outbox, int maxBatchSize) {
+        this.outbox = outbox;
+        this.maxBatchSize = maxBatchSize;
+    }
+
+    /**
+     * @param afterSeq cursor to resume from, the stream starts from the changes published after subscription if null
+     * @return non-empty batches of entries in the order of sequence numbers, up to batchSize each; fails with
+     * {@link io.shmaks.banking.repo.outbox.OutboxCursorExpiredException} if the cursor is older than retained entries
+     */
+    public Flux<List<OutboxEntry>> changes(Long afterSeq, int batchSize) {
+        var limit = Math.max(1, Math.min(batchSize, maxBatchSize));
+        return Flux.defer(() -> {
+            var cursor = new AtomicLong(afterSeq != null ? afterSeq : outbox.getLastSeq());
+            return Mono.defer(() -> outbox.read(cursor.get(), limit))
+                    .filter(entries -> !entries.isEmpty())
+                    // published() replays the latest seq, so an entry published right after the empty read isn't missed
+                    .repeatWhenEmpty(emptyReads -> emptyReads.concatMap(attempt ->
+                            outbox.published().filter(seq -> seq > cursor.get()).next()
+                    ))
+                    .doOnNext(entries -> cursor.set(entries.get(entries.size() - 1).getSeq()))
+                    .repeat();
+        });
+    }
+}
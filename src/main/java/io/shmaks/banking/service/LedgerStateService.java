@@ -0,0 +1,61 @@
+package io.shmaks.banking.service;
+
+import io.shmaks.banking.repo.InMemoryAccountRepo;
+import io.shmaks.banking.repo.index.AccountStateTree;
+import io.shmaks.banking.service.dto.AccountStateResponse;
+import io.shmaks.banking.service.dto.StateHashResponse;
+import reactor.core.publisher.Mono;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Hashes of the in-memory ledger state, instances (primary & replica, recovered & original) are compared by them:
+ * root first, then children of nodes which differ down to buckets, then accounts of divergent buckets
+ */
+public class LedgerStateService {
+
+    private final InMemoryAccountRepo accountRepo;
+
+    public LedgerStateService(InMemoryAccountRepo accountRepo) {
+        this.accountRepo = accountRepo;
+    }
+
+    /**
+     * @param level 0 for the root, {@link AccountStateTree#DEPTH} for buckets
+     */
+    public Mono<StateHashResponse> findHash(int level, int index) {
+        if (level < 0 || level > AccountStateTree.DEPTH || index < 0 || index >= 1 << level) {
+            return Mono.error(new BusinessLogicError("No node " + index + " at level " + level));
+        }
+        return Mono.fromCallable(() -> {
+            var nodes = accountRepo.getStateTree().snapshot();
+            var node = (1 << level) + index;
+            var children = level < AccountStateTree.DEPTH
+                    ? List.of(hex(nodes[2 * node]), hex(nodes[2 * node + 1]))
+                    : List.<String>of();
+            return new StateHashResponse(level, index, hex(nodes[node]), children);
+        });
+    }
+
+    public Mono<List<AccountStateResponse>> findBucketAccounts(int bucket) {
+        if (bucket < 0 || bucket >= AccountStateTree.BUCKETS) {
+            return Mono.error(new BusinessLogicError("No bucket " + bucket));
+        }
+        return Mono.fromCallable(() -> {
+            var accounts = new ArrayList<AccountStateResponse>();
+            accountRepo.forEachAccount((account, archived) -> {
+                if (AccountStateTree.bucketOf(account.getAccountNumber()) == bucket) {
+                    accounts.add(new AccountStateResponse(account, hex(AccountStateTree.hashOf(account))));
+                }
+            });
+            accounts.sort(Comparator.comparing(AccountStateResponse::getAccountNumber));
+            return accounts;
+        });
+    }
+
+    private static String hex(long hash) {
+        return String.format("%016x", hash);
+    }
+}
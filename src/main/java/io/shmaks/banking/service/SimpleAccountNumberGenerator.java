@@ -1,12 +1,36 @@
 package io.shmaks.banking.service;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.atomic.AtomicLong;
 
 public class SimpleAccountNumberGenerator implements AccountNumberGenerator {
+    private static final long STEP = 13;
+
     private final AtomicLong nextNumber = new AtomicLong(1L << 60);
 
     @Override
     public String nextNumber() {
-        return String.valueOf(nextNumber.getAndAdd(13));
+        return String.valueOf(nextNumber.getAndAdd(STEP));
+    }
+
+    @Override
+    public List<String> nextNumbers(int count) {
+        var first = nextNumber.getAndAdd(STEP * count);
+        var numbers = new ArrayList<String>(count);
+        for (int i = 0; i < count; i++) {
+            numbers.add(String.valueOf(first + STEP * i));
+        }
+        return numbers;
+    }
+
+    @Override
+    public void advancePast(String issuedNumber) {
+        try {
+            var issued = Long.parseLong(issuedNumber);
+            nextNumber.accumulateAndGet(issued + STEP, Math::max);
+        } catch (NumberFormatException ignored) {
+            // not generated by this generator
+        }
     }
 }
@@ -0,0 +1,84 @@
+package io.shmaks.banking.service;
+
+import io.shmaks.banking.model.Account;
+import io.shmaks.banking.model.AccountType;
+import io.shmaks.banking.model.Txn;
+import io.shmaks.banking.model.TxnStatus;
+import io.shmaks.banking.repo.AccountRepo;
+import io.shmaks.banking.repo.TxnRepo;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.math.BigDecimal;
+import java.time.Instant;
+
+/**
+ * Account statements in CSV. Txns of the account created since the start of the period are streamed twice by the
+ * account index: the first pass sums them up to find the opening balance, the second one writes txns of the period
+ * with running balances. Nothing is collected, so a statement of any length takes constant memory.
+ */
+public class StatementService {
+
+    public static final String CSV_HEADER = "txnId,createdAt,txnGroupId,spendingType,amount,balance,details\n";
+    // lines written to the response at once
+    static final int LINES_PER_CHUNK = 256;
+
+    private final AccountRepo accountRepo;
+    private final TxnRepo txnRepo;
+
+    public StatementService(AccountRepo accountRepo, TxnRepo txnRepo) {
+        this.accountRepo = accountRepo;
+        this.txnRepo = txnRepo;
+    }
+
+    /**
+     * @return chunks of the CSV statement for txns created in [from, to), empty if the account isn't the owner's one
+     */
+    public Mono<Flux<String>> statementCsv(Long accountId, String ownerId, Instant from, Instant to) {
+        // balance & version are read together, the statement is cut by the version
+        return accountRepo.findSnapshotById(accountId)
+                .filter(account -> account.getOwnerId().equals(ownerId) && account.getType() == AccountType.USER)
+                .map(account -> Flux.concat(
+                        Flux.just(CSV_HEADER),
+                        statementLines(account, from, to)
+                                .buffer(LINES_PER_CHUNK)
+                                .map(lines -> String.join("", lines))
+                ));
+    }
+
+    private Flux<String> statementLines(Account account, Instant from, Instant to) {
+        // txns applied after the balance was read aren't in it, so they're left out of both passes; they may be
+        // applied out of id order, so it's the account version they made that tells them apart
+        var closingBalance = account.getBalance();
+        var version = account.getVersion();
+        var txns = Flux.defer(() -> txnRepo.findAllByAccountIdAndCreatedAtFromOrderByIdAsc(account.getId(), from))
+                .filter(txn -> txn.getAccountVersion() != null && txn.getAccountVersion() <= version)
+                .filter(txn -> txn.getStatus() == TxnStatus.SUCCESS);
+
+        return txns.reduce(BigDecimal.ZERO, (sum, txn) -> sum.add(txn.getAmount()))
+                .flatMapMany(sinceFrom -> Flux.defer(() -> {
+                    var balance = new BigDecimal[] { closingBalance.subtract(sinceFrom) };
+                    return txns.filter(txn -> txn.getCreatedAt().isBefore(to))
+                            .map(txn -> {
+                                balance[0] = balance[0].add(txn.getAmount());
+                                return csvLine(txn, balance[0]);
+                            });
+                }));
+    }
+
+    static String csvLine(Txn txn, BigDecimal balance) {
+        return txn.getId() + "," + txn.getCreatedAt() + "," + txn.getTxnGroupId() + "," + txn.getSpendingType() + ","
+                + txn.getAmount().toPlainString() + "," + balance.toPlainString() + "," + csvField(txn.getDetails())
+                + "\n";
+    }
+
+    private static String csvField(String value) {
+        if (value == null) {
+            return "";
+        }
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0 && value.indexOf('\r') < 0) {
+            return value;
+        }
+        return '"' + value.replace("\"", "\"\"") + '"';
+    }
+}
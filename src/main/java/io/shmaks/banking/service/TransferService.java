@@ -10,54 +10,132 @@ import io.shmaks.banking.model.TxnSpendingType;
 import io.shmaks.banking.repo.AccountRepo;
 import io.shmaks.banking.repo.TxnGroupRepo;
 import io.shmaks.banking.repo.TxnRepo;
+import io.shmaks.banking.repo.journal.Journal;
+import io.shmaks.banking.repo.journal.JournalRecord;
+import io.shmaks.banking.repo.outbox.Outbox;
+import io.shmaks.banking.repo.snapshot.WriteEpochs;
+import io.shmaks.banking.service.dto.AccountResponse;
+import io.shmaks.banking.service.dto.BatchTransferItem;
+import io.shmaks.banking.service.dto.BatchTransferResult;
+import io.shmaks.banking.service.dto.CreditRequest;
 import io.shmaks.banking.service.dto.DepositRequest;
+import io.shmaks.banking.service.dto.PayoutItem;
+import io.shmaks.banking.service.dto.PayoutRequest;
 import io.shmaks.banking.service.dto.TransferRequest;
 import io.shmaks.banking.service.dto.TxnResult;
 import io.shmaks.banking.service.dto.WithdrawalRequest;
+import io.shmaks.banking.service.partition.PartitionClient;
+import io.shmaks.banking.service.processors.CrossPartitionTransferProcessor;
 import io.shmaks.banking.service.processors.DepositProcessor;
 import io.shmaks.banking.service.processors.InternationalTransferProcessor;
 import io.shmaks.banking.service.processors.TransferProcessor;
 import io.shmaks.banking.service.processors.WithdrawalProcessor;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.reactive.TransactionalOperator;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 import reactor.core.publisher.SynchronousSink;
+import reactor.util.function.Tuples;
 
 import java.math.BigDecimal;
 import java.math.RoundingMode;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class TransferService {
 
+    // payouts posted under one lock of the payer and committed, i.e. made durable by the journal, at once
+    private static final int PAYOUT_COMMIT_CHUNK = 100;
+
     private final TxnGroupRepo txnGroupRepo;
     private final TxnRepo txnRepo;
     private final AccountRepo accountRepo;
     private final CurrencyService currencyService;
     private final FeeService feeService;
+    private final Journal journal;
+    private final Outbox outbox;
+    private final WriteEpochs writeEpochs;
+    // null unless accounts are partitioned between nodes
+    private final PartitionClient partitionClient;
+    // null unless repos are relational: batches commit every group in a transaction of its own
+    private final TransactionalOperator transactional;
 
     private final DepositProcessor depositProcessor;
     private final WithdrawalProcessor withdrawalProcessor;
     private final TransferProcessor transferProcessor;
     private final InternationalTransferProcessor interTransferProcessor;
+    private final CrossPartitionTransferProcessor crossPartitionProcessor;
+
+    // transfers reserved on this node and not credited by the receiver's one yet
+    private final Set<UUID> pendingCredits = ConcurrentHashMap.newKeySet();
+    // txns being committed by this node: registered before their groups are posted, completed once they're durable,
+    // so requests finding a group don't answer before. A failed one is kept, its group may be posted in memory only
+    private final Map<UUID, CompletableFuture<Void>> commits = new ConcurrentHashMap<>();
+
+    public TransferService(
+            TxnGroupRepo txnGroupRepo,
+            TxnRepo txnRepo,
+            AccountRepo accountRepo,
+            CurrencyService currencyService,
+            FeeService feeService,
+            Journal journal,
+            Outbox outbox,
+            WriteEpochs writeEpochs) {
+        this(txnGroupRepo, txnRepo, accountRepo, currencyService, feeService, journal, outbox, writeEpochs, null);
+    }
+
+    public TransferService(
+            TxnGroupRepo txnGroupRepo,
+            TxnRepo txnRepo,
+            AccountRepo accountRepo,
+            CurrencyService currencyService,
+            FeeService feeService,
+            Journal journal,
+            Outbox outbox,
+            WriteEpochs writeEpochs,
+            PartitionClient partitionClient) {
+        this(txnGroupRepo, txnRepo, accountRepo, currencyService, feeService, journal, outbox, writeEpochs,
+                partitionClient, null);
+    }
 
     public TransferService(
             TxnGroupRepo txnGroupRepo,
             TxnRepo txnRepo,
             AccountRepo accountRepo,
             CurrencyService currencyService,
-            FeeService feeService) {
+            FeeService feeService,
+            Journal journal,
+            Outbox outbox,
+            WriteEpochs writeEpochs,
+            PartitionClient partitionClient,
+            TransactionalOperator transactional) {
         this.txnGroupRepo = txnGroupRepo;
         this.txnRepo = txnRepo;
         this.accountRepo = accountRepo;
         this.currencyService = currencyService;
         this.feeService = feeService;
+        this.journal = journal;
+        this.outbox = outbox;
+        this.writeEpochs = writeEpochs;
+        this.partitionClient = partitionClient;
+        this.transactional = transactional;
 
         this.depositProcessor = new DepositProcessor(txnGroupRepo, txnRepo, accountRepo);
         this.withdrawalProcessor = new WithdrawalProcessor(txnGroupRepo, txnRepo, accountRepo);
         this.transferProcessor = new TransferProcessor(txnGroupRepo, txnRepo, accountRepo);
         this.interTransferProcessor = new InternationalTransferProcessor(txnGroupRepo, txnRepo, accountRepo);
+        this.crossPartitionProcessor = new CrossPartitionTransferProcessor(txnGroupRepo, txnRepo, accountRepo);
     }
 
     @Transactional
@@ -70,7 +148,7 @@ public class TransferService {
                 .switchIfEmpty(Mono.error(new BusinessLogicError("Unknown user account " + accountNumber)))
                 .cache();
 
-        var existing = txnGroupRepo.findByUUID(txnUUID);
+        var existing = txnGroupRepo.findByUUID(txnUUID).flatMap(this::durable);
 
         return existing
                 .flatMap(group -> {
@@ -79,7 +157,7 @@ public class TransferService {
                     }
                     return Mono.just(group);
                 })
-                .switchIfEmpty(doDeposit(request, userAccount, txnUUID))
+                .switchIfEmpty(commit(txnUUID, doDeposit(request, userAccount, txnUUID)))
                 .flatMap(txnGroup -> fetchExisting(txnGroup, userAccount));
     }
 
@@ -93,7 +171,7 @@ public class TransferService {
                 .switchIfEmpty(Mono.error(new BusinessLogicError("Unknown user account " + accountNumber)))
                 .cache();
 
-        var existing = txnGroupRepo.findByUUID(txnUUID);
+        var existing = txnGroupRepo.findByUUID(txnUUID).flatMap(this::durable);
 
         return existing
                 .flatMap(group -> {
@@ -102,7 +180,7 @@ public class TransferService {
                     }
                     return Mono.just(group);
                 })
-                .switchIfEmpty(doWithdraw(request, userAccount, txnUUID))
+                .switchIfEmpty(commit(txnUUID, doWithdraw(request, userAccount, txnUUID)))
                 .flatMap(txnGroup -> fetchExisting(txnGroup, userAccount));
     }
 
@@ -116,12 +194,16 @@ public class TransferService {
                 .filter(account -> account.getType() == AccountType.USER && account.getOwnerId().equals(ownerId))
                 .switchIfEmpty(Mono.error(new BusinessLogicError("Unknown user account " + payerAccNum)));
 
+        if (partitionClient != null && !partitionClient.getPartitionMap().isLocal(receiverAccNum)) {
+            return crossPartitionTransfer(request, payerAccount, txnUUID);
+        }
+
         var receiverAccount = accountRepo
                 .findByAccountNumber(receiverAccNum)
                 .filter(account -> account.getType() == AccountType.USER)
                 .switchIfEmpty(Mono.error(new BusinessLogicError("Unknown user account " + receiverAccNum)));
 
-        var existing = txnGroupRepo.findByUUID(txnUUID);
+        var existing = txnGroupRepo.findByUUID(txnUUID).flatMap(this::durable);
 
         return existing
                 .flatMap(group -> {
@@ -130,7 +212,7 @@ public class TransferService {
                     }
                     return Mono.just(group);
                 })
-                .switchIfEmpty(doTransfer(request, payerAccount, receiverAccount, txnUUID))
+                .switchIfEmpty(commit(txnUUID, doTransfer(request, payerAccount, receiverAccount, txnUUID)))
                 .flatMap(txnGroup -> fetchExisting(txnGroup, payerAccount));
     }
 
@@ -149,7 +231,7 @@ public class TransferService {
                 .filter(account -> account.getType() == AccountType.CORRESPONDENT)
                 .switchIfEmpty(Mono.error(new BusinessLogicError("Unknown correspondent account " + receiverAccNum)));
 
-        var existing = txnGroupRepo.findByUUID(txnUUID);
+        var existing = txnGroupRepo.findByUUID(txnUUID).flatMap(this::durable);
 
         return existing
                 .flatMap(group -> {
@@ -158,10 +240,327 @@ public class TransferService {
                     }
                     return Mono.just(group);
                 })
-                .switchIfEmpty(doInterTransfer(request, payerAccount, receiverAccount, txnUUID))
+                .switchIfEmpty(commit(txnUUID, doInterTransfer(request, payerAccount, receiverAccount, txnUUID)))
                 .flatMap(txnGroup -> fetchExisting(txnGroup, payerAccount));
     }
 
+    /**
+     * Transfers submitted at once: accounts, org accounts & exchange rates are looked up once for the batch, transfers
+     * sharing accounts are posted in the batch order under one lock of all their accounts and committed together,
+     * unrelated ones independently, every group in a transaction of its own. Results are streamed as transfers are
+     * committed, a rejected transfer doesn't affect the others. Transfers to accounts of other nodes go one by one.
+     */
+    public Flux<BatchTransferResult> transferBatch(List<BatchTransferItem> items, String ownerId) {
+        var accountNumbers = new HashSet<String>();
+        for (var item : items) {
+            accountNumbers.add(item.getPayerAccountNumber());
+            accountNumbers.add(item.getReceiverAccountNumber());
+        }
+        return Flux.fromIterable(accountNumbers)
+                .flatMap(accountRepo::findByAccountNumber)
+                .collectMap(Account::getAccountNumber)
+                .flatMapMany(accounts -> {
+                    var rejected = new ArrayList<BatchTransferResult>();
+                    var local = new ArrayList<BatchTransferItem>();
+                    var remote = new ArrayList<BatchTransferItem>();
+                    var txnUUIDs = new HashSet<UUID>();
+                    for (var item : items) {
+                        var payer = accounts.get(item.getPayerAccountNumber());
+                        var receiver = accounts.get(item.getReceiverAccountNumber());
+                        if (!txnUUIDs.add(item.getTxnUUID())) {
+                            rejected.add(BatchTransferResult.failed(
+                                    item.getTxnUUID(), new BusinessLogicError("Duplicate txn " + item.getTxnUUID())
+                            ));
+                        } else if (payer == null || payer.getType() != AccountType.USER || !payer.getOwnerId().equals(ownerId)) {
+                            rejected.add(BatchTransferResult.failed(
+                                    item.getTxnUUID(), new BusinessLogicError("Unknown user account " + item.getPayerAccountNumber())
+                            ));
+                        } else if (partitionClient != null &&
+                                !partitionClient.getPartitionMap().isLocal(item.getReceiverAccountNumber())) {
+                            remote.add(item);
+                        } else if (receiver == null || receiver.getType() != AccountType.USER) {
+                            rejected.add(BatchTransferResult.failed(
+                                    item.getTxnUUID(), new BusinessLogicError("Unknown user account " + item.getReceiverAccountNumber())
+                            ));
+                        } else {
+                            local.add(item);
+                        }
+                    }
+                    return Flux.concat(
+                            Flux.fromIterable(rejected),
+                            transferLocal(local, accounts),
+                            Flux.fromIterable(remote).flatMap(item -> inTransaction(transfer(item, ownerId, item.getTxnUUID()))
+                                    .map(result -> BatchTransferResult.transferred(item.getTxnUUID(), result))
+                                    .onErrorResume(e -> e instanceof BusinessLogicError || e instanceof RetryLaterException
+                                            ? Mono.just(BatchTransferResult.failed(item.getTxnUUID(), (RuntimeException) e))
+                                            : Mono.error(e)
+                                    ))
+                    );
+                });
+    }
+
+    private Flux<BatchTransferResult> transferLocal(List<BatchTransferItem> items, Map<String, Account> accounts) {
+        if (items.isEmpty()) {
+            return Flux.empty();
+        }
+        var pairs = new HashSet<CurrencyPair>();
+        for (var item : items) {
+            var pair = currencyPair(item, accounts);
+            if (!pair.getFrom().equals(pair.getTo())) {
+                pairs.add(pair);
+            }
+        }
+        var rates = pairs.isEmpty() ? Mono.just(Map.<CurrencyPair, Double>of()) : currencyService.getRates(pairs);
+        return rates
+                .flatMapMany(rateByPair -> Flux.fromIterable(items).flatMapSequential(item -> {
+                    var pair = currencyPair(item, accounts);
+                    if (pair.getFrom().equals(pair.getTo())) {
+                        return Mono.just(new TransferProcessor.BatchTransfer(
+                                item, item.getTxnUUID(), pair.getFrom(), pair.getTo(), null, null
+                        ));
+                    }
+                    var rate = rateByPair.get(pair);
+                    if (rate == null) {
+                        var transfer = new TransferProcessor.BatchTransfer(
+                                item, item.getTxnUUID(), pair.getFrom(), pair.getTo(), null, null
+                        );
+                        transfer.reject(new BusinessLogicError("Unsupported currency pair " + pair));
+                        return Mono.just(transfer);
+                    }
+                    return feeService.getExchangeFee(pair, item.getAmount()).map(fee -> new TransferProcessor.BatchTransfer(
+                            item, item.getTxnUUID(), pair.getFrom(), pair.getTo(), BigDecimal.valueOf(rate), fee
+                    ));
+                }))
+                .collectList()
+                .flatMap(transferProcessor::groupByAccounts)
+                .flatMapMany(Flux::fromIterable)
+                .flatMap(this::commitBatch)
+                .concatMap(group -> Flux.fromIterable(group).concatMap(transfer -> batchResult(transfer, accounts)));
+    }
+
+    /**
+     * Pays many receivers out of one account (payroll, merchant settlement) in chunks: the payer's account is locked
+     * once for a chunk and its total is checked against the balance once, receivers are credited without locks. Every
+     * chunk is committed in a transaction of its own, so a chunk short of funds doesn't undo the ones before it.
+     * Every payout is a transfer of its own, results are streamed as they're committed. Receivers must hold the payer's
+     * currency; payouts to accounts of other nodes go one by one.
+     */
+    public Flux<BatchTransferResult> payout(PayoutRequest request, String ownerId) {
+        var payerAccNum = request.getPayerAccountNumber();
+        var payerAccount = accountRepo
+                .findByAccountNumber(payerAccNum)
+                .filter(account -> account.getType() == AccountType.USER && account.getOwnerId().equals(ownerId))
+                .switchIfEmpty(Mono.error(new BusinessLogicError("Unknown user account " + payerAccNum)));
+
+        return payerAccount.flatMapMany(payer -> Flux.fromIterable(request.getPayouts())
+                .map(PayoutItem::getReceiverAccountNumber)
+                .distinct()
+                .flatMap(accountRepo::findByAccountNumber)
+                .collectMap(Account::getAccountNumber)
+                .flatMapMany(receivers -> {
+                    var rejected = new ArrayList<BatchTransferResult>();
+                    var local = new ArrayList<TransferProcessor.BatchTransfer>();
+                    var remote = new ArrayList<BatchTransferItem>();
+                    var txnUUIDs = new HashSet<UUID>();
+                    for (var payout : request.getPayouts()) {
+                        var txnUUID = payout.getTxnUUID();
+                        var receiverAccNum = payout.getReceiverAccountNumber();
+                        var receiver = receivers.get(receiverAccNum);
+                        var item = new BatchTransferItem(
+                                txnUUID, payerAccNum, receiverAccNum, payout.getAmount(), payout.getComment()
+                        );
+                        if (!txnUUIDs.add(txnUUID)) {
+                            rejected.add(BatchTransferResult.failed(txnUUID, new BusinessLogicError("Duplicate txn " + txnUUID)));
+                        } else if (receiverAccNum.equals(payerAccNum)) {
+                            rejected.add(BatchTransferResult.failed(
+                                    txnUUID, new BusinessLogicError("payerAccountNumber & receiverAccountNumber should be different")
+                            ));
+                        } else if (partitionClient != null && !partitionClient.getPartitionMap().isLocal(receiverAccNum)) {
+                            remote.add(item);
+                        } else if (receiver == null || receiver.getType() != AccountType.USER) {
+                            rejected.add(BatchTransferResult.failed(
+                                    txnUUID, new BusinessLogicError("Unknown user account " + receiverAccNum)
+                            ));
+                        } else if (!receiver.getCurrencyCode().equals(payer.getCurrencyCode())) {
+                            rejected.add(BatchTransferResult.failed(
+                                    txnUUID, new BusinessLogicError("Payout to account in " + receiver.getCurrencyCode())
+                            ));
+                        } else {
+                            local.add(new TransferProcessor.BatchTransfer(
+                                    item, txnUUID, payer.getCurrencyCode(), receiver.getCurrencyCode(), null, null
+                            ));
+                        }
+                    }
+                    var accounts = Map.of(payerAccNum, payer);
+                    var paidOut = Flux.fromIterable(local)
+                            .buffer(PAYOUT_COMMIT_CHUNK)
+                            .concatMap(chunk -> commitBatch(chunk, Mono.defer(() ->
+                                    transferProcessor.makePayout(payerAccNum, chunk, receivers).collectList())))
+                            .concatMap(chunk -> Flux.fromIterable(chunk).concatMap(transfer -> batchResult(transfer, accounts)));
+                    return Flux.concat(
+                            Flux.fromIterable(rejected),
+                            paidOut,
+                            Flux.fromIterable(remote).concatMap(item -> transfer(item, ownerId, item.getTxnUUID())
+                                    .map(result -> BatchTransferResult.transferred(item.getTxnUUID(), result))
+                                    .onErrorResume(e -> e instanceof BusinessLogicError || e instanceof RetryLaterException
+                                            ? Mono.just(BatchTransferResult.failed(item.getTxnUUID(), (RuntimeException) e))
+                                            : Mono.error(e)
+                                    ))
+                    );
+                }));
+    }
+
+    private static CurrencyPair currencyPair(TransferRequest request, Map<String, Account> accounts) {
+        return new CurrencyPair(
+                accounts.get(request.getPayerAccountNumber()).getCurrencyCode(),
+                accounts.get(request.getReceiverAccountNumber()).getCurrencyCode()
+        );
+    }
+
+    private Mono<BatchTransferResult> batchResult(TransferProcessor.BatchTransfer transfer, Map<String, Account> accounts) {
+        var txnUUID = transfer.getTxnUUID();
+        if (transfer.getError() != null) {
+            return Mono.just(BatchTransferResult.failed(txnUUID, transfer.getError()));
+        }
+        var payerAccNum = transfer.getRequest().getPayerAccountNumber();
+        if (!Objects.equals(transfer.getGroup().getPayerAccountNumber(), payerAccNum)) {
+            return Mono.just(BatchTransferResult.failed(txnUUID, new BusinessLogicError("Unknown user account " + payerAccNum)));
+        }
+        return durable(transfer.getGroup())
+                .flatMap(group -> fetchExisting(group, Mono.just(accounts.get(payerAccNum))))
+                .map(result -> BatchTransferResult.transferred(txnUUID, result));
+    }
+
+    /**
+     * Receiver's account is owned by another node: the amount is reserved here under the txn, so retries of it are
+     * answered by this node, then it's credited by the receiver's node. Reservation rejected there is reversed.
+     */
+    private Mono<TxnResult> crossPartitionTransfer(TransferRequest request, Mono<Account> payerAccount, UUID txnUUID) {
+        var payerAccNum = request.getPayerAccountNumber();
+        var receiverAccNum = request.getReceiverAccountNumber();
+
+        var receiverCurrency = partitionClient.findAccount(receiverAccNum)
+                .map(AccountResponse::getCurrencyCode)
+                .switchIfEmpty(Mono.error(new BusinessLogicError("Unknown user account " + receiverAccNum)));
+
+        var existing = txnGroupRepo.findByUUID(txnUUID).flatMap(this::durable);
+
+        return existing
+                .flatMap(group -> {
+                    if (!Objects.equals(group.getPayerAccountNumber(), payerAccNum)) {
+                        return Mono.error(new BusinessLogicError("Unknown user account " + payerAccNum));
+                    }
+                    return Mono.just(group);
+                })
+                .switchIfEmpty(commit(txnUUID, doReserve(request, payerAccount, receiverCurrency, txnUUID))
+                        .doOnNext(group -> pendingCredits.add(txnUUID)))
+                .flatMap(this::completeTransfer)
+                .flatMap(txnGroup -> fetchExisting(txnGroup, payerAccount));
+    }
+
+    /**
+     * Credits a transfer reserved by the payer's node, repeated requests of it are answered as the first one
+     */
+    @Transactional
+    public Mono<Void> credit(CreditRequest request, UUID txnUUID) {
+        var creditUUID = UUID.nameUUIDFromBytes(("credit:" + txnUUID).getBytes(StandardCharsets.UTF_8));
+        return txnGroupRepo.findByUUID(creditUUID)
+                .flatMap(this::durable)
+                .switchIfEmpty(commit(creditUUID, crossPartitionProcessor.credit(request, creditUUID)))
+                .then();
+    }
+
+    /**
+     * @return transfers reserved on this node, which may still be not credited by the receiver's one
+     */
+    public Collection<UUID> getPendingCredits() {
+        return pendingCredits;
+    }
+
+    /**
+     * Makes the transfer pending, it was reserved before this node restarted
+     */
+    public void addPendingCredit(UUID txnUUID) {
+        pendingCredits.add(txnUUID);
+    }
+
+    /**
+     * Retries the second phase of a pending transfer
+     */
+    public Mono<TxnGroup> completeTransfer(UUID txnUUID) {
+        return txnGroupRepo.findByUUID(txnUUID)
+                .flatMap(this::durable)
+                .flatMap(this::completeTransfer)
+                .switchIfEmpty(Mono.defer(() -> {
+                    pendingCredits.remove(txnUUID);
+                    return Mono.empty();
+                }));
+    }
+
+    private Mono<TxnGroup> completeTransfer(TxnGroup reserved) {
+        var txnUUID = reserved.getTxnUUID();
+        var reversalUUID = UUID.nameUUIDFromBytes(("reversal:" + txnUUID).getBytes(StandardCharsets.UTF_8));
+
+        return txnGroupRepo.findByUUID(reversalUUID)
+                .flatMap(this::durable)
+                .flatMap(reversal -> Mono.<TxnGroup>error(new BusinessLogicError("Transfer " + txnUUID + " is cancelled")))
+                .switchIfEmpty(Mono.defer(() -> creditRequest(reserved)
+                        .flatMap(request -> partitionClient.credit(txnUUID, request))
+                        .thenReturn(reserved)
+                        .onErrorResume(BusinessLogicError.class, e ->
+                                commit(reversalUUID, crossPartitionProcessor.reverse(reserved, reversalUUID)).then(Mono.error(e))
+                        )))
+                .doOnNext(group -> pendingCredits.remove(txnUUID))
+                .doOnError(e -> {
+                    if (e instanceof BusinessLogicError) {
+                        pendingCredits.remove(txnUUID);
+                    }
+                });
+    }
+
+    /**
+     * Amount reserved for the receiver: the exchanged one if currencies differ
+     */
+    private Mono<CreditRequest> creditRequest(TxnGroup reserved) {
+        return txnRepo.findAllByTxnGroupId(reserved.getId()).flatMap(txns -> txns.stream()
+                .filter(txn -> txn.getSpendingType() == TxnSpendingType.EXCHANGE && txn.getAmount().signum() > 0)
+                .findFirst()
+                .map(exchange -> accountRepo.findById(exchange.getAccountId()).map(base -> new CreditRequest(
+                        reserved.getPayerAccountNumber(), reserved.getReceiverAccountNumber(),
+                        exchange.getAmount(), base.getCurrencyCode(), reserved.getComment()
+                )))
+                .orElseGet(() -> Mono.just(new CreditRequest(
+                        reserved.getPayerAccountNumber(), reserved.getReceiverAccountNumber(),
+                        reserved.getAmount(), reserved.getCurrencyCode(), reserved.getComment()
+                ))));
+    }
+
+    private Mono<TxnGroup> doReserve(
+            TransferRequest request, Mono<Account> payerAccount, Mono<String> receiverCurrency, UUID txnUuid) {
+        return Mono.zip(payerAccount, receiverCurrency).flatMap(tuple -> {
+            var payerCurrency = tuple.getT1().getCurrencyCode();
+            var receiverCurrencyCode = tuple.getT2();
+            if (payerCurrency.equals(receiverCurrencyCode)) {
+                return crossPartitionProcessor.reserveSimpleTransfer(request, payerCurrency, txnUuid);
+            } else {
+                var currencyPair = new CurrencyPair(payerCurrency, receiverCurrencyCode);
+                //noinspection DuplicatedCode
+                var rate = currencyService.getRates(List.of(currencyPair))
+                        .handle((Map<CurrencyPair, Double> rates, SynchronousSink<Double> sink) -> {
+                            if (rates.size() == 1) {
+                                sink.next(rates.values().iterator().next());
+                            }
+                        })
+                        .switchIfEmpty(Mono.error(new BusinessLogicError("Unsupported currency pair " + currencyPair)));
+                var fee = feeService.getExchangeFee(currencyPair, request.getAmount());
+                return Mono.zip(rate, fee).flatMap(rateAndFee -> crossPartitionProcessor.reserveCrossCurrencyTransfer(
+                        request, payerCurrency, receiverCurrencyCode, txnUuid,
+                        BigDecimal.valueOf(rateAndFee.getT1()), rateAndFee.getT2()
+                ));
+            }
+        });
+    }
+
     private Mono<TxnGroup> doDeposit(DepositRequest request, Mono<Account> userAccount, UUID txnUuid) {
         return userAccount.flatMap(account -> {
             if (account.getCurrencyCode().equals(request.getCurrencyCode())) {
@@ -269,6 +668,121 @@ public class TransferService {
         });
     }
 
+    /**
+     * Completes only once the txn group with all its legs is durable in the journal, then it's appended to the outbox.
+     * A concurrent request of the txn waits for this one, then is answered by its group or posts it itself.
+     */
+    private Mono<TxnGroup> commit(UUID txnUUID, Mono<TxnGroup> posting) {
+        return Mono.defer(() -> {
+            var commit = new CompletableFuture<Void>();
+            var other = commits.putIfAbsent(txnUUID, commit);
+            if (other != null) {
+                return Mono.fromFuture(other)
+                        .onErrorResume(e -> Mono.empty())
+                        .then(Mono.defer(() -> txnGroupRepo.findByUUID(txnUUID)))
+                        .flatMap(this::durable)
+                        .switchIfEmpty(Mono.defer(() -> {
+                            commits.remove(txnUUID, other); // failed before its group was posted
+                            return commit(txnUUID, posting);
+                        }));
+            }
+            return writeEpochs.track(posting.flatMap(txnGroup ->
+                    txnRepo.findAllByTxnGroupId(txnGroup.getId())
+                            .flatMap(txns -> journal.append(JournalRecord.txnGroup(txnGroup, txns))
+                                    .then(outbox.append(txnGroup, txns)))
+                            .thenReturn(txnGroup)
+            ))
+                    .doOnSuccess(txnGroup -> endCommit(txnUUID, commit, null))
+                    .doOnError(e -> endCommit(txnUUID, commit, e))
+                    .doOnCancel(() -> endCommit(txnUUID, commit, new CancellationException()));
+        });
+    }
+
+    /**
+     * @return the group once it's durable, an error if its commit failed
+     */
+    private Mono<TxnGroup> durable(TxnGroup txnGroup) {
+        var commit = commits.get(txnGroup.getTxnUUID());
+        return commit == null ? Mono.just(txnGroup) : Mono.fromFuture(commit).thenReturn(txnGroup);
+    }
+
+    private void endCommit(UUID txnUUID, CompletableFuture<Void> commit, Throwable error) {
+        if (error == null || error instanceof BusinessLogicError || error instanceof RetryLaterException) {
+            // durable, or rejected before anything was posted
+            commits.remove(txnUUID, commit);
+            commit.complete(null);
+        } else {
+            commit.completeExceptionally(error);
+        }
+    }
+
+    /**
+     * Registers commits of the transfers, but for the ones being committed by other requests: those are answered
+     * once durable, or posted here if they fail before posting
+     */
+    private Map<UUID, CompletableFuture<Void>> beginCommits(List<TransferProcessor.BatchTransfer> transfers) {
+        var registered = new HashMap<UUID, CompletableFuture<Void>>();
+        for (var transfer : transfers) {
+            if (transfer.getError() == null) {
+                var commit = new CompletableFuture<Void>();
+                if (commits.putIfAbsent(transfer.getTxnUUID(), commit) == null) {
+                    registered.put(transfer.getTxnUUID(), commit);
+                }
+            }
+        }
+        return registered;
+    }
+
+    /**
+     * Ends commits of the transfers; on error, the ones whose groups were posted are kept failed
+     */
+    private void endCommits(
+            List<TransferProcessor.BatchTransfer> transfers, Map<UUID, CompletableFuture<Void>> registered,
+            Throwable error) {
+        for (var transfer : transfers) {
+            var commit = registered.get(transfer.getTxnUUID());
+            if (commit != null) {
+                endCommit(transfer.getTxnUUID(), commit, transfer.isPosted() ? error : null);
+            }
+        }
+    }
+
+    /**
+     * Commits groups posted by a batch under one lock in one transaction, their journal records are appended at once,
+     * so they're made durable together; completes once the transaction is committed
+     */
+    private Mono<List<TransferProcessor.BatchTransfer>> commitBatch(List<TransferProcessor.BatchTransfer> transfers) {
+        return commitBatch(transfers, Mono.defer(() -> transferProcessor.makeTransfers(transfers)));
+    }
+
+    /**
+     * @param posting posts the transfers, subscribed once their commits are registered
+     */
+    private Mono<List<TransferProcessor.BatchTransfer>> commitBatch(
+            List<TransferProcessor.BatchTransfer> transfers, Mono<List<TransferProcessor.BatchTransfer>> posting) {
+        return Mono.defer(() -> {
+            var registered = beginCommits(transfers);
+            return writeEpochs.track(inTransaction(posting.flatMap(this::commitPosted)))
+                    .doOnSuccess(committed -> endCommits(transfers, registered, null))
+                    .doOnError(e -> endCommits(transfers, registered, e))
+                    .doOnCancel(() -> endCommits(transfers, registered, new CancellationException()));
+        });
+    }
+
+    private <T> Mono<T> inTransaction(Mono<T> mono) {
+        return transactional != null ? transactional.transactional(mono) : mono;
+    }
+
+    private Mono<List<TransferProcessor.BatchTransfer>> commitPosted(List<TransferProcessor.BatchTransfer> transfers) {
+        return Flux.fromIterable(transfers)
+                .filter(TransferProcessor.BatchTransfer::isPosted)
+                .flatMapSequential(transfer -> txnRepo.findAllByTxnGroupId(transfer.getGroup().getId())
+                        .flatMap(txns -> journal.append(JournalRecord.txnGroup(transfer.getGroup(), txns)).thenReturn(txns))
+                        .map(txns -> Tuples.of(transfer.getGroup(), txns)))
+                .concatMap(posted -> outbox.append(posted.getT1(), posted.getT2()))
+                .then(Mono.just(transfers));
+    }
+
     private Mono<TxnResult> fetchExisting(TxnGroup txnGroup, Mono<Account> userAccount) {
         return userAccount.flatMap(account ->
                 txnRepo.findByTxnGroupIdAndAccountIdAndSpendingType(
@@ -0,0 +1,20 @@
+package io.shmaks.banking.service;
+
+import reactor.core.publisher.Mono;
+
+/**
+ * Lets a read see the effects of a txn the client already got a response for, which matters on a replica lagging
+ * behind the primary
+ */
+public interface TxnAwaiter {
+
+    /**
+     * Committed txns are visible to reads right away where they're made
+     */
+    TxnAwaiter NONE = txnId -> Mono.empty();
+
+    /**
+     * @return completes once the txn is visible, fails with {@link RetryLaterException} if it doesn't get visible soon
+     */
+    Mono<Void> await(long txnId);
+}
@@ -5,6 +5,8 @@ import io.shmaks.banking.ext.MockCurrencyService;
 import io.shmaks.banking.model.Account;
 import io.shmaks.banking.model.AccountType;
 import io.shmaks.banking.repo.AccountRepo;
+import io.shmaks.banking.repo.journal.Journal;
+import io.shmaks.banking.repo.journal.JournalRecord;
 import io.shmaks.banking.service.AccountNumberGenerator;
 import reactor.core.publisher.Mono;
 
@@ -17,30 +19,46 @@ public class CorrespondentAccountsBootstrapper {
     private final MockCurrencyService currencyService;
     private final AccountNumberGenerator accountNumberGenerator;
     private final AccountRepo accountRepo;
+    private final Journal journal;
     private final SampleAppExtProps extProps;
 
     public CorrespondentAccountsBootstrapper(
             MockCurrencyService currencyService,
             AccountNumberGenerator accountNumberGenerator,
             AccountRepo accountRepo,
+            Journal journal,
             SampleAppExtProps extProps) {
         this.currencyService = currencyService;
         this.accountNumberGenerator = accountNumberGenerator;
         this.accountRepo = accountRepo;
+        this.journal = journal;
         this.extProps = extProps;
     }
 
     public void bootstrap() {
         currencyService.supportedCurrencies()
                 .flatMap(currencies ->
-                        Mono.when(currencies.stream().flatMap(currency ->
-                                extProps.getCorrespondentOwners().stream().map(correspondent ->
-                                        accountRepo.create(correspondentAccount(currency, correspondent))
-                                )
+                        Mono.when(extProps.getCorrespondentOwners().stream().map(correspondent ->
+                                accountRepo.findAllByOwnerIdOrderByAccountNumberAsc(correspondent, 10000, null)
+                                        .flatMap(existing -> Mono.when(currencies.stream()
+                                                .filter(currency -> existing.stream().noneMatch(account ->
+                                                        account.getCurrencyCode().equals(currency) &&
+                                                                account.getType() == AccountType.CORRESPONDENT
+                                                ))
+                                                .map(currency -> create(correspondentAccount(currency, correspondent)))
+                                                .collect(Collectors.toList())
+                                        ))
                         ).collect(Collectors.toList()))
                 ).block();
     }
 
+    private Mono<Account> create(Account account) {
+        var initialBalance = account.getBalance();
+        return accountRepo.create(account).flatMap(created ->
+                journal.append(JournalRecord.accountCreated(created, initialBalance)).thenReturn(created)
+        );
+    }
+
     private Account correspondentAccount(String currencyCode, String correspondentOwnerId) {
         var feeAccount = new Account();
         feeAccount.setOwnerId(correspondentOwnerId);
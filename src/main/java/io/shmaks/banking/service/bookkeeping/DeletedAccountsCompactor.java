@@ -0,0 +1,53 @@
+package io.shmaks.banking.service.bookkeeping;
+
+import io.shmaks.banking.config.SampleAppStorageProps;
+import io.shmaks.banking.repo.AccountRepo;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Instant;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+public class DeletedAccountsCompactor {
+
+    private static final Logger log = LoggerFactory.getLogger(DeletedAccountsCompactor.class);
+
+    private final AccountRepo accountRepo;
+    private final SampleAppStorageProps.Compaction props;
+
+    private ScheduledExecutorService executor;
+
+    public DeletedAccountsCompactor(AccountRepo accountRepo, SampleAppStorageProps.Compaction props) {
+        this.accountRepo = accountRepo;
+        this.props = props;
+    }
+
+    public void start() {
+        executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            var thread = new Thread(runnable, "deleted-accounts-compactor");
+            thread.setDaemon(true);
+            return thread;
+        });
+        var intervalMs = props.getInterval().toMillis();
+        executor.scheduleWithFixedDelay(this::compact, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    public void stop() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    public long compact() {
+        try {
+            var archived = accountRepo.archiveDeletedBefore(Instant.now().minus(props.getRetention())).block();
+            log.info("deleted accounts compaction: archived={}", archived);
+            return archived != null ? archived : 0;
+        } catch (Exception e) {
+            log.error("deleted accounts compaction failed", e);
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,298 @@
+package io.shmaks.banking.service.bookkeeping;
+
+import io.shmaks.banking.model.Account;
+import io.shmaks.banking.repo.InMemoryAccountRepo;
+import io.shmaks.banking.repo.InMemoryTxnGroupRepo;
+import io.shmaks.banking.repo.InMemoryTxnRepo;
+import io.shmaks.banking.repo.journal.JournalReader;
+import io.shmaks.banking.repo.journal.JournalRecord;
+import io.shmaks.banking.repo.journal.JournalSegments;
+import io.shmaks.banking.repo.snapshot.Snapshot;
+import io.shmaks.banking.repo.snapshot.SnapshotStore;
+import io.shmaks.banking.repo.table.AccountTable;
+import io.shmaks.banking.service.AccountNumberGenerator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import reactor.core.publisher.Mono;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntFunction;
+
+/**
+ * Restores in-memory state on start: loads accounts from the account table (if any), the latest snapshot and
+ * replays the journal after it, all in parallel by chunks or partitions of ids.
+ * <p>
+ * Snapshot is fuzzy, so replay is idempotent: accounts, groups and txns are restored by their ids, and a leg
+ * changes the balance only if the account version it made is greater than the one seen in snapshot. Legs of an
+ * account aren't applied in the order of their ids (payouts credit receivers without their locks), but every one
+ * is stamped with the version its balance update made.
+ * Accounts are created in a separate phase first, as a leg may precede creation of its account in the journal.
+ */
+public class LedgerRecovery {
+
+    private static final Logger log = LoggerFactory.getLogger(LedgerRecovery.class);
+
+    private static final Comparator<String> ACCOUNT_NUMBER_ORDER =
+            Comparator.comparingInt(String::length).thenComparing(Comparator.naturalOrder());
+
+    private final InMemoryAccountRepo accountRepo;
+    private final InMemoryTxnGroupRepo txnGroupRepo;
+    private final InMemoryTxnRepo txnRepo;
+    private final AccountNumberGenerator accountNumberGenerator;
+    private final SnapshotStore snapshotStore;
+    private final Path journalDir;
+    private final int partitions;
+
+    private volatile long recoveredLsn;
+
+    /**
+     * @param snapshotStore null if snapshots are disabled
+     * @param journalDir    null if journal is disabled
+     */
+    public LedgerRecovery(
+            InMemoryAccountRepo accountRepo,
+            InMemoryTxnGroupRepo txnGroupRepo,
+            InMemoryTxnRepo txnRepo,
+            AccountNumberGenerator accountNumberGenerator,
+            SnapshotStore snapshotStore,
+            Path journalDir,
+            int partitions) {
+        this.accountRepo = accountRepo;
+        this.txnGroupRepo = txnGroupRepo;
+        this.txnRepo = txnRepo;
+        this.accountNumberGenerator = accountNumberGenerator;
+        this.snapshotStore = snapshotStore;
+        this.journalDir = journalDir;
+        this.partitions = partitions;
+    }
+
+    public void recover() throws IOException, InterruptedException {
+        var startedAt = System.nanoTime();
+        var snapshot = snapshotStore != null ? snapshotStore.latest().orElse(null) : null;
+        var table = accountRepo.getTable();
+        if (table != null && !table.isTrusted() && (snapshot != null || journalDir != null)) {
+            log.warn("account table wasn't closed before OS restart, it's rebuilt from snapshot & journal: {}", table.getDir());
+            table.clear();
+        }
+        var tableAccounts = table != null ? loadTable(table) : 0;
+        // table is at least as recent as any snapshot, as it's flushed before a snapshot is committed
+        var snapshotAccounts = snapshot != null ? load(snapshot, tableAccounts == 0) : 0;
+        recoveredLsn = snapshot != null ? snapshot.getLsn() : 0;
+        var replayed = journalDir != null ? replay(recoveredLsn) : 0;
+        // compared with the state hash of the instance the ledger is recovered from
+        log.info(
+                "ledger recovery: tableAccounts={}, snapshot={}, snapshotAccounts={}, replayedRecords={}, stateHash={}, elapsedMs={}",
+                tableAccounts, snapshot != null ? snapshot.getDir() : null, snapshotAccounts, replayed,
+                String.format("%016x", accountRepo.getStateTree().rootHash()), (System.nanoTime() - startedAt) / 1_000_000
+        );
+    }
+
+    /**
+     * @return lsn of the last journal record reflected in the recovered state
+     */
+    public long getRecoveredLsn() {
+        return recoveredLsn;
+    }
+
+    private long loadTable(AccountTable table) throws IOException, InterruptedException {
+        List<AccountTable.SweepResult> results;
+        try (var sweep = table.sweep()) {
+            results = runPartitions(sweep.getChunks(), chunk -> () -> {
+                var maxNumber = new String[1];
+                var result = sweep.run(chunk, account -> {
+                    accountRepo.load(account);
+                    maxNumber[0] = maxNumber(maxNumber[0], account.getAccountNumber());
+                });
+                if (maxNumber[0] != null) {
+                    accountNumberGenerator.advancePast(maxNumber[0]);
+                }
+                return result;
+            });
+        }
+        var total = new AccountTable.SweepResult();
+        results.forEach(total::add);
+        if (!total.getCorruptedIds().isEmpty()) {
+            throw new IllegalStateException(
+                    "Account table has corrupted records: dir=" + table.getDir() + ", ids=" + total.getCorruptedIds()
+            );
+        }
+        if (total.getTorn() > 0 || total.getRepaired() > 0) {
+            log.warn(
+                    "account table had records torn by crash: dir={}, cleared={}, repaired={}",
+                    table.getDir(), total.getTorn(), total.getRepaired()
+            );
+        }
+        return total.getAccounts();
+    }
+
+    private long load(Snapshot snapshot, boolean withAccounts) throws InterruptedException {
+        var loaded = runPartitions(snapshot.getPartitions(), partition -> () -> {
+            var count = new long[1];
+            var maxNumber = new String[1];
+            if (withAccounts) {
+                snapshot.readAccounts(partition, (account, archived) -> {
+                    accountRepo.restore(account, archived);
+                    maxNumber[0] = maxNumber(maxNumber[0], account.getAccountNumber());
+                    count[0]++;
+                });
+            }
+            snapshot.readTxnGroups(partition, txnGroupRepo::restore);
+            snapshot.readTxns(partition, txnRepo::restore);
+            if (maxNumber[0] != null) {
+                accountNumberGenerator.advancePast(maxNumber[0]);
+            }
+            return count[0];
+        });
+        accountRepo.advanceNextId(snapshot.getAccountNextId());
+        txnGroupRepo.advanceNextId(snapshot.getTxnGroupNextId());
+        txnRepo.advanceNextId(snapshot.getTxnNextId());
+        return loaded.stream().mapToLong(Long::longValue).sum();
+    }
+
+    private long replay(long afterLsn) throws IOException, InterruptedException {
+        var created = new ArrayList<List<JournalRecord>>(partitions);
+        var changed = new ArrayList<List<JournalRecord>>(partitions);
+        for (int i = 0; i < partitions; i++) {
+            created.add(new ArrayList<>());
+            changed.add(new ArrayList<>());
+        }
+        long replayed = 0;
+        for (var segment : JournalSegments.list(journalDir)) {
+            try (var reader = new JournalReader(segment)) {
+                JournalRecord record;
+                while ((record = reader.next()) != null) {
+                    if (record.getLsn() <= afterLsn) {
+                        continue;
+                    }
+                    replayed++;
+                    recoveredLsn = record.getLsn();
+                    if (record.getType() == JournalRecord.Type.ACCOUNT_CREATED) {
+                        created.get(partitionOf(record.getAccountId())).add(record);
+                    } else {
+                        for (var partition : partitionsOf(record)) {
+                            changed.get(partition).add(record);
+                        }
+                    }
+                }
+            }
+        }
+
+        runPartitions(partitions, partition -> () -> {
+            String maxNumber = null;
+            for (var record : created.get(partition)) {
+                var account = record.getAccount();
+                if (accountRepo.findById(account.getId()).blockOptional().isEmpty()) {
+                    accountRepo.restore(account, false);
+                }
+                maxNumber = maxNumber(maxNumber, account.getAccountNumber());
+            }
+            if (maxNumber != null) {
+                accountNumberGenerator.advancePast(maxNumber);
+            }
+            return null;
+        });
+        runPartitions(partitions, partition -> () -> {
+            var versions = new HashMap<Long, Long>();
+            for (var record : changed.get(partition)) {
+                apply(record, partition, versions);
+            }
+            return null;
+        });
+        return replayed;
+    }
+
+    /**
+     * @param versions versions of accounts as they were before replay
+     */
+    private void apply(JournalRecord record, int partition, Map<Long, Long> versions) {
+        switch (record.getType()) {
+            case TXN_GROUP:
+                var group = record.getTxnGroup();
+                if (partitionOf(group.getId()) == partition) {
+                    txnGroupRepo.restore(group);
+                }
+                for (var txn : record.getTxns()) {
+                    var accountId = txn.getAccountId();
+                    if (partitionOf(accountId) != partition) {
+                        continue;
+                    }
+                    txnRepo.restore(txn);
+                    var version = versions.computeIfAbsent(accountId, id ->
+                            accountRepo.findById(id).map(Account::getVersion).defaultIfEmpty(Long.MIN_VALUE).block()
+                    );
+                    if (txn.getAccountVersion() != null && txn.getAccountVersion() > version) {
+                        accountRepo.replayBalance(accountId, txn.getId(), txn.getAccountVersion(), txn.getAmount()).block();
+                    }
+                }
+                break;
+            case ACCOUNT_DELETED:
+                accountRepo.markDeleted(record.getAccountId(), record.getTimestamp());
+                break;
+            case ACCOUNT_RESTORED:
+                accountRepo.findById(record.getAccountId())
+                        .flatMap(account -> accountRepo.restoreByIdAndOwnerId(account.getId(), account.getOwnerId()))
+                        .onErrorResume(e -> {
+                            log.warn("can't replay restoring of account {}", record.getAccountId(), e);
+                            return Mono.empty();
+                        })
+                        .block();
+                break;
+            default:
+                throw new IllegalStateException("Unexpected journal record " + record);
+        }
+    }
+
+    private Iterable<Integer> partitionsOf(JournalRecord record) {
+        var result = new LinkedHashSet<Integer>();
+        if (record.getType() == JournalRecord.Type.TXN_GROUP) {
+            result.add(partitionOf(record.getTxnGroup().getId()));
+            record.getTxns().forEach(txn -> result.add(partitionOf(txn.getAccountId())));
+        } else {
+            result.add(partitionOf(record.getAccountId()));
+        }
+        return result;
+    }
+
+    private int partitionOf(long id) {
+        return SnapshotStore.partitionOf(id, partitions);
+    }
+
+    private <T> List<T> runPartitions(int count, IntFunction<Callable<T>> task) throws InterruptedException {
+        var threadNumber = new AtomicInteger();
+        var executor = Executors.newFixedThreadPool(Math.min(count, Runtime.getRuntime().availableProcessors()), runnable -> {
+            var thread = new Thread(runnable, "ledger-recovery-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            var tasks = new ArrayList<Callable<T>>(count);
+            for (int partition = 0; partition < count; partition++) {
+                tasks.add(task.apply(partition));
+            }
+            var results = new ArrayList<T>(count);
+            for (var future : executor.invokeAll(tasks)) {
+                results.add(future.get());
+            }
+            return results;
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Ledger recovery failed", e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static String maxNumber(String current, String candidate) {
+        return current == null || ACCOUNT_NUMBER_ORDER.compare(candidate, current) > 0 ? candidate : current;
+    }
+}
@@ -0,0 +1,102 @@
+package io.shmaks.banking.service.bookkeeping;
+
+import io.shmaks.banking.config.SampleAppStorageProps;
+import io.shmaks.banking.repo.InMemoryAccountRepo;
+import io.shmaks.banking.repo.InMemoryTxnGroupRepo;
+import io.shmaks.banking.repo.InMemoryTxnRepo;
+import io.shmaks.banking.repo.journal.Journal;
+import io.shmaks.banking.repo.snapshot.SnapshotStore;
+import io.shmaks.banking.repo.snapshot.WriteEpochs;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Periodically writes a snapshot of the in-memory ledger while it keeps serving writes, then drops the journal
+ * segments the retained snapshots cover.
+ */
+public class LedgerSnapshotter {
+
+    private static final Logger log = LoggerFactory.getLogger(LedgerSnapshotter.class);
+
+    private final InMemoryAccountRepo accountRepo;
+    private final InMemoryTxnGroupRepo txnGroupRepo;
+    private final InMemoryTxnRepo txnRepo;
+    private final Journal journal;
+    private final WriteEpochs writeEpochs;
+    private final SnapshotStore store;
+    private final SampleAppStorageProps.Snapshot props;
+
+    private ScheduledExecutorService executor;
+
+    public LedgerSnapshotter(
+            InMemoryAccountRepo accountRepo,
+            InMemoryTxnGroupRepo txnGroupRepo,
+            InMemoryTxnRepo txnRepo,
+            Journal journal,
+            WriteEpochs writeEpochs,
+            SnapshotStore store,
+            SampleAppStorageProps.Snapshot props) {
+        this.accountRepo = accountRepo;
+        this.txnGroupRepo = txnGroupRepo;
+        this.txnRepo = txnRepo;
+        this.journal = journal;
+        this.writeEpochs = writeEpochs;
+        this.store = store;
+        this.props = props;
+    }
+
+    public void start() {
+        if (!props.isEnabled()) {
+            return;
+        }
+        executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            var thread = new Thread(runnable, "ledger-snapshotter");
+            thread.setDaemon(true);
+            return thread;
+        });
+        var intervalMs = props.getInterval().toMillis();
+        executor.scheduleWithFixedDelay(this::snapshot, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    public void stop() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    public boolean snapshot() {
+        var startedAt = System.nanoTime();
+        try {
+            // everything up to this lsn is applied in memory, the rest is replayed idempotently on recovery
+            var lsn = journal.getDurableLsn();
+            try (var writer = store.begin(lsn)) {
+                accountRepo.forEachAccount(writer::account);
+                txnGroupRepo.forEachTxnGroup(writer::txnGroup);
+                txnRepo.forEachTxn(writer::txn);
+                if (!writeEpochs.advance(props.getDrainTimeout())) {
+                    log.warn("ledger snapshot discarded: writes in flight didn't finish in {}", props.getDrainTimeout());
+                    return false;
+                }
+                accountRepo.flush(); // recovery prefers the account table over snapshot, it must not be older
+                var path = writer.commit(accountRepo.getNextId(), txnGroupRepo.getNextId(), txnRepo.getNextId());
+                log.info("ledger snapshot: path={}, lsn={}, elapsedMs={}", path, lsn, (System.nanoTime() - startedAt) / 1_000_000);
+            }
+            store.deleteOld(props.getRetained());
+            var oldestLsn = store.oldestLsn();
+            if (oldestLsn.isPresent()) {
+                journal.truncate(oldestLsn.getAsLong());
+            }
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (Exception e) {
+            log.error("ledger snapshot failed", e);
+            return false;
+        }
+    }
+}
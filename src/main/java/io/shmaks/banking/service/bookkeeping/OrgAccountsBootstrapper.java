@@ -4,40 +4,64 @@ import io.shmaks.banking.ext.MockCurrencyService;
 import io.shmaks.banking.model.Account;
 import io.shmaks.banking.model.AccountType;
 import io.shmaks.banking.repo.AccountRepo;
+import io.shmaks.banking.repo.journal.Journal;
+import io.shmaks.banking.repo.journal.JournalRecord;
 import io.shmaks.banking.service.AccountNumberGenerator;
 import reactor.core.publisher.Mono;
 
 import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
 import java.time.Instant;
+import java.util.List;
 import java.util.UUID;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 public class OrgAccountsBootstrapper {
-    public static final String ORG_ID = UUID.randomUUID().toString();
+    // stable across restarts, org accounts are found by it after recovery
+    public static final String ORG_ID = UUID.nameUUIDFromBytes("sample-banking-app:org".getBytes(StandardCharsets.UTF_8)).toString();
 
     private final MockCurrencyService currencyService;
     private final AccountNumberGenerator accountNumberGenerator;
     private final AccountRepo accountRepo;
+    private final Journal journal;
 
     public OrgAccountsBootstrapper(
             MockCurrencyService currencyService,
             AccountNumberGenerator accountNumberGenerator,
-            AccountRepo accountRepo) {
+            AccountRepo accountRepo,
+            Journal journal) {
         this.currencyService = currencyService;
         this.accountNumberGenerator = accountNumberGenerator;
         this.accountRepo = accountRepo;
+        this.journal = journal;
     }
 
     public void bootstrap() {
-        currencyService.supportedCurrencies()
-                .flatMap(currencies ->
-                        Mono.when(currencies.stream().map(currency ->
-                            Mono.zip(
-                                    accountRepo.create(baseAccount(currency)),
-                                    accountRepo.create(feeAccount(currency))
-                            )
-                        ).collect(Collectors.toList()))
-                ).block();
+        Mono.zip(
+                        currencyService.supportedCurrencies(),
+                        accountRepo.findAllByOwnerIdOrderByAccountNumberAsc(ORG_ID, 10000, null)
+                )
+                .flatMap(tuple -> {
+                    var existing = tuple.getT2();
+                    return Mono.when(tuple.getT1().stream().flatMap(currency -> Stream.of(
+                            exists(existing, currency, AccountType.BASE) ? Mono.empty() : create(baseAccount(currency)),
+                            exists(existing, currency, AccountType.FEE) ? Mono.empty() : create(feeAccount(currency))
+                    )).collect(Collectors.toList()));
+                }).block();
+    }
+
+    private static boolean exists(List<Account> accounts, String currencyCode, AccountType type) {
+        return accounts.stream().anyMatch(account ->
+                account.getCurrencyCode().equals(currencyCode) && account.getType() == type
+        );
+    }
+
+    private Mono<Account> create(Account account) {
+        var initialBalance = account.getBalance();
+        return accountRepo.create(account).flatMap(created ->
+                journal.append(JournalRecord.accountCreated(created, initialBalance)).thenReturn(created)
+        );
     }
 
     private Account baseAccount(String currencyCode) {
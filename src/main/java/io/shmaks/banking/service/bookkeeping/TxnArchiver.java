@@ -0,0 +1,56 @@
+package io.shmaks.banking.service.bookkeeping;
+
+import io.shmaks.banking.config.SampleAppStorageProps;
+import io.shmaks.banking.repo.TieredTxnRepo;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Instant;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+public class TxnArchiver {
+
+    private static final Logger log = LoggerFactory.getLogger(TxnArchiver.class);
+
+    private final TieredTxnRepo txnRepo;
+    private final SampleAppStorageProps.TxnArchive props;
+
+    private ScheduledExecutorService executor;
+
+    public TxnArchiver(TieredTxnRepo txnRepo, SampleAppStorageProps.TxnArchive props) {
+        this.txnRepo = txnRepo;
+        this.props = props;
+    }
+
+    public void start() {
+        if (!props.isEnabled()) {
+            return;
+        }
+        executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            var thread = new Thread(runnable, "txn-archiver");
+            thread.setDaemon(true);
+            return thread;
+        });
+        var intervalMs = props.getInterval().toMillis();
+        executor.scheduleWithFixedDelay(this::archive, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    public void stop() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    public int archive() {
+        try {
+            var sealed = txnRepo.sealCreatedBefore(Instant.now().minus(props.getAge()));
+            log.info("txn archiving: sealed={}", sealed);
+            return sealed;
+        } catch (Exception e) {
+            log.error("txn archiving failed", e);
+            return 0;
+        }
+    }
+}
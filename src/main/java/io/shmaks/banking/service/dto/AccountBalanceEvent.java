@@ -0,0 +1,25 @@
+package io.shmaks.banking.service.dto;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import io.shmaks.banking.model.Account;
+
+public class AccountBalanceEvent extends AccountBalanceResponse {
+
+    private final Long lastTxnId;
+    private final long version;
+
+    public AccountBalanceEvent(Account account) {
+        super(account);
+        this.lastTxnId = account.getLastTxnId();
+        this.version = account.getVersion();
+    }
+
+    public Long getLastTxnId() {
+        return lastTxnId;
+    }
+
+    @JsonIgnore
+    public long getVersion() {
+        return version;
+    }
+}
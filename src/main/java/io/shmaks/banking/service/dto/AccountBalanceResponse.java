@@ -0,0 +1,23 @@
+package io.shmaks.banking.service.dto;
+
+import io.shmaks.banking.model.Account;
+
+public class AccountBalanceResponse extends BalanceResponse {
+
+    private final Long id;
+    private final String currencyCode;
+
+    public AccountBalanceResponse(Account account) {
+        super(account.getBalance());
+        this.id = account.getId();
+        this.currencyCode = account.getCurrencyCode();
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public String getCurrencyCode() {
+        return currencyCode;
+    }
+}
@@ -0,0 +1,24 @@
+package io.shmaks.banking.service.dto;
+
+import io.shmaks.banking.repo.AccountRepo;
+
+public class AccountChangeResponse extends AccountResponse {
+
+    private final long changeSeq;
+    private final String deletedAt;
+
+    public AccountChangeResponse(AccountRepo.AccountChange change) {
+        super(change.getAccount());
+        this.changeSeq = change.getSeq();
+        var deletedAt = change.getAccount().getDeletedAt();
+        this.deletedAt = deletedAt != null ? deletedAt.toString() : null;
+    }
+
+    public long getChangeSeq() {
+        return changeSeq;
+    }
+
+    public String getDeletedAt() {
+        return deletedAt;
+    }
+}
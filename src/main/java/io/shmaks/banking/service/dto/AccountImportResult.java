@@ -0,0 +1,46 @@
+package io.shmaks.banking.service.dto;
+
+import io.shmaks.banking.model.Account;
+
+/**
+ * Outcome of an account of an import: the account created, or why it isn't
+ */
+public class AccountImportResult {
+
+    // number of the account in the import, from 1
+    private final long record;
+    private final Long id;
+    private final String accountNumber;
+    private final String error;
+
+    private AccountImportResult(long record, Long id, String accountNumber, String error) {
+        this.record = record;
+        this.id = id;
+        this.accountNumber = accountNumber;
+        this.error = error;
+    }
+
+    public static AccountImportResult created(long record, Account account) {
+        return new AccountImportResult(record, account.getId(), account.getAccountNumber(), null);
+    }
+
+    public static AccountImportResult failed(long record, String error) {
+        return new AccountImportResult(record, null, null, error);
+    }
+
+    public long getRecord() {
+        return record;
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public String getAccountNumber() {
+        return accountNumber;
+    }
+
+    public String getError() {
+        return error;
+    }
+}
@@ -14,6 +14,10 @@ public class AccountResponse {
     private Long lastTxnId;
     private String createdAt;
 
+    // read from responses of other nodes of a partitioned cluster
+    public AccountResponse() {
+    }
+
     public AccountResponse(Account account) {
         this.id = account.getId();
         this.accountNumber = account.getAccountNumber();
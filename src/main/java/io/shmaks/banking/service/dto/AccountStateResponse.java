@@ -0,0 +1,39 @@
+package io.shmaks.banking.service.dto;
+
+import io.shmaks.banking.model.Account;
+
+import java.math.BigDecimal;
+
+/**
+ * State of an account covered by the state tree, accounts of divergent buckets are compared by it
+ */
+public class AccountStateResponse {
+
+    private final String accountNumber;
+    private final BigDecimal balance;
+    private final Long lastTxnId;
+    private final String hash;
+
+    public AccountStateResponse(Account account, String hash) {
+        this.accountNumber = account.getAccountNumber();
+        this.balance = account.getBalance();
+        this.lastTxnId = account.getLastTxnId();
+        this.hash = hash;
+    }
+
+    public String getAccountNumber() {
+        return accountNumber;
+    }
+
+    public BigDecimal getBalance() {
+        return balance;
+    }
+
+    public Long getLastTxnId() {
+        return lastTxnId;
+    }
+
+    public String getHash() {
+        return hash;
+    }
+}
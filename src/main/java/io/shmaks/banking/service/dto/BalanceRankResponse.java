@@ -0,0 +1,32 @@
+package io.shmaks.banking.service.dto;
+
+public class BalanceRankResponse {
+
+    private final Long accountId;
+    private final String currencyCode;
+    private final long rank;
+    private final long total;
+
+    public BalanceRankResponse(Long accountId, String currencyCode, long rank, long total) {
+        this.accountId = accountId;
+        this.currencyCode = currencyCode;
+        this.rank = rank;
+        this.total = total;
+    }
+
+    public Long getAccountId() {
+        return accountId;
+    }
+
+    public String getCurrencyCode() {
+        return currencyCode;
+    }
+
+    public long getRank() {
+        return rank;
+    }
+
+    public long getTotal() {
+        return total;
+    }
+}
@@ -0,0 +1,34 @@
+package io.shmaks.banking.service.dto;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import org.springframework.validation.annotation.Validated;
+
+import javax.validation.constraints.NotEmpty;
+import javax.validation.constraints.NotNull;
+import javax.validation.constraints.Size;
+import java.util.List;
+
+@Validated
+public class BalancesRequest {
+
+    @NotEmpty
+    @Size(max = 100)
+    private final List<@NotNull Long> ids;
+
+    @JsonCreator
+    public BalancesRequest(@JsonProperty("ids") List<Long> ids) {
+        this.ids = ids;
+    }
+
+    public List<Long> getIds() {
+        return ids;
+    }
+
+    @Override
+    public String toString() {
+        return "BalancesRequest{" +
+                "ids=" + ids +
+                '}';
+    }
+}
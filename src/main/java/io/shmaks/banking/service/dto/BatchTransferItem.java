@@ -0,0 +1,43 @@
+package io.shmaks.banking.service.dto;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import org.springframework.validation.annotation.Validated;
+
+import javax.validation.constraints.NotNull;
+import java.math.BigDecimal;
+import java.util.UUID;
+
+/**
+ * Transfer of a batch, its txn UUID plays the same role as in PUT /transfer/{txnUUID}
+ */
+@Validated
+public class BatchTransferItem extends TransferRequest {
+
+    @NotNull
+    private final UUID txnUUID;
+
+    @JsonCreator
+    public BatchTransferItem(
+            @JsonProperty("txnUUID") UUID txnUUID,
+            @JsonProperty("payerAccountNumber") String payerAccountNumber,
+            @JsonProperty("receiverAccountNumber") String receiverAccountNumber,
+            @JsonProperty("amount") BigDecimal amount,
+            @JsonProperty("comment") String comment) {
+        super(payerAccountNumber, receiverAccountNumber, amount, comment);
+        this.txnUUID = txnUUID;
+    }
+
+    @JsonProperty("txnUUID")
+    public UUID getTxnUUID() {
+        return txnUUID;
+    }
+
+    @Override
+    public String toString() {
+        return "BatchTransferItem{" +
+                super.toString() + "," +
+                "txnUUID=" + txnUUID +
+                '}';
+    }
+}
@@ -0,0 +1,34 @@
+package io.shmaks.banking.service.dto;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import org.springframework.validation.annotation.Validated;
+
+import javax.validation.Valid;
+import javax.validation.constraints.NotEmpty;
+import javax.validation.constraints.Size;
+import java.util.List;
+
+@Validated
+public class BatchTransferRequest {
+
+    @NotEmpty
+    @Size(max = 1000)
+    private final List<@Valid BatchTransferItem> transfers;
+
+    @JsonCreator
+    public BatchTransferRequest(@JsonProperty("transfers") List<BatchTransferItem> transfers) {
+        this.transfers = transfers;
+    }
+
+    public List<BatchTransferItem> getTransfers() {
+        return transfers;
+    }
+
+    @Override
+    public String toString() {
+        return "BatchTransferRequest{" +
+                "transfers=" + transfers.size() +
+                '}';
+    }
+}
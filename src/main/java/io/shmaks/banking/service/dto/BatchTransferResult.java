@@ -0,0 +1,50 @@
+package io.shmaks.banking.service.dto;
+
+import io.shmaks.banking.service.RetryLaterException;
+
+import java.util.UUID;
+
+/**
+ * Outcome of a transfer of a batch or a payout: the result PUT /transfer/{txnUUID} would respond with, or its error.
+ * Status is the HTTP status of the same single transfer: 200, 400 if it's rejected, 503 if it has to be retried.
+ */
+public class BatchTransferResult {
+
+    private final UUID txnUUID;
+    private final int status;
+    private final TxnResult result;
+    private final String error;
+
+    private BatchTransferResult(UUID txnUUID, int status, TxnResult result, String error) {
+        this.txnUUID = txnUUID;
+        this.status = status;
+        this.result = result;
+        this.error = error;
+    }
+
+    public static BatchTransferResult transferred(UUID txnUUID, TxnResult result) {
+        return new BatchTransferResult(txnUUID, 200, result, null);
+    }
+
+    public static BatchTransferResult failed(UUID txnUUID, RuntimeException error) {
+        return new BatchTransferResult(
+                txnUUID, error instanceof RetryLaterException ? 503 : 400, null, error.getMessage()
+        );
+    }
+
+    public UUID getTxnUUID() {
+        return txnUUID;
+    }
+
+    public int getStatus() {
+        return status;
+    }
+
+    public TxnResult getResult() {
+        return result;
+    }
+
+    public String getError() {
+        return error;
+    }
+}
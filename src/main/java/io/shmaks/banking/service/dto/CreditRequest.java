@@ -0,0 +1,64 @@
+package io.shmaks.banking.service.dto;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import org.springframework.validation.annotation.Validated;
+
+import javax.validation.constraints.NotBlank;
+import java.math.BigDecimal;
+
+/**
+ * Second phase of a transfer between partitions: the amount reserved on the payer's node, already exchanged to the
+ * receiver's currency, is credited to the receiver on its node
+ */
+@Validated
+public class CreditRequest extends MoneyRequest {
+
+    @NotBlank
+    private final String payerAccountNumber;
+
+    @NotBlank
+    private final String receiverAccountNumber;
+
+    @NotBlank
+    private final String currencyCode;
+
+    @JsonCreator
+    public CreditRequest(
+            @JsonProperty("payerAccountNumber") String payerAccountNumber,
+            @JsonProperty("receiverAccountNumber") String receiverAccountNumber,
+            @JsonProperty("amount") BigDecimal amount,
+            @JsonProperty("currencyCode") String currencyCode,
+            @JsonProperty("comment") String comment) {
+        super(amount, comment);
+        this.payerAccountNumber = payerAccountNumber;
+        this.receiverAccountNumber = receiverAccountNumber;
+        this.currencyCode = currencyCode;
+    }
+
+    @Override
+    @JsonProperty("payerAccountNumber")
+    public String getPayerAccountNumber() {
+        return payerAccountNumber;
+    }
+
+    @Override
+    @JsonProperty("receiverAccountNumber")
+    public String getReceiverAccountNumber() {
+        return receiverAccountNumber;
+    }
+
+    public String getCurrencyCode() {
+        return currencyCode;
+    }
+
+    @Override
+    public String toString() {
+        return "CreditRequest{" +
+                super.toString() + "," +
+                "payerAccountNumber='" + payerAccountNumber + '\'' +
+                "receiverAccountNumber='" + receiverAccountNumber + '\'' +
+                "currencyCode='" + currencyCode + '\'' +
+                '}';
+    }
+}
@@ -0,0 +1,103 @@
+package io.shmaks.banking.service.dto;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+
+/**
+ * Account of an import, created for the given owner. A CSV record is {@code ownerId,currencyCode,initialBalance,displayedName},
+ * fields may be quoted.
+ */
+public class ImportAccountRequest extends CreateAccountRequest {
+
+    private static final String CSV_HEADER = "ownerId,currencyCode,initialBalance,displayedName";
+
+    private final String ownerId;
+    // why the record couldn't be read, null if it's fine
+    private final String malformed;
+
+    @JsonCreator
+    public ImportAccountRequest(
+            @JsonProperty("ownerId") String ownerId,
+            @JsonProperty("initialBalance") BigDecimal initialBalance,
+            @JsonProperty("currencyCode") String currencyCode,
+            @JsonProperty("displayedName") String displayedName) {
+        this(ownerId, initialBalance, currencyCode, displayedName, null);
+    }
+
+    private ImportAccountRequest(
+            String ownerId, BigDecimal initialBalance, String currencyCode, String displayedName, String malformed) {
+        super(initialBalance, currencyCode, displayedName);
+        this.ownerId = ownerId;
+        this.malformed = malformed;
+    }
+
+    public static boolean isCsvHeader(String line) {
+        return line.strip().equals(CSV_HEADER);
+    }
+
+    public static ImportAccountRequest fromCsv(String line) {
+        var fields = new ArrayList<String>(4);
+        var field = new StringBuilder();
+        var quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            var c = line.charAt(i);
+            if (quoted) {
+                if (c != '"') {
+                    field.append(c);
+                } else if (i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    field.append('"');
+                    i++;
+                } else {
+                    quoted = false;
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+        fields.add(field.toString());
+
+        if (quoted || fields.size() < 2 || fields.size() > 4) {
+            return malformed("expected " + CSV_HEADER);
+        }
+        BigDecimal initialBalance = null;
+        if (fields.size() > 2 && !fields.get(2).isBlank()) {
+            try {
+                initialBalance = new BigDecimal(fields.get(2).strip());
+            } catch (NumberFormatException e) {
+                return malformed("initialBalance is not a number");
+            }
+        }
+        var displayedName = fields.size() > 3 && !fields.get(3).isEmpty() ? fields.get(3) : null;
+        return new ImportAccountRequest(fields.get(0).strip(), initialBalance, fields.get(1).strip(), displayedName);
+    }
+
+    private static ImportAccountRequest malformed(String reason) {
+        return new ImportAccountRequest(null, null, null, null, reason);
+    }
+
+    public String getOwnerId() {
+        return ownerId;
+    }
+
+    @JsonIgnore
+    public String getMalformed() {
+        return malformed;
+    }
+
+    @Override
+    public String toString() {
+        return "ImportAccountRequest{" +
+                super.toString() + "," +
+                "ownerId='" + ownerId + '\'' +
+                '}';
+    }
+}
@@ -0,0 +1,116 @@
+package io.shmaks.banking.service.dto;
+
+import io.shmaks.banking.model.Txn;
+import io.shmaks.banking.model.TxnSpendingType;
+import io.shmaks.banking.model.TxnType;
+import io.shmaks.banking.repo.outbox.OutboxEntry;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.Collectors;
+
+public class LedgerChangeResponse {
+
+    private final long seq;
+    private final Long txnGroupId;
+    private final UUID txnUUID;
+    private final TxnType type;
+    private final BigDecimal amount;
+    private final String currencyCode;
+    private final String payerAccountNumber;
+    private final String receiverAccountNumber;
+    private final String createdAt;
+    private final List<Leg> legs;
+
+    public LedgerChangeResponse(OutboxEntry entry) {
+        var txnGroup = entry.getTxnGroup();
+        this.seq = entry.getSeq();
+        this.txnGroupId = txnGroup.getId();
+        this.txnUUID = txnGroup.getTxnUUID();
+        this.type = txnGroup.getType();
+        this.amount = txnGroup.getAmount();
+        this.currencyCode = txnGroup.getCurrencyCode();
+        this.payerAccountNumber = txnGroup.getPayerAccountNumber();
+        this.receiverAccountNumber = txnGroup.getReceiverAccountNumber();
+        this.createdAt = txnGroup.getCreatedAt().toString();
+        this.legs = entry.getTxns().stream().map(Leg::new).collect(Collectors.toList());
+    }
+
+    public long getSeq() {
+        return seq;
+    }
+
+    public Long getTxnGroupId() {
+        return txnGroupId;
+    }
+
+    public UUID getTxnUUID() {
+        return txnUUID;
+    }
+
+    public TxnType getType() {
+        return type;
+    }
+
+    public BigDecimal getAmount() {
+        return amount;
+    }
+
+    public String getCurrencyCode() {
+        return currencyCode;
+    }
+
+    public String getPayerAccountNumber() {
+        return payerAccountNumber;
+    }
+
+    public String getReceiverAccountNumber() {
+        return receiverAccountNumber;
+    }
+
+    public String getCreatedAt() {
+        return createdAt;
+    }
+
+    public List<Leg> getLegs() {
+        return legs;
+    }
+
+    public static class Leg {
+
+        private final Long txnId;
+        private final Long accountId;
+        private final Long linkingTxnId;
+        private final TxnSpendingType spendingType;
+        private final BigDecimal amount;
+
+        public Leg(Txn txn) {
+            this.txnId = txn.getId();
+            this.accountId = txn.getAccountId();
+            this.linkingTxnId = txn.getLinkingTxnId();
+            this.spendingType = txn.getSpendingType();
+            this.amount = txn.getAmount();
+        }
+
+        public Long getTxnId() {
+            return txnId;
+        }
+
+        public Long getAccountId() {
+            return accountId;
+        }
+
+        public Long getLinkingTxnId() {
+            return linkingTxnId;
+        }
+
+        public TxnSpendingType getSpendingType() {
+            return spendingType;
+        }
+
+        public BigDecimal getAmount() {
+            return amount;
+        }
+    }
+}
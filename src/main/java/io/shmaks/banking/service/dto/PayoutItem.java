@@ -0,0 +1,70 @@
+package io.shmaks.banking.service.dto;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import org.springframework.validation.annotation.Validated;
+
+import javax.validation.constraints.NotBlank;
+import javax.validation.constraints.NotNull;
+import javax.validation.constraints.Positive;
+import javax.validation.constraints.Size;
+import java.math.BigDecimal;
+import java.util.UUID;
+
+/**
+ * Transfer of a payout to one receiver, its txn UUID plays the same role as in PUT /transfer/{txnUUID}
+ */
+@Validated
+public class PayoutItem {
+
+    @NotNull
+    private final UUID txnUUID;
+
+    @NotBlank
+    private final String receiverAccountNumber;
+
+    @Positive
+    @NotNull
+    private final BigDecimal amount;
+
+    @Size(max = 256)
+    private final String comment;
+
+    @JsonCreator
+    public PayoutItem(
+            @JsonProperty("txnUUID") UUID txnUUID,
+            @JsonProperty("receiverAccountNumber") String receiverAccountNumber,
+            @JsonProperty("amount") BigDecimal amount,
+            @JsonProperty("comment") String comment) {
+        this.txnUUID = txnUUID;
+        this.receiverAccountNumber = receiverAccountNumber;
+        this.amount = amount;
+        this.comment = comment;
+    }
+
+    public UUID getTxnUUID() {
+        return txnUUID;
+    }
+
+    public String getReceiverAccountNumber() {
+        return receiverAccountNumber;
+    }
+
+    public BigDecimal getAmount() {
+        return amount;
+    }
+
+    public String getComment() {
+        return comment;
+    }
+
+    @Override
+    public String toString() {
+        return "PayoutItem{" +
+                "txnUUID=" + txnUUID +
+                ", receiverAccountNumber='" + receiverAccountNumber + '\'' +
+                ", amount=" + amount +
+                ", comment='" + comment + '\'' +
+                '}';
+    }
+}
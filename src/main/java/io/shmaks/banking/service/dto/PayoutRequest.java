@@ -0,0 +1,46 @@
+package io.shmaks.banking.service.dto;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import org.springframework.validation.annotation.Validated;
+
+import javax.validation.Valid;
+import javax.validation.constraints.NotBlank;
+import javax.validation.constraints.NotEmpty;
+import javax.validation.constraints.Size;
+import java.util.List;
+
+@Validated
+public class PayoutRequest {
+
+    @NotBlank
+    private final String payerAccountNumber;
+
+    @NotEmpty
+    @Size(max = 10000)
+    private final List<@Valid PayoutItem> payouts;
+
+    @JsonCreator
+    public PayoutRequest(
+            @JsonProperty("payerAccountNumber") String payerAccountNumber,
+            @JsonProperty("payouts") List<PayoutItem> payouts) {
+        this.payerAccountNumber = payerAccountNumber;
+        this.payouts = payouts;
+    }
+
+    public String getPayerAccountNumber() {
+        return payerAccountNumber;
+    }
+
+    public List<PayoutItem> getPayouts() {
+        return payouts;
+    }
+
+    @Override
+    public String toString() {
+        return "PayoutRequest{" +
+                "payerAccountNumber='" + payerAccountNumber + '\'' +
+                ", payouts=" + payouts.size() +
+                '}';
+    }
+}
@@ -0,0 +1,37 @@
+package io.shmaks.banking.service.dto;
+
+import java.util.List;
+
+/**
+ * Node of the account state tree with hashes of its children, none for a bucket
+ */
+public class StateHashResponse {
+
+    private final int level;
+    private final int index;
+    private final String hash;
+    private final List<String> children;
+
+    public StateHashResponse(int level, int index, String hash, List<String> children) {
+        this.level = level;
+        this.index = index;
+        this.hash = hash;
+        this.children = children;
+    }
+
+    public int getLevel() {
+        return level;
+    }
+
+    public int getIndex() {
+        return index;
+    }
+
+    public String getHash() {
+        return hash;
+    }
+
+    public List<String> getChildren() {
+        return children;
+    }
+}
@@ -1,8 +1,10 @@
 package io.shmaks.banking.service.dto;
 
+import com.fasterxml.jackson.annotation.JsonFormat;
 import io.shmaks.banking.model.*;
 
 import java.math.BigDecimal;
+import java.time.Instant;
 import java.util.Objects;
 
 public class TxnResult {
@@ -12,7 +14,7 @@ public class TxnResult {
     private BigDecimal amount;
     private String currencyCode;
     private TxnStatus status;
-    private String createdAt;
+    private Instant createdAt;
 
     public TxnResult(Txn txn, Account account) {
         this.txnId = txn.getId();
@@ -20,7 +22,7 @@ public class TxnResult {
         this.amount = txn.getAmount();
         this.currencyCode = account.getCurrencyCode();
         this.status = txn.getStatus();
-        this.createdAt = txn.getCreatedAt().toString();
+        this.createdAt = txn.getCreatedAt();
     }
 
     public Long getTxnId() {
@@ -63,11 +65,13 @@ public class TxnResult {
         this.status = status;
     }
 
-    public String getCreatedAt() {
+    // ISO-8601 whatever the mapper's default for dates is
+    @JsonFormat(shape = JsonFormat.Shape.STRING)
+    public Instant getCreatedAt() {
         return createdAt;
     }
 
-    public void setCreatedAt(String createdAt) {
+    public void setCreatedAt(Instant createdAt) {
         this.createdAt = createdAt;
     }
 
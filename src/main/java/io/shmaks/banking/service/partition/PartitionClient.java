@@ -0,0 +1,180 @@
+package io.shmaks.banking.service.partition;
+
+import io.shmaks.banking.config.SampleAppStorageProps;
+import io.shmaks.banking.service.BusinessLogicError;
+import io.shmaks.banking.service.RetryLaterException;
+import io.shmaks.banking.service.dto.AccountResponse;
+import io.shmaks.banking.service.dto.CreditRequest;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.reactive.function.BodyInserters;
+import org.springframework.web.reactive.function.client.ClientResponse;
+import org.springframework.web.reactive.function.client.WebClient;
+import org.springframework.web.server.ResponseStatusException;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.Base64;
+import java.util.List;
+import java.util.UUID;
+import java.util.function.Function;
+
+/**
+ * Requests of a node to the others. Internal ones are authenticated by the shared secret and sent as the admin,
+ * forwarded ones keep the credentials of the client. A node not responding in time is reported as
+ * {@link RetryLaterException}, the request may have been executed by it though.
+ */
+public class PartitionClient {
+
+    private static final Logger log = LoggerFactory.getLogger(PartitionClient.class);
+
+    public static final String SECRET_HEADER = "X-Partition-Secret";
+    /**
+     * Set on requests sent by a node, they are served by the node they're sent to without routing them further
+     */
+    public static final String ROUTED_HEADER = "X-Partition-Routed";
+
+    private static final ParameterizedTypeReference<List<AccountResponse>> ACCOUNT_LIST =
+            new ParameterizedTypeReference<>() {};
+
+    private final PartitionMap partitionMap;
+    private final WebClient webClient;
+    private final String secret;
+    private final String adminAuthorization;
+    private final Duration timeout;
+
+    public PartitionClient(
+            PartitionMap partitionMap,
+            WebClient.Builder webClientBuilder,
+            SampleAppStorageProps.Partitioning props,
+            String adminClientId,
+            String admin) {
+        this.partitionMap = partitionMap;
+        this.webClient = webClientBuilder.build();
+        this.secret = props.getSecret();
+        this.adminAuthorization = "Basic " + Base64.getEncoder().encodeToString((adminClientId + ":" + admin).getBytes());
+        this.timeout = props.getTimeout();
+    }
+
+    public PartitionMap getPartitionMap() {
+        return partitionMap;
+    }
+
+    /**
+     * @return user account owned by another node, empty if there is no such account
+     */
+    public Mono<AccountResponse> findAccount(String accountNumber) {
+        var node = partitionMap.getNode(partitionMap.ownerOf(accountNumber));
+        return internal(webClient.get().uri(node.getUrl() + "/internal/partition/accounts/{number}", accountNumber))
+                .exchangeToMono(response -> {
+                    if (response.statusCode() == HttpStatus.NOT_FOUND) {
+                        return response.releaseBody().then(Mono.empty());
+                    }
+                    if (response.statusCode().isError()) {
+                        return failed(node, response);
+                    }
+                    return response.bodyToMono(AccountResponse.class);
+                })
+                .timeout(timeout)
+                .onErrorMap(e -> !(e instanceof RetryLaterException), e -> unavailable(node, e));
+    }
+
+    /**
+     * Second phase of a transfer reserved on this node, the receiver's node credits it at most once per txn.
+     * Rejection by it is reported as {@link BusinessLogicError}.
+     */
+    public Mono<Void> credit(UUID txnUUID, CreditRequest request) {
+        var node = partitionMap.getNode(partitionMap.ownerOf(request.getReceiverAccountNumber()));
+        return internal(webClient.put().uri(node.getUrl() + "/internal/partition/credit/{txnUUID}", txnUUID))
+                .bodyValue(request)
+                .exchangeToMono(response -> {
+                    if (response.statusCode().is4xxClientError()) {
+                        return response.bodyToMono(String.class)
+                                .defaultIfEmpty(response.statusCode().toString())
+                                .flatMap(body -> Mono.<Void>error(
+                                        new BusinessLogicError("rejected by node " + node.getId() + ": " + body)
+                                ));
+                    }
+                    if (response.statusCode().isError()) {
+                        return failed(node, response);
+                    }
+                    return response.releaseBody();
+                })
+                .timeout(timeout)
+                .onErrorMap(e -> !(e instanceof RetryLaterException || e instanceof BusinessLogicError),
+                        e -> unavailable(node, e));
+    }
+
+    /**
+     * Passes a request of a client to the node owning the data, the handler gets its response before it's released
+     */
+    public <T> Mono<T> forward(
+            int nodeId, HttpMethod method, String pathAndQuery, HttpHeaders headers, Flux<DataBuffer> body,
+            Function<ClientResponse, Mono<T>> responseHandler) {
+        var node = partitionMap.getNode(nodeId);
+        return webClient.method(method)
+                .uri(node.getUrl() + pathAndQuery)
+                .headers(target -> {
+                    target.addAll(headers);
+                    target.remove(HttpHeaders.HOST);
+                    target.remove(HttpHeaders.CONTENT_LENGTH);
+                    target.set(ROUTED_HEADER, "true");
+                })
+                .body(BodyInserters.fromDataBuffers(body))
+                .exchangeToMono(responseHandler)
+                .timeout(timeout)
+                .onErrorMap(e -> unavailable(node, e));
+    }
+
+    /**
+     * Reads a page of accounts of a node, it's a part of the page merged from all nodes
+     */
+    public Mono<List<AccountResponse>> fetchAccounts(int nodeId, String pathAndQuery, String authorization) {
+        var node = partitionMap.getNode(nodeId);
+        return webClient.get()
+                .uri(node.getUrl() + pathAndQuery)
+                .header(HttpHeaders.AUTHORIZATION, authorization)
+                .header(ROUTED_HEADER, "true")
+                .exchangeToMono(response -> {
+                    if (response.statusCode().is4xxClientError()) {
+                        // the same request is rejected by every node
+                        return response.releaseBody().then(Mono.error(new ResponseStatusException(response.statusCode())));
+                    }
+                    if (response.statusCode().isError()) {
+                        return failed(node, response);
+                    }
+                    return response.bodyToMono(ACCOUNT_LIST);
+                })
+                .timeout(timeout)
+                .onErrorMap(e -> !(e instanceof RetryLaterException || e instanceof ResponseStatusException),
+                        e -> unavailable(node, e));
+    }
+
+    private WebClient.RequestHeadersSpec<?> internal(WebClient.RequestHeadersSpec<?> spec) {
+        return spec.header(SECRET_HEADER, secret)
+                .header(ROUTED_HEADER, "true")
+                .header(HttpHeaders.AUTHORIZATION, adminAuthorization);
+    }
+
+    private WebClient.RequestBodySpec internal(WebClient.RequestBodySpec spec) {
+        return spec.header(SECRET_HEADER, secret)
+                .header(ROUTED_HEADER, "true")
+                .header(HttpHeaders.AUTHORIZATION, adminAuthorization);
+    }
+
+    private static <T> Mono<T> failed(SampleAppStorageProps.Node node, ClientResponse response) {
+        log.warn("partitioning: node {} responded with {}", node.getId(), response.statusCode());
+        return response.releaseBody().then(Mono.error(new RetryLaterException()));
+    }
+
+    private static RetryLaterException unavailable(SampleAppStorageProps.Node node, Throwable e) {
+        log.warn("partitioning: node {} is unavailable: {}", node.getId(), e.toString());
+        return new RetryLaterException();
+    }
+}
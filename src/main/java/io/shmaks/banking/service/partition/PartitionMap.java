@@ -0,0 +1,66 @@
+package io.shmaks.banking.service.partition;
+
+import io.shmaks.banking.config.SampleAppStorageProps;
+
+import java.util.List;
+
+/**
+ * Which node owns an account. Hash of the account number is split into equal ranges, one per node in the order
+ * they're configured. Ids of accounts created by a node start from its id shifted by {@link #ID_BITS}, so the owner
+ * of an id is known without a lookup.
+ */
+public class PartitionMap {
+
+    public static final int ID_BITS = 40;
+
+    private final int nodeId;
+    private final List<SampleAppStorageProps.Node> nodes;
+
+    public PartitionMap(SampleAppStorageProps.Partitioning props) {
+        this.nodeId = props.getNodeId();
+        this.nodes = props.getNodes();
+        if (nodes.stream().noneMatch(node -> node.getId() == nodeId)) {
+            throw new IllegalArgumentException("Node " + nodeId + " isn't among the nodes " + nodes);
+        }
+    }
+
+    public int getNodeId() {
+        return nodeId;
+    }
+
+    public List<SampleAppStorageProps.Node> getNodes() {
+        return nodes;
+    }
+
+    public SampleAppStorageProps.Node getNode(int id) {
+        return nodes.stream()
+                .filter(node -> node.getId() == id)
+                .findFirst()
+                .orElseThrow(() -> new IllegalArgumentException("No node " + id));
+    }
+
+    public int ownerOf(String accountNumber) {
+        // String.hashCode is the same in every JVM, the mix spreads sequential numbers over the ranges
+        var hash = (accountNumber.hashCode() * 0x9E3779B9L) & 0xFFFFFFFFL;
+        return nodes.get((int) ((hash * nodes.size()) >>> 32)).getId();
+    }
+
+    public boolean isLocal(String accountNumber) {
+        return ownerOf(accountNumber) == nodeId;
+    }
+
+    /**
+     * @return owner of the account id, 0 if it isn't created by any node
+     */
+    public int ownerOfAccountId(long accountId) {
+        var owner = (int) (accountId >>> ID_BITS);
+        return nodes.stream().anyMatch(node -> node.getId() == owner) ? owner : 0;
+    }
+
+    /**
+     * @return first id of accounts created by this node
+     */
+    public long firstAccountId() {
+        return (long) nodeId << ID_BITS;
+    }
+}
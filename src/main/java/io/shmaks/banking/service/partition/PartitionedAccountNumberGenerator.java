@@ -0,0 +1,47 @@
+package io.shmaks.banking.service.partition;
+
+import io.shmaks.banking.service.AccountNumberGenerator;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Issues only numbers owned by this node, so an account is created where it's going to be served
+ */
+public class PartitionedAccountNumberGenerator implements AccountNumberGenerator {
+
+    private final AccountNumberGenerator generator;
+    private final PartitionMap partitionMap;
+
+    public PartitionedAccountNumberGenerator(AccountNumberGenerator generator, PartitionMap partitionMap) {
+        this.generator = generator;
+        this.partitionMap = partitionMap;
+    }
+
+    @Override
+    public String nextNumber() {
+        String number;
+        do {
+            number = generator.nextNumber();
+        } while (!partitionMap.isLocal(number));
+        return number;
+    }
+
+    @Override
+    public List<String> nextNumbers(int count) {
+        var numbers = new ArrayList<String>(count);
+        while (numbers.size() < count) {
+            for (var number : generator.nextNumbers(count - numbers.size())) {
+                if (partitionMap.isLocal(number)) {
+                    numbers.add(number);
+                }
+            }
+        }
+        return numbers;
+    }
+
+    @Override
+    public void advancePast(String issuedNumber) {
+        generator.advancePast(issuedNumber);
+    }
+}
@@ -0,0 +1,91 @@
+package io.shmaks.banking.service.partition;
+
+import io.shmaks.banking.config.SampleAppStorageProps;
+import io.shmaks.banking.model.TxnType;
+import io.shmaks.banking.repo.InMemoryTxnGroupRepo;
+import io.shmaks.banking.service.BusinessLogicError;
+import io.shmaks.banking.service.RetryLaterException;
+import io.shmaks.banking.service.TransferService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Completes transfers reserved on this node, whose receiver's node didn't respond. Which of the transfers reserved
+ * before restart are credited isn't known, so all of them within the recovery window are retried, crediting is
+ * idempotent.
+ */
+public class PendingTransfersResolver {
+
+    private static final Logger log = LoggerFactory.getLogger(PendingTransfersResolver.class);
+
+    private final TransferService transferService;
+    private final InMemoryTxnGroupRepo txnGroupRepo;
+    private final PartitionMap partitionMap;
+    private final SampleAppStorageProps.Partitioning props;
+
+    private ScheduledExecutorService executor;
+
+    public PendingTransfersResolver(
+            TransferService transferService,
+            InMemoryTxnGroupRepo txnGroupRepo,
+            PartitionMap partitionMap,
+            SampleAppStorageProps.Partitioning props) {
+        this.transferService = transferService;
+        this.txnGroupRepo = txnGroupRepo;
+        this.partitionMap = partitionMap;
+        this.props = props;
+    }
+
+    public void start() {
+        var since = Instant.now().minus(props.getRecoveryWindow());
+        txnGroupRepo.forEachTxnGroup(group -> {
+            if (group.getType() == TxnType.TRANSFER && group.getCreatedAt().isAfter(since) &&
+                    partitionMap.isLocal(group.getPayerAccountNumber()) &&
+                    !partitionMap.isLocal(group.getReceiverAccountNumber())) {
+                transferService.addPendingCredit(group.getTxnUUID());
+            }
+        });
+        log.info("pending transfers: recovered={}", transferService.getPendingCredits().size());
+
+        executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            var thread = new Thread(runnable, "pending-transfers-resolver");
+            thread.setDaemon(true);
+            return thread;
+        });
+        var intervalMs = props.getRetryInterval().toMillis();
+        executor.scheduleWithFixedDelay(this::resolve, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    public void stop() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    public int resolve() {
+        int completed = 0;
+        for (var txnUUID : List.copyOf(transferService.getPendingCredits())) {
+            try {
+                transferService.completeTransfer(txnUUID).block();
+                completed++;
+            } catch (RetryLaterException e) {
+                log.debug("pending transfer {} is still not credited", txnUUID);
+            } catch (BusinessLogicError e) {
+                log.info("pending transfer {} is reversed: {}", txnUUID, e.getMessage());
+                completed++;
+            } catch (Exception e) {
+                log.error("pending transfer {} failed", txnUUID, e);
+            }
+        }
+        if (completed > 0) {
+            log.info("pending transfers: completed={}, left={}", completed, transferService.getPendingCredits().size());
+        }
+        return completed;
+    }
+}
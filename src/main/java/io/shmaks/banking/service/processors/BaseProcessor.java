@@ -8,6 +8,8 @@ import io.shmaks.banking.service.dto.MoneyRequest;
 import reactor.core.publisher.Mono;
 
 import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.UUID;
 
 import static io.shmaks.banking.service.bookkeeping.OrgAccountsBootstrapper.ORG_ID;
@@ -34,9 +36,22 @@ abstract class BaseProcessor {
                 );
     }
 
+    /**
+     * A pair of legs moving money from the credit account to the deposit one
+     */
+    static class Posting {
+        final Txn depositTxn;
+        final Txn creditTxn;
+
+        Posting(Txn depositTxn, Txn creditTxn) {
+            this.depositTxn = depositTxn;
+            this.creditTxn = creditTxn;
+        }
+    }
+
     @SuppressWarnings("DuplicatedCode")
-    Mono<Void> performTransfer(
-            TxnGroup group, TxnSpendingType spendingType,
+    Posting posting(
+            TxnSpendingType spendingType,
             Account depositAccount, Account creditAccount,
             BigDecimal depositAmount, BigDecimal creditAmount,
             String depositComment, String creditComment
@@ -47,8 +62,6 @@ abstract class BaseProcessor {
         depositTxn.setSpendingType(spendingType);
         depositTxn.setDetails(depositComment);
         depositTxn.setStatus(TxnStatus.SUCCESS);
-        depositTxn.setTxnGroupId(group.getId());
-        depositTxn.setCreatedAt(group.getCreatedAt());
 
         var creditTxn = new Txn();
         creditTxn.setAccountId(creditAccount.getId());
@@ -56,21 +69,34 @@ abstract class BaseProcessor {
         creditTxn.setSpendingType(spendingType);
         creditTxn.setDetails(creditComment);
         creditTxn.setStatus(TxnStatus.SUCCESS);
-        creditTxn.setTxnGroupId(group.getId());
-        creditTxn.setCreatedAt(group.getCreatedAt());
 
-        return Mono.zip(
-                        txnRepo.create(depositTxn), txnRepo.create(creditTxn)
-                )
-                .flatMap(tuple -> Mono.zip(
-                        txnRepo.link(tuple.getT1(), tuple.getT2()),
-                        accountRepo.updateBalance(depositAccount.getId(), tuple.getT1().getId(), depositAmount),
-                        accountRepo.updateBalance(creditAccount.getId(), tuple.getT2().getId(), creditAmount)
-                ))
-                .then();
+        return new Posting(depositTxn, creditTxn);
+    }
+
+    /**
+     * Creates all legs of the group in one go and applies them to balances, summed up per account
+     */
+    Mono<Void> performTransfers(TxnGroup group, Posting... postings) {
+        var txns = new ArrayList<Txn>(postings.length * 2);
+        for (var posting : postings) {
+            for (var txn : List.of(posting.depositTxn, posting.creditTxn)) {
+                txn.setTxnGroupId(group.getId());
+                txn.setCreatedAt(group.getCreatedAt());
+                txns.add(txn);
+            }
+        }
+        return txnRepo.createPairs(txns)
+                .flatMap(created -> accountRepo.updateBalances(AccountRepo.BalanceUpdate.of(created)));
     }
 
     Mono<TxnGroup> createGroup(MoneyRequest request, UUID txnUUID, TxnType type, String currencyCode) {
+        return mergeGroup(request, txnUUID, type, currencyCode).map(TxnGroupRepo.CreationResult::getTxnGroup);
+    }
+
+    /**
+     * @return the new group, or the one already created under the txn UUID
+     */
+    Mono<TxnGroupRepo.CreationResult> mergeGroup(MoneyRequest request, UUID txnUUID, TxnType type, String currencyCode) {
         var txnGroup = new TxnGroup();
         txnGroup.setTxnUUID(txnUUID);
         txnGroup.setAmount(request.getAmount());
@@ -79,6 +105,6 @@ abstract class BaseProcessor {
         txnGroup.setReceiverAccountNumber(request.getReceiverAccountNumber());
         txnGroup.setPayerAccountNumber(request.getPayerAccountNumber());
         txnGroup.setType(type);
-        return txnGroupRepo.merge(txnGroup).map(TxnGroupRepo.CreationResult::getTxnGroup);
+        return txnGroupRepo.merge(txnGroup);
     }
 }
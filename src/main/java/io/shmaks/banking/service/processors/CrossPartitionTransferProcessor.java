@@ -0,0 +1,208 @@
+package io.shmaks.banking.service.processors;
+
+import io.shmaks.banking.model.*;
+import io.shmaks.banking.repo.AccountRepo;
+import io.shmaks.banking.repo.TxnGroupRepo;
+import io.shmaks.banking.repo.TxnRepo;
+import io.shmaks.banking.service.BusinessLogicError;
+import io.shmaks.banking.service.RetryLaterException;
+import io.shmaks.banking.service.dto.CreditRequest;
+import io.shmaks.banking.service.dto.TransferRequest;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Set;
+import java.util.UUID;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Legs of a transfer between accounts owned by different nodes. The payer's node reserves the amount: it's moved
+ * to its base org account in the receiver's currency, exchanged if needed. The receiver's node then credits it from
+ * its own base org account, or the payer's node reverses the reservation if the credit is rejected.
+ */
+public class CrossPartitionTransferProcessor extends BaseProcessor {
+
+    public CrossPartitionTransferProcessor(TxnGroupRepo txnGroupRepo, TxnRepo txnRepo, AccountRepo accountRepo) {
+        super(txnGroupRepo, txnRepo, accountRepo);
+    }
+
+    public Mono<TxnGroup> reserveSimpleTransfer(TransferRequest request, String currency, UUID txnUUID) {
+        return getOrgAccount(currency, AccountType.BASE).flatMap(orgAccount -> {
+            var accountNumbers = Set.of(orgAccount.getAccountNumber(), request.getPayerAccountNumber());
+            return accountRepo.selectForUpdate(accountNumbers)
+                    .flatMap(handle -> Mono.defer(() -> {
+                        var base = handle.getAccounts().get(orgAccount.getAccountNumber());
+                        var payerAccount = handle.getAccounts().get(request.getPayerAccountNumber());
+
+                        if (payerAccount.getBalance().compareTo(request.getAmount()) < 0) {
+                            return Mono.error(new BusinessLogicError("Insufficient funds"));
+                        }
+                        return createGroup(request, txnUUID, TxnType.TRANSFER, payerAccount.getCurrencyCode())
+                                .flatMap(group -> performTransfers(group, posting(
+                                        TxnSpendingType.TRANSFER,
+                                        base, payerAccount,
+                                        request.getAmount(), request.getAmount().negate(),
+                                        baseComment(request, txnUUID),
+                                        "Transfer to " + request.getReceiverAccountNumber() + ": " + request.getComment()
+                                )).thenReturn(group));
+                    }).doFinally(signal -> handle.close()))
+                    .switchIfEmpty(Mono.error(new RetryLaterException()));
+        });
+    }
+
+    public Mono<TxnGroup> reserveCrossCurrencyTransfer(
+            TransferRequest request, String payerCurrency, String receiverCurrency, UUID txnUUID, BigDecimal rate, BigDecimal fee
+    ) {
+        return Mono.zip(
+                getOrgAccount(payerCurrency, AccountType.BASE),
+                getOrgAccount(payerCurrency, AccountType.FEE),
+                getOrgAccount(receiverCurrency, AccountType.BASE)
+        ).flatMap(orgAccounts -> {
+            var accountNumbers = Set.of(
+                    orgAccounts.getT1().getAccountNumber(),
+                    orgAccounts.getT2().getAccountNumber(),
+                    orgAccounts.getT3().getAccountNumber(),
+                    request.getPayerAccountNumber()
+            );
+
+            return accountRepo.selectForUpdate(accountNumbers)
+                    .flatMap(handle -> Mono.defer(() -> {
+                        var baseForPayer = handle.getAccounts().get(orgAccounts.getT1().getAccountNumber());
+                        var feeForPayer = handle.getAccounts().get(orgAccounts.getT2().getAccountNumber());
+                        var baseForReceiver = handle.getAccounts().get(orgAccounts.getT3().getAccountNumber());
+                        var payerAccount = handle.getAccounts().get(request.getPayerAccountNumber());
+
+                        var withdrawnAmount = request.getAmount();
+                        var depositAmount = withdrawnAmount.subtract(fee).multiply(rate);
+
+                        if (payerAccount.getBalance().compareTo(withdrawnAmount) < 0) {
+                            return Mono.error(new BusinessLogicError("Insufficient funds"));
+                        }
+
+                        var exchangeFeeComment = "Exchange fee for transfer#" + txnUUID + " from " +
+                                request.getPayerAccountNumber() + " to " + request.getReceiverAccountNumber();
+                        var exchangeComment = "Currency Exchange for transfer#" + txnUUID + " from " +
+                                request.getPayerAccountNumber() + " to " + request.getReceiverAccountNumber();
+                        var payerComment = "Transfer to " + request.getReceiverAccountNumber() + ": " + request.getComment();
+
+                        return createGroup(request, txnUUID, TxnType.TRANSFER, payerAccount.getCurrencyCode())
+                                .flatMap(group -> performTransfers(
+                                        group,
+                                        posting(
+                                                TxnSpendingType.TRANSFER,
+                                                baseForPayer, payerAccount,
+                                                withdrawnAmount, withdrawnAmount.negate(),
+                                                baseComment(request, txnUUID), payerComment
+                                        ),
+                                        posting(
+                                                TxnSpendingType.EXCHANGE_FEE,
+                                                feeForPayer, baseForPayer,
+                                                fee, fee.negate(),
+                                                exchangeFeeComment, exchangeFeeComment
+                                        ),
+                                        posting(
+                                                TxnSpendingType.EXCHANGE,
+                                                baseForReceiver, baseForPayer,
+                                                depositAmount, withdrawnAmount.subtract(fee).negate(),
+                                                exchangeComment, exchangeComment
+                                        )
+                                ).thenReturn(group));
+                    }).doFinally(signal -> handle.close()))
+                    .switchIfEmpty(Mono.error(new RetryLaterException()));
+        });
+    }
+
+    /**
+     * Credits the amount reserved on the payer's node, it's already in the currency of the receiver's account
+     */
+    public Mono<TxnGroup> credit(CreditRequest request, UUID creditUUID) {
+        var receiverAccNum = request.getReceiverAccountNumber();
+        var receiverAccount = accountRepo.findByAccountNumber(receiverAccNum)
+                .filter(account -> account.getType() == AccountType.USER &&
+                        account.getCurrencyCode().equals(request.getCurrencyCode()))
+                .switchIfEmpty(Mono.error(new BusinessLogicError("Unknown user account " + receiverAccNum)));
+
+        var orgAccount = getOrgAccount(request.getCurrencyCode(), AccountType.BASE)
+                .switchIfEmpty(Mono.error(new BusinessLogicError("Unsupported currency " + request.getCurrencyCode())));
+
+        return Mono.zip(receiverAccount, orgAccount).flatMap(accounts -> {
+            var orgAccountNumber = accounts.getT2().getAccountNumber();
+            return accountRepo.selectForUpdate(Set.of(orgAccountNumber, receiverAccNum))
+                    .flatMap(handle -> Mono.defer(() -> {
+                        var base = handle.getAccounts().get(orgAccountNumber);
+                        var receiver = handle.getAccounts().get(receiverAccNum);
+
+                        // the payer's node may retry the credit while the first request is still being served
+                        return txnGroupRepo.findByUUID(creditUUID).switchIfEmpty(Mono.defer(() ->
+                                createGroup(request, creditUUID, TxnType.TRANSFER, request.getCurrencyCode())
+                                        .flatMap(group -> performTransfers(group, posting(
+                                                TxnSpendingType.TRANSFER,
+                                                receiver, base,
+                                                request.getAmount(), request.getAmount().negate(),
+                                                "Transfer from " + request.getPayerAccountNumber() + ": " + request.getComment(),
+                                                "Transfer#" + creditUUID + " from " + request.getPayerAccountNumber() +
+                                                        " to " + receiverAccNum
+                                        )).thenReturn(group))
+                        ));
+                    }).doFinally(signal -> handle.close()))
+                    .switchIfEmpty(Mono.error(new RetryLaterException()));
+        });
+    }
+
+    /**
+     * Undoes every leg of the reservation with the opposite one, the group has payer & receiver swapped. Reversed
+     * once: a retry finding the reversal's group posted is answered by it.
+     */
+    public Mono<TxnGroup> reverse(TxnGroup reserved, UUID reversalUUID) {
+        return txnRepo.findAllByTxnGroupId(reserved.getId()).flatMap(txns ->
+                Flux.fromIterable(txns)
+                        .flatMap(txn -> accountRepo.findById(txn.getAccountId()))
+                        .collectMap(Account::getId, Function.identity())
+                        .flatMap(accountsById -> {
+                            var accountNumbers = accountsById.values().stream()
+                                    .map(Account::getAccountNumber)
+                                    .collect(Collectors.toSet());
+                            var txnsById = txns.stream().collect(Collectors.toMap(Txn::getId, Function.identity()));
+                            var comment = "Reversal of transfer#" + reserved.getTxnUUID();
+
+                            var postings = new ArrayList<Posting>();
+                            for (var txn : txns) {
+                                var linked = txnsById.get(txn.getLinkingTxnId());
+                                if (txn.getAmount().signum() > 0 && linked != null) {
+                                    postings.add(posting(
+                                            txn.getSpendingType(),
+                                            accountsById.get(linked.getAccountId()), accountsById.get(txn.getAccountId()),
+                                            linked.getAmount().negate(), txn.getAmount().negate(),
+                                            comment, comment
+                                    ));
+                                }
+                            }
+                            var request = new TransferRequest(
+                                    reserved.getReceiverAccountNumber(), reserved.getPayerAccountNumber(),
+                                    reserved.getAmount(), comment
+                            );
+
+                            return accountRepo.selectForUpdate(accountNumbers)
+                                    .flatMap(handle -> mergeGroup(request, reversalUUID, TxnType.TRANSFER, reserved.getCurrencyCode())
+                                            .flatMap(result -> {
+                                                var group = result.getTxnGroup();
+                                                if (!result.isCreatedNew()) {
+                                                    return Mono.just(group); // posted meanwhile by a retry of the reversal
+                                                }
+                                                return performTransfers(group, postings.toArray(Posting[]::new))
+                                                        .thenReturn(group);
+                                            })
+                                            .doFinally(signal -> handle.close()))
+                                    .switchIfEmpty(Mono.error(new RetryLaterException()));
+                        })
+        );
+    }
+
+    private static String baseComment(TransferRequest request, UUID txnUUID) {
+        return "Transfer#" + txnUUID + " from " + request.getPayerAccountNumber() +
+                " to " + request.getReceiverAccountNumber();
+    }
+}
@@ -23,20 +23,18 @@ public class DepositProcessor extends BaseProcessor {
         return getOrgAccount(request.getCurrencyCode(), AccountType.BASE).flatMap(baseAcc -> {
             var accountNumbers = Set.of(baseAcc.getAccountNumber(), request.getAccountNumber());
             return accountRepo.selectForUpdate(accountNumbers)
-                    .flatMap(handle -> {
-                        try (handle) {
-                            var customerAccount = handle.getAccounts().get(request.getAccountNumber());
-                            var orgAccount = handle.getAccounts().get(baseAcc.getAccountNumber());
-                            return createGroup(request, txnUUID, TxnType.DEPOSIT, request.getCurrencyCode())
-                                    .flatMap(group -> performTransfer(
-                                            group, TxnSpendingType.TRANSFER,
-                                            customerAccount, orgAccount,
-                                            request.getAmount(), request.getAmount().negate(),
-                                            "Deposit: " + request.getComment(),
-                                            "Deposit to " + request.getAccountNumber() + ": " + txnUUID
-                                    ).thenReturn(group));
-                        }
-                    })
+                    .flatMap(handle -> Mono.defer(() -> {
+                        var customerAccount = handle.getAccounts().get(request.getAccountNumber());
+                        var orgAccount = handle.getAccounts().get(baseAcc.getAccountNumber());
+                        return createGroup(request, txnUUID, TxnType.DEPOSIT, request.getCurrencyCode())
+                                .flatMap(group -> performTransfers(group, posting(
+                                        TxnSpendingType.TRANSFER,
+                                        customerAccount, orgAccount,
+                                        request.getAmount(), request.getAmount().negate(),
+                                        "Deposit: " + request.getComment(),
+                                        "Deposit to " + request.getAccountNumber() + ": " + txnUUID
+                                )).thenReturn(group));
+                    }).doFinally(signal -> handle.close()))
                     .switchIfEmpty(Mono.error(new RetryLaterException()));
         });
     }
@@ -57,11 +55,9 @@ public class DepositProcessor extends BaseProcessor {
             );
 
             return accountRepo.selectForUpdate(accountNumbers)
-                    .flatMap(handle -> {
-                        try (handle) {
-                            return performMultiCurrencyDeposit(request, txnUUID, rate, fee, orgAccounts, handle);
-                        }
-                    })
+                    .flatMap(handle -> Mono.defer(() ->
+                        performMultiCurrencyDeposit(request, txnUUID, rate, fee, orgAccounts, handle)
+                    ).doFinally(signal -> handle.close()))
                     .switchIfEmpty(Mono.error(new RetryLaterException()));
         });
     }
@@ -84,27 +80,27 @@ public class DepositProcessor extends BaseProcessor {
                 .multiply(rate);
 
         return createGroup(request, txnUUID, TxnType.DEPOSIT, request.getCurrencyCode())
-                .flatMap(group ->
-                        performTransfer(
-                                group, TxnSpendingType.EXCHANGE_FEE,
+                .flatMap(group -> performTransfers(
+                        group,
+                        posting(
+                                TxnSpendingType.EXCHANGE_FEE,
                                 feeForRequest, baseForRequest,
                                 fee, fee.negate(),
                                 exchangeFeeComment, exchangeFeeComment
+                        ),
+                        posting(
+                                TxnSpendingType.EXCHANGE,
+                                baseForUser, baseForRequest,
+                                depositAmount, request.getAmount().subtract(fee).negate(),
+                                exchangeComment, exchangeComment
+                        ),
+                        posting(
+                                TxnSpendingType.TRANSFER,
+                                customerAccount, baseForUser,
+                                depositAmount, depositAmount.negate(),
+                                userComment, baseCreditComment
                         )
-                                .then(performTransfer(
-                                        group, TxnSpendingType.EXCHANGE,
-                                        baseForUser, baseForRequest,
-                                        depositAmount, request.getAmount().subtract(fee).negate(),
-                                        exchangeComment, exchangeComment
-                                ))
-                                .then(performTransfer(
-                                        group, TxnSpendingType.TRANSFER,
-                                        customerAccount, baseForUser,
-                                        depositAmount, depositAmount.negate(),
-                                        userComment, baseCreditComment
-                                ))
-                                .thenReturn(group)
-                );
+                ).thenReturn(group));
     }
 
 }
@@ -33,43 +33,45 @@ public class InternationalTransferProcessor extends BaseProcessor {
             );
 
             return accountRepo.selectForUpdate(accountNumbers)
-                    .flatMap(handle -> {
-                        try (handle) {
-                            var payerAccount = handle.getAccounts().get(request.getPayerAccountNumber());
-                            var baseAccount = handle.getAccounts().get(orgAccounts.getT1().getAccountNumber());
-                            var feeAccount = handle.getAccounts().get(orgAccounts.getT2().getAccountNumber());
-                            var receiverAccount = handle.getAccounts().get(request.getReceiverAccountNumber());
-
-                            if (payerAccount.getBalance().compareTo(request.getAmount()) < 0) {
-                                return Mono.error(new BusinessLogicError("Insufficient funds")); // todo: return failed transaction
-                            }
-
-                            var feeComment = "InterTransfer fee for transfer#" + txnUUID + " from " + request.getPayerAccountNumber() +
-                                    " to " + request.getReceiverAccountNumber();
-                            var payerComment = "International transfer to " + request.getReceiverAccountNumber() + ": " + request.getComment();
-                            var baseComment = "International Transfer#" + txnUUID + " from " + request.getPayerAccountNumber() +
-                                    " to " + request.getReceiverAccountNumber();
-
-                            return createGroup(request, txnUUID, TxnType.INTER_TRANSFER, currency)
-                                    .flatMap(group -> performTransfer(
-                                            group, TxnSpendingType.TRANSFER,
-                                            baseAccount, payerAccount,
-                                            request.getAmount(), request.getAmount().negate(),
-                                            baseComment, payerComment
-                                    ).then(performTransfer(
-                                                    group, TxnSpendingType.FEE,
-                                                    feeAccount, baseAccount,
-                                                    fee, fee.negate(),
-                                                    feeComment, feeComment
-                                            ))
-                                            .then(performTransfer(
-                                                    group, TxnSpendingType.TRANSFER,
-                                                    receiverAccount, baseAccount,
-                                                    request.getAmount().subtract(fee), request.getAmount().subtract(fee).negate(),
-                                                    baseComment, baseComment
-                                            )).thenReturn(group));
+                    .flatMap(handle -> Mono.defer(() -> {
+                        var payerAccount = handle.getAccounts().get(request.getPayerAccountNumber());
+                        var baseAccount = handle.getAccounts().get(orgAccounts.getT1().getAccountNumber());
+                        var feeAccount = handle.getAccounts().get(orgAccounts.getT2().getAccountNumber());
+                        var receiverAccount = handle.getAccounts().get(request.getReceiverAccountNumber());
+
+                        if (payerAccount.getBalance().compareTo(request.getAmount()) < 0) {
+                            return Mono.error(new BusinessLogicError("Insufficient funds")); // todo: return failed transaction
                         }
-                    })
+
+                        var feeComment = "InterTransfer fee for transfer#" + txnUUID + " from " + request.getPayerAccountNumber() +
+                                " to " + request.getReceiverAccountNumber();
+                        var payerComment = "International transfer to " + request.getReceiverAccountNumber() + ": " + request.getComment();
+                        var baseComment = "International Transfer#" + txnUUID + " from " + request.getPayerAccountNumber() +
+                                " to " + request.getReceiverAccountNumber();
+
+                        return createGroup(request, txnUUID, TxnType.INTER_TRANSFER, currency)
+                                .flatMap(group -> performTransfers(
+                                        group,
+                                        posting(
+                                                TxnSpendingType.TRANSFER,
+                                                baseAccount, payerAccount,
+                                                request.getAmount(), request.getAmount().negate(),
+                                                baseComment, payerComment
+                                        ),
+                                        posting(
+                                                TxnSpendingType.FEE,
+                                                feeAccount, baseAccount,
+                                                fee, fee.negate(),
+                                                feeComment, feeComment
+                                        ),
+                                        posting(
+                                                TxnSpendingType.TRANSFER,
+                                                receiverAccount, baseAccount,
+                                                request.getAmount().subtract(fee), request.getAmount().subtract(fee).negate(),
+                                                baseComment, baseComment
+                                        )
+                                ).thenReturn(group));
+                    }).doFinally(signal -> handle.close()))
                     .switchIfEmpty(Mono.error(new RetryLaterException()));
         });
 
@@ -96,11 +98,9 @@ public class InternationalTransferProcessor extends BaseProcessor {
             );
 
             return accountRepo.selectForUpdate(accountNumbers)
-                    .flatMap(handle -> {
-                        try (handle) {
-                            return performCrossCurrencyTransfer(request, txnUUID, rate, exchangeFee, interTransferFee, orgAccounts, handle);
-                        }
-                    })
+                    .flatMap(handle -> Mono.defer(() ->
+                        performCrossCurrencyTransfer(request, txnUUID, rate, exchangeFee, interTransferFee, orgAccounts, handle)
+                    ).doFinally(signal -> handle.close()))
                     .switchIfEmpty(Mono.error(new RetryLaterException()));
         });
     }
@@ -134,39 +134,39 @@ public class InternationalTransferProcessor extends BaseProcessor {
                 " to " + request.getReceiverAccountNumber();
 
         return createGroup(request, txnUUID, TxnType.INTER_TRANSFER, payerAccount.getCurrencyCode())
-                .flatMap(group ->
-                        performTransfer(
-                                group, TxnSpendingType.TRANSFER,
+                .flatMap(group -> performTransfers(
+                        group,
+                        posting(
+                                TxnSpendingType.TRANSFER,
                                 baseForPayer, payerAccount,
                                 withdrawnAmount, withdrawnAmount.negate(),
                                 baseComment, payerComment
+                        ),
+                        posting(
+                                TxnSpendingType.EXCHANGE_FEE,
+                                feeForPayer, baseForPayer,
+                                exchangeFee, exchangeFee.negate(),
+                                exchangeFeeComment, exchangeFeeComment
+                        ),
+                        posting(
+                                TxnSpendingType.EXCHANGE,
+                                baseForReceiver, baseForPayer,
+                                boughtAmount, withdrawnAmount.subtract(exchangeFee).negate(),
+                                exchangeComment, exchangeComment
+                        ),
+                        posting(
+                                TxnSpendingType.FEE,
+                                feeForReceiver, baseForReceiver,
+                                exchangeFee, exchangeFee.negate(),
+                                interTransferFeeComment, interTransferFeeComment
+                        ),
+                        posting(
+                                TxnSpendingType.TRANSFER,
+                                receiverAccount, baseForReceiver,
+                                depositAmount, depositAmount.negate(),
+                                baseComment, baseComment
                         )
-                                .then(performTransfer(
-                                        group, TxnSpendingType.EXCHANGE_FEE,
-                                        feeForPayer, baseForPayer,
-                                        exchangeFee, exchangeFee.negate(),
-                                        exchangeFeeComment, exchangeFeeComment
-                                ))
-                                .then(performTransfer(
-                                        group, TxnSpendingType.EXCHANGE,
-                                        baseForReceiver, baseForPayer,
-                                        boughtAmount, withdrawnAmount.subtract(exchangeFee).negate(),
-                                        exchangeComment, exchangeComment
-                                ))
-                                .then(performTransfer(
-                                        group, TxnSpendingType.FEE,
-                                        feeForReceiver, baseForReceiver,
-                                        exchangeFee, exchangeFee.negate(),
-                                        interTransferFeeComment, interTransferFeeComment
-                                ))
-                                .then(performTransfer(
-                                        group, TxnSpendingType.TRANSFER,
-                                        receiverAccount, baseForReceiver,
-                                        depositAmount, depositAmount.negate(),
-                                        baseComment, baseComment
-                                ))
-                                .thenReturn(group)
-                );
+                ).thenReturn(group));
     }
 
 }
@@ -7,13 +7,22 @@ import io.shmaks.banking.repo.TxnRepo;
 import io.shmaks.banking.service.BusinessLogicError;
 import io.shmaks.banking.service.RetryLaterException;
 import io.shmaks.banking.service.dto.TransferRequest;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 import reactor.util.function.Tuple3;
 
 import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
 
+import static io.shmaks.banking.service.bookkeeping.OrgAccountsBootstrapper.ORG_ID;
+
 public class TransferProcessor extends BaseProcessor {
 
     public TransferProcessor(TxnGroupRepo txnGroupRepo, TxnRepo txnRepo, AccountRepo accountRepo) {
@@ -23,24 +32,18 @@ public class TransferProcessor extends BaseProcessor {
     public Mono<TxnGroup> makeSimpleTransfer(TransferRequest request, UUID txnUUID) {
         var accountNumbers = Set.of(request.getPayerAccountNumber(), request.getReceiverAccountNumber());
         return accountRepo.selectForUpdate(accountNumbers)
-                .flatMap(handle -> {
-                    try (handle) {
-                        var payerAccount = handle.getAccounts().get(request.getPayerAccountNumber());
-                        var receiverAccount = handle.getAccounts().get(request.getReceiverAccountNumber());
+                .flatMap(handle -> Mono.defer(() -> {
+                    var payerAccount = handle.getAccounts().get(request.getPayerAccountNumber());
+                    var receiverAccount = handle.getAccounts().get(request.getReceiverAccountNumber());
 
-                        if (payerAccount.getBalance().compareTo(request.getAmount()) < 0) {
-                            return Mono.error(new BusinessLogicError("Insufficient funds")); // todo: return failed transaction
-                        }
-                        return createGroup(request, txnUUID, TxnType.TRANSFER, payerAccount.getCurrencyCode())
-                                .flatMap(group -> performTransfer(
-                                        group, TxnSpendingType.TRANSFER,
-                                        receiverAccount, payerAccount,
-                                        request.getAmount(), request.getAmount().negate(),
-                                        "Transfer from " + request.getPayerAccountNumber() + ": " + request.getComment(),
-                                        "Transfer to " + request.getReceiverAccountNumber() + ": " + request.getComment()
-                                ).thenReturn(group));
+                    if (payerAccount.getBalance().compareTo(request.getAmount()) < 0) {
+                        return Mono.error(new BusinessLogicError("Insufficient funds")); // todo: return failed transaction
                     }
-                })
+                    return createGroup(request, txnUUID, TxnType.TRANSFER, payerAccount.getCurrencyCode())
+                            .flatMap(group -> performTransfers(
+                                    group, simplePostings(request, payerAccount, receiverAccount)
+                            ).thenReturn(group));
+                }).doFinally(signal -> handle.close()))
                 .switchIfEmpty(Mono.error(new RetryLaterException()));
     }
 
@@ -61,11 +64,9 @@ public class TransferProcessor extends BaseProcessor {
             );
 
             return accountRepo.selectForUpdate(accountNumbers)
-                    .flatMap(handle -> {
-                        try (handle) {
-                            return performCrossCurrencyTransfer(request, txnUUID, rate, fee, orgAccounts, handle);
-                        }
-                    })
+                    .flatMap(handle -> Mono.defer(() ->
+                        performCrossCurrencyTransfer(request, txnUUID, rate, fee, orgAccounts, handle)
+                    ).doFinally(signal -> handle.close()))
                     .switchIfEmpty(Mono.error(new RetryLaterException()));
         });
     }
@@ -79,13 +80,276 @@ public class TransferProcessor extends BaseProcessor {
         var payerAccount = handle.getAccounts().get(request.getPayerAccountNumber());
         var receiverAccount = handle.getAccounts().get(request.getReceiverAccountNumber());
 
-        var withdrawnAmount = request.getAmount();
-        var depositAmount = withdrawnAmount.subtract(fee).multiply(rate);
-
-        if (payerAccount.getBalance().compareTo(withdrawnAmount) < 0) {
+        if (payerAccount.getBalance().compareTo(request.getAmount()) < 0) {
             return Mono.error(new BusinessLogicError("Insufficient funds")); // todo: return failed transaction
         }
 
+        return createGroup(request, txnUUID, TxnType.TRANSFER, payerAccount.getCurrencyCode())
+                .flatMap(group -> performTransfers(group, crossCurrencyPostings(
+                        request, txnUUID, rate, fee, baseForPayer, feeForPayer, baseForReceiver, payerAccount, receiverAccount
+                )).thenReturn(group));
+    }
+
+    /**
+     * A transfer of a batch, priced beforehand: posted with its own group, answered by the group posted before
+     * under its txn UUID, or rejected
+     */
+    public static class BatchTransfer {
+        private final TransferRequest request;
+        private final UUID txnUUID;
+        private final String payerCurrency;
+        private final String receiverCurrency;
+        // exchange rate & fee, null if both accounts are in one currency
+        private final BigDecimal rate;
+        private final BigDecimal fee;
+
+        private final Set<String> accountNumbers = new HashSet<>();
+        private String baseForPayer;
+        private String feeForPayer;
+        private String baseForReceiver;
+
+        private TxnGroup group;
+        private boolean posted;
+        private RuntimeException error;
+
+        public BatchTransfer(
+                TransferRequest request, UUID txnUUID, String payerCurrency, String receiverCurrency,
+                BigDecimal rate, BigDecimal fee) {
+            this.request = request;
+            this.txnUUID = txnUUID;
+            this.payerCurrency = payerCurrency;
+            this.receiverCurrency = receiverCurrency;
+            this.rate = rate;
+            this.fee = fee;
+            accountNumbers.add(request.getPayerAccountNumber());
+            accountNumbers.add(request.getReceiverAccountNumber());
+        }
+
+        public TransferRequest getRequest() {
+            return request;
+        }
+
+        public UUID getTxnUUID() {
+            return txnUUID;
+        }
+
+        public TxnGroup getGroup() {
+            return group;
+        }
+
+        /**
+         * @return whether the group is created by this batch, so it has to be committed
+         */
+        public boolean isPosted() {
+            return posted;
+        }
+
+        public RuntimeException getError() {
+            return error;
+        }
+
+        public void reject(RuntimeException error) {
+            this.error = error;
+        }
+    }
+
+    /**
+     * Splits transfers of a batch into groups sharing accounts, org accounts of exchanges included, so every group
+     * is posted under one lock of its accounts and unrelated groups don't wait for each other. Org accounts are
+     * looked up once for the batch.
+     *
+     * @return groups keeping the order of the batch
+     */
+    public Mono<List<List<BatchTransfer>>> groupByAccounts(List<BatchTransfer> transfers) {
+        return accountRepo.findAllByOwnerIdOrderByAccountNumberAsc(ORG_ID, 10000, null).map(orgAccounts -> {
+            var orgAccountNumbers = new HashMap<String, String>();
+            for (var account : orgAccounts) {
+                orgAccountNumbers.put(account.getType() + ":" + account.getCurrencyCode(), account.getAccountNumber());
+            }
+
+            var parents = new int[transfers.size()];
+            var firstByAccount = new HashMap<String, Integer>();
+            for (int i = 0; i < transfers.size(); i++) {
+                parents[i] = i;
+                var transfer = transfers.get(i);
+                if (transfer.rate != null) {
+                    transfer.baseForPayer = orgAccountNumbers.get(AccountType.BASE + ":" + transfer.payerCurrency);
+                    transfer.feeForPayer = orgAccountNumbers.get(AccountType.FEE + ":" + transfer.payerCurrency);
+                    transfer.baseForReceiver = orgAccountNumbers.get(AccountType.BASE + ":" + transfer.receiverCurrency);
+                    if (transfer.baseForPayer == null || transfer.feeForPayer == null || transfer.baseForReceiver == null) {
+                        transfer.reject(new RetryLaterException());
+                        continue;
+                    }
+                    transfer.accountNumbers.addAll(List.of(
+                            transfer.baseForPayer, transfer.feeForPayer, transfer.baseForReceiver
+                    ));
+                }
+                for (var accountNumber : transfer.accountNumbers) {
+                    var first = firstByAccount.putIfAbsent(accountNumber, i);
+                    if (first != null) {
+                        parents[root(parents, i)] = root(parents, first);
+                    }
+                }
+            }
+
+            var groups = new LinkedHashMap<Integer, List<BatchTransfer>>();
+            for (int i = 0; i < transfers.size(); i++) {
+                groups.computeIfAbsent(root(parents, i), root -> new ArrayList<>()).add(transfers.get(i));
+            }
+            return new ArrayList<>(groups.values());
+        });
+    }
+
+    private static int root(int[] parents, int i) {
+        while (parents[i] != i) {
+            parents[i] = parents[parents[i]];
+            i = parents[i];
+        }
+        return i;
+    }
+
+    /**
+     * Locks all accounts of the transfers once and posts them in order, every one is checked against balances left
+     * by the previous ones. A transfer rejected doesn't stop the following ones; if the accounts can't be locked,
+     * all of them are rejected to be retried.
+     */
+    public Mono<List<BatchTransfer>> makeTransfers(List<BatchTransfer> transfers) {
+        var accountNumbers = new HashSet<String>();
+        transfers.stream().filter(transfer -> transfer.error == null)
+                .forEach(transfer -> accountNumbers.addAll(transfer.accountNumbers));
+        if (accountNumbers.isEmpty()) {
+            return Mono.just(transfers);
+        }
+        return accountRepo.selectForUpdate(accountNumbers)
+                .flatMap(handle -> Mono.defer(() -> {
+                    // balances as of the lock, moved by every transfer posted under it
+                    var balances = new HashMap<Long, BigDecimal>();
+                    handle.getAccounts().values().forEach(account -> balances.put(account.getId(), account.getBalance()));
+                    return Flux.fromIterable(transfers)
+                            .filter(transfer -> transfer.error == null)
+                            .concatMap(transfer -> post(transfer, handle, balances)
+                                    .onErrorResume(BusinessLogicError.class, e -> {
+                                        transfer.reject(e);
+                                        return Mono.empty();
+                                    }))
+                            .then(Mono.just(transfers));
+                }).doFinally(signal -> handle.close()))
+                .switchIfEmpty(Mono.fromSupplier(() -> {
+                    transfers.stream().filter(transfer -> transfer.error == null)
+                            .forEach(transfer -> transfer.reject(new RetryLaterException()));
+                    return transfers;
+                }));
+    }
+
+    /**
+     * Pays transfers of one payer under one lock of the payer's account only. Transfers not posted before are checked
+     * against its balance once, in total, then posted in order, every one with its own group. Receivers are credited
+     * without locks, as a credit can't break a check made under theirs.
+     * <p>
+     * Emits transfers as they're posted; all of them are rejected if the total isn't covered, or to be retried if
+     * the payer's account can't be locked. Callers pass payouts in chunks, so the lock isn't held for long.
+     *
+     * @param receivers accounts of the receivers by number, all of them in the payer's currency
+     */
+    public Flux<BatchTransfer> makePayout(
+            String payerAccountNumber, List<BatchTransfer> transfers, Map<String, Account> receivers) {
+        return accountRepo.selectForUpdate(Set.of(payerAccountNumber))
+                .flatMapMany(handle -> Flux.defer(() -> {
+                    var payerAccount = handle.getAccounts().get(payerAccountNumber);
+                    return Flux.fromIterable(transfers)
+                            .concatMap(transfer -> txnGroupRepo.findByUUID(transfer.txnUUID)
+                                    .doOnNext(existing -> transfer.group = existing))
+                            .then(Mono.fromSupplier(() -> transfers.stream()
+                                    .filter(transfer -> transfer.group == null)
+                                    .map(transfer -> transfer.request.getAmount())
+                                    .reduce(BigDecimal.ZERO, BigDecimal::add)))
+                            .flatMapMany(total -> {
+                                if (payerAccount.getBalance().compareTo(total) < 0) {
+                                    transfers.stream().filter(transfer -> transfer.group == null)
+                                            .forEach(transfer -> transfer.reject(new BusinessLogicError("Insufficient funds")));
+                                    return Flux.fromIterable(transfers);
+                                }
+                                return Flux.fromIterable(transfers).concatMap(transfer -> transfer.group != null
+                                        ? Mono.just(transfer)
+                                        : payOut(transfer, payerAccount, receivers).thenReturn(transfer));
+                            });
+                }).doFinally(signal -> handle.close()))
+                .switchIfEmpty(Flux.defer(() -> {
+                    transfers.forEach(transfer -> transfer.reject(new RetryLaterException()));
+                    return Flux.fromIterable(transfers);
+                }));
+    }
+
+    private Mono<Void> payOut(BatchTransfer transfer, Account payerAccount, Map<String, Account> receivers) {
+        var request = transfer.request;
+        return mergeGroup(request, transfer.txnUUID, TxnType.TRANSFER, payerAccount.getCurrencyCode())
+                .flatMap(result -> {
+                    transfer.group = result.getTxnGroup();
+                    if (!result.isCreatedNew()) {
+                        return Mono.<Void>empty(); // posted meanwhile by a retry of the single transfer
+                    }
+                    transfer.posted = true;
+                    var receiverAccount = receivers.get(request.getReceiverAccountNumber());
+                    return performTransfers(transfer.group, simplePostings(request, payerAccount, receiverAccount));
+                });
+    }
+
+    private Mono<Void> post(BatchTransfer transfer, AccountRepo.LockHandle handle, Map<Long, BigDecimal> balances) {
+        return txnGroupRepo.findByUUID(transfer.txnUUID)
+                .doOnNext(existing -> transfer.group = existing)
+                .hasElement()
+                .flatMap(exists -> exists ? Mono.<Void>empty() : postNew(transfer, handle.getAccounts(), balances));
+    }
+
+    private Mono<Void> postNew(BatchTransfer transfer, Map<String, Account> accounts, Map<Long, BigDecimal> balances) {
+        var request = transfer.request;
+        var payerAccount = accounts.get(request.getPayerAccountNumber());
+        var receiverAccount = accounts.get(request.getReceiverAccountNumber());
+        if (balances.get(payerAccount.getId()).compareTo(request.getAmount()) < 0) {
+            return Mono.error(new BusinessLogicError("Insufficient funds"));
+        }
+        return mergeGroup(request, transfer.txnUUID, TxnType.TRANSFER, payerAccount.getCurrencyCode())
+                .flatMap(result -> {
+                    transfer.group = result.getTxnGroup();
+                    if (!result.isCreatedNew()) {
+                        return Mono.<Void>empty(); // posted meanwhile by a retry of the single transfer
+                    }
+                    transfer.posted = true;
+                    var postings = transfer.rate == null
+                            ? simplePostings(request, payerAccount, receiverAccount)
+                            : crossCurrencyPostings(
+                                    request, transfer.txnUUID, transfer.rate, transfer.fee,
+                                    accounts.get(transfer.baseForPayer), accounts.get(transfer.feeForPayer),
+                                    accounts.get(transfer.baseForReceiver), payerAccount, receiverAccount
+                            );
+                    return performTransfers(transfer.group, postings).doOnSuccess(ignored -> {
+                        for (var posting : postings) {
+                            for (var txn : List.of(posting.depositTxn, posting.creditTxn)) {
+                                balances.merge(txn.getAccountId(), txn.getAmount(), BigDecimal::add);
+                            }
+                        }
+                    });
+                });
+    }
+
+    private Posting[] simplePostings(TransferRequest request, Account payerAccount, Account receiverAccount) {
+        return new Posting[]{posting(
+                TxnSpendingType.TRANSFER,
+                receiverAccount, payerAccount,
+                request.getAmount(), request.getAmount().negate(),
+                "Transfer from " + request.getPayerAccountNumber() + ": " + request.getComment(),
+                "Transfer to " + request.getReceiverAccountNumber() + ": " + request.getComment()
+        )};
+    }
+
+    @SuppressWarnings("DuplicatedCode")
+    private Posting[] crossCurrencyPostings(
+            TransferRequest request, UUID txnUUID, BigDecimal rate, BigDecimal fee,
+            Account baseForPayer, Account feeForPayer, Account baseForReceiver,
+            Account payerAccount, Account receiverAccount) {
+        var withdrawnAmount = request.getAmount();
+        var depositAmount = withdrawnAmount.subtract(fee).multiply(rate);
+
         var exchangeFeeComment = "Exchange fee for transfer#" + txnUUID + " from " + request.getPayerAccountNumber() +
                 " to " + request.getReceiverAccountNumber();
         var exchangeComment = "Currency Exchange for transfer#" + txnUUID + " from " + request.getPayerAccountNumber() +
@@ -95,34 +359,32 @@ public class TransferProcessor extends BaseProcessor {
         var baseComment = "Transfer#" + txnUUID + " from " + request.getPayerAccountNumber() +
                 " to " + request.getReceiverAccountNumber();
 
-        return createGroup(request, txnUUID, TxnType.TRANSFER, payerAccount.getCurrencyCode())
-                .flatMap(group ->
-                        performTransfer(
-                                group, TxnSpendingType.TRANSFER,
-                                baseForPayer, payerAccount,
-                                withdrawnAmount, withdrawnAmount.negate(),
-                                baseComment, payerComment
-                        )
-                                .then(performTransfer(
-                                        group, TxnSpendingType.EXCHANGE_FEE,
-                                        feeForPayer, baseForPayer,
-                                        fee, fee.negate(),
-                                        exchangeFeeComment, exchangeFeeComment
-                                ))
-                                .then(performTransfer(
-                                        group, TxnSpendingType.EXCHANGE,
-                                        baseForReceiver, baseForPayer,
-                                        depositAmount, withdrawnAmount.subtract(fee).negate(),
-                                        exchangeComment, exchangeComment
-                                ))
-                                .then(performTransfer(
-                                        group, TxnSpendingType.TRANSFER,
-                                        receiverAccount, baseForReceiver,
-                                        depositAmount, depositAmount.negate(),
-                                        receiverComment, baseComment
-                                ))
-                                .thenReturn(group)
-                );
+        return new Posting[]{
+                posting(
+                        TxnSpendingType.TRANSFER,
+                        baseForPayer, payerAccount,
+                        withdrawnAmount, withdrawnAmount.negate(),
+                        baseComment, payerComment
+                ),
+                posting(
+                        TxnSpendingType.EXCHANGE_FEE,
+                        feeForPayer, baseForPayer,
+                        fee, fee.negate(),
+                        exchangeFeeComment, exchangeFeeComment
+                ),
+                posting(
+                        TxnSpendingType.EXCHANGE,
+                        baseForReceiver, baseForPayer,
+                        depositAmount, withdrawnAmount.subtract(fee).negate(),
+                        exchangeComment, exchangeComment
+                ),
+                posting(
+                        TxnSpendingType.TRANSFER,
+                        receiverAccount, baseForReceiver,
+                        depositAmount, depositAmount.negate(),
+                        receiverComment, baseComment
+                )
+        };
     }
 
 }
@@ -25,25 +25,23 @@ public class WithdrawalProcessor extends BaseProcessor {
         return getOrgAccount(request.getCurrencyCode(), AccountType.BASE).flatMap(baseAcc -> {
             var accountNumbers = Set.of(baseAcc.getAccountNumber(), request.getAccountNumber());
             return accountRepo.selectForUpdate(accountNumbers)
-                    .flatMap(handle -> {
-                        try (handle) {
-                            var customerAccount = handle.getAccounts().get(request.getAccountNumber());
+                    .flatMap(handle -> Mono.defer(() -> {
+                        var customerAccount = handle.getAccounts().get(request.getAccountNumber());
 
-                            if (customerAccount.getBalance().compareTo(request.getAmount()) < 0) {
-                                return Mono.error(new BusinessLogicError("Insufficient funds")); // todo: return failed transaction
-                            }
-
-                            var orgAccount = handle.getAccounts().get(baseAcc.getAccountNumber());
-                            return createGroup(request, txnUUID, TxnType.WITHDRAWAL, request.getCurrencyCode())
-                                    .flatMap(group -> performTransfer(
-                                            group, TxnSpendingType.TRANSFER,
-                                            orgAccount, customerAccount,
-                                            request.getAmount(), request.getAmount().negate(),
-                                            "Withdrawal: " + request.getComment(),
-                                            "Withdrawal from " + request.getAccountNumber() + ": " + txnUUID
-                                    ).thenReturn(group));
+                        if (customerAccount.getBalance().compareTo(request.getAmount()) < 0) {
+                            return Mono.error(new BusinessLogicError("Insufficient funds")); // todo: return failed transaction
                         }
-                    })
+
+                        var orgAccount = handle.getAccounts().get(baseAcc.getAccountNumber());
+                        return createGroup(request, txnUUID, TxnType.WITHDRAWAL, request.getCurrencyCode())
+                                .flatMap(group -> performTransfers(group, posting(
+                                        TxnSpendingType.TRANSFER,
+                                        orgAccount, customerAccount,
+                                        request.getAmount(), request.getAmount().negate(),
+                                        "Withdrawal: " + request.getComment(),
+                                        "Withdrawal from " + request.getAccountNumber() + ": " + txnUUID
+                                )).thenReturn(group));
+                    }).doFinally(signal -> handle.close()))
                     .switchIfEmpty(Mono.error(new RetryLaterException()));
         });
     }
@@ -64,11 +62,9 @@ public class WithdrawalProcessor extends BaseProcessor {
             );
 
             return accountRepo.selectForUpdate(accountNumbers)
-                    .flatMap(handle -> {
-                        try (handle) {
-                            return performMultiCurrencyWithdrawal(request, txnUUID, rate, fee, orgAccounts, handle);
-                        }
-                    })
+                    .flatMap(handle -> Mono.defer(() ->
+                        performMultiCurrencyWithdrawal(request, txnUUID, rate, fee, orgAccounts, handle)
+                    ).doFinally(signal -> handle.close()))
                     .switchIfEmpty(Mono.error(new RetryLaterException()));
         });
     }
@@ -94,27 +90,27 @@ public class WithdrawalProcessor extends BaseProcessor {
         var baseDebitComment = "Withdrawal from " + request.getAccountNumber() + ": " + txnUUID;
 
         return createGroup(request, txnUUID, TxnType.WITHDRAWAL, request.getCurrencyCode())
-                .flatMap(group ->
-                        performTransfer(
-                                group, TxnSpendingType.TRANSFER,
+                .flatMap(group -> performTransfers(
+                        group,
+                        posting(
+                                TxnSpendingType.TRANSFER,
                                 baseForUser, customerAccount,
                                 withdrawnAmount, withdrawnAmount.negate(),
                                 baseDebitComment, userComment
+                        ),
+                        posting(
+                                TxnSpendingType.EXCHANGE_FEE,
+                                feeForUser, baseForUser,
+                                fee, fee.negate(),
+                                exchangeFeeComment, exchangeFeeComment
+                        ),
+                        posting(
+                                TxnSpendingType.EXCHANGE,
+                                baseForRequest, baseForUser,
+                                request.getAmount(), forExchange.negate(),
+                                exchangeComment, exchangeComment
                         )
-                                .then(performTransfer(
-                                        group, TxnSpendingType.EXCHANGE_FEE,
-                                        feeForUser, baseForUser,
-                                        fee, fee.negate(),
-                                        exchangeFeeComment, exchangeFeeComment
-                                ))
-                                .then(performTransfer(
-                                        group, TxnSpendingType.EXCHANGE,
-                                        baseForRequest, baseForUser,
-                                        request.getAmount(), forExchange.negate(),
-                                        exchangeComment, exchangeComment
-                                ))
-                                .thenReturn(group)
-                );
+                ).thenReturn(group));
     }
 
 }
@@ -0,0 +1,47 @@
+package io.shmaks.banking.service.raft;
+
+import io.shmaks.banking.repo.journal.JournalCodec;
+import io.shmaks.banking.repo.snapshot.WriteEpochs;
+import io.shmaks.banking.service.replication.ReplicaApplier;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.ByteBuffer;
+import java.time.Duration;
+
+/**
+ * In-memory ledger replicated by the raft log, entries are journal records written by the leader
+ */
+public class LedgerStateMachine implements RaftStateMachine {
+
+    private static final Logger log = LoggerFactory.getLogger(LedgerStateMachine.class);
+
+    private final ReplicaApplier applier;
+    private final WriteEpochs writeEpochs;
+    private final Duration drainTimeout;
+
+    public LedgerStateMachine(ReplicaApplier applier, WriteEpochs writeEpochs, Duration drainTimeout) {
+        this.applier = applier;
+        this.writeEpochs = writeEpochs;
+        this.drainTimeout = drainTimeout;
+    }
+
+    @Override
+    public void apply(long index, ByteBuffer payload) {
+        applier.apply(JournalCodec.decode(index, payload));
+    }
+
+    @Override
+    public void skip(long index) {
+        applier.skip(index);
+    }
+
+    @Override
+    public void reset() throws InterruptedException {
+        // writes in flight are rejected by the log, but they may still change the repos before that
+        if (!writeEpochs.advance(drainTimeout)) {
+            log.warn("raft: writes in flight didn't finish in {}, rebuilding anyway", drainTimeout);
+        }
+        applier.reset();
+    }
+}
@@ -0,0 +1,37 @@
+package io.shmaks.banking.service.raft;
+
+import io.shmaks.banking.repo.journal.Journal;
+import io.shmaks.banking.repo.journal.JournalCodec;
+import io.shmaks.banking.repo.journal.JournalRecord;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+/**
+ * Journal of a raft node is the replicated log: a record is durable once it's committed, i.e. written by the
+ * majority of the cluster. Lsn of a record is the index of its log entry.
+ */
+public class RaftJournal implements Journal {
+
+    private final RaftNode node;
+
+    public RaftJournal(RaftNode node) {
+        this.node = node;
+    }
+
+    @Override
+    public Mono<Void> append(JournalRecord record) {
+        return Mono.defer(() -> Mono.fromFuture(node.propose(JournalCodec.encodePayload(record))))
+                .publishOn(Schedulers.parallel()) // don't let callers' continuations run on the apply thread
+                .then();
+    }
+
+    @Override
+    public long getDurableLsn() {
+        return node.getAppliedIndex();
+    }
+
+    @Override
+    public void truncate(long upToLsn) {
+        // log isn't compacted, state is rebuilt from its first entry
+    }
+}
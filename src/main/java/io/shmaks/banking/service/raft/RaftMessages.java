@@ -0,0 +1,155 @@
+package io.shmaks.banking.service.raft;
+
+import io.shmaks.banking.repo.raft.RaftLog;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Messages of the raft protocol. Each one starts with its type (byte), a response has the type of its request.
+ * Requests of a connection are answered in the order they are sent, so the leader doesn't wait for a response
+ * before sending the next batch of entries.
+ */
+final class RaftMessages {
+
+    static final byte REQUEST_VOTE = 1;
+    static final byte APPEND_ENTRIES = 2;
+
+    private RaftMessages() {
+    }
+
+    interface Message {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    static class VoteRequest implements Message {
+        final long term;
+        final int candidateId;
+        final long lastLogIndex;
+        final long lastLogTerm;
+
+        VoteRequest(long term, int candidateId, long lastLogIndex, long lastLogTerm) {
+            this.term = term;
+            this.candidateId = candidateId;
+            this.lastLogIndex = lastLogIndex;
+            this.lastLogTerm = lastLogTerm;
+        }
+
+        @Override
+        public void write(DataOutputStream out) throws IOException {
+            out.writeByte(REQUEST_VOTE);
+            out.writeLong(term);
+            out.writeInt(candidateId);
+            out.writeLong(lastLogIndex);
+            out.writeLong(lastLogTerm);
+        }
+
+        static VoteRequest read(DataInputStream in) throws IOException {
+            return new VoteRequest(in.readLong(), in.readInt(), in.readLong(), in.readLong());
+        }
+    }
+
+    static class VoteResponse implements Message {
+        final long term;
+        final boolean granted;
+
+        VoteResponse(long term, boolean granted) {
+            this.term = term;
+            this.granted = granted;
+        }
+
+        @Override
+        public void write(DataOutputStream out) throws IOException {
+            out.writeByte(REQUEST_VOTE);
+            out.writeLong(term);
+            out.writeBoolean(granted);
+        }
+
+        static VoteResponse read(DataInputStream in) throws IOException {
+            return new VoteResponse(in.readLong(), in.readBoolean());
+        }
+    }
+
+    static class AppendRequest implements Message {
+        final long term;
+        final int leaderId;
+        final long prevLogIndex;
+        final long prevLogTerm;
+        final long leaderCommit;
+        final List<RaftLog.Entry> entries;
+
+        AppendRequest(long term, int leaderId, long prevLogIndex, long prevLogTerm, long leaderCommit, List<RaftLog.Entry> entries) {
+            this.term = term;
+            this.leaderId = leaderId;
+            this.prevLogIndex = prevLogIndex;
+            this.prevLogTerm = prevLogTerm;
+            this.leaderCommit = leaderCommit;
+            this.entries = entries;
+        }
+
+        @Override
+        public void write(DataOutputStream out) throws IOException {
+            out.writeByte(APPEND_ENTRIES);
+            out.writeLong(term);
+            out.writeInt(leaderId);
+            out.writeLong(prevLogIndex);
+            out.writeLong(prevLogTerm);
+            out.writeLong(leaderCommit);
+            out.writeInt(entries.size());
+            for (var entry : entries) {
+                var payload = entry.getPayload();
+                out.writeLong(entry.getTerm());
+                out.writeInt(payload.remaining());
+                out.write(payload.array(), payload.arrayOffset() + payload.position(), payload.remaining());
+            }
+        }
+
+        static AppendRequest read(DataInputStream in) throws IOException {
+            var term = in.readLong();
+            var leaderId = in.readInt();
+            var prevLogIndex = in.readLong();
+            var prevLogTerm = in.readLong();
+            var leaderCommit = in.readLong();
+            var count = in.readInt();
+            var entries = new ArrayList<RaftLog.Entry>(count);
+            for (int i = 0; i < count; i++) {
+                var entryTerm = in.readLong();
+                var payload = new byte[in.readInt()];
+                in.readFully(payload);
+                entries.add(new RaftLog.Entry(prevLogIndex + i + 1, entryTerm, ByteBuffer.wrap(payload)));
+            }
+            return new AppendRequest(term, leaderId, prevLogIndex, prevLogTerm, leaderCommit, entries);
+        }
+    }
+
+    static class AppendResponse implements Message {
+        final long term;
+        final boolean success;
+        /**
+         * Last index matching the leader's log on success, otherwise index the leader should resend the log from
+         */
+        final long index;
+
+        AppendResponse(long term, boolean success, long index) {
+            this.term = term;
+            this.success = success;
+            this.index = index;
+        }
+
+        @Override
+        public void write(DataOutputStream out) throws IOException {
+            out.writeByte(APPEND_ENTRIES);
+            out.writeLong(term);
+            out.writeBoolean(success);
+            out.writeLong(index);
+        }
+
+        static AppendResponse read(DataInputStream in) throws IOException {
+            return new AppendResponse(in.readLong(), in.readBoolean(), in.readLong());
+        }
+    }
+}
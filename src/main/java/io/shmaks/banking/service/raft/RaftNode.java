@@ -0,0 +1,737 @@
+package io.shmaks.banking.service.raft;
+
+import io.shmaks.banking.config.SampleAppStorageProps;
+import io.shmaks.banking.repo.raft.RaftLog;
+import io.shmaks.banking.service.RetryLaterException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+/**
+ * A member of the raft cluster the ledger is replicated by.
+ * <p>
+ * Leader executes writes against its in-memory ledger as a single node does and appends their journal records to
+ * the raft log, a write is acknowledged once its entry is committed, i.e. durable on the majority. Proposals are
+ * appended by a single thread with group commit: everything queued is written & synced at once and shipped to
+ * followers without waiting for the leader's own sync. Every follower gets batches of entries by its own connection,
+ * several of them in flight. Committed entries of other leaders are applied one by one in the order of the log.
+ * <p>
+ * Leader accepts writes only after it has applied everything committed before its term. If it loses leadership
+ * with writes not committed yet, its in-memory state may have changes the cluster doesn't, so the state is dropped
+ * and rebuilt from the log.
+ */
+public class RaftNode {
+
+    public enum Role {FOLLOWER, CANDIDATE, LEADER}
+
+    private static class Proposal {
+        private final ByteBuffer payload;
+        private final CompletableFuture<Long> done = new CompletableFuture<>();
+
+        Proposal(ByteBuffer payload) {
+            this.payload = payload;
+        }
+    }
+
+    private static final Logger log = LoggerFactory.getLogger(RaftNode.class);
+
+    private static final ByteBuffer NO_OP = ByteBuffer.allocate(0);
+
+    private final SampleAppStorageProps.Raft props;
+    private final SampleAppStorageProps.Member self;
+    private final RaftLog raftLog;
+    private final RaftStateMachine stateMachine;
+    private final List<RaftPeer> peers;
+    private final int quorum;
+    private final long electionTimeoutNanos;
+    private final long heartbeatNanos;
+
+    private final BlockingQueue<Proposal> proposals = new LinkedBlockingQueue<>();
+    private final TreeMap<Long, CompletableFuture<Long>> pending = new TreeMap<>();
+    private final List<Runnable> leaderReadyListeners = new CopyOnWriteArrayList<>();
+    private final List<Thread> threads = new ArrayList<>();
+    private final Set<Socket> connections = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger connectionNumber = new AtomicInteger();
+
+    private ServerSocket serverSocket;
+    private volatile boolean running;
+
+    // guarded by this
+    private volatile Role role = Role.FOLLOWER;
+    private volatile int leaderId;
+    private volatile long commitIndex;
+    private volatile long leaderStartIndex = Long.MAX_VALUE;
+    private long durableIndex;
+    private long electionDeadline;
+    private int votes;
+    private boolean leaderReadyNotified;
+    private volatile boolean rebuildRequested;
+    private volatile boolean rebuilding;
+    private long rebuildTarget;
+
+    private volatile long appliedIndex;
+
+    public RaftNode(RaftLog raftLog, RaftStateMachine stateMachine, SampleAppStorageProps.Raft props) {
+        this.props = props;
+        this.self = props.getMember(props.getNodeId());
+        this.raftLog = raftLog;
+        this.stateMachine = stateMachine;
+        this.peers = props.getMembers().stream()
+                .filter(member -> member.getId() != self.getId())
+                .map(member -> new RaftPeer(this, member))
+                .collect(Collectors.toList());
+        this.quorum = props.getMembers().size() / 2 + 1;
+        this.electionTimeoutNanos = props.getElectionTimeout().toNanos();
+        this.heartbeatNanos = props.getHeartbeatInterval().toNanos();
+    }
+
+    public void start() throws IOException {
+        serverSocket = new ServerSocket();
+        serverSocket.setReuseAddress(true);
+        serverSocket.bind(new InetSocketAddress(self.getHost(), self.getPort()));
+        running = true;
+        synchronized (this) {
+            durableIndex = raftLog.getLastIndex();
+            resetElectionDeadline();
+        }
+        startThread("raft-server", this::accept);
+        startThread("raft-log", this::writeLoop);
+        startThread("raft-apply", this::applyLoop);
+        startThread("raft-timer", this::timerLoop);
+        for (var peer : peers) {
+            startThread("raft-peer-" + peer.getId(), peer::run);
+        }
+        log.info(
+                "raft: node {} listening on {}, log has {} entries, term {}",
+                self.getId(), serverSocket.getLocalSocketAddress(), raftLog.getLastIndex(), raftLog.getCurrentTerm()
+        );
+    }
+
+    public void stop() throws IOException, InterruptedException {
+        running = false;
+        if (serverSocket != null) {
+            serverSocket.close();
+        }
+        for (var connection : connections) {
+            connection.close();
+        }
+        peers.forEach(RaftPeer::close);
+        synchronized (this) {
+            notifyAll();
+        }
+        for (var thread : threads) {
+            thread.interrupt();
+            thread.join(TimeUnit.SECONDS.toMillis(5));
+        }
+        synchronized (this) {
+            failPending();
+        }
+        Proposal proposal;
+        while ((proposal = proposals.poll()) != null) {
+            proposal.done.completeExceptionally(new RetryLaterException());
+        }
+    }
+
+    /**
+     * Appends the payload to the log if the node is the leader
+     *
+     * @return index of the entry once it's committed, fails with {@link RetryLaterException} if leadership is lost
+     */
+    public CompletableFuture<Long> propose(ByteBuffer payload) {
+        if (!running) {
+            return CompletableFuture.failedFuture(new RetryLaterException());
+        }
+        var proposal = new Proposal(payload);
+        proposals.add(proposal);
+        return proposal.done;
+    }
+
+    /**
+     * Listener is called by a separate thread every time the node becomes the leader and applies everything
+     * committed before, e.g. to create accounts the ledger must have. It's called right away if the node is such
+     * a leader already.
+     */
+    public void onLeaderReady(Runnable listener) {
+        leaderReadyListeners.add(listener);
+        synchronized (this) {
+            if (leaderReadyNotified && isWritable()) {
+                runLeaderReady(List.of(listener));
+            }
+        }
+    }
+
+    /**
+     * @return whether writes executed now are accepted to the log
+     */
+    public boolean isWritable() {
+        return running && role == Role.LEADER && appliedIndex >= leaderStartIndex && !rebuilding;
+    }
+
+    /**
+     * @return whether the state is being rebuilt from the log, it isn't consistent then
+     */
+    public boolean isRebuilding() {
+        return rebuilding;
+    }
+
+    /**
+     * @return url of the leader if it's known and it's another node
+     */
+    public String getLeaderUrl() {
+        var current = leaderId;
+        return current != 0 && current != self.getId() ? props.getMember(current).getUrl() : null;
+    }
+
+    public int getId() {
+        return self.getId();
+    }
+
+    public Role getRole() {
+        return role;
+    }
+
+    public int getLeaderId() {
+        return leaderId;
+    }
+
+    public long getCurrentTerm() {
+        return raftLog.getCurrentTerm();
+    }
+
+    public long getCommitIndex() {
+        return commitIndex;
+    }
+
+    public long getAppliedIndex() {
+        return appliedIndex;
+    }
+
+    boolean isRunning() {
+        return running;
+    }
+
+    int getConnectTimeoutMillis() {
+        return (int) TimeUnit.NANOSECONDS.toMillis(electionTimeoutNanos);
+    }
+
+    long getHeartbeatMillis() {
+        return Math.max(1, TimeUnit.NANOSECONDS.toMillis(heartbeatNanos));
+    }
+
+    //----Peers----
+
+    /**
+     * @return request to send to the peer, waits for one up to the heartbeat interval if asked to
+     */
+    synchronized RaftMessages.Message nextMessage(RaftPeer peer, boolean await) throws InterruptedException {
+        var message = messageFor(peer);
+        if (message == null && await && running) {
+            var waitNanos = role == Role.LEADER ? heartbeatNanos - (System.nanoTime() - peer.sentAt) : heartbeatNanos;
+            TimeUnit.NANOSECONDS.timedWait(this, Math.max(waitNanos, TimeUnit.MILLISECONDS.toNanos(1)));
+            message = messageFor(peer);
+        }
+        return message;
+    }
+
+    private RaftMessages.Message messageFor(RaftPeer peer) {
+        var term = raftLog.getCurrentTerm();
+        if (role == Role.CANDIDATE && peer.voteRequestedTerm < term) {
+            peer.voteRequestedTerm = term;
+            return new RaftMessages.VoteRequest(term, self.getId(), raftLog.getLastIndex(), raftLog.getLastTerm());
+        }
+        if (role != Role.LEADER || peer.inflight >= props.getMaxInflight() || (peer.probing && peer.inflight > 0)) {
+            return null;
+        }
+        var now = System.nanoTime();
+        List<RaftLog.Entry> entries = peer.nextIndex <= raftLog.getLastIndex()
+                ? raftLog.slice(peer.nextIndex, props.getMaxBatchSize().toBytes())
+                : List.of();
+        if (entries.isEmpty() && now - peer.sentAt < heartbeatNanos) {
+            return null;
+        }
+        var prevLogIndex = peer.nextIndex - 1;
+        var request = new RaftMessages.AppendRequest(
+                term, self.getId(), prevLogIndex, raftLog.termAt(prevLogIndex), commitIndex, entries
+        );
+        peer.nextIndex += entries.size();
+        peer.inflight++;
+        peer.sentAt = now;
+        return request;
+    }
+
+    synchronized void onVoteResponse(RaftPeer peer, RaftMessages.VoteResponse response) {
+        peer.respondedAt = System.nanoTime();
+        if (response.term > raftLog.getCurrentTerm()) {
+            becomeFollower(response.term, 0);
+            return;
+        }
+        if (role == Role.CANDIDATE && response.granted && response.term == raftLog.getCurrentTerm() &&
+                peer.voteGrantedTerm < response.term) {
+            peer.voteGrantedTerm = response.term;
+            if (++votes >= quorum) {
+                becomeLeader();
+            }
+        }
+    }
+
+    synchronized void onAppendResponse(RaftPeer peer, RaftMessages.AppendResponse response) {
+        if (response.term > raftLog.getCurrentTerm()) {
+            becomeFollower(response.term, 0);
+            return;
+        }
+        if (role != Role.LEADER || response.term < raftLog.getCurrentTerm()) {
+            return; // response to a request of the previous leadership
+        }
+        peer.respondedAt = System.nanoTime();
+        peer.inflight = Math.max(0, peer.inflight - 1);
+        if (response.success) {
+            peer.probing = false;
+            if (response.index > peer.matchIndex) {
+                peer.matchIndex = response.index;
+                advanceCommitIndex();
+            }
+            peer.nextIndex = Math.max(peer.nextIndex, peer.matchIndex + 1);
+        } else {
+            peer.probing = true;
+            peer.nextIndex = Math.max(peer.matchIndex + 1, Math.min(peer.nextIndex, response.index));
+        }
+        notifyAll();
+    }
+
+    synchronized void disconnected(RaftPeer peer) {
+        peer.inflight = 0;
+        peer.probing = false;
+        peer.nextIndex = peer.matchIndex + 1;
+        peer.voteRequestedTerm = 0;
+    }
+
+    //----Requests of other nodes----
+
+    private void accept() {
+        while (running) {
+            try {
+                var socket = serverSocket.accept();
+                startThread("raft-server-" + connectionNumber.incrementAndGet(), () -> serve(socket));
+            } catch (IOException e) {
+                if (running) {
+                    log.error("raft: accept failed", e);
+                }
+            }
+        }
+    }
+
+    private void serve(Socket socket) {
+        connections.add(socket);
+        try (socket) {
+            socket.setTcpNoDelay(true);
+            var in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 1 << 16));
+            var out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), 1 << 16));
+            while (running) {
+                var type = in.readByte();
+                switch (type) {
+                    case RaftMessages.REQUEST_VOTE:
+                        handleVote(RaftMessages.VoteRequest.read(in)).write(out);
+                        break;
+                    case RaftMessages.APPEND_ENTRIES:
+                        handleAppend(RaftMessages.AppendRequest.read(in)).write(out);
+                        break;
+                    default:
+                        throw new IOException("Unexpected raft message " + type);
+                }
+                if (in.available() == 0) {
+                    out.flush(); // responses to pipelined requests go out together
+                }
+            }
+        } catch (IOException e) {
+            log.debug("raft: connection {} closed: {}", socket.getRemoteSocketAddress(), e.toString());
+        } catch (RuntimeException e) {
+            log.error("raft: request of {} failed", socket.getRemoteSocketAddress(), e);
+        } finally {
+            connections.remove(socket);
+        }
+    }
+
+    private synchronized RaftMessages.VoteResponse handleVote(RaftMessages.VoteRequest request) {
+        if (request.term > raftLog.getCurrentTerm()) {
+            becomeFollower(request.term, 0);
+        }
+        var term = raftLog.getCurrentTerm();
+        var votedFor = raftLog.getVotedFor();
+        var upToDate = request.lastLogTerm > raftLog.getLastTerm() ||
+                (request.lastLogTerm == raftLog.getLastTerm() && request.lastLogIndex >= raftLog.getLastIndex());
+        if (request.term == term && (votedFor == 0 || votedFor == request.candidateId) && upToDate) {
+            persistTermAndVote(term, request.candidateId);
+            resetElectionDeadline();
+            return new RaftMessages.VoteResponse(term, true);
+        }
+        return new RaftMessages.VoteResponse(term, false);
+    }
+
+    private RaftMessages.AppendResponse handleAppend(RaftMessages.AppendRequest request) throws IOException {
+        long matchIndex;
+        boolean appended;
+        synchronized (this) {
+            var term = raftLog.getCurrentTerm();
+            if (request.term < term) {
+                return new RaftMessages.AppendResponse(term, false, 0);
+            }
+            if (request.term > term || role != Role.FOLLOWER) {
+                becomeFollower(request.term, request.leaderId);
+            }
+            leaderId = request.leaderId;
+            resetElectionDeadline();
+
+            var lastIndex = raftLog.getLastIndex();
+            if (request.prevLogIndex > lastIndex) {
+                return new RaftMessages.AppendResponse(request.term, false, lastIndex + 1);
+            }
+            if (raftLog.termAt(request.prevLogIndex) != request.prevLogTerm) {
+                var resendFrom = Math.max(commitIndex + 1, raftLog.firstIndexOfTerm(request.prevLogIndex));
+                return new RaftMessages.AppendResponse(request.term, false, resendFrom);
+            }
+            var appending = new ArrayList<RaftLog.Entry>(request.entries.size());
+            for (var entry : request.entries) {
+                var index = entry.getIndex();
+                if (index <= raftLog.getLastIndex()) {
+                    if (raftLog.termAt(index) == entry.getTerm()) {
+                        continue;
+                    }
+                    if (index <= commitIndex) {
+                        throw new IllegalStateException("Committed entry " + index + " conflicts with the leader's log");
+                    }
+                    raftLog.truncateFrom(index);
+                }
+                appending.add(entry);
+            }
+            raftLog.append(appending);
+            matchIndex = request.prevLogIndex + request.entries.size();
+            appended = !appending.isEmpty();
+        }
+        if (appended) {
+            raftLog.sync();
+        }
+        synchronized (this) {
+            var term = raftLog.getCurrentTerm();
+            var leaderCommit = Math.min(request.leaderCommit, matchIndex);
+            if (request.term == term && leaderCommit > commitIndex) {
+                commitIndex = leaderCommit;
+                notifyAll();
+            }
+            return new RaftMessages.AppendResponse(term, request.term == term, matchIndex);
+        }
+    }
+
+    //----Roles----
+
+    private void timerLoop() {
+        while (running) {
+            long sleepNanos;
+            synchronized (this) {
+                var now = System.nanoTime();
+                if (role == Role.LEADER) {
+                    if (!hasQuorumContact(now)) {
+                        log.warn("raft: node {} doesn't hear from the majority, steps down", self.getId());
+                        becomeFollower(raftLog.getCurrentTerm(), 0);
+                    }
+                    sleepNanos = heartbeatNanos;
+                } else {
+                    if (now >= electionDeadline) {
+                        startElection();
+                    }
+                    sleepNanos = electionDeadline - now;
+                }
+            }
+            try {
+                TimeUnit.NANOSECONDS.sleep(Math.max(sleepNanos, TimeUnit.MILLISECONDS.toNanos(1)));
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    private boolean hasQuorumContact(long now) {
+        var contacted = 1;
+        for (var peer : peers) {
+            if (now - peer.respondedAt < 2 * electionTimeoutNanos) {
+                contacted++;
+            }
+        }
+        return contacted >= quorum;
+    }
+
+    private void startElection() {
+        persistTermAndVote(raftLog.getCurrentTerm() + 1, self.getId());
+        role = Role.CANDIDATE;
+        leaderId = 0;
+        votes = 1;
+        resetElectionDeadline();
+        log.info("raft: node {} starts election of term {}", self.getId(), raftLog.getCurrentTerm());
+        if (votes >= quorum) {
+            becomeLeader();
+        }
+        notifyAll();
+    }
+
+    private void becomeLeader() {
+        var term = raftLog.getCurrentTerm();
+        try {
+            // entry of its own term lets the leader commit everything before it
+            raftLog.append(List.of(new RaftLog.Entry(raftLog.getLastIndex() + 1, term, NO_OP)));
+            raftLog.sync();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        role = Role.LEADER;
+        leaderId = self.getId();
+        leaderStartIndex = raftLog.getLastIndex();
+        leaderReadyNotified = false;
+        durableIndex = leaderStartIndex;
+        var now = System.nanoTime();
+        for (var peer : peers) {
+            peer.reset(leaderStartIndex);
+            peer.respondedAt = Math.max(peer.respondedAt, now - electionTimeoutNanos);
+        }
+        log.info("raft: node {} is the leader of term {} from index {}", self.getId(), term, leaderStartIndex);
+        advanceCommitIndex();
+        notifyAll();
+    }
+
+    private void becomeFollower(long term, int leaderId) {
+        if (term > raftLog.getCurrentTerm()) {
+            persistTermAndVote(term, 0);
+        }
+        if (role == Role.LEADER) {
+            log.info("raft: node {} isn't the leader anymore, term {}", self.getId(), term);
+            leaderStartIndex = Long.MAX_VALUE;
+            if (!pending.isEmpty()) {
+                requestRebuild();
+                failPending();
+            }
+        }
+        if (role != Role.FOLLOWER) {
+            resetElectionDeadline();
+        }
+        role = Role.FOLLOWER;
+        this.leaderId = leaderId;
+        notifyAll();
+    }
+
+    private void advanceCommitIndex() {
+        var matches = new long[peers.size() + 1];
+        matches[0] = durableIndex;
+        for (int i = 0; i < peers.size(); i++) {
+            matches[i + 1] = peers.get(i).matchIndex;
+        }
+        Arrays.sort(matches);
+        var majorityIndex = matches[matches.length - quorum];
+        // entries of previous terms are committed only by an entry of the current one
+        if (majorityIndex > commitIndex && raftLog.termAt(majorityIndex) == raftLog.getCurrentTerm()) {
+            commitIndex = majorityIndex;
+            notifyAll();
+        }
+    }
+
+    private void resetElectionDeadline() {
+        electionDeadline = System.nanoTime() + electionTimeoutNanos +
+                ThreadLocalRandom.current().nextLong(electionTimeoutNanos);
+    }
+
+    private void persistTermAndVote(long term, int votedFor) {
+        try {
+            raftLog.setTermAndVote(term, votedFor);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    //----Log & state machine----
+
+    private void writeLoop() {
+        var batch = new ArrayList<Proposal>();
+        while (running) {
+            try {
+                var first = proposals.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                proposals.drainTo(batch);
+                long lastIndex;
+                synchronized (this) {
+                    if (!isWritable()) {
+                        // the writes are already executed against the ledger and can't be undone
+                        requestRebuild();
+                        batch.forEach(proposal -> proposal.done.completeExceptionally(new RetryLaterException()));
+                        continue;
+                    }
+                    var term = raftLog.getCurrentTerm();
+                    var entries = new ArrayList<RaftLog.Entry>(batch.size());
+                    lastIndex = raftLog.getLastIndex();
+                    for (var proposal : batch) {
+                        entries.add(new RaftLog.Entry(++lastIndex, term, proposal.payload));
+                        pending.put(lastIndex, proposal.done);
+                    }
+                    raftLog.append(entries);
+                    notifyAll(); // followers get the entries while they are synced here
+                }
+                raftLog.sync();
+                synchronized (this) {
+                    if (role == Role.LEADER) {
+                        durableIndex = Math.max(durableIndex, lastIndex);
+                        advanceCommitIndex();
+                    }
+                }
+            } catch (InterruptedException e) {
+                return;
+            } catch (IOException | RuntimeException e) {
+                halt("appending to the log failed", e);
+                return;
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    private void applyLoop() {
+        while (running) {
+            try {
+                long upToIndex;
+                synchronized (this) {
+                    while (running && !rebuildRequested && appliedIndex >= commitIndex) {
+                        wait(getHeartbeatMillis());
+                    }
+                    if (!running) {
+                        return;
+                    }
+                    upToIndex = commitIndex;
+                }
+                if (rebuildRequested) {
+                    rebuild();
+                    continue;
+                }
+                for (var index = appliedIndex + 1; index <= upToIndex && !rebuildRequested; index++) {
+                    var entry = raftLog.get(index);
+                    CompletableFuture<Long> own;
+                    synchronized (this) {
+                        own = pending.remove(index);
+                    }
+                    var payload = entry.getPayload();
+                    // own writes are in the state already, unless it's rebuilt since they were executed
+                    if (!payload.hasRemaining() || (own != null && !rebuilding)) {
+                        stateMachine.skip(index);
+                    } else {
+                        stateMachine.apply(index, payload);
+                    }
+                    appliedIndex = index;
+                    if (own != null) {
+                        own.complete(index);
+                    }
+                }
+                synchronized (this) {
+                    if (rebuilding && appliedIndex >= rebuildTarget) {
+                        rebuilding = false;
+                        log.info("raft: node {} rebuilt the ledger up to index {}", self.getId(), appliedIndex);
+                    }
+                    notifyLeaderReady();
+                }
+            } catch (InterruptedException e) {
+                return;
+            } catch (RuntimeException e) {
+                halt("applying entry " + (appliedIndex + 1) + " failed", e);
+                return;
+            }
+        }
+    }
+
+    private void rebuild() throws InterruptedException {
+        log.warn("raft: node {} rebuilds the ledger from the log, it may have writes which aren't committed", self.getId());
+        synchronized (this) {
+            rebuildRequested = false;
+        }
+        stateMachine.reset();
+        synchronized (this) {
+            appliedIndex = 0;
+            rebuildTarget = commitIndex;
+            rebuilding = rebuildTarget > 0;
+        }
+    }
+
+    private void requestRebuild() {
+        rebuildRequested = true;
+        rebuilding = true;
+        notifyAll();
+    }
+
+    private void failPending() {
+        pending.values().forEach(done -> done.completeExceptionally(new RetryLaterException()));
+        pending.clear();
+    }
+
+    private void notifyLeaderReady() {
+        if (role != Role.LEADER || leaderReadyNotified || !isWritable()) {
+            return;
+        }
+        leaderReadyNotified = true;
+        runLeaderReady(leaderReadyListeners);
+    }
+
+    private void runLeaderReady(List<Runnable> listeners) {
+        var thread = new Thread(() -> listeners.forEach(listener -> {
+            try {
+                listener.run();
+            } catch (RuntimeException e) {
+                log.error("raft: leader ready listener failed", e);
+            }
+        }), "raft-leader-ready");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private void halt(String reason, Exception e) {
+        log.error("raft: node {} stops, {}", self.getId(), reason, e);
+        running = false;
+        try {
+            serverSocket.close();
+        } catch (IOException ignored) {
+        }
+        peers.forEach(RaftPeer::close);
+        synchronized (this) {
+            role = Role.FOLLOWER;
+            failPending();
+            notifyAll();
+        }
+    }
+
+    private void startThread(String name, Runnable task) {
+        var thread = new Thread(task, name);
+        thread.setDaemon(true);
+        thread.start();
+        if (!name.startsWith("raft-server-")) {
+            threads.add(thread);
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package io.shmaks.banking.service.raft;
+
+import io.shmaks.banking.config.SampleAppStorageProps;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+
+/**
+ * Connection of a node to another member of the cluster. Requests are written by the peer's thread as the node
+ * has them (vote requests of a candidate, entries & heartbeats of the leader), responses are read by a separate
+ * thread, so several batches of entries are in flight at once.
+ * <p>
+ * Replication progress of the member is kept here too, it's guarded by the node.
+ */
+class RaftPeer {
+
+    private static final Logger log = LoggerFactory.getLogger(RaftPeer.class);
+
+    private final RaftNode node;
+    private final SampleAppStorageProps.Member member;
+
+    long nextIndex = 1;
+    long matchIndex;
+    int inflight;
+    /**
+     * Set once the member rejected entries as not following its log, only one request is in flight then
+     */
+    boolean probing;
+    long sentAt;
+    long respondedAt;
+    long voteRequestedTerm;
+    long voteGrantedTerm;
+
+    private volatile Socket socket;
+
+    RaftPeer(RaftNode node, SampleAppStorageProps.Member member) {
+        this.node = node;
+        this.member = member;
+    }
+
+    int getId() {
+        return member.getId();
+    }
+
+    /**
+     * Called by the node for a new leadership
+     */
+    void reset(long nextIndex) {
+        this.nextIndex = nextIndex;
+        this.matchIndex = 0;
+        this.inflight = 0;
+        this.probing = false;
+        this.sentAt = 0;
+    }
+
+    void run() {
+        while (node.isRunning()) {
+            try (var current = new Socket()) {
+                socket = current;
+                current.connect(new InetSocketAddress(member.getHost(), member.getPort()), node.getConnectTimeoutMillis());
+                current.setTcpNoDelay(true);
+                var out = new DataOutputStream(new BufferedOutputStream(current.getOutputStream(), 1 << 16));
+                var in = new DataInputStream(new BufferedInputStream(current.getInputStream(), 1 << 16));
+                var receiver = new Thread(() -> receive(in), "raft-peer-" + member.getId() + "-responses");
+                receiver.setDaemon(true);
+                receiver.start();
+                try {
+                    send(out);
+                } finally {
+                    current.close();
+                    receiver.join();
+                }
+            } catch (IOException e) {
+                log.debug("raft: connection to node {} failed: {}", member.getId(), e.toString());
+            } catch (InterruptedException e) {
+                return;
+            }
+            node.disconnected(this);
+            try {
+                Thread.sleep(node.getHeartbeatMillis());
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    private void send(DataOutputStream out) throws IOException, InterruptedException {
+        while (node.isRunning() && !socket.isClosed()) {
+            var message = node.nextMessage(this, true);
+            if (message == null) {
+                continue;
+            }
+            // everything ready is flushed at once
+            while (message != null) {
+                message.write(out);
+                message = node.nextMessage(this, false);
+            }
+            out.flush();
+        }
+    }
+
+    private void receive(DataInputStream in) {
+        try {
+            while (true) {
+                var type = in.readByte();
+                switch (type) {
+                    case RaftMessages.REQUEST_VOTE:
+                        node.onVoteResponse(this, RaftMessages.VoteResponse.read(in));
+                        break;
+                    case RaftMessages.APPEND_ENTRIES:
+                        node.onAppendResponse(this, RaftMessages.AppendResponse.read(in));
+                        break;
+                    default:
+                        throw new IOException("Unexpected raft message " + type);
+                }
+            }
+        } catch (IOException e) {
+            if (node.isRunning()) {
+                log.info("raft: connection to node {} lost: {}", member.getId(), e.toString());
+            }
+        } finally {
+            close();
+        }
+    }
+
+    void close() {
+        var current = socket;
+        if (current != null) {
+            try {
+                current.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+}
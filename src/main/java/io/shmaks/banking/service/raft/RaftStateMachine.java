@@ -0,0 +1,24 @@
+package io.shmaks.banking.service.raft;
+
+import java.nio.ByteBuffer;
+
+/**
+ * State replicated by the raft log, entries are passed to it by a single thread in the order of the log
+ */
+public interface RaftStateMachine {
+
+    /**
+     * Applies a committed entry, must give the same state on every node
+     */
+    void apply(long index, ByteBuffer payload);
+
+    /**
+     * The entry is already reflected in the state: it's a no-op or it was executed by this node as the leader
+     */
+    void skip(long index);
+
+    /**
+     * Drops the whole state, entries are applied again from the first one
+     */
+    void reset() throws InterruptedException;
+}
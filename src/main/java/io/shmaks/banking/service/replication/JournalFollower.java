@@ -0,0 +1,105 @@
+package io.shmaks.banking.service.replication;
+
+import io.shmaks.banking.config.SampleAppStorageProps;
+import io.shmaks.banking.repo.journal.JournalCodec;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+
+/**
+ * Replica side of journal shipping: keeps a connection to the primary, reconnecting after failures, and applies
+ * the records it ships, see {@link JournalShipper} for the protocol
+ */
+public class JournalFollower {
+
+    private static final Logger log = LoggerFactory.getLogger(JournalFollower.class);
+
+    private final ReplicaApplier applier;
+    private final SampleAppStorageProps.Replica props;
+
+    private Thread thread;
+    private volatile Socket socket;
+    private volatile boolean running;
+
+    public JournalFollower(ReplicaApplier applier, SampleAppStorageProps.Replica props) {
+        this.applier = applier;
+        this.props = props;
+    }
+
+    public void start() {
+        running = true;
+        thread = new Thread(this::follow, "journal-follower");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public void stop() throws IOException, InterruptedException {
+        running = false;
+        var current = socket;
+        if (current != null) {
+            current.close();
+        }
+        if (thread != null) {
+            thread.interrupt();
+            thread.join();
+        }
+    }
+
+    private void follow() {
+        while (running) {
+            try (var current = new Socket()) {
+                socket = current;
+                var timeoutMs = (int) props.getTimeout().toMillis();
+                current.connect(new InetSocketAddress(props.getHost(), props.getPort()), timeoutMs);
+                current.setSoTimeout(timeoutMs);
+                current.setTcpNoDelay(true);
+                var out = new DataOutputStream(current.getOutputStream());
+                out.writeLong(applier.getAppliedLsn());
+                out.flush();
+                log.info("journal following: connected to {} after lsn {}", current.getRemoteSocketAddress(), applier.getAppliedLsn());
+                receive(new DataInputStream(new BufferedInputStream(current.getInputStream(), 1 << 16)));
+            } catch (IOException e) {
+                if (running) {
+                    log.warn("journal following: connection to {}:{} lost: {}", props.getHost(), props.getPort(), e.toString());
+                }
+            } catch (RuntimeException e) {
+                log.error("journal following: applying failed at lsn {}", applier.getAppliedLsn() + 1, e);
+            }
+            try {
+                Thread.sleep(props.getReconnectDelay().toMillis());
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    private void receive(DataInputStream in) throws IOException {
+        while (running) {
+            var primaryLsn = in.readLong();
+            var frames = in.readInt();
+            if (frames == JournalShipper.REFUSED) {
+                log.error("journal following: primary refused: {}", in.readUTF());
+                return;
+            }
+            for (int i = 0; i < frames; i++) {
+                var length = in.readInt();
+                var checksum = in.readInt();
+                var lsn = in.readLong();
+                var payload = new byte[length];
+                in.readFully(payload);
+                if (JournalCodec.checksum(lsn, ByteBuffer.wrap(payload)) != checksum) {
+                    throw new IOException("Journal frame of lsn " + lsn + " is corrupted in transfer");
+                }
+                applier.apply(JournalCodec.decode(lsn, ByteBuffer.wrap(payload)));
+            }
+            applier.primaryAt(primaryLsn);
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package io.shmaks.banking.service.replication;
+
+import io.shmaks.banking.config.SampleAppStorageProps;
+import io.shmaks.banking.repo.journal.JournalTailer;
+import io.shmaks.banking.repo.journal.JournalWriter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Primary side of journal shipping. A replica connects and sends the lsn it has applied up to, then it gets frames
+ * of the journal after it as they become durable, read from segment files by a thread per replica.
+ * <p>
+ * Every message is: durable lsn of the primary (long), number of frames (int), the frames as they are in the journal.
+ * No frames is a heartbeat of an idle primary; a negative number is followed by the reason (UTF) replication is
+ * refused, e.g. the journal after the replica's lsn is already truncated.
+ */
+public class JournalShipper {
+
+    private static final Logger log = LoggerFactory.getLogger(JournalShipper.class);
+
+    static final int REFUSED = -1;
+
+    private final JournalWriter writer;
+    private final SampleAppStorageProps.Primary props;
+    private final Set<Socket> replicas = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger threadNumber = new AtomicInteger();
+
+    private ServerSocket serverSocket;
+    private volatile boolean running;
+
+    public JournalShipper(JournalWriter writer, SampleAppStorageProps.Primary props) {
+        this.writer = writer;
+        this.props = props;
+    }
+
+    public void start() throws IOException {
+        serverSocket = new ServerSocket();
+        serverSocket.bind(new InetSocketAddress(props.getHost(), props.getPort()));
+        running = true;
+        var acceptor = new Thread(this::accept, "journal-shipper");
+        acceptor.setDaemon(true);
+        acceptor.start();
+        log.info("journal shipping: listening on {}", serverSocket.getLocalSocketAddress());
+    }
+
+    public void stop() throws IOException {
+        running = false;
+        if (serverSocket != null) {
+            serverSocket.close();
+        }
+        for (var replica : replicas) {
+            replica.close();
+        }
+    }
+
+    /**
+     * @return port replicas are accepted on, the bound one if 0 is configured
+     */
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    private void accept() {
+        while (running) {
+            try {
+                var socket = serverSocket.accept();
+                var thread = new Thread(() -> ship(socket), "journal-shipper-" + threadNumber.incrementAndGet());
+                thread.setDaemon(true);
+                thread.start();
+            } catch (IOException e) {
+                if (running) {
+                    log.error("journal shipping: accept failed", e);
+                }
+            }
+        }
+    }
+
+    private void ship(Socket socket) {
+        replicas.add(socket);
+        var remote = socket.getRemoteSocketAddress();
+        try (socket) {
+            socket.setTcpNoDelay(true);
+            var in = new DataInputStream(socket.getInputStream());
+            var out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), 1 << 16));
+            var afterLsn = in.readLong();
+            var durableLsn = writer.getDurableLsn();
+            if (afterLsn > durableLsn) {
+                refuse(out, "replica has lsn " + afterLsn + " which the primary doesn't have, its durable lsn is " + durableLsn);
+                return;
+            }
+            JournalTailer tailer;
+            try {
+                tailer = new JournalTailer(writer.getDir(), afterLsn);
+            } catch (IOException e) {
+                refuse(out, "journal after lsn " + afterLsn + " can't be read, replica has to be seeded from a snapshot: " + e);
+                return;
+            }
+            log.info("journal shipping: replica {} follows after lsn {}", remote, afterLsn);
+
+            var maxBytes = (int) props.getMaxBatchSize().toBytes();
+            var heartbeatMs = props.getHeartbeatInterval().toMillis();
+            var sentAt = 0L;
+            try (tailer) {
+                while (running) {
+                    durableLsn = writer.getDurableLsn();
+                    var frames = tailer.next(durableLsn, maxBytes);
+                    var now = System.currentTimeMillis();
+                    if (!frames.isEmpty() || now - sentAt >= heartbeatMs) {
+                        out.writeLong(durableLsn);
+                        out.writeInt(frames.size());
+                        for (var frame : frames) {
+                            out.write(frame.array(), 0, frame.limit());
+                        }
+                        out.flush();
+                        sentAt = now;
+                    }
+                    if (tailer.getLastLsn() >= durableLsn) {
+                        writer.awaitDurable(durableLsn + 1, props.getHeartbeatInterval());
+                    }
+                }
+            }
+        } catch (IOException e) {
+            log.info("journal shipping: replica {} disconnected: {}", remote, e.toString());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            replicas.remove(socket);
+        }
+    }
+
+    private static void refuse(DataOutputStream out, String reason) throws IOException {
+        log.error("journal shipping refused: {}", reason);
+        out.writeLong(0);
+        out.writeInt(REFUSED);
+        out.writeUTF(reason);
+        out.flush();
+    }
+}
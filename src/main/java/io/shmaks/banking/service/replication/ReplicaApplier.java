@@ -0,0 +1,192 @@
+package io.shmaks.banking.service.replication;
+
+import io.shmaks.banking.repo.InMemoryAccountRepo;
+import io.shmaks.banking.repo.InMemoryTxnGroupRepo;
+import io.shmaks.banking.repo.InMemoryTxnRepo;
+import io.shmaks.banking.repo.TieredTxnRepo;
+import io.shmaks.banking.repo.journal.JournalRecord;
+import io.shmaks.banking.repo.outbox.Outbox;
+import io.shmaks.banking.service.AccountNumberGenerator;
+import io.shmaks.banking.service.RetryLaterException;
+import io.shmaks.banking.service.TxnAwaiter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Applies journal records shipped from the primary (or committed to the raft log) to in-memory repos, one by one in
+ * the order of lsn. Like the journal replay on recovery it's idempotent: a record may be shipped again after
+ * reconnect and the state may be recovered from a fuzzy snapshot, so balance delta of an account is applied only if
+ * the account version it made is greater than the account's one as it was before applying started. Records of an
+ * account aren't ordered by txn id or version, locks are released before the journal append.
+ */
+public class ReplicaApplier implements TxnAwaiter {
+
+    private static final Logger log = LoggerFactory.getLogger(ReplicaApplier.class);
+
+    private final InMemoryAccountRepo accountRepo;
+    private final InMemoryTxnGroupRepo txnGroupRepo;
+    private final InMemoryTxnRepo hotTxnRepo;
+    private final TieredTxnRepo txnRepo;
+    private final AccountNumberGenerator accountNumberGenerator;
+    private final Outbox outbox;
+    private final Duration maxWait;
+    private final Sinks.Many<Long> applied = Sinks.many().replay().latest();
+    private final Map<Long, Long> versions = new HashMap<>();
+
+    private volatile long appliedLsn;
+    private volatile long publishedLsn;
+    private volatile long primaryLsn;
+    private volatile long caughtUpAt = System.currentTimeMillis();
+
+    public ReplicaApplier(
+            InMemoryAccountRepo accountRepo,
+            InMemoryTxnGroupRepo txnGroupRepo,
+            InMemoryTxnRepo hotTxnRepo,
+            TieredTxnRepo txnRepo,
+            AccountNumberGenerator accountNumberGenerator,
+            Outbox outbox,
+            Duration maxWait) {
+        this.accountRepo = accountRepo;
+        this.txnGroupRepo = txnGroupRepo;
+        this.hotTxnRepo = hotTxnRepo;
+        this.txnRepo = txnRepo;
+        this.accountNumberGenerator = accountNumberGenerator;
+        this.outbox = outbox;
+        this.maxWait = maxWait;
+        applied.tryEmitNext(0L);
+    }
+
+    /**
+     * @param lsn lsn the recovered state is consistent with, records are requested from the primary after it
+     */
+    public void startFrom(long lsn) {
+        appliedLsn = lsn;
+        publishedLsn = Math.max(publishedLsn, lsn);
+        primaryLsn = Math.max(primaryLsn, lsn);
+        versions.clear();
+        applied.tryEmitNext(lsn);
+    }
+
+    /**
+     * Drops the state, records are applied again from the first one. Groups already published to the outbox
+     * aren't published again.
+     */
+    public void reset() {
+        publishedLsn = Math.max(publishedLsn, appliedLsn);
+        appliedLsn = 0;
+        versions.clear();
+        accountRepo.clear();
+        txnGroupRepo.clear();
+        hotTxnRepo.clear();
+        applied.tryEmitNext(0L);
+    }
+
+    /**
+     * The record is already in the state, e.g. it was written by this node
+     */
+    public void skip(long lsn) {
+        appliedLsn = lsn;
+        publishedLsn = Math.max(publishedLsn, lsn);
+        applied.tryEmitNext(lsn);
+    }
+
+    /**
+     * Called from the single replication thread
+     */
+    public void apply(JournalRecord record) {
+        if (record.getLsn() <= appliedLsn) {
+            return;
+        }
+        switch (record.getType()) {
+            case ACCOUNT_CREATED:
+                var account = record.getAccount();
+                if (accountRepo.findById(account.getId()).blockOptional().isEmpty()) {
+                    accountRepo.restore(account, false);
+                }
+                accountNumberGenerator.advancePast(account.getAccountNumber());
+                break;
+            case ACCOUNT_DELETED:
+                accountRepo.markDeleted(record.getAccountId(), record.getTimestamp());
+                break;
+            case ACCOUNT_RESTORED:
+                accountRepo.findById(record.getAccountId())
+                        .flatMap(existing -> accountRepo.restoreByIdAndOwnerId(existing.getId(), existing.getOwnerId()))
+                        .onErrorResume(e -> {
+                            log.warn("can't apply restoring of account {}", record.getAccountId(), e);
+                            return Mono.empty();
+                        })
+                        .block();
+                break;
+            case TXN_GROUP:
+                txnGroupRepo.restore(record.getTxnGroup());
+                record.getTxns().forEach(hotTxnRepo::restore);
+                for (var delta : record.getBalanceDeltas()) {
+                    var version = versions.get(delta.getAccountId());
+                    if (version == null) {
+                        var deltaAccount = accountRepo.findById(delta.getAccountId()).blockOptional();
+                        if (deltaAccount.isEmpty()) {
+                            continue;
+                        }
+                        version = deltaAccount.get().getVersion();
+                        versions.put(delta.getAccountId(), version);
+                    }
+                    if (delta.getVersion() > version) {
+                        accountRepo.replayBalance(
+                                delta.getAccountId(), delta.getLastTxnId(), delta.getVersion(), delta.getAmount()
+                        ).block();
+                    }
+                }
+                if (record.getLsn() > publishedLsn) {
+                    outbox.append(record.getTxnGroup(), record.getTxns()).block();
+                }
+                break;
+            default:
+                throw new IllegalStateException("Unexpected journal record " + record);
+        }
+        appliedLsn = record.getLsn();
+        applied.tryEmitNext(appliedLsn);
+    }
+
+    /**
+     * Called once records shipped with the durable lsn of the primary are applied
+     */
+    public void primaryAt(long lsn) {
+        primaryLsn = Math.max(primaryLsn, lsn);
+        if (appliedLsn >= primaryLsn) {
+            caughtUpAt = System.currentTimeMillis();
+        }
+    }
+
+    @Override
+    public Mono<Void> await(long txnId) {
+        return applied.asFlux()
+                .filter(lsn -> txnRepo.findById(txnId) != null)
+                .next()
+                .timeout(maxWait, Mono.error(RetryLaterException::new))
+                .then();
+    }
+
+    public long getAppliedLsn() {
+        return appliedLsn;
+    }
+
+    /**
+     * @return number of records durable on the primary and not applied yet, as of the last message from it
+     */
+    public long getLagRecords() {
+        return Math.max(0, primaryLsn - appliedLsn);
+    }
+
+    /**
+     * @return how long ago the replica had everything the primary had durable, grows while the connection is lost
+     */
+    public double getLagSeconds() {
+        return (System.currentTimeMillis() - caughtUpAt) / 1000.0;
+    }
+}
@@ -0,0 +1,32 @@
+package io.shmaks.banking.service.replication;
+
+import io.shmaks.banking.repo.journal.Journal;
+import io.shmaks.banking.repo.journal.JournalRecord;
+import reactor.core.publisher.Mono;
+
+/**
+ * Journal of a replica is the primary's one: nothing is written locally, and snapshots of the replica are taken
+ * as of the lsn applied so far
+ */
+public class ReplicaJournal implements Journal {
+
+    private final ReplicaApplier applier;
+
+    public ReplicaJournal(ReplicaApplier applier) {
+        this.applier = applier;
+    }
+
+    @Override
+    public Mono<Void> append(JournalRecord record) {
+        return Mono.error(new IllegalStateException("Replica is read-only"));
+    }
+
+    @Override
+    public long getDurableLsn() {
+        return applier.getAppliedLsn();
+    }
+
+    @Override
+    public void truncate(long upToLsn) {
+    }
+}
@@ -0,0 +1,60 @@
+CREATE SEQUENCE IF NOT EXISTS account_seq START WITH 100500;
+CREATE SEQUENCE IF NOT EXISTS txn_group_seq START WITH 424242;
+CREATE SEQUENCE IF NOT EXISTS txn_seq START WITH 500100;
+CREATE SEQUENCE IF NOT EXISTS account_change_seq START WITH 1;
+
+CREATE TABLE IF NOT EXISTS account (
+    id             BIGINT PRIMARY KEY,
+    owner_id       VARCHAR(255)             NOT NULL,
+    account_number VARCHAR(64)              NOT NULL,
+    type           VARCHAR(16)              NOT NULL,
+    balance        DECIMAL                  NOT NULL,
+    currency_code  VARCHAR(3)               NOT NULL,
+    displayed_name VARCHAR(256),
+    last_txn_id    BIGINT,
+    created_at     TIMESTAMP WITH TIME ZONE NOT NULL,
+    deleted_at     TIMESTAMP WITH TIME ZONE,
+    change_seq     BIGINT                   NOT NULL,
+    version        BIGINT DEFAULT 0         NOT NULL,
+    CONSTRAINT account_number_uc UNIQUE (account_number)
+);
+CREATE INDEX IF NOT EXISTS account_owner_idx ON account (owner_id, account_number);
+CREATE INDEX IF NOT EXISTS account_balance_idx ON account (currency_code, balance);
+CREATE INDEX IF NOT EXISTS account_change_idx ON account (change_seq);
+
+CREATE TABLE IF NOT EXISTS txn_group (
+    id                      BIGINT PRIMARY KEY,
+    txn_uuid                UUID                     NOT NULL,
+    amount                  DECIMAL                  NOT NULL,
+    currency_code           VARCHAR(3)               NOT NULL,
+    type                    VARCHAR(16)              NOT NULL,
+    payer_account_number    VARCHAR(64),
+    receiver_account_number VARCHAR(64),
+    comment                 VARCHAR(256),
+    created_at              TIMESTAMP WITH TIME ZONE NOT NULL,
+    CONSTRAINT txn_group_uuid_uc UNIQUE (txn_uuid)
+);
+
+CREATE TABLE IF NOT EXISTS txn (
+    id             BIGINT PRIMARY KEY,
+    account_id     BIGINT                   NOT NULL,
+    txn_group_id   BIGINT                   NOT NULL,
+    linking_txn_id BIGINT,
+    account_version BIGINT,
+    status         VARCHAR(16),
+    spending_type  VARCHAR(16),
+    amount         DECIMAL                  NOT NULL,
+    created_at     TIMESTAMP WITH TIME ZONE NOT NULL,
+    details        VARCHAR(1024),
+    CONSTRAINT txn_account_fk FOREIGN KEY (account_id) REFERENCES account (id)
+);
+CREATE INDEX IF NOT EXISTS txn_group_idx ON txn (txn_group_id, account_id);
+CREATE INDEX IF NOT EXISTS txn_account_idx ON txn (account_id, id);
+
+CREATE TABLE IF NOT EXISTS outbox (
+    id           BIGINT GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY,
+    txn_group_id BIGINT NOT NULL,
+    seq          BIGINT,
+    CONSTRAINT outbox_seq_uc UNIQUE (seq)
+);
+CREATE INDEX IF NOT EXISTS outbox_pending_idx ON outbox (seq, id);
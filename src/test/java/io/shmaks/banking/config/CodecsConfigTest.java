@@ -0,0 +1,162 @@
+package io.shmaks.banking.config;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.shmaks.banking.model.Account;
+import io.shmaks.banking.model.AccountType;
+import io.shmaks.banking.model.Txn;
+import io.shmaks.banking.model.TxnStatus;
+import io.shmaks.banking.service.dto.AccountResponse;
+import io.shmaks.banking.service.dto.BatchTransferItem;
+import io.shmaks.banking.service.dto.BatchTransferRequest;
+import io.shmaks.banking.service.dto.TxnResult;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class CodecsConfigTest {
+
+    // mapper defaults of the WebFlux codecs
+    private static final Map<String, ObjectMapper> MAPPERS = Map.of(
+            "json", Jackson2ObjectMapperBuilder.json().build(),
+            "cbor", Jackson2ObjectMapperBuilder.cbor().build(),
+            "smile", Jackson2ObjectMapperBuilder.smile().build()
+    );
+
+    @Test
+    void binaryFormatsCarryTheSameValues() throws Exception {
+        var values = List.of(txnResults(3), accountResponses(3), batchTransferRequest(3));
+        for (var value : values) {
+            var json = tree("json", value);
+            assertThat(tree("cbor", value)).isEqualTo(json);
+            assertThat(tree("smile", value)).isEqualTo(json);
+        }
+
+        var request = batchTransferRequest(2);
+        for (var format : List.of("cbor", "smile")) {
+            var mapper = MAPPERS.get(format);
+            var decoded = mapper.readValue(mapper.writeValueAsBytes(request), BatchTransferRequest.class);
+            assertThat(decoded.getTransfers()).extracting(BatchTransferItem::getTxnUUID).containsExactly(
+                    request.getTransfers().get(0).getTxnUUID(), request.getTransfers().get(1).getTxnUUID()
+            );
+        }
+    }
+
+    private static String tree(String format, Object value) throws Exception {
+        var mapper = MAPPERS.get(format).copy().enable(DeserializationFeature.USE_BIG_DECIMAL_FOR_FLOATS);
+        return mapper.readTree(mapper.writeValueAsBytes(value)).toString();
+    }
+
+    /**
+     * Encoding of responses & decoding of requests at batch sizes of the API,
+     * run with {@code ./gradlew test --tests '*CodecsConfigTest' -Dbenchmark=true}
+     */
+    @Test
+    @EnabledIfSystemProperty(named = "benchmark", matches = "true")
+    void codecsBenchmark() throws Exception {
+        var iterations = Integer.getInteger("benchmark.iterations", 20_000);
+        System.out.printf("%-6s %-22s %6s %10s %12s %12s%n", "format", "payload", "items", "bytes", "encode ns", "decode ns");
+        for (var size : List.of(1, 100, 1000)) {
+            var rounds = Math.max(10, iterations / size);
+            for (var format : List.of("json", "cbor", "smile")) {
+                var mapper = MAPPERS.get(format);
+                run(format, "TxnResult", mapper, txnResults(size), null, size, rounds);
+                run(format, "AccountResponse", mapper, accountResponses(size), AccountResponse[].class, size, rounds);
+                run(format, "BatchTransferRequest", mapper, batchTransferRequest(size), BatchTransferRequest.class, size, rounds);
+            }
+        }
+    }
+
+    /**
+     * @param type to decode into, null if the payload is only written by the app
+     */
+    private static void run(
+            String format, String payload, ObjectMapper mapper, Object value, Class<?> type, int size, int rounds)
+            throws Exception {
+        var bytes = mapper.writeValueAsBytes(value);
+        // warm-up
+        for (int i = 0; i < rounds; i++) {
+            mapper.writeValueAsBytes(value);
+            if (type != null) {
+                mapper.readValue(bytes, type);
+            }
+        }
+
+        var startedAt = System.nanoTime();
+        for (int i = 0; i < rounds; i++) {
+            mapper.writeValueAsBytes(value);
+        }
+        var encodeNs = (System.nanoTime() - startedAt) / rounds;
+
+        var decodeNs = -1L;
+        if (type != null) {
+            startedAt = System.nanoTime();
+            for (int i = 0; i < rounds; i++) {
+                mapper.readValue(bytes, type);
+            }
+            decodeNs = (System.nanoTime() - startedAt) / rounds;
+        }
+        System.out.printf(
+                "%-6s %-22s %6d %10d %12d %12s%n",
+                format, payload, size, bytes.length, encodeNs, decodeNs >= 0 ? String.valueOf(decodeNs) : "-"
+        );
+    }
+
+    private static List<TxnResult> txnResults(int count) {
+        var account = account(0);
+        var results = new ArrayList<TxnResult>(count);
+        for (int i = 0; i < count; i++) {
+            var txn = new Txn();
+            txn.setId(500100L + i);
+            txn.setAccountId(account.getId());
+            txn.setTxnGroupId(424242L + i);
+            txn.setAmount(new BigDecimal("-123.45"));
+            txn.setStatus(TxnStatus.SUCCESS);
+            txn.setCreatedAt(Instant.parse("2024-01-01T00:00:00.123456Z").plusSeconds(i));
+            results.add(new TxnResult(txn, account));
+        }
+        return results;
+    }
+
+    private static List<AccountResponse> accountResponses(int count) {
+        var responses = new ArrayList<AccountResponse>(count);
+        for (int i = 0; i < count; i++) {
+            responses.add(new AccountResponse(account(i)));
+        }
+        return responses;
+    }
+
+    private static BatchTransferRequest batchTransferRequest(int count) {
+        var transfers = new ArrayList<BatchTransferItem>(count);
+        for (int i = 0; i < count; i++) {
+            transfers.add(new BatchTransferItem(
+                    UUID.randomUUID(), String.valueOf(1_000_000 + i), String.valueOf(2_000_000 + i),
+                    new BigDecimal("10.50"), "invoice #" + i
+            ));
+        }
+        return new BatchTransferRequest(transfers);
+    }
+
+    private static Account account(int i) {
+        var account = new Account();
+        account.setId(100500L + i);
+        account.setOwnerId("owner");
+        account.setAccountNumber(String.valueOf(1_000_000 + i));
+        account.setType(AccountType.USER);
+        account.setBalance(new BigDecimal("1234.56"));
+        account.setCurrencyCode("AED");
+        account.setDisplayedName("Savings " + i);
+        account.setLastTxnId(500100L + i);
+        account.setCreatedAt(Instant.parse("2024-01-01T00:00:00Z"));
+        return account;
+    }
+}
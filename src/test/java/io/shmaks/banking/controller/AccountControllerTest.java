@@ -1,17 +1,33 @@
 package io.shmaks.banking.controller;
 
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
 import io.shmaks.banking.config.AppConfig;
+import io.shmaks.banking.config.CodecsConfig;
 import io.shmaks.banking.config.SampleAppExtProps;
 import io.shmaks.banking.config.SampleAppProps;
+import io.shmaks.banking.config.SampleAppStorageProps;
 import io.shmaks.banking.config.SecurityConfig;
 import io.shmaks.banking.model.Account;
 import io.shmaks.banking.model.AccountType;
+import io.shmaks.banking.model.Txn;
+import io.shmaks.banking.model.TxnGroup;
+import io.shmaks.banking.model.TxnSpendingType;
+import io.shmaks.banking.model.TxnStatus;
+import io.shmaks.banking.repo.AccountRepo;
 import io.shmaks.banking.repo.InMemoryAccountRepo;
+import io.shmaks.banking.repo.InMemoryTxnRepo;
+import io.shmaks.banking.repo.outbox.Outbox;
+import io.shmaks.banking.service.AccountService;
+import io.shmaks.banking.service.StatementService;
 import io.shmaks.banking.service.bookkeeping.CorrespondentAccountsBootstrapper;
 import io.shmaks.banking.service.bookkeeping.OrgAccountsBootstrapper;
 import io.shmaks.banking.service.dto.AccountResponse;
+import io.shmaks.banking.service.dto.BalancesRequest;
 import io.shmaks.banking.service.dto.CreateAccountRequest;
+import io.shmaks.banking.service.dto.ImportAccountRequest;
 import org.apache.logging.log4j.util.Strings;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.Test;
@@ -25,9 +41,15 @@ import org.springframework.http.MediaType;
 import org.springframework.test.context.TestPropertySource;
 import org.springframework.test.context.junit.jupiter.SpringExtension;
 import org.springframework.test.web.reactive.server.WebTestClient;
+import reactor.core.publisher.Mono;
 import reactor.test.StepVerifier;
 
+import java.io.IOException;
 import java.math.BigDecimal;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Objects;
 import java.util.stream.Collectors;
@@ -37,8 +59,8 @@ import static org.assertj.core.api.Assertions.assertThat;
 
 @ExtendWith(SpringExtension.class)
 @WebFluxTest(AccountController.class)
-@Import({AppConfig.class, SecurityConfig.class})
-@EnableConfigurationProperties({SampleAppProps.class, SampleAppExtProps.class})
+@Import({AppConfig.class, SecurityConfig.class, CodecsConfig.class})
+@EnableConfigurationProperties({SampleAppProps.class, SampleAppExtProps.class, SampleAppStorageProps.class})
 @TestPropertySource(properties = {
         "sample-banking-app.users[0]=" + USER_OWNER_ID,
         "sample-banking-app.users[1]=" + OTHER_OWNER_ID,
@@ -54,9 +76,19 @@ public class AccountControllerTest {
     @Autowired
     InMemoryAccountRepo repo;
 
+    @SuppressWarnings("SpringJavaInjectionPointsAutowiringInspection")
+    @Autowired
+    InMemoryTxnRepo txnRepo;
+
     @Autowired
     WebTestClient testClient;
 
+    @Autowired
+    AccountService accountService;
+
+    @Autowired
+    Outbox outbox;
+
     @Autowired
     OrgAccountsBootstrapper orgAccountsBootstrapper;
 
@@ -66,6 +98,7 @@ public class AccountControllerTest {
     @AfterEach
     void cleanup() {
         repo.clear();
+        txnRepo.clear();
         orgAccountsBootstrapper.bootstrap();
         correspondentAccountsBootstrapper.bootstrap();
     }
@@ -281,6 +314,98 @@ public class AccountControllerTest {
                 .expectStatus().isOk().expectBody().json("{ \"amount\": 0 }");
     }
 
+    @Test
+    void getBalances() throws Exception {
+        var aed = Objects.requireNonNull(accountService.create(
+                USER_OWNER_ID, new CreateAccountRequest(BigDecimal.valueOf(12.5), "AED", null)
+        ).block());
+        var usd = Objects.requireNonNull(accountService.create(
+                USER_OWNER_ID, new CreateAccountRequest(null, "USD", null)
+        ).block());
+        var others = Objects.requireNonNull(accountService.create(
+                OTHER_OWNER_ID, new CreateAccountRequest(BigDecimal.TEN, "AED", null)
+        ).block());
+        var request = new BalancesRequest(List.of(usd.getId(), others.getId(), aed.getId(), -1L, usd.getId()));
+
+        //try to get by unknown user
+        testClient.post()
+                .uri("/accounts/balances")
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue(request)
+                .exchange()
+                .expectStatus().isUnauthorized();
+
+        // accounts of other users & unknown ones are left out
+        testClient.post()
+                .uri("/accounts/balances")
+                .contentType(MediaType.APPLICATION_JSON)
+                .header(HttpHeaders.AUTHORIZATION, USER_TOKEN)
+                .bodyValue(request)
+                .exchange()
+                .expectStatus().isOk().expectBody().json(
+                        "[{\"id\": " + usd.getId() + ", \"amount\": 0, \"currencyCode\": \"USD\"}, " +
+                                "{\"id\": " + aed.getId() + ", \"amount\": 12.5, \"currencyCode\": \"AED\"}]"
+                );
+
+        testClient.post()
+                .uri("/accounts/balances")
+                .contentType(MediaType.APPLICATION_JSON)
+                .header(HttpHeaders.AUTHORIZATION, OTHER_USER_TOKEN)
+                .bodyValue(request)
+                .exchange()
+                .expectStatus().isOk().expectBody().json("[{\"id\": " + others.getId() + ", \"amount\": 10}]");
+
+        testClient.post()
+                .uri("/accounts/balances")
+                .contentType(MediaType.APPLICATION_JSON)
+                .header(HttpHeaders.AUTHORIZATION, USER_TOKEN)
+                .bodyValue(new BalancesRequest(List.of()))
+                .exchange()
+                .expectStatus().isBadRequest();
+    }
+
+    @Test
+    void binaryFormats() throws Exception {
+        var cbor = new ObjectMapper(new CBORFactory());
+        var smile = new ObjectMapper(new SmileFactory());
+
+        testClient.post()
+                .uri("/accounts")
+                .contentType(MediaType.APPLICATION_CBOR)
+                .header(HttpHeaders.AUTHORIZATION, USER_TOKEN)
+                .bodyValue(cbor.writeValueAsBytes(new CreateAccountRequest(BigDecimal.valueOf(12.5), "AED", "cbor")))
+                .exchange()
+                .expectStatus().isCreated();
+        var account = repo.findAllUserAccountsOrderByAccountNumberAsc(1, null).block().get(0);
+        assertThat(account.getDisplayedName()).isEqualTo("cbor");
+
+        var balances = testClient.post()
+                .uri("/accounts/balances")
+                .contentType(CodecsConfig.APPLICATION_SMILE)
+                .accept(MediaType.APPLICATION_CBOR)
+                .header(HttpHeaders.AUTHORIZATION, USER_TOKEN)
+                .bodyValue(smile.writeValueAsBytes(new BalancesRequest(List.of(account.getId()))))
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().contentTypeCompatibleWith(MediaType.APPLICATION_CBOR)
+                .expectBody(byte[].class)
+                .returnResult().getResponseBody();
+        assertThat(cbor.readTree(balances).get(0).get("amount").decimalValue()).isEqualByComparingTo("12.5");
+
+        var accounts = testClient.get()
+                .uri("/accounts")
+                .accept(CodecsConfig.APPLICATION_SMILE)
+                .header(HttpHeaders.AUTHORIZATION, USER_TOKEN)
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().contentTypeCompatibleWith(CodecsConfig.APPLICATION_SMILE)
+                .expectBody(byte[].class)
+                .returnResult().getResponseBody();
+        assertThat(smile.readValue(accounts, AccountResponse[].class))
+                .extracting(AccountResponse::getAccountNumber)
+                .containsExactly(account.getAccountNumber());
+    }
+
     @Test
     void listAccounts() throws Exception {
 
@@ -552,4 +677,545 @@ public class AccountControllerTest {
                 .expectStatus().isOk().expectBody()
                 .json(jackson.writeValueAsString(List.of(allAccounts.get(3))));
     }
+
+    @Test
+    void topAccounts() throws Exception {
+        var balances = List.of(BigDecimal.TEN, BigDecimal.valueOf(101), BigDecimal.ONE, BigDecimal.valueOf(50));
+        for (var balance : balances) {
+            testClient.post()
+                    .uri("/accounts")
+                    .contentType(MediaType.APPLICATION_JSON)
+                    .header(HttpHeaders.AUTHORIZATION, USER_TOKEN)
+                    .bodyValue(jackson.writeValueAsString(new CreateAccountRequest(balance, "AED", null)))
+                    .exchange()
+                    .expectStatus().isCreated();
+        }
+        testClient.post()
+                .uri("/accounts")
+                .contentType(MediaType.APPLICATION_JSON)
+                .header(HttpHeaders.AUTHORIZATION, OTHER_USER_TOKEN)
+                .bodyValue(jackson.writeValueAsString(new CreateAccountRequest(BigDecimal.valueOf(1000), "USD", null)))
+                .exchange()
+                .expectStatus().isCreated();
+
+        var aedAccounts = repo.getAccounts()
+                .stream()
+                .filter(it -> it.getType() == AccountType.USER && it.getCurrencyCode().equals("AED"))
+                .sorted((acc1, acc2) -> acc2.getBalance().compareTo(acc1.getBalance()))
+                .map(AccountResponse::new)
+                .collect(Collectors.toList());
+
+        //try to get by a user
+        testClient.get()
+                .uri("/accounts/top?currencyCode=AED")
+                .header(HttpHeaders.AUTHORIZATION, USER_TOKEN)
+                .exchange()
+                .expectStatus().isForbidden();
+
+        for (var count : List.of(51, 0, -1)) {
+            testClient.get()
+                    .uri("/accounts/top?currencyCode=AED&count=" + count)
+                    .header(HttpHeaders.AUTHORIZATION, ADMIN_TOKEN)
+                    .exchange()
+                    .expectStatus().isBadRequest();
+        }
+
+        testClient.get()
+                .uri("/accounts/top?currencyCode=AED")
+                .header(HttpHeaders.AUTHORIZATION, ADMIN_TOKEN)
+                .exchange()
+                .expectStatus().isOk().expectBody().json(jackson.writeValueAsString(aedAccounts));
+
+        testClient.get()
+                .uri("/accounts/top?currencyCode=AED&count=2")
+                .header(HttpHeaders.AUTHORIZATION, ADMIN_TOKEN)
+                .exchange()
+                .expectStatus().isOk().expectBody().json(jackson.writeValueAsString(aedAccounts.subList(0, 2)));
+
+        testClient.get()
+                .uri("/accounts/" + aedAccounts.get(2).getId() + "/rank")
+                .header(HttpHeaders.AUTHORIZATION, ADMIN_TOKEN)
+                .exchange()
+                .expectStatus().isOk().expectBody()
+                .json("{ \"accountId\": " + aedAccounts.get(2).getId() + ", \"currencyCode\": \"AED\", \"rank\": 3, \"total\": 4 }");
+
+        repo.updateBalance(aedAccounts.get(3).getId(), 1L, BigDecimal.valueOf(1000)).block();
+        repo.deleteByIdAndOwnerId(aedAccounts.get(0).getId(), USER_OWNER_ID).block();
+
+        testClient.get()
+                .uri("/accounts/" + aedAccounts.get(3).getId() + "/rank")
+                .header(HttpHeaders.AUTHORIZATION, ADMIN_TOKEN)
+                .exchange()
+                .expectStatus().isOk().expectBody()
+                .json("{ \"rank\": 1, \"total\": 3 }");
+
+        testClient.get()
+                .uri("/accounts/" + aedAccounts.get(0).getId() + "/rank")
+                .header(HttpHeaders.AUTHORIZATION, ADMIN_TOKEN)
+                .exchange()
+                .expectStatus().isNotFound();
+    }
+
+    @Test
+    void listAccountChanges() throws Exception {
+        var ids = new ArrayList<Long>();
+        for (int i = 0; i < 3; i++) {
+            ids.add(accountService.create(USER_OWNER_ID, new CreateAccountRequest(BigDecimal.valueOf(i), "AED", null)).block().getId());
+        }
+
+        //try to list by a user
+        testClient.get()
+                .uri("/accounts/changes")
+                .header(HttpHeaders.AUTHORIZATION, USER_TOKEN)
+                .exchange()
+                .expectStatus().isForbidden();
+
+        for (var count : List.of(1001, 0, -1)) {
+            testClient.get()
+                    .uri("/accounts/changes?count=" + count)
+                    .header(HttpHeaders.AUTHORIZATION, ADMIN_TOKEN)
+                    .exchange()
+                    .expectStatus().isBadRequest();
+        }
+
+        var all = listChanges(0, 10);
+        assertThat(all).extracting(change -> change.get("id").asLong()).containsExactlyElementsOf(ids);
+        var since = all.get(2).get("changeSeq").asLong();
+        assertThat(listChanges(since, 10)).isEmpty();
+
+        repo.updateBalance(ids.get(0), 1L, BigDecimal.ONE).block();
+        repo.deleteByIdAndOwnerId(ids.get(1), USER_OWNER_ID).block();
+        repo.updateBalance(ids.get(0), 2L, BigDecimal.ONE).block();
+
+        var changes = listChanges(since, 10);
+        assertThat(changes).extracting(change -> change.get("id").asLong()).containsExactly(ids.get(1), ids.get(0));
+        assertThat(changes.get(0).get("deletedAt").isNull()).isFalse();
+        assertThat(changes.get(1).get("balance").decimalValue()).isEqualByComparingTo("2");
+
+        var page = listChanges(since, 1);
+        assertThat(page).extracting(change -> change.get("id").asLong()).containsExactly(ids.get(1));
+        assertThat(listChanges(page.get(0).get("changeSeq").asLong(), 1))
+                .extracting(change -> change.get("id").asLong())
+                .containsExactly(ids.get(0));
+    }
+
+    private List<JsonNode> listChanges(long since, int count) throws Exception {
+        var body = testClient.get()
+                .uri("/accounts/changes?since=" + since + "&count=" + count)
+                .header(HttpHeaders.AUTHORIZATION, ADMIN_TOKEN)
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody(String.class)
+                .returnResult().getResponseBody();
+        var changes = new ArrayList<JsonNode>();
+        jackson.readTree(body).forEach(changes::add);
+        return changes;
+    }
+
+    @Test
+    void exportAccounts() throws Exception {
+        for (int i = 0; i < 30; i++) {
+            var ownerId = i % 2 == 0 ? USER_OWNER_ID : OTHER_OWNER_ID;
+            accountService.create(ownerId, new CreateAccountRequest(BigDecimal.valueOf(i), "AED", null)).block();
+        }
+        var deleted = repo.findAllUserAccountsOrderByAccountNumberAsc(1, null).block().get(0);
+        repo.deleteByIdAndOwnerId(deleted.getId(), deleted.getOwnerId()).block();
+
+        //try to export by a user
+        testClient.get()
+                .uri("/accounts/export")
+                .header(HttpHeaders.AUTHORIZATION, USER_TOKEN)
+                .exchange()
+                .expectStatus().isForbidden();
+
+        var expected = repo.getAccounts().stream()
+                .filter(account -> account.getType() == AccountType.USER && account.getDeletedAt() == null)
+                .sorted(Comparator.comparing(Account::getAccountNumber))
+                .map(Account::getAccountNumber)
+                .collect(Collectors.toList());
+        var body = testClient.get()
+                .uri("/accounts/export")
+                .header(HttpHeaders.AUTHORIZATION, ADMIN_TOKEN)
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().contentTypeCompatibleWith(MediaType.APPLICATION_NDJSON)
+                .expectBody(String.class)
+                .returnResult().getResponseBody();
+        var exported = new ArrayList<String>();
+        for (var line : Objects.requireNonNull(body).split("\n")) {
+            exported.add(jackson.readTree(line).get("accountNumber").asText());
+        }
+        assertThat(exported).hasSize(29).isEqualTo(expected);
+    }
+
+    @Test
+    void getBalanceConditionally() {
+        var account = accountService.create(USER_OWNER_ID, new CreateAccountRequest(BigDecimal.valueOf(50), "AED", null)).block();
+        var accountId = Objects.requireNonNull(account).getId();
+
+        testClient.get()
+                .uri("/accounts/" + accountId + "/balance")
+                .header(HttpHeaders.AUTHORIZATION, USER_TOKEN)
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().valueEquals(HttpHeaders.ETAG, "\"0\"")
+                .expectBody().json("{ \"amount\": 50 }");
+
+        testClient.get()
+                .uri("/accounts/" + accountId + "/balance")
+                .header(HttpHeaders.AUTHORIZATION, USER_TOKEN)
+                .header(HttpHeaders.IF_NONE_MATCH, "\"0\"")
+                .exchange()
+                .expectStatus().isNotModified()
+                .expectBody().isEmpty();
+
+        //nothing changes while waiting
+        testClient.get()
+                .uri("/accounts/" + accountId + "/balance?wait=1")
+                .header(HttpHeaders.AUTHORIZATION, USER_TOKEN)
+                .header(HttpHeaders.IF_NONE_MATCH, "\"0\"")
+                .exchange()
+                .expectStatus().isNotModified();
+
+        //any version matches "*", so it isn't waited on
+        testClient.mutate().responseTimeout(Duration.ofSeconds(2)).build()
+                .get()
+                .uri("/accounts/" + accountId + "/balance?wait=5")
+                .header(HttpHeaders.AUTHORIZATION, USER_TOKEN)
+                .header(HttpHeaders.IF_NONE_MATCH, "\"0\", *")
+                .exchange()
+                .expectStatus().isNotModified()
+                .expectHeader().valueEquals(HttpHeaders.ETAG, "\"0\"");
+
+        testClient.get()
+                .uri("/accounts/" + accountId + "/balance?wait=61")
+                .header(HttpHeaders.AUTHORIZATION, USER_TOKEN)
+                .exchange()
+                .expectStatus().isBadRequest();
+
+        Mono.delay(Duration.ofMillis(300))
+                .doOnNext(tick -> {
+                    var txn = postTxn(accountId, "100", "2024-01-01T00:00:00Z", null);
+                    outbox.append(new TxnGroup(), List.of(txn)).block();
+                })
+                .subscribe();
+        testClient.mutate().responseTimeout(Duration.ofSeconds(10)).build()
+                .get()
+                .uri("/accounts/" + accountId + "/balance?wait=5")
+                .header(HttpHeaders.AUTHORIZATION, USER_TOKEN)
+                .header(HttpHeaders.IF_NONE_MATCH, "\"0\"")
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().valueEquals(HttpHeaders.ETAG, "\"1\"")
+                .expectBody().json("{ \"amount\": 150 }");
+    }
+
+    @Test
+    void streamBalances() {
+        var account = accountService.create(USER_OWNER_ID, new CreateAccountRequest(BigDecimal.valueOf(50), "AED", null)).block();
+        var accountId = Objects.requireNonNull(account).getId();
+
+        //try to stream by other user
+        testClient.get()
+                .uri("/accounts/balances/stream?ids=" + accountId)
+                .header(HttpHeaders.AUTHORIZATION, OTHER_USER_TOKEN)
+                .exchange()
+                .expectStatus().isNotFound();
+
+        var events = testClient.get()
+                .uri("/accounts/balances/stream?ids=" + accountId + "&ids=-1")
+                .header(HttpHeaders.AUTHORIZATION, USER_TOKEN)
+                .accept(MediaType.TEXT_EVENT_STREAM)
+                .exchange()
+                .expectStatus().isOk()
+                .returnResult(String.class)
+                .getResponseBody();
+
+        StepVerifier.create(events)
+                .assertNext(event -> assertBalanceEvent(event, accountId, "50", null))
+                .then(() -> {
+                    //both are posted before the outbox is read, so they come as one event
+                    var first = postTxn(accountId, "100", "2024-01-01T00:00:00Z", null);
+                    var second = postTxn(accountId, "-30", "2024-01-01T00:00:01Z", null);
+                    outbox.append(new TxnGroup(), List.of(first)).block();
+                    outbox.append(new TxnGroup(), List.of(second)).block();
+                })
+                .assertNext(event -> assertBalanceEvent(event, accountId, "120", txnRepo.getNextId() - 1))
+                .expectNoEvent(Duration.ofMillis(500))
+                .thenCancel()
+                .verify(Duration.ofSeconds(5));
+    }
+
+    private void assertBalanceEvent(String event, Long accountId, String amount, Long lastTxnId) {
+        JsonNode json;
+        try {
+            json = jackson.readTree(event);
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+        assertThat(json.get("id").asLong()).isEqualTo(accountId);
+        assertThat(json.get("amount").decimalValue()).isEqualByComparingTo(amount);
+        assertThat(json.get("lastTxnId").isNull() ? null : json.get("lastTxnId").asLong()).isEqualTo(lastTxnId);
+    }
+
+    @Test
+    void getStatement() {
+        var account = accountService.create(USER_OWNER_ID, new CreateAccountRequest(BigDecimal.valueOf(50), "AED", null)).block();
+        var accountId = Objects.requireNonNull(account).getId();
+        var first = postTxn(accountId, "100", "2024-01-01T00:00:00Z", "salary");
+        var second = postTxn(accountId, "-30.5", "2024-02-01T00:00:00Z", "rent, \"flat\"");
+        var third = postTxn(accountId, "5", "2024-02-10T00:00:00Z", null);
+        postTxn(accountId, "7", "2024-03-01T00:00:00Z", "later");
+        //not posted to the balance yet
+        var pending = new Txn();
+        pending.setAccountId(accountId);
+        pending.setTxnGroupId(1L);
+        pending.setAmount(BigDecimal.ONE);
+        pending.setStatus(TxnStatus.SUCCESS);
+        pending.setSpendingType(TxnSpendingType.TRANSFER);
+        txnRepo.create(pending).block();
+
+        //try to get by other user
+        testClient.get()
+                .uri("/accounts/" + accountId + "/statement")
+                .header(HttpHeaders.AUTHORIZATION, OTHER_USER_TOKEN)
+                .exchange()
+                .expectStatus().isNotFound();
+
+        testClient.get()
+                .uri("/accounts/" + accountId + "/statement?format=pdf")
+                .header(HttpHeaders.AUTHORIZATION, USER_TOKEN)
+                .exchange()
+                .expectStatus().isBadRequest();
+
+        var body = testClient.get()
+                .uri("/accounts/" + accountId + "/statement")
+                .header(HttpHeaders.AUTHORIZATION, USER_TOKEN)
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().contentTypeCompatibleWith("text", "csv")
+                .expectBody(String.class)
+                .returnResult().getResponseBody();
+        assertThat(body).isEqualTo(StatementService.CSV_HEADER
+                + first.getId() + ",2024-01-01T00:00:00Z,1,TRANSFER,100,150,salary\n"
+                + second.getId() + ",2024-02-01T00:00:00Z,1,TRANSFER,-30.5,119.5,\"rent, \"\"flat\"\"\"\n"
+                + third.getId() + ",2024-02-10T00:00:00Z,1,TRANSFER,5,124.5,\n"
+                + (third.getId() + 1) + ",2024-03-01T00:00:00Z,1,TRANSFER,7,131.5,later\n"
+        );
+
+        body = testClient.get()
+                .uri("/accounts/" + accountId + "/statement?from=2024-01-15T00:00:00Z&to=2024-03-01T00:00:00Z")
+                .header(HttpHeaders.AUTHORIZATION, USER_TOKEN)
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody(String.class)
+                .returnResult().getResponseBody();
+        assertThat(body).isEqualTo(StatementService.CSV_HEADER
+                + second.getId() + ",2024-02-01T00:00:00Z,1,TRANSFER,-30.5,119.5,\"rent, \"\"flat\"\"\"\n"
+                + third.getId() + ",2024-02-10T00:00:00Z,1,TRANSFER,5,124.5,\n"
+        );
+    }
+
+    private Txn postTxn(Long accountId, String amount, String createdAt, String details) {
+        var txn = new Txn();
+        txn.setAccountId(accountId);
+        txn.setTxnGroupId(1L);
+        txn.setAmount(new BigDecimal(amount));
+        txn.setStatus(TxnStatus.SUCCESS);
+        txn.setSpendingType(TxnSpendingType.TRANSFER);
+        txn.setDetails(details);
+        txnRepo.create(txn).block();
+        txn.setCreatedAt(Instant.parse(createdAt));
+        repo.updateBalances(AccountRepo.BalanceUpdate.of(List.of(txn))).block();
+        return txn;
+    }
+
+    @Test
+    void searchAccounts() throws Exception {
+        for (var name : List.of("John Smith savings", "johnny", "Mary Johnson")) {
+            testClient.post()
+                    .uri("/accounts")
+                    .contentType(MediaType.APPLICATION_JSON)
+                    .header(HttpHeaders.AUTHORIZATION, USER_TOKEN)
+                    .bodyValue(jackson.writeValueAsString(new CreateAccountRequest(null, "AED", name)))
+                    .exchange()
+                    .expectStatus().isCreated();
+        }
+
+        var accountsByName = repo.getAccounts()
+                .stream()
+                .filter(it -> it.getType() == AccountType.USER)
+                .collect(Collectors.toMap(Account::getDisplayedName, AccountResponse::new));
+
+        //try to search by a user
+        testClient.get()
+                .uri("/accounts/search?query=john")
+                .header(HttpHeaders.AUTHORIZATION, USER_TOKEN)
+                .exchange()
+                .expectStatus().isForbidden();
+
+        for (var count : List.of(51, 0, -1)) {
+            testClient.get()
+                    .uri("/accounts/search?query=john&count=" + count)
+                    .header(HttpHeaders.AUTHORIZATION, ADMIN_TOKEN)
+                    .exchange()
+                    .expectStatus().isBadRequest();
+        }
+
+        testClient.get()
+                .uri("/accounts/search?query=JOHN")
+                .header(HttpHeaders.AUTHORIZATION, ADMIN_TOKEN)
+                .exchange()
+                .expectStatus().isOk().expectBody().json(jackson.writeValueAsString(List.of(
+                        accountsByName.get("John Smith savings"), accountsByName.get("johnny"), accountsByName.get("Mary Johnson")
+                )));
+
+        testClient.get()
+                .uri("/accounts/search?query=sav")
+                .header(HttpHeaders.AUTHORIZATION, ADMIN_TOKEN)
+                .exchange()
+                .expectStatus().isOk().expectBody()
+                .json(jackson.writeValueAsString(List.of(accountsByName.get("John Smith savings"))));
+
+        var mary = accountsByName.get("Mary Johnson");
+        testClient.get()
+                .uri("/accounts/search?query=" + mary.getAccountNumber())
+                .header(HttpHeaders.AUTHORIZATION, ADMIN_TOKEN)
+                .exchange()
+                .expectStatus().isOk().expectBody().json(jackson.writeValueAsString(List.of(mary)));
+
+        repo.deleteByIdAndOwnerId(mary.getId(), USER_OWNER_ID).block();
+
+        testClient.get()
+                .uri("/accounts/search?query=mary")
+                .header(HttpHeaders.AUTHORIZATION, ADMIN_TOKEN)
+                .exchange()
+                .expectStatus().isOk().expectBody().json("[]");
+    }
+
+    @Test
+    void importAccounts() throws Exception {
+        var ndjson = String.join("\n",
+                jackson.writeValueAsString(new ImportAccountRequest(USER_OWNER_ID, BigDecimal.TEN, "AED", "imported")),
+                jackson.writeValueAsString(new ImportAccountRequest(USER_OWNER_ID, BigDecimal.TEN, "RUB", null)),
+                jackson.writeValueAsString(new ImportAccountRequest(OTHER_OWNER_ID, BigDecimal.ONE.negate(), "AED", null))
+        );
+
+        //try to import by a user
+        testClient.post()
+                .uri("/accounts/import")
+                .contentType(MediaType.APPLICATION_NDJSON)
+                .header(HttpHeaders.AUTHORIZATION, USER_TOKEN)
+                .bodyValue(ndjson)
+                .exchange()
+                .expectStatus().isForbidden();
+
+        var results = importAccounts(MediaType.APPLICATION_NDJSON, ndjson);
+        assertThat(results).hasSize(3);
+        assertThat(results.get(0).get("record").asLong()).isEqualTo(1);
+        assertThat(results.get(0).get("error").isNull()).isTrue();
+        assertThat(results.get(1).get("error").asText()).contains("currency is not supported");
+        assertThat(results.get(2).get("error").asText()).contains("initialBalance");
+        assertThat(repo.findById(results.get(0).get("id").asLong()).block())
+                .returns(results.get(0).get("accountNumber").asText(), Account::getAccountNumber)
+                .returns(USER_OWNER_ID, Account::getOwnerId)
+                .returns("imported", Account::getDisplayedName)
+                .returns(AccountType.USER, Account::getType);
+
+        // more accounts than are created at once
+        var csv = new StringBuilder("ownerId,currencyCode,initialBalance,displayedName\n");
+        for (int i = 0; i < 1200; i++) {
+            csv.append(OTHER_OWNER_ID).append(",USD,").append(i).append(",\"Bob, #").append(i).append("\"\n");
+        }
+        csv.append("bob,USD,lots\n");
+        results = importAccounts(MediaType.parseMediaType("text/csv"), csv.toString());
+        assertThat(results).hasSize(1201);
+        assertThat(results.get(1200).get("record").asLong()).isEqualTo(1201);
+        assertThat(results.get(1200).get("error").asText()).contains("initialBalance is not a number");
+        assertThat(results.stream().filter(result -> result.get("error").isNull()).map(result -> result.get("id").asLong()))
+                .doesNotHaveDuplicates()
+                .hasSize(1200);
+
+        var bobAccounts = repo.getAccounts().stream()
+                .filter(account -> account.getOwnerId().equals(OTHER_OWNER_ID))
+                .collect(Collectors.toMap(Account::getDisplayedName, Account::getBalance));
+        assertThat(bobAccounts).hasSize(1200);
+        assertThat(bobAccounts.get("Bob, #1199")).isEqualByComparingTo(BigDecimal.valueOf(1199));
+    }
+
+    private List<JsonNode> importAccounts(MediaType contentType, String body) throws Exception {
+        var response = testClient.post()
+                .uri("/accounts/import")
+                .contentType(contentType)
+                .header(HttpHeaders.AUTHORIZATION, ADMIN_TOKEN)
+                .bodyValue(body)
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody(String.class)
+                .returnResult().getResponseBody();
+        var results = new ArrayList<JsonNode>();
+        for (var line : Objects.requireNonNull(response).split("\n")) {
+            results.add(jackson.readTree(line));
+        }
+        return results;
+    }
+
+    @Test
+    void restoreAccount() throws Exception {
+        testClient.post()
+                .uri("/accounts")
+                .contentType(MediaType.APPLICATION_JSON)
+                .header(HttpHeaders.AUTHORIZATION, USER_TOKEN)
+                .bodyValue(jackson.writeValueAsString(new CreateAccountRequest(BigDecimal.TEN, "AED", "archived")))
+                .exchange()
+                .expectStatus().isCreated();
+
+        var account = Objects.requireNonNull(repo.findAllUserAccountsOrderByAccountNumberAsc(1, null).block()).get(0);
+
+        testClient.delete()
+                .uri("/accounts/" + account.getId())
+                .header(HttpHeaders.AUTHORIZATION, USER_TOKEN)
+                .exchange()
+                .expectStatus().isNoContent();
+
+        StepVerifier.create(repo.archiveDeletedBefore(Instant.now().minusSeconds(60)))
+                .expectNext(0L)
+                .verifyComplete();
+        StepVerifier.create(repo.archiveDeletedBefore(Instant.now().plusSeconds(1)))
+                .expectNext(1L)
+                .verifyComplete();
+
+        assertThat(repo.getAccounts()).noneMatch(it -> it.getId().equals(account.getId()));
+        assertThat(repo.getArchivedAccounts()).hasSize(1);
+        StepVerifier.create(repo.findById(account.getId()))
+                .expectNextMatches(it -> it.getDeletedAt() != null && it.getBalance().equals(BigDecimal.TEN))
+                .verifyComplete();
+
+        //try to restore by other user
+        testClient.post()
+                .uri("/accounts/" + account.getId() + "/restore")
+                .header(HttpHeaders.AUTHORIZATION, OTHER_USER_TOKEN)
+                .exchange()
+                .expectStatus().isNotFound();
+
+        testClient.post()
+                .uri("/accounts/" + account.getId() + "/restore")
+                .header(HttpHeaders.AUTHORIZATION, USER_TOKEN)
+                .exchange()
+                .expectStatus().isNoContent();
+
+        assertThat(repo.getArchivedAccounts()).isEmpty();
+        testClient.get()
+                .uri("/accounts")
+                .header(HttpHeaders.AUTHORIZATION, USER_TOKEN)
+                .exchange()
+                .expectStatus().isOk().expectBody()
+                .json(jackson.writeValueAsString(List.of(new AccountResponse(account))));
+
+        testClient.post()
+                .uri("/accounts/" + account.getId() + "/restore")
+                .header(HttpHeaders.AUTHORIZATION, USER_TOKEN)
+                .exchange()
+                .expectStatus().isNotFound();
+    }
 }
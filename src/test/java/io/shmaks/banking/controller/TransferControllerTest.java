@@ -2,8 +2,10 @@ package io.shmaks.banking.controller;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 import io.shmaks.banking.config.AppConfig;
+import io.shmaks.banking.config.CodecsConfig;
 import io.shmaks.banking.config.SampleAppExtProps;
 import io.shmaks.banking.config.SampleAppProps;
+import io.shmaks.banking.config.SampleAppStorageProps;
 import io.shmaks.banking.config.SecurityConfig;
 import io.shmaks.banking.ext.CurrencyPair;
 import io.shmaks.banking.ext.FeeService;
@@ -42,8 +44,8 @@ import static org.assertj.core.api.Assertions.assertThat;
 
 @ExtendWith(SpringExtension.class)
 @WebFluxTest(TransferController.class)
-@Import({AppConfig.class, SecurityConfig.class})
-@EnableConfigurationProperties({SampleAppProps.class, SampleAppExtProps.class})
+@Import({AppConfig.class, SecurityConfig.class, CodecsConfig.class})
+@EnableConfigurationProperties({SampleAppProps.class, SampleAppExtProps.class, SampleAppStorageProps.class})
 @TestPropertySource(properties = {
         "sample-banking-app.users[0]=" + USER_OWNER_ID,
         "sample-banking-app.users[1]=" + OTHER_OWNER_ID,
@@ -875,6 +877,189 @@ public class TransferControllerTest {
                 .isGreaterThan(balanceByAccNumber.get(bobAccount.getAccountNumber()));
     }
 
+    @Test
+    void batchTransfer() throws Exception {
+        var aliceAedAccount = Objects.requireNonNull(accountService.create(
+                USER_OWNER_ID, new CreateAccountRequest(BigDecimal.valueOf(100), "AED", null)
+        ).block());
+        var aliceUsdAccount = Objects.requireNonNull(accountService.create(
+                USER_OWNER_ID, new CreateAccountRequest(BigDecimal.valueOf(50), "USD", null)
+        ).block());
+        var bobAccount = Objects.requireNonNull(accountService.create(
+                OTHER_OWNER_ID, new CreateAccountRequest(null, "AED", null)
+        ).block());
+        var aliceAed = aliceAedAccount.getAccountNumber();
+        var aliceUsd = aliceUsdAccount.getAccountNumber();
+        var bob = bobAccount.getAccountNumber();
+
+        var lend = UUID.randomUUID();
+        var insufficient = UUID.randomUUID();
+        var exchange = UUID.randomUUID();
+        var notOwned = UUID.randomUUID();
+        var rest = UUID.randomUUID();
+        var batch = new BatchTransferRequest(List.of(
+                new BatchTransferItem(lend, aliceAed, bob, BigDecimal.valueOf(60), "lend"),
+                new BatchTransferItem(insufficient, aliceAed, bob, BigDecimal.valueOf(50), "insufficient"),
+                new BatchTransferItem(exchange, aliceUsd, bob, BigDecimal.TEN, "exchange"),
+                new BatchTransferItem(notOwned, bob, aliceAed, BigDecimal.ONE, "not owned"),
+                new BatchTransferItem(lend, aliceAed, bob, BigDecimal.ONE, "duplicate"),
+                // sees the balance left by the transfers before it
+                new BatchTransferItem(rest, aliceAed, bob, BigDecimal.valueOf(40), "rest")
+        ));
+        var fee = feeService.getExchangeFee(new CurrencyPair("USD", "AED"), BigDecimal.TEN).block();
+        var bobBalance = BigDecimal.valueOf(100).add(BigDecimal.TEN.subtract(fee).multiply(BigDecimal.valueOf(USD_2_AED)));
+
+        Map<UUID, Long> txnIds = null;
+        for (int i = 0; i < 2; i++) {
+            var body = testClient.post()
+                    .uri("/transfer/batch")
+                    .contentType(MediaType.APPLICATION_JSON)
+                    .header(HttpHeaders.AUTHORIZATION, USER_TOKEN)
+                    .bodyValue(batch)
+                    .exchange()
+                    .expectStatus().isOk()
+                    .expectBody(String.class)
+                    .returnResult().getResponseBody();
+            var statuses = new ArrayList<String>();
+            var ids = new HashMap<UUID, Long>();
+            for (var line : Objects.requireNonNull(body).split("\n")) {
+                var result = jackson.readTree(line);
+                var txnUUID = UUID.fromString(result.get("txnUUID").asText());
+                statuses.add(txnUUID + ":" + result.get("status").asInt());
+                if (result.get("status").asInt() == 200) {
+                    ids.put(txnUUID, result.get("result").get("txnId").asLong());
+                    assertThat(result.get("result").get("amount").decimalValue()).isNegative();
+                }
+            }
+            assertThat(statuses).containsExactlyInAnyOrder(
+                    lend + ":200", insufficient + ":400", exchange + ":200", notOwned + ":400", lend + ":400", rest + ":200"
+            );
+            // retried batch is answered by the same txns
+            if (txnIds != null) {
+                assertThat(ids).isEqualTo(txnIds);
+            }
+            txnIds = ids;
+
+            assertThat(accountRepo.findById(aliceAedAccount.getId()).block().getBalance()).isEqualByComparingTo(BigDecimal.ZERO);
+            assertThat(accountRepo.findById(aliceUsdAccount.getId()).block().getBalance()).isEqualByComparingTo(BigDecimal.valueOf(40));
+            assertThat(accountRepo.findById(bobAccount.getId()).block().getBalance()).isEqualByComparingTo(bobBalance);
+        }
+        assertThat(txnGroupRepo.findByUUID(insufficient).block()).isNull();
+        assertThat(txnGroupRepo.findByUUID(rest).block()).isNotNull()
+                .returns(aliceAed, TxnGroup::getPayerAccountNumber)
+                .returns(bob, TxnGroup::getReceiverAccountNumber)
+                .returns("rest", TxnGroup::getComment);
+
+        testClient.post()
+                .uri("/transfer/batch")
+                .contentType(MediaType.APPLICATION_JSON)
+                .header(HttpHeaders.AUTHORIZATION, USER_TOKEN)
+                .bodyValue(new BatchTransferRequest(List.of()))
+                .exchange()
+                .expectStatus().isBadRequest();
+    }
+
+    @Test
+    void payout() throws Exception {
+        var aliceAccount = Objects.requireNonNull(accountService.create(
+                USER_OWNER_ID, new CreateAccountRequest(BigDecimal.valueOf(100), "AED", null)
+        ).block());
+        var bobAccount = Objects.requireNonNull(accountService.create(
+                OTHER_OWNER_ID, new CreateAccountRequest(null, "AED", null)
+        ).block());
+        var carolAccount = Objects.requireNonNull(accountService.create(
+                OTHER_OWNER_ID, new CreateAccountRequest(null, "AED", null)
+        ).block());
+        var bobUsdAccount = Objects.requireNonNull(accountService.create(
+                OTHER_OWNER_ID, new CreateAccountRequest(null, "USD", null)
+        ).block());
+        var alice = aliceAccount.getAccountNumber();
+
+        var toBob = UUID.randomUUID();
+        var toCarol = UUID.randomUUID();
+        var otherCurrency = UUID.randomUUID();
+        var unknown = UUID.randomUUID();
+        var payout = new PayoutRequest(alice, List.of(
+                new PayoutItem(toBob, bobAccount.getAccountNumber(), BigDecimal.valueOf(30), "salary"),
+                new PayoutItem(toCarol, carolAccount.getAccountNumber(), BigDecimal.valueOf(20), "salary"),
+                new PayoutItem(otherCurrency, bobUsdAccount.getAccountNumber(), BigDecimal.ONE, "salary"),
+                new PayoutItem(unknown, "nope", BigDecimal.ONE, "salary"),
+                new PayoutItem(toBob, carolAccount.getAccountNumber(), BigDecimal.ONE, "duplicate")
+        ));
+
+        Map<UUID, Long> txnIds = null;
+        for (int i = 0; i < 2; i++) {
+            var results = payout(payout);
+            assertThat(results.keySet()).containsExactlyInAnyOrder(
+                    toBob + ":200", toCarol + ":200", otherCurrency + ":400", unknown + ":400", toBob + ":400"
+            );
+            var ids = new HashMap<UUID, Long>();
+            results.forEach((status, txnId) -> {
+                if (txnId != null) {
+                    ids.put(UUID.fromString(status.substring(0, status.indexOf(':'))), txnId);
+                }
+            });
+            // retried payout is answered by the same txns
+            if (txnIds != null) {
+                assertThat(ids).isEqualTo(txnIds);
+            }
+            txnIds = ids;
+
+            assertThat(accountRepo.findById(aliceAccount.getId()).block().getBalance()).isEqualByComparingTo(BigDecimal.valueOf(50));
+            assertThat(accountRepo.findById(bobAccount.getId()).block().getBalance()).isEqualByComparingTo(BigDecimal.valueOf(30));
+            assertThat(accountRepo.findById(carolAccount.getId()).block().getBalance()).isEqualByComparingTo(BigDecimal.valueOf(20));
+        }
+        assertThat(txnGroupRepo.findByUUID(toCarol).block()).isNotNull()
+                .returns(alice, TxnGroup::getPayerAccountNumber)
+                .returns(carolAccount.getAccountNumber(), TxnGroup::getReceiverAccountNumber)
+                .returns(TxnType.TRANSFER, TxnGroup::getType);
+
+        // the total is checked at once, so none of the payouts is made
+        var tooMuch = List.of(UUID.randomUUID(), UUID.randomUUID());
+        var results = payout(new PayoutRequest(alice, List.of(
+                new PayoutItem(tooMuch.get(0), bobAccount.getAccountNumber(), BigDecimal.valueOf(30), "bonus"),
+                new PayoutItem(tooMuch.get(1), carolAccount.getAccountNumber(), BigDecimal.valueOf(30), "bonus")
+        )));
+        assertThat(results.keySet()).containsExactlyInAnyOrder(tooMuch.get(0) + ":400", tooMuch.get(1) + ":400");
+        assertThat(accountRepo.findById(aliceAccount.getId()).block().getBalance()).isEqualByComparingTo(BigDecimal.valueOf(50));
+        assertThat(txnGroupRepo.findByUUID(tooMuch.get(0)).block()).isNull();
+
+        testClient.post()
+                .uri("/transfer/payout")
+                .contentType(MediaType.APPLICATION_JSON)
+                .header(HttpHeaders.AUTHORIZATION, USER_TOKEN)
+                .bodyValue(new PayoutRequest(bobAccount.getAccountNumber(), List.of(
+                        new PayoutItem(UUID.randomUUID(), alice, BigDecimal.ONE, "not owned")
+                )))
+                .exchange()
+                .expectStatus().isBadRequest();
+    }
+
+    /**
+     * @return txn ids of the payouts by "txnUUID:status", null for rejected ones
+     */
+    private Map<String, Long> payout(PayoutRequest request) throws Exception {
+        var body = testClient.post()
+                .uri("/transfer/payout")
+                .contentType(MediaType.APPLICATION_JSON)
+                .header(HttpHeaders.AUTHORIZATION, USER_TOKEN)
+                .bodyValue(request)
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody(String.class)
+                .returnResult().getResponseBody();
+        var results = new HashMap<String, Long>();
+        for (var line : Objects.requireNonNull(body).split("\n")) {
+            var result = jackson.readTree(line);
+            var status = result.get("status").asInt();
+            results.put(
+                    result.get("txnUUID").asText() + ":" + status,
+                    status == 200 ? result.get("result").get("txnId").asLong() : null
+            );
+        }
+        return results;
+    }
+
     @Test
     void sameCurrencyInterTransfer() {
 
@@ -0,0 +1,217 @@
+package io.shmaks.banking.controller.codec;
+
+import io.netty.buffer.PooledByteBufAllocator;
+import io.shmaks.banking.model.Account;
+import io.shmaks.banking.model.AccountType;
+import io.shmaks.banking.model.Txn;
+import io.shmaks.banking.model.TxnStatus;
+import io.shmaks.banking.repo.AccountRepo;
+import io.shmaks.banking.service.dto.AccountBalanceResponse;
+import io.shmaks.banking.service.dto.AccountChangeResponse;
+import io.shmaks.banking.service.dto.AccountResponse;
+import io.shmaks.banking.service.dto.TxnResult;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.springframework.core.ResolvableType;
+import org.springframework.core.codec.Encoder;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.core.io.buffer.NettyDataBufferFactory;
+import org.springframework.http.MediaType;
+import org.springframework.http.codec.json.Jackson2JsonEncoder;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class DtoJsonEncoderTest {
+
+    // mapper defaults of the WebFlux codecs
+    private static final Jackson2JsonEncoder JACKSON =
+            new Jackson2JsonEncoder(Jackson2ObjectMapperBuilder.json().build());
+    private static final DtoJsonEncoder ENCODER = new DtoJsonEncoder(JACKSON);
+
+    private static final DataBufferFactory BUFFERS = new DefaultDataBufferFactory();
+
+    @Test
+    void writesWhatJacksonWrites() {
+        var odd = account(1);
+        odd.setDisplayedName("\"Tab\"\tand\\slash/ \u0001 \u00e9 \u20ac \ud83d\udcb0");
+        odd.setBalance(new BigDecimal("1E+3"));
+        odd.setLastTxnId(null);
+        odd.setCreatedAt(Instant.parse("1969-12-31T23:59:59.000000001Z"));
+
+        var values = new ArrayList<Object>();
+        values.add(new AccountResponse(odd));
+        values.add(new AccountResponse(account(2)));
+        values.add(accountResponses(3));
+        values.add(List.of());
+        for (var nanos : List.of(0, 120_000_000, 123_456_000, 123_456_789)) {
+            var result = txnResults(1).get(0);
+            result.setCreatedAt(Instant.parse("2024-02-29T23:59:59Z").plusNanos(nanos));
+            values.add(result);
+        }
+        var nulls = txnResults(1).get(0);
+        nulls.setAmount(null);
+        nulls.setStatus(null);
+        nulls.setCreatedAt(null);
+        values.add(nulls);
+        values.add(txnResults(3));
+
+        for (var value : values) {
+            var type = ResolvableType.forInstance(value);
+            assertThat(ENCODER.canEncode(type, MediaType.APPLICATION_JSON)).isTrue();
+            assertThat(encode(ENCODER, value)).isEqualTo(encode(JACKSON, value));
+        }
+    }
+
+    @Test
+    void handsOtherValuesOver() {
+        assertThat(ENCODER.canEncode(ResolvableType.forClass(Object.class), null)).isFalse();
+        assertThat(ENCODER.canEncode(ResolvableType.forClass(AccountChangeResponse.class), null)).isFalse();
+        assertThat(ENCODER.canEncode(ResolvableType.forClass(TxnResult.class), MediaType.APPLICATION_CBOR)).isFalse();
+        assertThat(ENCODER.canEncode(
+                ResolvableType.forClassWithGenerics(List.class, AccountBalanceResponse.class), null
+        )).isFalse();
+        assertThat(ENCODER.canEncode(
+                ResolvableType.forClassWithGenerics(List.class, AccountResponse.class), MediaType.APPLICATION_NDJSON
+        )).isFalse();
+
+        // a list of a ResponseEntity comes without its element type
+        var changes = List.<AccountResponse>of(
+                new AccountResponse(account(1)),
+                new AccountChangeResponse(new AccountRepo.AccountChange(42, account(2)))
+        );
+        assertThat(ENCODER.canEncode(ResolvableType.forInstance(changes), MediaType.APPLICATION_JSON)).isTrue();
+        var json = encode(ENCODER, changes);
+        assertThat(json).isEqualTo(encode(JACKSON, changes)).contains("\"changeSeq\":42");
+    }
+
+    @Test
+    void writesStreamsAsArraysOrLines() {
+        var accounts = accountResponses(2);
+        var type = ResolvableType.forClass(AccountResponse.class);
+        var single = encode(ENCODER, accounts.get(0));
+        var second = encode(ENCODER, accounts.get(1));
+
+        assertThat(join(ENCODER.encode(Mono.just(accounts.get(0)), BUFFERS, type, MediaType.APPLICATION_JSON, null)))
+                .containsExactly(single);
+        assertThat(join(ENCODER.encode(Flux.fromIterable(accounts), BUFFERS, type, MediaType.APPLICATION_JSON, null)))
+                .containsExactly(encode(ENCODER, accounts));
+        assertThat(join(ENCODER.encode(Flux.fromIterable(accounts), BUFFERS, type, MediaType.APPLICATION_NDJSON, null)))
+                .containsExactly(single + "\n", second + "\n");
+        assertThat(ENCODER.getStreamingMediaTypes()).containsExactly(MediaType.APPLICATION_NDJSON);
+    }
+
+    /**
+     * Encoding of response bodies into pooled buffers at batch sizes of the API,
+     * run with {@code ./gradlew test --tests '*DtoJsonEncoderTest' -Dbenchmark=true}
+     */
+    @Test
+    @EnabledIfSystemProperty(named = "benchmark", matches = "true")
+    void encodersBenchmark() {
+        var iterations = Integer.getInteger("benchmark.iterations", 200_000);
+        var buffers = new NettyDataBufferFactory(PooledByteBufAllocator.DEFAULT);
+        System.out.printf(
+                "%-16s %6s %10s %12s %12s %8s%n", "payload", "items", "bytes", "jackson ns", "dto ns", "speedup"
+        );
+        for (var size : List.of(1, 100, 1000)) {
+            var rounds = Math.max(100, iterations / size);
+            var txnResults = txnResults(size);
+            var accountResponses = accountResponses(size);
+            // a single value is written as a transfer or an account is returned, lists by listings
+            run("TxnResult", size == 1 ? txnResults.get(0) : txnResults, buffers, size, rounds);
+            run("AccountResponse", size == 1 ? accountResponses.get(0) : accountResponses, buffers, size, rounds);
+        }
+    }
+
+    private static void run(String payload, Object value, DataBufferFactory buffers, int size, int rounds) {
+        var type = ResolvableType.forInstance(value);
+        var bytes = encode(ENCODER, value).getBytes(StandardCharsets.UTF_8).length;
+        // warm-up
+        time(JACKSON, value, type, buffers, rounds);
+        time(ENCODER, value, type, buffers, rounds);
+
+        var jacksonNs = time(JACKSON, value, type, buffers, rounds);
+        var dtoNs = time(ENCODER, value, type, buffers, rounds);
+        System.out.printf(
+                "%-16s %6d %10d %12d %12d %7.1fx%n",
+                payload, size, bytes, jacksonNs, dtoNs, (double) jacksonNs / dtoNs
+        );
+    }
+
+    private static long time(
+            Encoder<Object> encoder, Object value, ResolvableType type, DataBufferFactory buffers, int rounds) {
+        var startedAt = System.nanoTime();
+        for (int i = 0; i < rounds; i++) {
+            DataBufferUtils.release(encoder.encodeValue(value, buffers, type, MediaType.APPLICATION_JSON, null));
+        }
+        return (System.nanoTime() - startedAt) / rounds;
+    }
+
+    private static String encode(Encoder<Object> encoder, Object value) {
+        var buffer = encoder.encodeValue(
+                value, BUFFERS, ResolvableType.forInstance(value), MediaType.APPLICATION_JSON, null
+        );
+        return read(buffer);
+    }
+
+    private static List<String> join(Flux<DataBuffer> buffers) {
+        return buffers.map(DtoJsonEncoderTest::read).collect(Collectors.toList()).block();
+    }
+
+    private static String read(DataBuffer buffer) {
+        try {
+            return buffer.toString(StandardCharsets.UTF_8);
+        } finally {
+            DataBufferUtils.release(buffer);
+        }
+    }
+
+    private static List<TxnResult> txnResults(int count) {
+        var account = account(0);
+        var results = new ArrayList<TxnResult>(count);
+        for (int i = 0; i < count; i++) {
+            var txn = new Txn();
+            txn.setId(500100L + i);
+            txn.setAccountId(account.getId());
+            txn.setAmount(new BigDecimal("-123.45"));
+            txn.setStatus(TxnStatus.SUCCESS);
+            txn.setCreatedAt(Instant.parse("2024-01-01T00:00:00.123456Z").plusSeconds(i));
+            results.add(new TxnResult(txn, account));
+        }
+        return results;
+    }
+
+    private static List<AccountResponse> accountResponses(int count) {
+        var responses = new ArrayList<AccountResponse>(count);
+        for (int i = 0; i < count; i++) {
+            responses.add(new AccountResponse(account(i)));
+        }
+        return responses;
+    }
+
+    private static Account account(int i) {
+        var account = new Account();
+        account.setId(100500L + i);
+        account.setOwnerId("owner");
+        account.setAccountNumber(String.valueOf(1_000_000 + i));
+        account.setType(AccountType.USER);
+        account.setBalance(new BigDecimal("1234.56"));
+        account.setCurrencyCode("AED");
+        account.setDisplayedName("Savings " + i);
+        account.setLastTxnId(500100L + i);
+        account.setCreatedAt(Instant.parse("2024-01-01T00:00:00Z"));
+        return account;
+    }
+}
@@ -0,0 +1,376 @@
+package io.shmaks.banking.repo;
+
+import io.r2dbc.pool.ConnectionPool;
+import io.r2dbc.pool.ConnectionPoolConfiguration;
+import io.r2dbc.spi.ConnectionFactories;
+import io.shmaks.banking.config.SampleAppStorageProps;
+import io.shmaks.banking.model.Account;
+import io.shmaks.banking.model.AccountType;
+import io.shmaks.banking.model.TxnGroup;
+import io.shmaks.banking.model.TxnType;
+import io.shmaks.banking.repo.outbox.OutboxCursorExpiredException;
+import io.shmaks.banking.repo.outbox.R2dbcOutbox;
+import io.shmaks.banking.service.dto.TransferRequest;
+import io.shmaks.banking.service.processors.TransferProcessor;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.r2dbc.connection.R2dbcTransactionManager;
+import org.springframework.r2dbc.connection.init.ResourceDatabasePopulator;
+import org.springframework.r2dbc.core.DatabaseClient;
+import org.springframework.transaction.reactive.TransactionalOperator;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import reactor.core.scheduler.Schedulers;
+import reactor.test.StepVerifier;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.UnaryOperator;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class R2dbcReposTest {
+
+    private ConnectionPool pool;
+    private R2dbcAccountRepo accountRepo;
+    private R2dbcTxnGroupRepo txnGroupRepo;
+    private R2dbcTxnRepo txnRepo;
+    private TransactionalOperator transactional;
+
+    @BeforeEach
+    void setUp() {
+        pool = new ConnectionPool(ConnectionPoolConfiguration.builder(ConnectionFactories.get(
+                "r2dbc:h2:mem:///" + UUID.randomUUID() + "?options=DB_CLOSE_DELAY=-1;LOCK_TIMEOUT=200"
+        )).maxSize(Runtime.getRuntime().availableProcessors() * 2).build());
+        new ResourceDatabasePopulator(new ClassPathResource("db/r2dbc/schema.sql")).populate(pool).block();
+        var client = DatabaseClient.create(pool);
+        accountRepo = new R2dbcAccountRepo(client);
+        txnGroupRepo = new R2dbcTxnGroupRepo(client);
+        txnRepo = new R2dbcTxnRepo(client);
+        transactional = TransactionalOperator.create(new R2dbcTransactionManager(pool));
+    }
+
+    @AfterEach
+    void tearDown() {
+        pool.dispose();
+    }
+
+    @Test
+    void transferPostsLegsInTransaction() {
+        var payer = create("owner", "1001", "USD", 100);
+        var receiver = create("owner", "1002", "USD", 10);
+        StepVerifier.create(accountRepo.create(account("other", "1001", "USD", 0)))
+                .expectError(DataInconsistencyException.class)
+                .verify();
+
+        var processor = new TransferProcessor(txnGroupRepo, txnRepo, accountRepo);
+        var txnUUID = UUID.randomUUID();
+        var group = transactional.transactional(processor.makeSimpleTransfer(
+                new TransferRequest("1001", "1002", new BigDecimal("30.50"), "rent"), txnUUID
+        )).block();
+
+        assertThat(group).isNotNull();
+        assertThat(accountRepo.findById(payer.getId()).block().getBalance()).isEqualByComparingTo("69.50");
+        assertThat(accountRepo.findById(receiver.getId()).block().getBalance()).isEqualByComparingTo("40.50");
+
+        var txns = txnRepo.findAllByTxnGroupId(group.getId()).block();
+        assertThat(txns).hasSize(2);
+        assertThat(txns.get(0).getLinkingTxnId()).isEqualTo(txns.get(1).getId());
+        assertThat(txns.get(1).getLinkingTxnId()).isEqualTo(txns.get(0).getId());
+        assertThat(accountRepo.findById(receiver.getId()).block().getLastTxnId()).isEqualTo(txns.get(0).getId());
+        assertThat(accountRepo.findById(payer.getId()).block().getLastTxnId()).isEqualTo(txns.get(1).getId());
+        assertThat(txnGroupRepo.findByUUID(txnUUID).block().getId()).isEqualTo(group.getId());
+    }
+
+    @Test
+    void createAllInsertsAccountsAtOnce() {
+        var created = accountRepo.createAll(List.of(
+                account("owner", "4001", "USD", 100),
+                account("alice", "4002", "EUR", 0)
+        )).collectList().block();
+
+        assertThat(created).extracting(Account::getId).doesNotContainNull().doesNotHaveDuplicates();
+        assertThat(accountRepo.findByAccountNumber("4002").block())
+                .returns(created.get(1).getId(), Account::getId)
+                .returns("Alice Savings", Account::getDisplayedName)
+                .matches(account -> account.getCreatedAt() != null && account.getLastTxnId() == null);
+
+        StepVerifier.create(accountRepo.createAll(List.of(account("other", "4003", "USD", 0), account("other", "4001", "USD", 0))))
+                .expectError(DataInconsistencyException.class)
+                .verify();
+        assertThat(accountRepo.findByAccountNumber("4003").block()).isNull();
+    }
+
+    @Test
+    void streamAllUserAccountsByPages() {
+        for (var number : List.of("5003", "5001", "5005", "5002", "5004")) {
+            create("owner", number, "USD", 0);
+        }
+        accountRepo.deleteByIdAndOwnerId(accountRepo.findByAccountNumber("5004").block().getId(), "owner").block();
+
+        StepVerifier.create(accountRepo.streamAllUserAccountsOrderByAccountNumberAsc(2).map(Account::getAccountNumber))
+                .expectNext("5001", "5002", "5003", "5005")
+                .verifyComplete();
+    }
+
+    @Test
+    void changedAccountsComeOnceInOrderOfLastChange() {
+        var first = create("owner", "6001", "USD", 0);
+        var second = create("owner", "6002", "USD", 0);
+        var third = create("owner", "6003", "USD", 0);
+        var since = accountRepo.findAllUserAccountsChangedAfter(0, 10).block().get(2).getSeq();
+
+        accountRepo.updateBalance(first.getId(), 1L, BigDecimal.ONE).block();
+        accountRepo.deleteByIdAndOwnerId(second.getId(), "owner").block();
+        accountRepo.updateBalances(List.of(new AccountRepo.BalanceUpdate(first.getId(), 2L, BigDecimal.TEN))).block();
+
+        var changes = accountRepo.findAllUserAccountsChangedAfter(since, 10).block();
+        assertThat(changes).extracting(change -> change.getAccount().getAccountNumber()).containsExactly("6002", "6001");
+        assertThat(changes.get(0).getAccount().getDeletedAt()).isNotNull();
+        assertThat(changes.get(1).getAccount().getBalance()).isEqualByComparingTo("11");
+        assertThat(changes.get(0).getSeq()).isLessThan(changes.get(1).getSeq());
+
+        assertThat(accountRepo.findAllUserAccountsChangedAfter(0, 2).block())
+                .extracting(change -> change.getAccount().getId())
+                .containsExactly(third.getId(), second.getId());
+    }
+
+    @Test
+    void changesAreListedBelowOpenTransactions() throws Exception {
+        var first = create("owner", "6101", "USD", 0);
+        var second = create("owner", "6102", "USD", 0);
+        var since = accountRepo.findAllUserAccountsChangedAfter(0, 10).block().get(1).getSeq();
+
+        var commit = Sinks.<Void>empty();
+        var updated = new CountDownLatch(1);
+        var committed = transactional.transactional(accountRepo.updateBalance(first.getId(), 1L, BigDecimal.ONE)
+                .doOnSuccess(account -> updated.countDown())
+                .then(commit.asMono())).toFuture();
+        assertThat(updated.await(5, TimeUnit.SECONDS)).isTrue();
+        accountRepo.updateBalance(second.getId(), 2L, BigDecimal.ONE).block();
+
+        // the change of the open transaction took a lower seq, the later one can't be passed by a reader before it
+        assertThat(accountRepo.findAllUserAccountsChangedAfter(since, 10).block()).isEmpty();
+
+        commit.tryEmitEmpty();
+        committed.get(5, TimeUnit.SECONDS);
+        assertThat(accountRepo.findAllUserAccountsChangedAfter(since, 10).block())
+                .extracting(change -> change.getAccount().getId())
+                .containsExactly(first.getId(), second.getId());
+    }
+
+    @Test
+    void mergeReturnsExistingGroup() {
+        var group = txnGroup(UUID.randomUUID());
+        var created = txnGroupRepo.merge(group).block();
+        var merged = txnGroupRepo.merge(txnGroup(group.getTxnUUID())).block();
+
+        assertThat(created.isCreatedNew()).isTrue();
+        assertThat(merged.isCreatedNew()).isFalse();
+        assertThat(merged.getTxnGroup().getId()).isEqualTo(created.getTxnGroup().getId());
+        assertThat(merged.getTxnGroup().getAmount()).isEqualByComparingTo(group.getAmount());
+    }
+
+    @Test
+    void updateBalancesBySingleStatement() {
+        var first = create("owner", "2001", "USD", 100);
+        var second = create("owner", "2002", "USD", 100);
+        var third = create("owner", "2003", "USD", 100);
+        accountRepo.updateBalance(third.getId(), 900L, BigDecimal.ONE).block();
+
+        accountRepo.updateBalances(List.of(
+                new AccountRepo.BalanceUpdate(first.getId(), 700, new BigDecimal("-12.34")),
+                new AccountRepo.BalanceUpdate(second.getId(), 701, new BigDecimal("0.001")),
+                new AccountRepo.BalanceUpdate(third.getId(), 702, BigDecimal.TEN)
+        )).block();
+
+        var updated = accountRepo.findById(first.getId()).block();
+        assertThat(updated.getBalance()).isEqualByComparingTo("87.66");
+        assertThat(updated.getLastTxnId()).isEqualTo(700);
+        assertThat(accountRepo.findById(second.getId()).block().getBalance()).isEqualByComparingTo("100.001");
+        updated = accountRepo.findById(third.getId()).block();
+        assertThat(updated.getBalance()).isEqualByComparingTo("111");
+        assertThat(updated.getLastTxnId()).isEqualTo(900); // never goes back
+    }
+
+    @Test
+    void rowLocksAreHeldUntilCommit() {
+        create("owner", "3001", "USD", 100);
+        create("owner", "3002", "USD", 100);
+
+        var holder = transactional.transactional(
+                accountRepo.selectForUpdate(List.of("3002", "3001")).delayElement(Duration.ofMillis(600))
+        );
+        var contender = transactional.transactional(
+                accountRepo.selectForUpdate(List.of("3001")).delaySubscription(Duration.ofMillis(100))
+        );
+
+        StepVerifier.create(Mono.zip(holder, contender.map(handle -> true).defaultIfEmpty(false)))
+                .assertNext(tuple -> {
+                    assertThat(tuple.getT1().getAccounts()).containsOnlyKeys("3001", "3002");
+                    assertThat(tuple.getT2()).isFalse(); // lock timeout
+                })
+                .verifyComplete();
+        assertThat(transactional.transactional(accountRepo.selectForUpdate(List.of("3001"))).block()).isNotNull();
+        assertThat(accountRepo.selectForUpdate(List.of("3001", "unknown")).block()).isNull();
+    }
+
+    @Test
+    void queries() {
+        var alice = create("alice", "4001", "USD", 50);
+        var bob = create("bob", "4002", "USD", 70);
+        var carol = create("carol", "5001", "USD", 70);
+        var carolEur = create("carol", "5002", "EUR", 1000);
+        accountRepo.deleteByIdAndOwnerId(carol.getId(), "carol").block();
+
+        assertThat(ids(accountRepo.findAllUserAccountsOrderByAccountNumberAsc(10, "4001").block()))
+                .containsExactly(bob.getId(), carolEur.getId());
+        assertThat(ids(accountRepo.findTopUserAccountsByCurrencyOrderByBalanceDesc("USD", 10).block()))
+                .containsExactly(bob.getId(), alice.getId());
+        var rank = accountRepo.findBalanceRankById(alice.getId()).block();
+        assertThat(rank.getRank()).isEqualTo(2);
+        assertThat(rank.getTotal()).isEqualTo(2);
+        assertThat(ids(accountRepo.findAllUserAccountsByNumberOrDisplayedNameStartingWith("400", 10).block()))
+                .containsExactly(alice.getId(), bob.getId());
+        assertThat(ids(accountRepo.findAllUserAccountsByNumberOrDisplayedNameStartingWith("sav", 10).block()))
+                .containsExactly(alice.getId());
+
+        assertThat(accountRepo.restoreByIdAndOwnerId(carol.getId(), "carol").block()).isTrue();
+        assertThat(accountRepo.findBalanceRankById(carol.getId()).block().getTotal()).isEqualTo(3);
+        assertThat(accountRepo.findMaxAccountNumber().block()).isEqualTo("5002");
+    }
+
+    @Test
+    void outboxPublishesCommittedGroupsOnly() {
+        create("owner", "6001", "USD", 100);
+        create("owner", "6002", "USD", 100);
+        var outbox = new R2dbcOutbox(
+                DatabaseClient.create(pool), txnGroupRepo, txnRepo,
+                new SampleAppStorageProps.Outbox(null, null, Duration.ofHours(1))
+        );
+        outbox.start();
+        var processor = new TransferProcessor(txnGroupRepo, txnRepo, accountRepo);
+        Function<String, Mono<TxnGroup>> posting = comment -> processor
+                .makeSimpleTransfer(new TransferRequest("6001", "6002", BigDecimal.ONE, comment), UUID.randomUUID())
+                .flatMap(group -> txnRepo.findAllByTxnGroupId(group.getId())
+                        .flatMap(txns -> outbox.append(group, txns))
+                        .thenReturn(group));
+        try {
+            var committed = transactional.transactional(posting.apply("committed")).block();
+            StepVerifier.create(transactional.transactional(posting.apply("rolled back")
+                            .flatMap(group -> Mono.error(new IllegalStateException("rollback")))))
+                    .expectError(IllegalStateException.class)
+                    .verify();
+
+            assertThat(outbox.read(0, 10).block()).isEmpty(); // not relayed yet
+            assertThat(outbox.relay()).isEqualTo(1);
+            var entries = outbox.read(0, 10).block();
+            assertThat(entries).hasSize(1);
+            assertThat(entries.get(0).getSeq()).isEqualTo(1);
+            assertThat(entries.get(0).getTxnGroup().getId()).isEqualTo(committed.getId());
+            assertThat(entries.get(0).getTxns()).hasSize(2);
+            assertThat(outbox.getLastSeq()).isEqualTo(1);
+            StepVerifier.create(outbox.read(2, 10)).expectError(OutboxCursorExpiredException.class).verify();
+        } finally {
+            outbox.stop();
+        }
+    }
+
+    /**
+     * Transfers between random accounts, run with {@code ./gradlew test --tests '*R2dbcReposTest' -Dbenchmark=true}
+     */
+    @Test
+    @EnabledIfSystemProperty(named = "benchmark", matches = "true")
+    void transferBenchmark() {
+        var accounts = Integer.getInteger("benchmark.accounts", 10_000);
+        var transfers = Integer.getInteger("benchmark.transfers", 100_000);
+        var concurrency = Integer.getInteger("benchmark.concurrency", 64);
+
+        var inMemoryRepo = new InMemoryAccountRepo();
+        var inMemory = new TransferProcessor(new InMemoryTxnGroupRepo(), new InMemoryTxnRepo(), inMemoryRepo);
+        run("in-memory", inMemoryRepo, inMemory, UnaryOperator.identity(), accounts, transfers, concurrency);
+
+        var r2dbc = new TransferProcessor(txnGroupRepo, txnRepo, accountRepo);
+        run("r2dbc", accountRepo, r2dbc, transactional::transactional, accounts, transfers, concurrency);
+    }
+
+    private void run(
+            String name, AccountRepo repo, TransferProcessor processor, UnaryOperator<Mono<TxnGroup>> transactional,
+            int accounts, int transfers, int concurrency) {
+        var numbers = new ArrayList<String>(accounts);
+        Flux.range(0, accounts)
+                .concatMap(i -> repo.create(account("owner", String.valueOf(9_000_000 + i), "USD", 1_000_000)))
+                .doOnNext(account -> numbers.add(account.getAccountNumber()))
+                .blockLast();
+
+        var failed = new AtomicLong();
+        var startedAt = System.nanoTime();
+        Flux.range(0, transfers)
+                .flatMap(i -> {
+                    var random = ThreadLocalRandom.current();
+                    var payer = numbers.get(random.nextInt(accounts));
+                    var receiver = numbers.get(random.nextInt(accounts));
+                    if (payer.equals(receiver)) {
+                        return Mono.empty();
+                    }
+                    var request = new TransferRequest(payer, receiver, BigDecimal.ONE, "benchmark");
+                    return transactional.apply(Mono.defer(() -> processor.makeSimpleTransfer(request, UUID.randomUUID())))
+                            .subscribeOn(Schedulers.parallel())
+                            .onErrorResume(e -> {
+                                failed.incrementAndGet();
+                                return Mono.empty();
+                            });
+                }, concurrency)
+                .blockLast();
+        var elapsedMs = (System.nanoTime() - startedAt) / 1_000_000;
+        System.out.printf(
+                "%s: %d transfers in %d ms, %d/s, failed %d%n",
+                name, transfers, elapsedMs, transfers * 1000L / Math.max(elapsedMs, 1), failed.get()
+        );
+    }
+
+    private Account create(String ownerId, String accountNumber, String currencyCode, long balance) {
+        return Objects.requireNonNull(accountRepo.create(account(ownerId, accountNumber, currencyCode, balance)).block());
+    }
+
+    private static Account account(String ownerId, String accountNumber, String currencyCode, long balance) {
+        var account = new Account();
+        account.setOwnerId(ownerId);
+        account.setAccountNumber(accountNumber);
+        account.setType(AccountType.USER);
+        account.setCurrencyCode(currencyCode);
+        account.setDisplayedName(ownerId.equals("alice") ? "Alice Savings" : ownerId);
+        account.setBalance(BigDecimal.valueOf(balance));
+        return account;
+    }
+
+    private static TxnGroup txnGroup(UUID txnUUID) {
+        var group = new TxnGroup();
+        group.setTxnUUID(txnUUID);
+        group.setType(TxnType.TRANSFER);
+        group.setAmount(new BigDecimal("12.50"));
+        group.setCurrencyCode("USD");
+        group.setPayerAccountNumber("1");
+        group.setReceiverAccountNumber("2");
+        return group;
+    }
+
+    private static List<Long> ids(List<Account> accounts) {
+        var ids = new ArrayList<Long>(accounts.size());
+        accounts.forEach(account -> ids.add(account.getId()));
+        return ids;
+    }
+}
@@ -0,0 +1,95 @@
+package io.shmaks.banking.repo;
+
+import io.shmaks.banking.model.Txn;
+import io.shmaks.banking.model.TxnSpendingType;
+import io.shmaks.banking.model.TxnStatus;
+import io.shmaks.banking.repo.tiering.TxnSegmentStore;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import reactor.test.StepVerifier;
+
+import java.math.BigDecimal;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class TieredTxnRepoTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void sealAndLookup() throws Exception {
+        var hot = new InMemoryTxnRepo();
+        var repo = new TieredTxnRepo(hot, new TxnSegmentStore(dir, 100));
+
+        var txns = new ArrayList<Txn>();
+        for (int i = 0; i < 250; i++) {
+            var txn = new Txn();
+            txn.setAccountId((long) (i % 3));
+            txn.setTxnGroupId((long) (i / 2));
+            txn.setAmount(BigDecimal.valueOf(i * 7 - 500, 2));
+            txn.setStatus(TxnStatus.SUCCESS);
+            txn.setSpendingType(i % 2 == 0 ? TxnSpendingType.TRANSFER : TxnSpendingType.FEE);
+            txn.setDetails(i % 4 == 0 ? null : "txn #" + i);
+            txns.add(Objects.requireNonNull(repo.create(txn).block()));
+        }
+        repo.link(txns.get(0), txns.get(1)).block();
+
+        assertThat(repo.sealCreatedBefore(Instant.now().plusSeconds(1))).isEqualTo(250);
+        assertThat(hot.findAllCreatedBefore(Instant.now().plusSeconds(1))).isEmpty();
+
+        // segments are found again after restart
+        repo = new TieredTxnRepo(new InMemoryTxnRepo(), new TxnSegmentStore(dir, 100));
+        for (var txn : txns) {
+            assertThat(repo.findById(txn.getId()))
+                    .isNotNull()
+                    .returns(txn.getAmount(), Txn::getAmount)
+                    .returns(txn.getDetails(), Txn::getDetails)
+                    .returns(txn.getLinkingTxnId(), Txn::getLinkingTxnId)
+                    .returns(txn.getCreatedAt(), Txn::getCreatedAt);
+        }
+        assertThat(repo.findById(txns.get(0).getId()).getLinkingTxnId()).isEqualTo(txns.get(1).getId());
+
+        var sample = txns.get(133);
+        StepVerifier.create(repo.findByTxnGroupIdAndAccountIdAndSpendingType(
+                        sample.getTxnGroupId(), sample.getAccountId(), sample.getSpendingType()))
+                .expectNextMatches(txn -> txn.getId().equals(sample.getId()))
+                .verifyComplete();
+        StepVerifier.create(repo.findByTxnGroupIdAndAccountIdAndSpendingType(
+                        sample.getTxnGroupId(), sample.getAccountId(), TxnSpendingType.EXCHANGE))
+                .verifyComplete();
+
+        // groups are found by binary search of group indexes, in the first, middle & last segments
+        for (var groupId : List.of(0L, 49L, 50L, 124L)) {
+            var expected = txns.stream()
+                    .filter(txn -> txn.getTxnGroupId().equals(groupId))
+                    .map(Txn::getId)
+                    .collect(Collectors.toList());
+            StepVerifier.create(repo.findAllByTxnGroupId(groupId))
+                    .expectNextMatches(found -> found.stream().map(Txn::getId).collect(Collectors.toList()).equals(expected))
+                    .verifyComplete();
+        }
+        StepVerifier.create(repo.findAllByTxnGroupId(125L))
+                .expectNext(List.of())
+                .verifyComplete();
+
+        // txns of an account are found by account indexes, segments of only older txns are skipped
+        var ofAccount = txns.stream()
+                .filter(txn -> txn.getAccountId() == 1L)
+                .map(Txn::getId)
+                .collect(Collectors.toList());
+        StepVerifier.create(repo.findAllByAccountIdAndCreatedAtFromOrderByIdAsc(1L, Instant.EPOCH).map(Txn::getId))
+                .expectNextSequence(ofAccount)
+                .verifyComplete();
+        StepVerifier.create(repo.findAllByAccountIdAndCreatedAtFromOrderByIdAsc(1L, Instant.now().plusSeconds(60)))
+                .verifyComplete();
+        StepVerifier.create(repo.findAllByAccountIdAndCreatedAtFromOrderByIdAsc(3L, Instant.EPOCH))
+                .verifyComplete();
+    }
+}
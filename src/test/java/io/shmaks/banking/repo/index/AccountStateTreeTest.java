@@ -0,0 +1,51 @@
+package io.shmaks.banking.repo.index;
+
+import io.shmaks.banking.model.Account;
+import io.shmaks.banking.model.AccountType;
+import io.shmaks.banking.repo.InMemoryAccountRepo;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class AccountStateTreeTest {
+
+    @Test
+    void divergentBucketsPointToChangedAccounts() {
+        var left = new InMemoryAccountRepo();
+        var right = new InMemoryAccountRepo();
+        var accounts = new ArrayList<Account>();
+        for (int i = 0; i < 1000; i++) {
+            var number = String.valueOf(4000_0000_0000L + i);
+            accounts.add(left.create(account(number, "100.00")).block());
+            right.create(account(number, "100")).block();
+        }
+        // scale of a balance doesn't matter, only its value
+        assertThat(left.getStateTree().rootHash()).isEqualTo(right.getStateTree().rootHash());
+
+        var changed = accounts.get(17);
+        right.updateBalance(changed.getId(), 1L, BigDecimal.valueOf(-1)).block();
+
+        var divergent = AccountStateTree.divergentBuckets(
+                left.getStateTree().snapshot(), right.getStateTree().snapshot()
+        );
+        assertThat(divergent).isEqualTo(List.of(AccountStateTree.bucketOf(changed.getAccountNumber())));
+
+        left.updateBalance(changed.getId(), 1L, new BigDecimal("-1.0")).block();
+        assertThat(left.getStateTree().rootHash()).isEqualTo(right.getStateTree().rootHash());
+    }
+
+    private static Account account(String number, String balance) {
+        var account = new Account();
+        account.setOwnerId("owner");
+        account.setAccountNumber(number);
+        account.setType(AccountType.USER);
+        account.setCurrencyCode("USD");
+        account.setDisplayedName("account");
+        account.setBalance(new BigDecimal(balance));
+        return account;
+    }
+}
@@ -0,0 +1,121 @@
+package io.shmaks.banking.repo.journal;
+
+import io.shmaks.banking.model.Txn;
+import io.shmaks.banking.model.TxnGroup;
+import io.shmaks.banking.model.TxnSpendingType;
+import io.shmaks.banking.model.TxnStatus;
+import io.shmaks.banking.model.TxnType;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.math.BigDecimal;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class JournalWriterTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void groupCommitAndRecovery() throws Exception {
+        var futures = new ArrayList<CompletableFuture<Long>>();
+        try (var writer = new JournalWriter(dir, 64, Duration.ofMillis(1), 1 << 20)) {
+            for (long i = 1; i <= 1000; i++) {
+                futures.add(writer.write(txnGroupRecord(i)));
+            }
+            CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).join();
+        }
+        assertThat(futures).extracting(CompletableFuture::join).doesNotHaveDuplicates().hasSize(1000);
+
+        var records = readAll();
+        assertThat(records).hasSize(1000);
+        var record = records.get(41);
+        assertThat(record.getType()).isEqualTo(JournalRecord.Type.TXN_GROUP);
+        assertThat(record.getTxns()).hasSize(2);
+        assertThat(record.getBalanceDeltas())
+                .extracting(JournalRecord.BalanceDelta::getAmount)
+                .containsExactly(BigDecimal.valueOf(-42), BigDecimal.valueOf(42));
+
+        // tail of the last batch is torn by crash
+        var segment = JournalSegments.list(dir).get(0);
+        try (var channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+            channel.truncate(channel.size() - 3);
+        }
+        try (var writer = new JournalWriter(dir, 64, Duration.ZERO, 1 << 20)) {
+            assertThat(writer.write(txnGroupRecord(1001)).join()).isEqualTo(1000);
+        }
+        records = readAll();
+        assertThat(records).hasSize(1000);
+        assertThat(records.get(999).getTxnGroup().getId()).isEqualTo(1001);
+    }
+
+    @Test
+    void rollAndTruncate() throws Exception {
+        try (var writer = new JournalWriter(dir, 16, Duration.ZERO, 4096)) {
+            for (long i = 1; i <= 500; i++) {
+                writer.write(txnGroupRecord(i)).join();
+            }
+            assertThat(writer.getDurableLsn()).isEqualTo(500);
+            var segments = JournalSegments.list(dir);
+            assertThat(segments).hasSizeGreaterThan(10);
+
+            var truncated = writer.truncate(250);
+            assertThat(truncated).isPositive();
+            var firstLsn = JournalSegments.firstLsn(JournalSegments.list(dir).get(0));
+            assertThat(firstLsn).isLessThanOrEqualTo(251);
+            assertThat(readAll()).extracting(JournalRecord::getLsn).startsWith(firstLsn).endsWith(500L);
+
+            // the active segment is kept even when everything is covered
+            writer.truncate(500);
+            assertThat(JournalSegments.list(dir)).isNotEmpty();
+        }
+    }
+
+    private List<JournalRecord> readAll() throws Exception {
+        var records = new ArrayList<JournalRecord>();
+        for (var segment : JournalSegments.list(dir)) {
+            try (var reader = new JournalReader(segment)) {
+                JournalRecord record;
+                while ((record = reader.next()) != null) {
+                    records.add(record);
+                }
+            }
+        }
+        return records;
+    }
+
+    private static JournalRecord txnGroupRecord(long id) {
+        var group = new TxnGroup();
+        group.setId(id);
+        group.setTxnUUID(UUID.randomUUID());
+        group.setType(TxnType.TRANSFER);
+        group.setPayerAccountNumber("1");
+        group.setReceiverAccountNumber("2");
+        group.setAmount(BigDecimal.valueOf(id));
+        group.setCurrencyCode("USD");
+        group.setCreatedAt(Instant.now());
+        return JournalRecord.txnGroup(group, List.of(txn(2 * id, 1L, id, -id), txn(2 * id + 1, 2L, id, id)));
+    }
+
+    private static Txn txn(long id, long accountId, long groupId, long amount) {
+        var txn = new Txn();
+        txn.setId(id);
+        txn.setAccountId(accountId);
+        txn.setTxnGroupId(groupId);
+        txn.setAmount(BigDecimal.valueOf(amount));
+        txn.setStatus(TxnStatus.SUCCESS);
+        txn.setSpendingType(TxnSpendingType.TRANSFER);
+        txn.setCreatedAt(Instant.now());
+        return txn;
+    }
+}
@@ -0,0 +1,78 @@
+package io.shmaks.banking.repo.outbox;
+
+import io.shmaks.banking.model.Txn;
+import io.shmaks.banking.model.TxnGroup;
+import io.shmaks.banking.service.LedgerChangeStream;
+import org.junit.jupiter.api.Test;
+import reactor.test.StepVerifier;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class InMemoryOutboxTest {
+
+    @Test
+    void readsRetainedEntriesInOrder() {
+        var outbox = new InMemoryOutbox(3, 1);
+        for (long id = 1; id <= 5; id++) {
+            append(outbox, id);
+        }
+
+        assertThat(outbox.getLastSeq()).isEqualTo(5);
+        assertThat(seqs(outbox.read(2, 10).block())).containsExactly(3L, 4L, 5L);
+        assertThat(seqs(outbox.read(3, 1).block())).containsExactly(4L);
+        assertThat(outbox.read(5, 10).block()).isEmpty();
+        assertThat(outbox.read(4, 10).block().get(0).getTxnGroup().getId()).isEqualTo(5);
+        StepVerifier.create(outbox.read(1, 10)).expectError(OutboxCursorExpiredException.class).verify();
+        StepVerifier.create(outbox.read(6, 10)).expectError(OutboxCursorExpiredException.class).verify();
+
+        // cursor of a previous run is older than anything published after restart
+        assertThat(new InMemoryOutbox(3).getLastSeq()).isGreaterThan(5);
+    }
+
+    @Test
+    void streamDeliversBatchesOnDemand() {
+        var outbox = new InMemoryOutbox(100, 1);
+        for (long id = 1; id <= 5; id++) {
+            append(outbox, id);
+        }
+        var stream = new LedgerChangeStream(outbox, 2);
+
+        StepVerifier.create(stream.changes(1L, 10), 0)
+                .expectSubscription()
+                .expectNoEvent(Duration.ofMillis(50)) // nothing is read without demand
+                .thenRequest(2)
+                .assertNext(batch -> assertThat(seqs(batch)).containsExactly(2L, 3L)) // capped by max batch size
+                .assertNext(batch -> assertThat(seqs(batch)).containsExactly(4L, 5L))
+                .thenRequest(1)
+                .expectNoEvent(Duration.ofMillis(50)) // waits for new entries
+                .then(() -> append(outbox, 6))
+                .assertNext(batch -> assertThat(seqs(batch)).containsExactly(6L))
+                .thenCancel()
+                .verify(Duration.ofSeconds(5));
+
+        // subscribed without a cursor the stream starts from the entries published afterwards
+        StepVerifier.create(stream.changes(null, 10))
+                .then(() -> append(outbox, 7))
+                .assertNext(batch -> assertThat(seqs(batch)).containsExactly(7L))
+                .thenCancel()
+                .verify(Duration.ofSeconds(5));
+    }
+
+    private static void append(Outbox outbox, long txnGroupId) {
+        var txnGroup = new TxnGroup();
+        txnGroup.setId(txnGroupId);
+        var txn = new Txn();
+        txn.setTxnGroupId(txnGroupId);
+        txn.setAmount(BigDecimal.ONE);
+        outbox.append(txnGroup, List.of(txn)).block();
+    }
+
+    private static List<Long> seqs(List<OutboxEntry> entries) {
+        return entries.stream().map(OutboxEntry::getSeq).collect(Collectors.toList());
+    }
+}
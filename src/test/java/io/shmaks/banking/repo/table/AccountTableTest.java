@@ -0,0 +1,136 @@
+package io.shmaks.banking.repo.table;
+
+import io.shmaks.banking.model.Account;
+import io.shmaks.banking.model.AccountType;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class AccountTableTest {
+
+    private static final long FIRST_ID = 1000;
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void writeAndSweepAfterRestart() throws Exception {
+        try (var table = open()) {
+            assertThat(table.isTrusted()).isTrue();
+            for (long id = FIRST_ID; id < FIRST_ID + 100; id++) {
+                var account = account(id);
+                table.write(account);
+                account.setBalance(account.getBalance().add(new BigDecimal("0.25")));
+                account.setLastTxnId(id * 10);
+                account.setVersion(1);
+                table.write(account);
+            }
+            var deleted = account(FIRST_ID + 42);
+            deleted.setDeletedAt(Instant.ofEpochSecond(1_650_000_000, 123));
+            deleted.setLastTxnId((FIRST_ID + 42) * 10);
+            table.write(deleted);
+        }
+
+        var accounts = sweep();
+        assertThat(accounts).hasSize(100);
+        var account = accounts.get(FIRST_ID + 7);
+        assertThat(account.getOwnerId()).isEqualTo("owner-7");
+        assertThat(account.getAccountNumber()).isEqualTo("40817-" + (FIRST_ID + 7));
+        assertThat(account.getCurrencyCode()).isEqualTo("EUR");
+        assertThat(account.getDisplayedName()).isEqualTo("Savings \u20ac #7");
+        assertThat(account.getType()).isEqualTo(AccountType.USER);
+        assertThat(account.getBalance()).isEqualTo(new BigDecimal("107.25"));
+        assertThat(account.getLastTxnId()).isEqualTo((FIRST_ID + 7) * 10);
+        assertThat(account.getVersion()).isEqualTo(1);
+        assertThat(account.getDeletedAt()).isNull();
+        assertThat(accounts.get(FIRST_ID + 42).getDeletedAt()).isEqualTo(Instant.ofEpochSecond(1_650_000_000, 123));
+    }
+
+    @Test
+    void tornRecords() throws Exception {
+        try (var table = open()) {
+            for (long id = FIRST_ID; id < FIRST_ID + 3; id++) {
+                var account = account(id);
+                table.write(account);
+                account.setBalance(BigDecimal.ONE);
+                table.write(account);
+            }
+        }
+        try (var file = FileChannel.open(dir.resolve(AccountTable.RECORDS_FILE), StandardOpenOption.WRITE)) {
+            // the latest copy of the first account is torn, it falls back to the previous one
+            var base = AccountTable.HEADER_BYTES;
+            file.write(ByteBuffer.wrap(new byte[]{42}), base + 92 + 13);
+            // immutable part of the second account is torn, as if it was never created
+            base += AccountTable.RECORD_BYTES;
+            file.write(ByteBuffer.wrap(new byte[]{42}), base + 13);
+            // both copies of the third account are broken
+            base += AccountTable.RECORD_BYTES;
+            file.write(ByteBuffer.wrap(new byte[]{42}), base + 40 + 13);
+            file.write(ByteBuffer.wrap(new byte[]{42}), base + 92 + 13);
+        }
+
+        var accounts = new HashMap<Long, Account>();
+        try (var table = open(); var sweep = table.sweep()) {
+            var result = sweep.run(0, account -> accounts.put(account.getId(), account));
+            assertThat(result.getAccounts()).isEqualTo(1);
+            assertThat(result.getRepaired()).isEqualTo(1);
+            assertThat(result.getTorn()).isEqualTo(1);
+            assertThat(result.getCorruptedIds()).containsExactly(FIRST_ID + 2);
+        }
+        assertThat(accounts.get(FIRST_ID).getBalance()).isEqualByComparingTo(BigDecimal.valueOf(100));
+
+        // repaired record accepts writes again
+        try (var table = open()) {
+            var account = accounts.get(FIRST_ID);
+            account.setBalance(BigDecimal.TEN);
+            table.write(account);
+        }
+        try (var table = open(); var sweep = table.sweep()) {
+            var balances = new ArrayList<BigDecimal>();
+            sweep.run(0, account -> balances.add(account.getBalance()));
+            assertThat(balances).containsExactly(BigDecimal.TEN);
+        }
+    }
+
+    private AccountTable open() throws Exception {
+        return AccountTable.open(dir, FIRST_ID, 64, Duration.ZERO);
+    }
+
+    private Map<Long, Account> sweep() throws Exception {
+        var accounts = new HashMap<Long, Account>();
+        try (var table = open(); var sweep = table.sweep()) {
+            for (int chunk = 0; chunk < sweep.getChunks(); chunk++) {
+                var result = sweep.run(chunk, account -> accounts.put(account.getId(), account));
+                assertThat(result.getTorn()).isZero();
+                assertThat(result.getCorruptedIds()).isEmpty();
+            }
+        }
+        return accounts;
+    }
+
+    private static Account account(long id) {
+        var index = id - FIRST_ID;
+        var account = new Account();
+        account.setId(id);
+        account.setOwnerId("owner-" + index);
+        account.setAccountNumber("40817-" + id);
+        account.setType(AccountType.USER);
+        account.setCurrencyCode("EUR");
+        account.setDisplayedName("Savings \u20ac #" + index);
+        account.setBalance(BigDecimal.valueOf(100 + index));
+        account.setCreatedAt(Instant.ofEpochSecond(1_600_000_000 + index, 1000));
+        return account;
+    }
+}
@@ -0,0 +1,71 @@
+package io.shmaks.banking.repo.tiering;
+
+import io.shmaks.banking.model.Account;
+import io.shmaks.banking.model.AccountType;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class AccountArchiveTest {
+
+    @Test
+    void keepsAccountsLikeMap() {
+        var archive = new AccountArchive();
+        var expected = new HashMap<Long, BigDecimal>();
+        var random = new Random(42);
+        for (int i = 0; i < 20_000; i++) {
+            // ids of a narrow range collide in the table, so removals shift long probe chains
+            var id = 100_500L + random.nextInt(5_000);
+            if (random.nextInt(3) == 0) {
+                assertThat(archive.remove(id)).isEqualTo(expected.remove(id) != null);
+            } else {
+                var balance = BigDecimal.valueOf(i, 2);
+                var previous = archive.put(account(id, balance));
+                var previousBalance = expected.put(id, balance);
+                assertThat(previous != null ? previous.getBalance() : null).isEqualTo(previousBalance);
+            }
+        }
+
+        assertThat(archive.size()).isEqualTo(expected.size());
+        expected.forEach((id, balance) -> assertThat(archive.get(id).getBalance()).isEqualTo(balance));
+        assertThat(archive.getAll()).hasSize(expected.size());
+        assertThat(archive.get(1L)).isNull();
+
+        archive.clear();
+        assertThat(archive.size()).isZero();
+        assertThat(archive.getAll()).isEmpty();
+    }
+
+    @Test
+    void readsDecodedCopies() {
+        var archive = new AccountArchive();
+        var account = account(100_500L, BigDecimal.TEN);
+        archive.put(account);
+        account.setBalance(BigDecimal.ONE);
+
+        var read = archive.get(100_500L);
+        assertThat(read).usingRecursiveComparison().isEqualTo(account(100_500L, BigDecimal.TEN));
+        read.setDeletedAt(null);
+        assertThat(archive.get(100_500L).getDeletedAt()).isNotNull();
+    }
+
+    private static Account account(long id, BigDecimal balance) {
+        var account = new Account();
+        account.setId(id);
+        account.setOwnerId("owner");
+        account.setAccountNumber(String.valueOf(4000_0000_0000L + id));
+        account.setType(AccountType.USER);
+        account.setBalance(balance);
+        account.setCurrencyCode("USD");
+        account.setDisplayedName("archived");
+        account.setLastTxnId(id * 10);
+        account.setCreatedAt(Instant.parse("2024-01-01T00:00:00Z"));
+        account.setDeletedAt(Instant.parse("2024-06-01T00:00:00.5Z"));
+        return account;
+    }
+}
@@ -0,0 +1,100 @@
+package io.shmaks.banking.service;
+
+import io.shmaks.banking.model.Account;
+import io.shmaks.banking.model.AccountType;
+import io.shmaks.banking.model.Txn;
+import io.shmaks.banking.model.TxnGroup;
+import io.shmaks.banking.repo.InMemoryAccountRepo;
+import io.shmaks.banking.repo.outbox.InMemoryOutbox;
+import io.shmaks.banking.service.dto.AccountBalanceEvent;
+import org.junit.jupiter.api.Test;
+import reactor.test.StepVerifier;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class BalanceEventsTest {
+
+    private static final Duration WINDOW = Duration.ofMillis(20);
+
+    @Test
+    void slowWatcherGetsLatestBalances() throws Exception {
+        var accountRepo = new InMemoryAccountRepo();
+        var outbox = new InMemoryOutbox(1000);
+        var first = Objects.requireNonNull(accountRepo.create(account("1")).block());
+        var second = Objects.requireNonNull(accountRepo.create(account("2")).block());
+        var balanceEvents = new BalanceEvents(accountRepo, new LedgerChangeStream(outbox, 100), WINDOW);
+        balanceEvents.start();
+        try {
+            var events = balanceEvents.watch("owner", List.of(first.getId(), second.getId())).block();
+
+            StepVerifier.create(Objects.requireNonNull(events), 0)
+                    .thenRequest(2)
+                    .expectNextCount(2)
+                    // changes flushed over many windows while nothing is requested
+                    .then(() -> {
+                        for (long txnId = 1; txnId <= 50; txnId++) {
+                            var account = txnId % 2 == 0 ? first : second;
+                            post(accountRepo, outbox, account.getId(), txnId);
+                            sleep(WINDOW.dividedBy(4));
+                        }
+                    })
+                    .expectNoEvent(WINDOW.multipliedBy(5))
+                    .recordWith(ArrayList::new)
+                    .thenRequest(10)
+                    // a single pending event per account, with its latest balance
+                    .expectNextCount(2)
+                    .consumeRecordedWith(latest -> assertThat(latest).satisfiesExactlyInAnyOrder(
+                            event -> assertLatest(event, first.getId(), 50),
+                            event -> assertLatest(event, second.getId(), 49)
+                    ))
+                    .expectNoEvent(WINDOW.multipliedBy(5))
+                    .thenCancel()
+                    .verify(Duration.ofSeconds(5));
+        } finally {
+            balanceEvents.stop();
+        }
+    }
+
+    private static void assertLatest(AccountBalanceEvent event, Long accountId, long lastTxnId) {
+        assertThat(event.getId()).isEqualTo(accountId);
+        assertThat(event.getLastTxnId()).isEqualTo(lastTxnId);
+        assertThat(event.getAmount()).isEqualByComparingTo(BigDecimal.valueOf(lastTxnId / 2 + lastTxnId % 2));
+    }
+
+    private static void post(InMemoryAccountRepo accountRepo, InMemoryOutbox outbox, Long accountId, long txnId) {
+        accountRepo.updateBalance(accountId, txnId, BigDecimal.ONE).block();
+        var txnGroup = new TxnGroup();
+        txnGroup.setId(txnId);
+        var txn = new Txn();
+        txn.setId(txnId);
+        txn.setTxnGroupId(txnId);
+        txn.setAccountId(accountId);
+        txn.setAmount(BigDecimal.ONE);
+        outbox.append(txnGroup, List.of(txn)).block();
+    }
+
+    private static void sleep(Duration duration) {
+        try {
+            Thread.sleep(duration.toMillis());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static Account account(String number) {
+        var account = new Account();
+        account.setOwnerId("owner");
+        account.setAccountNumber("balance-events-" + number);
+        account.setType(AccountType.USER);
+        account.setBalance(BigDecimal.ZERO);
+        account.setCurrencyCode("AED");
+        account.setDisplayedName("Watched " + number);
+        return account;
+    }
+}
@@ -0,0 +1,417 @@
+package io.shmaks.banking.service.bookkeeping;
+
+import io.shmaks.banking.config.SampleAppExtProps;
+import io.shmaks.banking.config.SampleAppStorageProps;
+import io.shmaks.banking.ext.MockCurrencyService;
+import io.shmaks.banking.ext.MockFeeService;
+import io.shmaks.banking.model.Account;
+import io.shmaks.banking.model.AccountType;
+import io.shmaks.banking.repo.InMemoryAccountRepo;
+import io.shmaks.banking.repo.InMemoryTxnGroupRepo;
+import io.shmaks.banking.repo.InMemoryTxnRepo;
+import io.shmaks.banking.repo.journal.FileJournal;
+import io.shmaks.banking.repo.journal.JournalReader;
+import io.shmaks.banking.repo.journal.JournalRecord;
+import io.shmaks.banking.repo.journal.JournalSegments;
+import io.shmaks.banking.repo.journal.JournalWriter;
+import io.shmaks.banking.repo.outbox.InMemoryOutbox;
+import io.shmaks.banking.repo.snapshot.SnapshotStore;
+import io.shmaks.banking.repo.snapshot.WriteEpochs;
+import io.shmaks.banking.service.BusinessLogicError;
+import io.shmaks.banking.service.RetryLaterException;
+import io.shmaks.banking.service.SimpleAccountNumberGenerator;
+import io.shmaks.banking.service.TransferService;
+import io.shmaks.banking.service.dto.BatchTransferResult;
+import io.shmaks.banking.service.dto.DepositRequest;
+import io.shmaks.banking.service.dto.PayoutItem;
+import io.shmaks.banking.service.dto.PayoutRequest;
+import io.shmaks.banking.service.dto.TransferRequest;
+import io.shmaks.banking.service.dto.TxnResult;
+import io.shmaks.banking.service.dto.WithdrawalRequest;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import reactor.core.publisher.Mono;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Randomized concurrent deposits, withdrawals, transfers & international transfers, optionally with payouts crediting
+ * receivers without their locks, go through {@link TransferService} of a journaled & snapshotted ledger, which is killed at a random point: its files are captured as they are while
+ * writes go on, sometimes with a torn or garbled journal tail. The ledger recovered from them must keep every
+ * acknowledged txn, answer retries of them without posting again, and have balances of every account & currency
+ * matching its txn history. Longer runs: {@code ./gradlew test --tests '*CrashRecoveryTortureTest' -Dtorture.rounds=100},
+ * a failed run is repeated (up to thread interleaving) with {@code -Dtorture.seed} it printed.
+ */
+public class CrashRecoveryTortureTest {
+
+    private static final int PARTITIONS = 4;
+    private static final int WORKERS = 4;
+    private static final String OWNER = "owner";
+    private static final List<String> CURRENCIES = List.of("USD", "EUR", "AED");
+
+    @TempDir
+    Path dir;
+
+    /**
+     * A request, submitted again with the same txn UUID as a retry
+     */
+    private interface Operation {
+        Mono<TxnResult> submit(TransferService transferService, UUID txnUUID);
+    }
+
+    private static class Ledger implements AutoCloseable {
+        final Path dir;
+        final InMemoryAccountRepo accountRepo = new InMemoryAccountRepo();
+        final InMemoryTxnGroupRepo txnGroupRepo = new InMemoryTxnGroupRepo();
+        final InMemoryTxnRepo txnRepo = new InMemoryTxnRepo();
+        final SimpleAccountNumberGenerator numberGenerator = new SimpleAccountNumberGenerator();
+        final MockCurrencyService currencyService = new MockCurrencyService(SampleAppExtProps.DEFAULT);
+        final FileJournal journal;
+        final LedgerSnapshotter snapshotter;
+        final LedgerRecovery recovery;
+        final TransferService transferService;
+
+        Ledger(Path dir) throws IOException {
+            this.dir = dir;
+            var writeEpochs = new WriteEpochs();
+            var snapshotStore = new SnapshotStore(dir.resolve("snapshots"), PARTITIONS);
+            // small segments, so crashes hit rolls & truncation of the journal too
+            journal = new FileJournal(new JournalWriter(dir.resolve("journal"), 64, Duration.ZERO, 64 << 10));
+            snapshotter = new LedgerSnapshotter(
+                    accountRepo, txnGroupRepo, txnRepo, journal, writeEpochs, snapshotStore,
+                    new SampleAppStorageProps.Snapshot(true, null, null, PARTITIONS, 2, null)
+            );
+            recovery = new LedgerRecovery(
+                    accountRepo, txnGroupRepo, txnRepo, numberGenerator, snapshotStore, dir.resolve("journal"), PARTITIONS
+            );
+            transferService = new TransferService(
+                    txnGroupRepo, txnRepo, accountRepo, currencyService, new MockFeeService(), journal,
+                    new InMemoryOutbox(1000), writeEpochs
+            );
+        }
+
+        /**
+         * Recovers the ledger & bootstraps org accounts the way the app starts
+         *
+         * @return recovery time in ms
+         */
+        long start() throws Exception {
+            var startedAt = System.nanoTime();
+            recovery.recover();
+            var elapsedMs = (System.nanoTime() - startedAt) / 1_000_000;
+            new OrgAccountsBootstrapper(currencyService, numberGenerator, accountRepo, journal).bootstrap();
+            new CorrespondentAccountsBootstrapper(
+                    currencyService, numberGenerator, accountRepo, journal, SampleAppExtProps.DEFAULT
+            ).bootstrap();
+            return elapsedMs;
+        }
+
+        Account createAccount(String currencyCode, BigDecimal balance) {
+            var account = new Account();
+            account.setOwnerId(OWNER);
+            account.setAccountNumber(numberGenerator.nextNumber());
+            account.setType(AccountType.USER);
+            account.setCurrencyCode(currencyCode);
+            account.setDisplayedName("account");
+            account.setBalance(balance);
+            account.setCreatedAt(Instant.now());
+            accountRepo.create(account).block();
+            journal.append(JournalRecord.accountCreated(account, balance)).block();
+            return account;
+        }
+
+        @Override
+        public void close() throws Exception {
+            journal.close();
+        }
+    }
+
+    private static class Workload {
+        private final ExecutorService executor = Executors.newFixedThreadPool(WORKERS);
+        private final AtomicReference<Throwable> failure = new AtomicReference<>();
+        private volatile boolean running = true;
+
+        Workload(Ledger ledger, List<String> accounts, List<String> correspondents,
+                 Map<UUID, Operation> acknowledged, boolean payouts, long seed) {
+            for (int i = 0; i < WORKERS; i++) {
+                var random = new Random(seed + i);
+                executor.execute(() -> {
+                    while (running) {
+                        try {
+                            if (payouts && random.nextInt(8) == 0) {
+                                payout(ledger, accounts, acknowledged, random);
+                                continue;
+                            }
+                            var txnUUID = UUID.randomUUID();
+                            var operation = randomOperation(accounts, correspondents, random);
+                            operation.submit(ledger.transferService, txnUUID).block();
+                            acknowledged.put(txnUUID, operation);
+                        } catch (BusinessLogicError | RetryLaterException e) {
+                            // insufficient funds, unsupported currency pairs & contended locks
+                        } catch (Throwable e) {
+                            failure.compareAndSet(null, e);
+                            return;
+                        }
+                    }
+                });
+            }
+        }
+
+        void stop() throws InterruptedException {
+            running = false;
+            executor.shutdown();
+            assertThat(executor.awaitTermination(30, TimeUnit.SECONDS)).isTrue();
+            assertThat(failure.get()).isNull();
+        }
+
+        /**
+         * Pays out of a random account to all others in its currency, every payout paid is acknowledged on its own
+         */
+        private static void payout(
+                Ledger ledger, List<String> accounts, Map<UUID, Operation> acknowledged, Random random) {
+            var payerIndex = random.nextInt(accounts.size());
+            var payer = accounts.get(payerIndex);
+            var items = new ArrayList<PayoutItem>();
+            // accounts are created in currencies taken in turn
+            for (int i = payerIndex % CURRENCIES.size(); i < accounts.size(); i += CURRENCIES.size()) {
+                if (i != payerIndex) {
+                    items.add(new PayoutItem(
+                            UUID.randomUUID(), accounts.get(i), BigDecimal.valueOf(1 + random.nextInt(1_000), 2), "torture"
+                    ));
+                }
+            }
+            var results = ledger.transferService.payout(new PayoutRequest(payer, items), OWNER).collectList().block();
+            for (var result : Objects.requireNonNull(results)) {
+                if (result.getStatus() == 200) {
+                    var item = items.stream()
+                            .filter(payout -> payout.getTxnUUID().equals(result.getTxnUUID()))
+                            .findFirst()
+                            .orElseThrow();
+                    var request = new PayoutRequest(payer, List.of(item));
+                    acknowledged.put(item.getTxnUUID(), (transferService, txnUUID) ->
+                            transferService.payout(request, OWNER).next().map(BatchTransferResult::getResult));
+                }
+            }
+        }
+
+        private static Operation randomOperation(List<String> accounts, List<String> correspondents, Random random) {
+            var accountNumber = accounts.get(random.nextInt(accounts.size()));
+            var amount = BigDecimal.valueOf(1 + random.nextInt(10_000), 2);
+            var currencyCode = CURRENCIES.get(random.nextInt(CURRENCIES.size()));
+            switch (random.nextInt(4)) {
+                case 0: {
+                    var request = new DepositRequest(accountNumber, amount, currencyCode, "torture");
+                    return (transferService, txnUUID) -> transferService.deposit(request, OWNER, txnUUID);
+                }
+                case 1: {
+                    var request = new WithdrawalRequest(accountNumber, amount, currencyCode, "torture");
+                    return (transferService, txnUUID) -> transferService.withdraw(request, OWNER, txnUUID);
+                }
+                case 2: {
+                    var receiver = accounts.get(random.nextInt(accounts.size()));
+                    var request = new TransferRequest(accountNumber, receiver, amount, "torture");
+                    return (transferService, txnUUID) -> transferService.transfer(request, OWNER, txnUUID);
+                }
+                default: {
+                    var receiver = correspondents.get(random.nextInt(correspondents.size()));
+                    var request = new TransferRequest(accountNumber, receiver, amount, "torture");
+                    return (transferService, txnUUID) -> transferService.internationalTransfer(request, OWNER, txnUUID);
+                }
+            }
+        }
+    }
+
+    @Test
+    void crashesDuringConcurrentWorkload() throws Exception {
+        torture(false);
+    }
+
+    @Test
+    void crashesDuringConcurrentPayoutsAndTransfers() throws Exception {
+        torture(true);
+    }
+
+    private void torture(boolean payouts) throws Exception {
+        var rounds = Integer.getInteger("torture.rounds", 5);
+        var seed = Long.getLong("torture.seed", System.nanoTime());
+        var random = new Random(seed);
+        System.out.printf("crash-recovery torture: payouts=%b, rounds=%d, seed=%d%n", payouts, rounds, seed);
+
+        var ledger = new Ledger(dir.resolve("run-0"));
+        ledger.start();
+        var accounts = new ArrayList<String>();
+        for (int i = 0; i < 24; i++) {
+            accounts.add(ledger.createAccount(CURRENCIES.get(i % CURRENCIES.size()), BigDecimal.valueOf(10_000))
+                    .getAccountNumber());
+        }
+        var correspondents = new ArrayList<String>();
+        // balances accounts are created with, txns are posted on top of them
+        var initialBalances = new HashMap<String, BigDecimal>();
+        ledger.accountRepo.forEachAccount((account, archived) -> {
+            initialBalances.put(account.getAccountNumber(), account.getBalance());
+            if (account.getType() == AccountType.CORRESPONDENT) {
+                correspondents.add(account.getAccountNumber());
+            }
+        });
+
+        var acknowledged = new ConcurrentHashMap<UUID, Operation>();
+        long totalRecoveryMs = 0, maxRecoveryMs = 0;
+        try {
+            for (int round = 1; round <= rounds; round++) {
+                var workload = new Workload(ledger, accounts, correspondents, acknowledged, payouts, random.nextLong());
+                Thread.sleep(50 + random.nextInt(200));
+                if (random.nextBoolean()) {
+                    // so the crash may come right after a snapshot & truncation of the journal it covers
+                    assertThat(ledger.snapshotter.snapshot()).isTrue();
+                    Thread.sleep(random.nextInt(50));
+                }
+
+                // crash: files are taken as they are while writes go on, only what's acknowledged by now must survive
+                var survivors = Map.copyOf(acknowledged);
+                var durableLsn = ledger.journal.getDurableLsn();
+                var image = dir.resolve("run-" + round);
+                copy(ledger.dir.resolve("snapshots"), image.resolve("snapshots"));
+                copy(ledger.dir.resolve("journal"), image.resolve("journal"));
+                workload.stop();
+                ledger.close();
+                if (random.nextBoolean()) {
+                    tearJournalTail(image.resolve("journal"), durableLsn, random);
+                }
+
+                ledger = new Ledger(image);
+                var recoveryMs = ledger.start();
+                totalRecoveryMs += recoveryMs;
+                maxRecoveryMs = Math.max(maxRecoveryMs, recoveryMs);
+                System.out.printf(
+                        "round %d: acknowledged=%d, txnGroups=%d, recovered in %d ms%n",
+                        round, survivors.size(), ledger.txnGroupRepo.getNextId(), recoveryMs
+                );
+
+                assertConsistent(ledger, initialBalances, survivors);
+                acknowledged.clear();
+                acknowledged.putAll(survivors);
+            }
+        } finally {
+            ledger.close();
+        }
+        System.out.printf("recovery time: avg %d ms, max %d ms%n", totalRecoveryMs / rounds, maxRecoveryMs);
+    }
+
+    private static void assertConsistent(
+            Ledger ledger, Map<String, BigDecimal> initialBalances, Map<UUID, Operation> acknowledged) {
+        for (var txnUUID : acknowledged.keySet()) {
+            assertThat(ledger.txnGroupRepo.findByUUID(txnUUID).block()).as("acknowledged txn %s", txnUUID).isNotNull();
+        }
+
+        var postedByAccount = new HashMap<Long, BigDecimal>();
+        var postedGroups = new HashSet<Long>();
+        ledger.txnRepo.forEachTxn(txn -> {
+            postedByAccount.merge(txn.getAccountId(), txn.getAmount(), BigDecimal::add);
+            postedGroups.add(txn.getTxnGroupId());
+        });
+        var groups = new HashSet<Long>();
+        ledger.txnGroupRepo.forEachTxnGroup(group -> groups.add(group.getId()));
+        assertThat(postedGroups).as("every txn group is posted with its txns").isEqualTo(groups);
+
+        var expectedByCurrency = new HashMap<String, BigDecimal>();
+        var actualByCurrency = new HashMap<String, BigDecimal>();
+        var accountIds = new HashSet<Long>();
+        ledger.accountRepo.forEachAccount((account, archived) -> {
+            var initial = initialBalances.get(account.getAccountNumber());
+            assertThat(initial).as("account %s", account.getAccountNumber()).isNotNull();
+            var expected = initial.add(postedByAccount.getOrDefault(account.getId(), BigDecimal.ZERO));
+            assertThat(account.getBalance()).as("balance of %s", account.getAccountNumber())
+                    .isEqualByComparingTo(expected);
+            expectedByCurrency.merge(account.getCurrencyCode(), expected, BigDecimal::add);
+            actualByCurrency.merge(account.getCurrencyCode(), account.getBalance(), BigDecimal::add);
+            accountIds.add(account.getId());
+        });
+        assertThat(accountIds).containsAll(postedByAccount.keySet());
+        assertThat(actualByCurrency.keySet()).isEqualTo(expectedByCurrency.keySet());
+        expectedByCurrency.forEach((currencyCode, expected) ->
+                assertThat(actualByCurrency.get(currencyCode)).as("total in %s", currencyCode)
+                        .isEqualByComparingTo(expected)
+        );
+
+        // retries of acknowledged txns are answered by the recovered ledger without posting anything again
+        var nextGroupId = ledger.txnGroupRepo.getNextId();
+        acknowledged.entrySet().stream().limit(50).forEach(entry ->
+                assertThat(entry.getValue().submit(ledger.transferService, entry.getKey()).block()).isNotNull()
+        );
+        assertThat(ledger.txnGroupRepo.getNextId()).isEqualTo(nextGroupId);
+    }
+
+    /**
+     * Cuts the last journal segment at a random point after the records durable at crash, or garbles a byte there:
+     * what a power loss leaves of a batch which wasn't forced yet
+     */
+    private static void tearJournalTail(Path journalDir, long durableLsn, Random random) throws IOException {
+        var segments = JournalSegments.list(journalDir);
+        if (segments.isEmpty()) {
+            return;
+        }
+        var last = segments.get(segments.size() - 1);
+        long durableLength = 0;
+        try (var reader = new JournalReader(last)) {
+            JournalRecord record;
+            while ((record = reader.next()) != null && record.getLsn() <= durableLsn) {
+                durableLength = reader.getValidLength();
+            }
+        }
+        try (var channel = FileChannel.open(last, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            var size = channel.size();
+            if (size <= durableLength) {
+                return;
+            }
+            var position = durableLength + (long) (random.nextDouble() * (size - durableLength));
+            if (random.nextBoolean()) {
+                channel.truncate(position);
+            } else {
+                var garbled = ByteBuffer.allocate(1);
+                channel.read(garbled, position);
+                garbled.put(0, (byte) (garbled.get(0) ^ (1 + random.nextInt(255))));
+                channel.write(garbled.flip(), position);
+            }
+        }
+    }
+
+    private static void copy(Path source, Path target) throws IOException {
+        Files.createDirectories(target);
+        if (!Files.exists(source)) {
+            return;
+        }
+        try (var paths = Files.walk(source)) {
+            for (var path : (Iterable<Path>) paths::iterator) {
+                var copied = target.resolve(source.relativize(path).toString());
+                if (Files.isDirectory(path)) {
+                    Files.createDirectories(copied);
+                } else {
+                    Files.copy(path, copied);
+                }
+            }
+        }
+    }
+}
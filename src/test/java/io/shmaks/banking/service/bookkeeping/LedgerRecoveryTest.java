@@ -0,0 +1,200 @@
+package io.shmaks.banking.service.bookkeeping;
+
+import io.shmaks.banking.config.SampleAppStorageProps;
+import io.shmaks.banking.model.Account;
+import io.shmaks.banking.model.AccountType;
+import io.shmaks.banking.model.Txn;
+import io.shmaks.banking.model.TxnGroup;
+import io.shmaks.banking.model.TxnSpendingType;
+import io.shmaks.banking.model.TxnStatus;
+import io.shmaks.banking.model.TxnType;
+import io.shmaks.banking.repo.AccountRepo;
+import io.shmaks.banking.repo.InMemoryAccountRepo;
+import io.shmaks.banking.repo.InMemoryTxnGroupRepo;
+import io.shmaks.banking.repo.InMemoryTxnRepo;
+import io.shmaks.banking.repo.index.AccountStateTree;
+import io.shmaks.banking.repo.journal.FileJournal;
+import io.shmaks.banking.repo.journal.JournalRecord;
+import io.shmaks.banking.repo.journal.JournalWriter;
+import io.shmaks.banking.repo.snapshot.SnapshotStore;
+import io.shmaks.banking.repo.snapshot.WriteEpochs;
+import io.shmaks.banking.service.SimpleAccountNumberGenerator;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.math.BigDecimal;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class LedgerRecoveryTest {
+
+    private static final int PARTITIONS = 4;
+
+    @TempDir
+    Path dir;
+
+    private static class Ledger implements AutoCloseable {
+        final InMemoryAccountRepo accountRepo = new InMemoryAccountRepo();
+        final InMemoryTxnGroupRepo txnGroupRepo = new InMemoryTxnGroupRepo();
+        final InMemoryTxnRepo txnRepo = new InMemoryTxnRepo();
+        final SimpleAccountNumberGenerator numberGenerator = new SimpleAccountNumberGenerator();
+        final SnapshotStore snapshotStore;
+        final FileJournal journal;
+        final LedgerSnapshotter snapshotter;
+        final LedgerRecovery recovery;
+
+        Ledger(Path dir) throws Exception {
+            snapshotStore = new SnapshotStore(dir.resolve("snapshots"), PARTITIONS);
+            journal = new FileJournal(new JournalWriter(dir.resolve("journal"), 64, Duration.ZERO, 8192));
+            snapshotter = new LedgerSnapshotter(
+                    accountRepo, txnGroupRepo, txnRepo, journal, new WriteEpochs(), snapshotStore,
+                    new SampleAppStorageProps.Snapshot(true, null, null, PARTITIONS, 1, null)
+            );
+            recovery = new LedgerRecovery(
+                    accountRepo, txnGroupRepo, txnRepo, numberGenerator, snapshotStore, dir.resolve("journal"), PARTITIONS
+            );
+        }
+
+        Account createAccount(BigDecimal balance, boolean journaled) {
+            var account = new Account();
+            account.setOwnerId("owner");
+            account.setAccountNumber(numberGenerator.nextNumber());
+            account.setType(AccountType.USER);
+            account.setCurrencyCode("USD");
+            account.setDisplayedName("account");
+            account.setBalance(balance);
+            accountRepo.create(account).block();
+            if (journaled) {
+                journal.append(JournalRecord.accountCreated(account, balance)).block();
+            }
+            return account;
+        }
+
+        void transfer(Account payer, Account receiver, BigDecimal amount) {
+            var group = new TxnGroup();
+            group.setTxnUUID(UUID.randomUUID());
+            group.setType(TxnType.TRANSFER);
+            group.setAmount(amount);
+            group.setCurrencyCode("USD");
+            group.setPayerAccountNumber(payer.getAccountNumber());
+            group.setReceiverAccountNumber(receiver.getAccountNumber());
+            txnGroupRepo.merge(group).block();
+            var debit = txn(group, payer, amount.negate());
+            var credit = txn(group, receiver, amount);
+            txnRepo.link(debit, credit).block();
+            journal.append(JournalRecord.txnGroup(group, List.of(debit, credit))).block();
+        }
+
+        private Txn txn(TxnGroup group, Account account, BigDecimal amount) {
+            var txn = new Txn();
+            txn.setTxnGroupId(group.getId());
+            txn.setAccountId(account.getId());
+            txn.setAmount(amount);
+            txn.setStatus(TxnStatus.SUCCESS);
+            txn.setSpendingType(TxnSpendingType.TRANSFER);
+            txn = Objects.requireNonNull(txnRepo.create(txn).block());
+            accountRepo.updateBalances(AccountRepo.BalanceUpdate.of(List.of(txn))).block();
+            return txn;
+        }
+
+        @Override
+        public void close() throws Exception {
+            journal.close();
+        }
+    }
+
+    @Test
+    void snapshotAndJournalTail() throws Exception {
+        var accounts = new ArrayList<Account>();
+        Account deleted;
+        long accountNextId, txnNextId;
+        String lastNumber;
+        long[] stateHashes;
+        try (var ledger = new Ledger(dir)) {
+            for (int i = 0; i < 40; i++) {
+                accounts.add(ledger.createAccount(BigDecimal.valueOf(1000), true));
+            }
+            for (int i = 0; i < 200; i++) {
+                ledger.transfer(accounts.get(i % 40), accounts.get((i * 7 + 1) % 40), BigDecimal.valueOf(i % 13 + 1));
+            }
+            assertThat(ledger.snapshotter.snapshot()).isTrue();
+
+            // journal tail after the snapshot, including a new account
+            accounts.add(ledger.createAccount(BigDecimal.valueOf(50), true));
+            for (int i = 0; i < 100; i++) {
+                ledger.transfer(accounts.get((i * 3) % 41), accounts.get((i * 5 + 2) % 41), BigDecimal.valueOf(i % 7 + 1));
+            }
+            deleted = accounts.get(3);
+            ledger.accountRepo.deleteByIdAndOwnerId(deleted.getId(), "owner").block();
+            ledger.journal.append(JournalRecord.accountDeleted(deleted.getId(), deleted.getDeletedAt())).block();
+
+            accountNextId = ledger.accountRepo.getNextId();
+            txnNextId = ledger.txnRepo.getNextId();
+            lastNumber = accounts.get(40).getAccountNumber();
+            stateHashes = ledger.accountRepo.getStateTree().snapshot();
+        }
+
+        try (var ledger = new Ledger(dir)) {
+            ledger.recovery.recover();
+
+            var total = BigDecimal.ZERO;
+            for (var account : accounts) {
+                var recovered = ledger.accountRepo.findById(account.getId()).block();
+                assertThat(recovered).isNotNull();
+                assertThat(recovered.getBalance()).isEqualByComparingTo(account.getBalance());
+                assertThat(recovered.getLastTxnId()).isEqualTo(account.getLastTxnId());
+                total = total.add(recovered.getBalance());
+            }
+            assertThat(total).isEqualByComparingTo(BigDecimal.valueOf(40 * 1000 + 50));
+            assertThat(ledger.accountRepo.findById(deleted.getId()).block().getDeletedAt()).isEqualTo(deleted.getDeletedAt());
+            assertThat(ledger.txnRepo.findAllByTxnGroupId(424242L).block()).hasSize(2);
+            assertThat(ledger.accountRepo.getNextId()).isEqualTo(accountNextId);
+            assertThat(ledger.txnRepo.getNextId()).isEqualTo(txnNextId);
+            assertThat(Long.parseLong(ledger.numberGenerator.nextNumber())).isGreaterThan(Long.parseLong(lastNumber));
+            assertThat(AccountStateTree.divergentBuckets(stateHashes, ledger.accountRepo.getStateTree().snapshot())).isEmpty();
+
+            // replaying again over recovered state changes nothing
+            ledger.recovery.recover();
+            for (var account : accounts) {
+                assertThat(ledger.accountRepo.findById(account.getId()).block().getBalance())
+                        .isEqualByComparingTo(account.getBalance());
+            }
+            assertThat(ledger.accountRepo.getStateTree().rootHash()).isEqualTo(stateHashes[1]);
+        }
+    }
+
+    /**
+     * Restart time of a big ledger, run with {@code ./gradlew test -Dbenchmark=true -Dbenchmark.accounts=10000000}
+     */
+    @Test
+    @EnabledIfSystemProperty(named = "benchmark", matches = "true")
+    void restartBenchmark() throws Exception {
+        var count = Integer.getInteger("benchmark.accounts", 10_000_000);
+        try (var ledger = new Ledger(dir)) {
+            var startedAt = System.nanoTime();
+            for (int i = 0; i < count; i++) {
+                ledger.createAccount(BigDecimal.valueOf(1000), false);
+            }
+            System.out.printf("created %d accounts in %d ms%n", count, (System.nanoTime() - startedAt) / 1_000_000);
+
+            startedAt = System.nanoTime();
+            assertThat(ledger.snapshotter.snapshot()).isTrue();
+            System.out.printf("snapshot taken in %d ms%n", (System.nanoTime() - startedAt) / 1_000_000);
+        }
+        System.gc();
+
+        try (var ledger = new Ledger(dir)) {
+            var startedAt = System.nanoTime();
+            ledger.recovery.recover();
+            System.out.printf("recovered in %d ms%n", (System.nanoTime() - startedAt) / 1_000_000);
+            assertThat(ledger.accountRepo.getAccounts()).hasSize(count);
+        }
+    }
+}
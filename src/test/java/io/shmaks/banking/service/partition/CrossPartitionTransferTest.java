@@ -0,0 +1,203 @@
+package io.shmaks.banking.service.partition;
+
+import io.shmaks.banking.config.SampleAppExtProps;
+import io.shmaks.banking.config.SampleAppStorageProps;
+import io.shmaks.banking.ext.MockCurrencyService;
+import io.shmaks.banking.ext.MockFeeService;
+import io.shmaks.banking.model.Account;
+import io.shmaks.banking.model.AccountType;
+import io.shmaks.banking.repo.InMemoryAccountRepo;
+import io.shmaks.banking.repo.InMemoryTxnGroupRepo;
+import io.shmaks.banking.repo.InMemoryTxnRepo;
+import io.shmaks.banking.repo.journal.NoOpJournal;
+import io.shmaks.banking.repo.outbox.InMemoryOutbox;
+import io.shmaks.banking.repo.snapshot.WriteEpochs;
+import io.shmaks.banking.service.BusinessLogicError;
+import io.shmaks.banking.service.RetryLaterException;
+import io.shmaks.banking.service.SimpleAccountNumberGenerator;
+import io.shmaks.banking.service.TransferService;
+import io.shmaks.banking.service.bookkeeping.OrgAccountsBootstrapper;
+import io.shmaks.banking.service.dto.AccountResponse;
+import io.shmaks.banking.service.dto.CreditRequest;
+import io.shmaks.banking.service.dto.TransferRequest;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Mono;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class CrossPartitionTransferTest {
+
+    /**
+     * A node of the cluster, requests to the other node are served by it in-process
+     */
+    private static class Node {
+        final PartitionMap partitionMap;
+        final InMemoryAccountRepo accountRepo = new InMemoryAccountRepo();
+        final InMemoryTxnGroupRepo txnGroupRepo = new InMemoryTxnGroupRepo();
+        final InMemoryTxnRepo txnRepo = new InMemoryTxnRepo();
+        final PartitionedAccountNumberGenerator numberGenerator;
+        final TransferService transferService;
+        final PendingTransfersResolver resolver;
+
+        Node other;
+        volatile boolean available = true;
+        volatile boolean rejecting;
+
+        Node(int nodeId) {
+            var props = new SampleAppStorageProps.Partitioning(
+                    true, nodeId, List.of(new SampleAppStorageProps.Node(1, null), new SampleAppStorageProps.Node(2, null)),
+                    null, null, null, null
+            );
+            partitionMap = new PartitionMap(props);
+            accountRepo.advanceNextId(partitionMap.firstAccountId());
+            numberGenerator = new PartitionedAccountNumberGenerator(new SimpleAccountNumberGenerator(), partitionMap);
+
+            var currencyService = new MockCurrencyService(SampleAppExtProps.DEFAULT);
+            new OrgAccountsBootstrapper(currencyService, numberGenerator, accountRepo, new NoOpJournal()).bootstrap();
+
+            var client = new PartitionClient(partitionMap, WebClient.builder(), props, "reportingApp", "BANKING_ADMIN") {
+                @Override
+                public Mono<AccountResponse> findAccount(String accountNumber) {
+                    return other.accountRepo.findByAccountNumber(accountNumber)
+                            .filter(account -> account.getType() == AccountType.USER)
+                            .map(AccountResponse::new);
+                }
+
+                @Override
+                public Mono<Void> credit(UUID txnUUID, CreditRequest request) {
+                    if (!other.available) {
+                        return Mono.error(new RetryLaterException());
+                    }
+                    if (other.rejecting) {
+                        return Mono.error(new BusinessLogicError("rejected by node " + other.partitionMap.getNodeId()));
+                    }
+                    return other.transferService.credit(request, txnUUID);
+                }
+            };
+            transferService = new TransferService(
+                    txnGroupRepo, txnRepo, accountRepo, currencyService, new MockFeeService(), new NoOpJournal(),
+                    new InMemoryOutbox(100), new WriteEpochs(), client
+            );
+            resolver = new PendingTransfersResolver(transferService, txnGroupRepo, partitionMap, props);
+        }
+
+        Account createAccount(String currencyCode, long balance) {
+            var account = new Account();
+            account.setOwnerId("shmaks");
+            account.setBalance(BigDecimal.valueOf(balance));
+            account.setCurrencyCode(currencyCode);
+            account.setAccountNumber(numberGenerator.nextNumber());
+            account.setType(AccountType.USER);
+            account.setDisplayedName("test");
+            account.setCreatedAt(Instant.now());
+            return accountRepo.create(account).block();
+        }
+
+        BigDecimal balanceOf(Account account) {
+            return accountRepo.findByAccountNumber(account.getAccountNumber()).block().getBalance();
+        }
+    }
+
+    private Node first;
+    private Node second;
+
+    @BeforeEach
+    void setUp() {
+        first = new Node(1);
+        second = new Node(2);
+        first.other = second;
+        second.other = first;
+    }
+
+    @Test
+    void accountsAreCreatedOnTheirOwnNode() {
+        var account = second.createAccount("USD", 0);
+
+        assertThat(first.partitionMap.ownerOf(account.getAccountNumber())).isEqualTo(2);
+        assertThat(first.partitionMap.ownerOfAccountId(account.getId())).isEqualTo(2);
+        assertThat(first.partitionMap.ownerOfAccountId(100500)).isZero();
+    }
+
+    @Test
+    void transferIsReservedByPayerNodeAndCreditedByReceiverOne() {
+        var payer = first.createAccount("USD", 100);
+        var receiver = second.createAccount("USD", 0);
+        var txnUUID = UUID.randomUUID();
+        var request = new TransferRequest(payer.getAccountNumber(), receiver.getAccountNumber(), BigDecimal.valueOf(40), "rent");
+
+        var result = first.transferService.transfer(request, "shmaks", txnUUID).block();
+        var retried = first.transferService.transfer(request, "shmaks", txnUUID).block();
+
+        assertThat(result).isEqualTo(retried);
+        assertThat(result.getAmount()).isEqualByComparingTo("-40");
+        assertThat(first.balanceOf(payer)).isEqualByComparingTo("60");
+        assertThat(second.balanceOf(receiver)).isEqualByComparingTo("40");
+        assertThat(first.transferService.getPendingCredits()).isEmpty();
+    }
+
+    @Test
+    void amountIsExchangedByPayerNode() {
+        var payer = first.createAccount("EUR", 100);
+        var receiver = second.createAccount("USD", 0);
+        var request = new TransferRequest(payer.getAccountNumber(), receiver.getAccountNumber(), BigDecimal.valueOf(10), null);
+
+        first.transferService.transfer(request, "shmaks", UUID.randomUUID()).block();
+
+        assertThat(first.balanceOf(payer)).isEqualByComparingTo("90");
+        assertThat(second.balanceOf(receiver)).isPositive().isLessThanOrEqualTo(BigDecimal.valueOf(11));
+    }
+
+    @Test
+    void rejectedCreditIsReversed() {
+        var payer = first.createAccount("USD", 100);
+        var receiver = second.createAccount("USD", 0);
+        var txnUUID = UUID.randomUUID();
+        var request = new TransferRequest(payer.getAccountNumber(), receiver.getAccountNumber(), BigDecimal.valueOf(40), null);
+        second.rejecting = true;
+
+        assertThatThrownBy(() -> first.transferService.transfer(request, "shmaks", txnUUID).block())
+                .isInstanceOf(BusinessLogicError.class)
+                .hasMessageContaining("rejected");
+        second.rejecting = false;
+        assertThatThrownBy(() -> first.transferService.transfer(request, "shmaks", txnUUID).block())
+                .isInstanceOf(BusinessLogicError.class)
+                .hasMessageContaining("cancelled");
+
+        assertThat(first.balanceOf(payer)).isEqualByComparingTo("100");
+        assertThat(second.balanceOf(receiver)).isEqualByComparingTo("0");
+        assertThat(first.transferService.getPendingCredits()).isEmpty();
+    }
+
+    @Test
+    void transferReservedWhileReceiverNodeIsDownIsCompletedLater() {
+        var payer = first.createAccount("USD", 100);
+        var receiver = second.createAccount("USD", 0);
+        var txnUUID = UUID.randomUUID();
+        var request = new TransferRequest(payer.getAccountNumber(), receiver.getAccountNumber(), BigDecimal.valueOf(40), null);
+        second.available = false;
+
+        assertThatThrownBy(() -> first.transferService.transfer(request, "shmaks", txnUUID).block())
+                .isInstanceOf(RetryLaterException.class);
+        assertThat(first.balanceOf(payer)).isEqualByComparingTo("60");
+        assertThat(first.transferService.getPendingCredits()).containsExactly(txnUUID);
+        assertThat(first.resolver.resolve()).isZero();
+
+        second.available = true;
+        assertThat(first.resolver.resolve()).isEqualTo(1);
+        // credit is idempotent, the transfer recovered after restart is retried with no effect
+        first.transferService.addPendingCredit(txnUUID);
+        assertThat(first.resolver.resolve()).isEqualTo(1);
+
+        assertThat(second.balanceOf(receiver)).isEqualByComparingTo("40");
+        assertThat(first.transferService.getPendingCredits()).isEmpty();
+    }
+}
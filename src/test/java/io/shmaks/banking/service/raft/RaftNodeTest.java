@@ -0,0 +1,334 @@
+package io.shmaks.banking.service.raft;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.shmaks.banking.SampleBankingApp;
+import io.shmaks.banking.config.SampleAppStorageProps;
+import io.shmaks.banking.repo.raft.RaftLog;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class RaftNodeTest {
+
+    private static class RecordingStateMachine implements RaftStateMachine {
+        final Map<Long, String> applied = new ConcurrentSkipListMap<>();
+        final Map<Long, Boolean> skipped = new ConcurrentSkipListMap<>();
+
+        @Override
+        public void apply(long index, ByteBuffer payload) {
+            applied.put(index, StandardCharsets.UTF_8.decode(payload).toString());
+        }
+
+        @Override
+        public void skip(long index) {
+            skipped.put(index, true);
+        }
+
+        @Override
+        public void reset() {
+            applied.clear();
+            skipped.clear();
+        }
+    }
+
+    private static final String OWNER = "shmaks";
+
+    @TempDir
+    Path dir;
+
+    private final List<SampleAppStorageProps.Member> members = new ArrayList<>();
+    private final RaftNode[] nodes = new RaftNode[3];
+    private final RaftLog[] logs = new RaftLog[3];
+    private final RecordingStateMachine[] stateMachines = new RecordingStateMachine[3];
+
+    @AfterEach
+    void tearDown() throws Exception {
+        for (int i = 0; i < nodes.length; i++) {
+            stop(i);
+        }
+    }
+
+    @Test
+    void leaderReplicatesCommittedEntries() throws Exception {
+        startCluster();
+        var leader = awaitLeader();
+
+        var proposed = propose(leader, "a", 200);
+
+        var lastIndex = logs[leader].getLastIndex();
+        awaitUntil(() -> Arrays.stream(nodes).allMatch(node -> node.getAppliedIndex() >= lastIndex));
+        for (int i = 0; i < nodes.length; i++) {
+            if (i != leader) {
+                // followers apply entries of the leader in the order of its log
+                assertThat(List.copyOf(stateMachines[i].applied.values())).isEqualTo(proposedInLogOrder(leader));
+                assertThat(stateMachines[i].applied.values()).containsExactlyInAnyOrderElementsOf(proposed);
+            }
+        }
+        // leader executed its writes already, they aren't applied again
+        assertThat(stateMachines[leader].applied).isEmpty();
+        assertThat(stateMachines[leader].skipped).hasSize((int) lastIndex); // with no-op entries of new leaders
+        assertThat(nodes[leader].getCommitIndex()).isEqualTo(logs[leader].getLastIndex());
+    }
+
+    @Test
+    void newLeaderIsElectedAndStoppedNodeCatchesUp() throws Exception {
+        startCluster();
+        var oldLeader = awaitLeader();
+        var committed = new ArrayList<>(propose(oldLeader, "before", 50));
+
+        stop(oldLeader);
+        var newLeader = awaitLeader();
+        assertThat(newLeader).isNotEqualTo(oldLeader);
+        assertThat(nodes[newLeader].getCurrentTerm()).isGreaterThan(logs[oldLeader].getCurrentTerm());
+        committed.addAll(propose(newLeader, "after", 50));
+
+        start(oldLeader);
+        awaitUntil(() -> stateMachines[oldLeader].applied.size() == committed.size());
+        assertThat(stateMachines[oldLeader].applied.values()).containsExactlyInAnyOrderElementsOf(committed);
+        assertThat(nodes[oldLeader].getRole()).isEqualTo(RaftNode.Role.FOLLOWER);
+        assertThat(nodes[oldLeader].getLeaderId()).isEqualTo(awaitLeader() + 1);
+        assertThat(logs[oldLeader].getLastTerm()).isEqualTo(logs[newLeader].getLastTerm());
+    }
+
+    @Test
+    void followerRejectsProposals() throws Exception {
+        startCluster();
+        var leader = awaitLeader();
+        var follower = (leader + 1) % nodes.length;
+
+        var rejected = nodes[follower].propose(ByteBuffer.wrap("x".getBytes(StandardCharsets.UTF_8)));
+
+        assertThat(rejected).failsWithin(Duration.ofSeconds(5));
+        assertThat(nodes[follower].isWritable()).isFalse();
+        assertThat(nodes[follower].getLeaderUrl()).isEqualTo(members.get(leader).getUrl());
+    }
+
+    /**
+     * Transfers through the leader of three app processes, run with
+     * {@code ./gradlew test --tests '*RaftNodeTest' -Dbenchmark=true}
+     */
+    @Test
+    @EnabledIfSystemProperty(named = "benchmark", matches = "true")
+    void clusterTransferBenchmark() throws Exception {
+        var accounts = Integer.getInteger("benchmark.accounts", 1_000);
+        var transfers = Integer.getInteger("benchmark.transfers", 50_000);
+        var concurrency = Integer.getInteger("benchmark.concurrency", 64);
+
+        var processes = new ArrayList<Process>();
+        try {
+            for (int id = 1; id <= 3; id++) {
+                processes.add(new ProcessBuilder(
+                        ProcessHandle.current().info().command().orElse("java"),
+                        "-cp", System.getProperty("java.class.path"),
+                        SampleBankingApp.class.getName(),
+                        "--server.port=" + (8080 + id),
+                        "--sample-banking-app.storage.raft.enabled=true",
+                        "--sample-banking-app.storage.raft.node-id=" + id,
+                        "--sample-banking-app.storage.raft.dir=" + dir.resolve("raft")
+                ).redirectErrorStream(true).redirectOutput(dir.resolve("node-" + id + ".log").toFile()).start());
+            }
+            var client = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(2)).build();
+            var mapper = new ObjectMapper();
+
+            String leaderUrl = null;
+            for (int i = 0; i < accounts; i++) {
+                var created = awaitResponse(client, "http://localhost:8081/accounts", OWNER,
+                        "{\"initialBalance\":1000000,\"currencyCode\":\"USD\"}", true);
+                assertThat(created.statusCode()).isEqualTo(201);
+                leaderUrl = created.uri().resolve("/accounts").toString();
+            }
+            var numbers = new ArrayList<String>(accounts);
+            String after = "";
+            while (numbers.size() < accounts) {
+                var listed = send(client, leaderUrl + "?count=20&after=" + after, OWNER, null, false);
+                JsonNode page = mapper.readTree(listed.body());
+                assertThat(page.size()).isPositive();
+                page.forEach(account -> numbers.add(account.get("accountNumber").asText()));
+                after = numbers.get(numbers.size() - 1);
+            }
+
+            var latencies = new long[transfers];
+            var next = new AtomicLong();
+            var failed = new AtomicLong();
+            var startedAt = System.nanoTime();
+            var workers = IntStream.range(0, concurrency).mapToObj(w -> CompletableFuture.runAsync(() -> {
+                long i;
+                while ((i = next.getAndIncrement()) < transfers) {
+                    var random = ThreadLocalRandom.current();
+                    var payer = random.nextInt(accounts);
+                    var receiver = (payer + 1 + random.nextInt(accounts - 1)) % accounts;
+                    var body = "{\"payerAccountNumber\":\"" + numbers.get(payer) + "\",\"receiverAccountNumber\":\"" +
+                            numbers.get(receiver) + "\",\"amount\":1}";
+                    var requestStartedAt = System.nanoTime();
+                    try {
+                        var response = send(client, "http://localhost:8081/transfer/" + UUID.randomUUID(), OWNER, body, false);
+                        if (response.statusCode() != 200) {
+                            failed.incrementAndGet();
+                        }
+                    } catch (Exception e) {
+                        failed.incrementAndGet();
+                    }
+                    latencies[(int) i] = System.nanoTime() - requestStartedAt;
+                }
+            })).toArray(CompletableFuture[]::new);
+            CompletableFuture.allOf(workers).join();
+            var elapsedMs = (System.nanoTime() - startedAt) / 1_000_000;
+
+            Arrays.sort(latencies);
+            System.out.printf(
+                    "raft x3: %d transfers in %d ms, %d/s, p50 %.2f ms, p99 %.2f ms, failed %d%n",
+                    transfers, elapsedMs, transfers * 1000L / Math.max(elapsedMs, 1),
+                    latencies[transfers / 2] / 1e6, latencies[(int) (transfers * 0.99)] / 1e6, failed.get()
+            );
+        } finally {
+            processes.forEach(Process::destroy);
+            for (var process : processes) {
+                process.waitFor(10, TimeUnit.SECONDS);
+            }
+        }
+    }
+
+    /**
+     * Sends the request following redirects of followers, writes are sent to the same url again if there is no leader
+     */
+    private static HttpResponse<String> send(HttpClient client, String url, String owner, String body, boolean post)
+            throws IOException, InterruptedException {
+        var token = "Basic " + Base64.getEncoder().encodeToString(("benchmark:" + owner).getBytes(StandardCharsets.UTF_8));
+        var uri = URI.create(url);
+        while (true) {
+            var builder = HttpRequest.newBuilder(uri)
+                    .header("Authorization", token)
+                    .header("Content-Type", "application/json")
+                    .timeout(Duration.ofSeconds(10));
+            if (body == null) {
+                builder.GET();
+            } else if (post) {
+                builder.POST(HttpRequest.BodyPublishers.ofString(body));
+            } else {
+                builder.PUT(HttpRequest.BodyPublishers.ofString(body));
+            }
+            var response = client.send(builder.build(), HttpResponse.BodyHandlers.ofString());
+            if (response.statusCode() == 307) {
+                uri = URI.create(response.headers().firstValue("Location").orElseThrow());
+            } else if (response.statusCode() == 503) {
+                Thread.sleep(50);
+            } else {
+                return response;
+            }
+        }
+    }
+
+    private static HttpResponse<String> awaitResponse(HttpClient client, String url, String owner, String body, boolean post)
+            throws InterruptedException {
+        var deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(60);
+        while (true) {
+            try {
+                return send(client, url, owner, body, post);
+            } catch (IOException e) {
+                // the app isn't started yet
+                assertThat(System.nanoTime()).as("cluster isn't started in time").isLessThan(deadline);
+                Thread.sleep(200);
+            }
+        }
+    }
+
+    private void startCluster() throws IOException {
+        for (int i = 0; i < nodes.length; i++) {
+            members.add(new SampleAppStorageProps.Member(i + 1, "localhost", freePort(), "http://localhost:" + (9000 + i)));
+        }
+        for (int i = 0; i < nodes.length; i++) {
+            start(i);
+        }
+    }
+
+    private void start(int i) throws IOException {
+        var props = new SampleAppStorageProps.Raft(
+                true, i + 1, members, dir.toString(), Duration.ofMillis(300), Duration.ofMillis(50),
+                DataSize.ofKilobytes(4), 4, Duration.ofSeconds(1), Duration.ofSeconds(1)
+        );
+        logs[i] = new RaftLog(dir.resolve("node-" + (i + 1)));
+        stateMachines[i] = new RecordingStateMachine();
+        nodes[i] = new RaftNode(logs[i], stateMachines[i], props);
+        nodes[i].start();
+    }
+
+    private void stop(int i) throws Exception {
+        if (nodes[i] != null) {
+            nodes[i].stop();
+            logs[i].close();
+            nodes[i] = null;
+        }
+    }
+
+    private int awaitLeader() throws InterruptedException {
+        awaitUntil(() -> IntStream.range(0, nodes.length).anyMatch(i -> nodes[i] != null && nodes[i].isWritable()));
+        return IntStream.range(0, nodes.length)
+                .filter(i -> nodes[i] != null && nodes[i].isWritable())
+                .findFirst()
+                .orElseThrow();
+    }
+
+    private List<String> propose(int leader, String prefix, int count) {
+        var payloads = IntStream.range(0, count).mapToObj(i -> prefix + "-" + i).collect(Collectors.toList());
+        var futures = payloads.stream()
+                .map(payload -> nodes[leader].propose(ByteBuffer.wrap(payload.getBytes(StandardCharsets.UTF_8))))
+                .collect(Collectors.toList());
+        CompletableFuture.allOf(futures.toArray(CompletableFuture[]::new)).orTimeout(10, TimeUnit.SECONDS).join();
+        return payloads;
+    }
+
+    private List<String> proposedInLogOrder(int node) {
+        var result = new ArrayList<String>();
+        for (long index = 1; index <= logs[node].getLastIndex(); index++) {
+            var payload = logs[node].get(index).getPayload();
+            if (payload.hasRemaining()) {
+                result.add(StandardCharsets.UTF_8.decode(payload).toString());
+            }
+        }
+        return result;
+    }
+
+    private static int freePort() throws IOException {
+        try (var socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    private static void awaitUntil(BooleanSupplier condition) throws InterruptedException {
+        var deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (!condition.getAsBoolean()) {
+            assertThat(System.nanoTime()).as("condition isn't met in time").isLessThan(deadline);
+            Thread.sleep(20);
+        }
+    }
+}
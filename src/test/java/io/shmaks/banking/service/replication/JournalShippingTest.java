@@ -0,0 +1,170 @@
+package io.shmaks.banking.service.replication;
+
+import io.shmaks.banking.config.SampleAppStorageProps;
+import io.shmaks.banking.model.Account;
+import io.shmaks.banking.model.AccountType;
+import io.shmaks.banking.model.Txn;
+import io.shmaks.banking.model.TxnGroup;
+import io.shmaks.banking.model.TxnSpendingType;
+import io.shmaks.banking.model.TxnStatus;
+import io.shmaks.banking.model.TxnType;
+import io.shmaks.banking.repo.AccountRepo;
+import io.shmaks.banking.repo.InMemoryAccountRepo;
+import io.shmaks.banking.repo.InMemoryTxnGroupRepo;
+import io.shmaks.banking.repo.InMemoryTxnRepo;
+import io.shmaks.banking.repo.TieredTxnRepo;
+import io.shmaks.banking.repo.journal.FileJournal;
+import io.shmaks.banking.repo.journal.JournalRecord;
+import io.shmaks.banking.repo.journal.JournalWriter;
+import io.shmaks.banking.repo.outbox.InMemoryOutbox;
+import io.shmaks.banking.repo.tiering.TxnSegmentStore;
+import io.shmaks.banking.service.RetryLaterException;
+import io.shmaks.banking.service.SimpleAccountNumberGenerator;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.util.unit.DataSize;
+import reactor.test.StepVerifier;
+
+import java.math.BigDecimal;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class JournalShippingTest {
+
+    @TempDir
+    Path dir;
+
+    private final InMemoryAccountRepo accountRepo = new InMemoryAccountRepo();
+    private final InMemoryTxnGroupRepo txnGroupRepo = new InMemoryTxnGroupRepo();
+    private final InMemoryTxnRepo txnRepo = new InMemoryTxnRepo();
+    private final SimpleAccountNumberGenerator numberGenerator = new SimpleAccountNumberGenerator();
+    private final InMemoryAccountRepo replicaAccountRepo = new InMemoryAccountRepo();
+    private final InMemoryTxnRepo replicaTxnRepo = new InMemoryTxnRepo();
+
+    private FileJournal journal;
+    private JournalShipper shipper;
+    private ReplicaApplier applier;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        // small segments, so the shipper follows rolled ones
+        var writer = new JournalWriter(dir.resolve("journal"), 64, Duration.ZERO, 4096);
+        journal = new FileJournal(writer);
+        shipper = new JournalShipper(
+                writer, new SampleAppStorageProps.Primary(true, "localhost", 0, Duration.ofMillis(100), DataSize.ofKilobytes(1))
+        );
+        shipper.start();
+        applier = new ReplicaApplier(
+                replicaAccountRepo, new InMemoryTxnGroupRepo(), replicaTxnRepo,
+                new TieredTxnRepo(replicaTxnRepo, new TxnSegmentStore(dir.resolve("txns"), 100)),
+                new SimpleAccountNumberGenerator(), new InMemoryOutbox(100), Duration.ofSeconds(2)
+        );
+        applier.startFrom(0);
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        shipper.stop();
+        journal.close();
+    }
+
+    @Test
+    void replicaFollowsPrimary() throws Exception {
+        var accounts = new ArrayList<Account>();
+        for (int i = 0; i < 10; i++) {
+            accounts.add(createAccount(BigDecimal.valueOf(1000)));
+        }
+        for (int i = 0; i < 100; i++) {
+            transfer(accounts.get(i % 10), accounts.get((i * 3 + 1) % 10), BigDecimal.valueOf(i % 7 + 1));
+        }
+
+        var follower = follower();
+        follower.start();
+        var lastTxnId = transfer(accounts.get(0), accounts.get(1), BigDecimal.ONE);
+        StepVerifier.create(applier.await(lastTxnId)).verifyComplete();
+        follower.stop();
+        assertReplicated(accounts);
+        assertThat(applier.getLagRecords()).isZero();
+
+        // reconnects after the applied lsn, nothing is applied twice
+        for (int i = 0; i < 50; i++) {
+            transfer(accounts.get(i % 10), accounts.get((i * 7 + 3) % 10), BigDecimal.valueOf(i % 5 + 1));
+        }
+        lastTxnId = transfer(accounts.get(2), accounts.get(3), BigDecimal.TEN);
+        follower = follower();
+        follower.start();
+        StepVerifier.create(applier.await(lastTxnId)).verifyComplete();
+        follower.stop();
+        assertReplicated(accounts);
+
+        StepVerifier.create(applier.await(lastTxnId + 1000)).verifyError(RetryLaterException.class);
+    }
+
+    private JournalFollower follower() {
+        return new JournalFollower(applier, new SampleAppStorageProps.Replica(
+                true, "localhost", shipper.getPort(), Duration.ofSeconds(2), Duration.ofMillis(100), Duration.ofSeconds(2)
+        ));
+    }
+
+    private void assertReplicated(List<Account> accounts) {
+        var total = BigDecimal.ZERO;
+        for (var account : accounts) {
+            var replicated = replicaAccountRepo.findById(account.getId()).block();
+            assertThat(replicated).isNotNull();
+            assertThat(replicated.getBalance()).isEqualByComparingTo(account.getBalance());
+            assertThat(replicated.getLastTxnId()).isEqualTo(account.getLastTxnId());
+            total = total.add(replicated.getBalance());
+        }
+        assertThat(total).isEqualByComparingTo(BigDecimal.valueOf(accounts.size() * 1000L));
+        assertThat(replicaAccountRepo.getStateTree().rootHash()).isEqualTo(accountRepo.getStateTree().rootHash());
+    }
+
+    private Account createAccount(BigDecimal balance) {
+        var account = new Account();
+        account.setOwnerId("owner");
+        account.setAccountNumber(numberGenerator.nextNumber());
+        account.setType(AccountType.USER);
+        account.setCurrencyCode("USD");
+        account.setDisplayedName("account");
+        account.setBalance(balance);
+        accountRepo.create(account).block();
+        journal.append(JournalRecord.accountCreated(account, balance)).block();
+        return account;
+    }
+
+    private long transfer(Account payer, Account receiver, BigDecimal amount) {
+        var group = new TxnGroup();
+        group.setTxnUUID(UUID.randomUUID());
+        group.setType(TxnType.TRANSFER);
+        group.setAmount(amount);
+        group.setCurrencyCode("USD");
+        group.setPayerAccountNumber(payer.getAccountNumber());
+        group.setReceiverAccountNumber(receiver.getAccountNumber());
+        txnGroupRepo.merge(group).block();
+        var debit = txn(group, payer, amount.negate());
+        var credit = txn(group, receiver, amount);
+        txnRepo.link(debit, credit).block();
+        journal.append(JournalRecord.txnGroup(group, List.of(debit, credit))).block();
+        return credit.getId();
+    }
+
+    private Txn txn(TxnGroup group, Account account, BigDecimal amount) {
+        var txn = new Txn();
+        txn.setTxnGroupId(group.getId());
+        txn.setAccountId(account.getId());
+        txn.setAmount(amount);
+        txn.setStatus(TxnStatus.SUCCESS);
+        txn.setSpendingType(TxnSpendingType.TRANSFER);
+        txn = Objects.requireNonNull(txnRepo.create(txn).block());
+        accountRepo.updateBalances(AccountRepo.BalanceUpdate.of(List.of(txn))).block();
+        return txn;
+    }
+}